@@ -1699,6 +1699,40 @@ public LocatedFileStatus next() throws IOException {
     };
   }
 
+  /**
+   * Returns a remote iterator over the statuses of the files/directories in
+   * the given path, so that follow-up calls to the file system are made on
+   * demand while the entries are consumed, instead of materializing the whole
+   * listing up front.  Each file system implementation should override this
+   * method and provide a more efficient implementation, if possible.
+   *
+   * @param p target path
+   * @return an iterator that traverses statuses of the files/directories
+   *         in the given path
+   * @throws FileNotFoundException if <code>p</code> does not exist
+   * @throws IOException if any I/O error occurred
+   */
+  public RemoteIterator<FileStatus> listStatusIterator(final Path p)
+  throws FileNotFoundException, IOException {
+    return new RemoteIterator<FileStatus>() {
+      private final FileStatus[] stats = listStatus(p);
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i<stats.length;
+      }
+
+      @Override
+      public FileStatus next() throws IOException {
+        if (!hasNext()) {
+          throw new NoSuchElementException("No more entry in " + p);
+        }
+        return stats[i++];
+      }
+    };
+  }
+
   /**
    * List the statuses and block locations of the files in the given path.
    * 
@@ -25,6 +25,7 @@
 import java.net.InetSocketAddress;
 
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.client.ShortCircuitShm;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
@@ -179,18 +180,52 @@ private static BlockReaderLocal newShortCircuitBlockReader(
     final DataOutputStream out =
         new DataOutputStream(new BufferedOutputStream(
           peer.getOutputStream()));
-    new Sender(out).requestShortCircuitFds(block, blockToken, 1);
+    DomainSocket sock = peer.getDomainSocket();
+    // Ask for the shared memory slot of the replica, so that we can keep
+    // the file descriptors for as long as the replica stays valid.
+    final boolean shmSlotRequested =
+        conf.shortCircuitSharedMemory && (domSockFactory != null);
+    ShortCircuitShm shm =
+        shmSlotRequested ? domSockFactory.getShm(sock.getPath()) : null;
+    new Sender(out).requestShortCircuitFds(block, blockToken, 1,
+        shmSlotRequested, (shm == null) ? 0 : shm.getSegmentId());
     DataInputStream in =
         new DataInputStream(peer.getInputStream());
     BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
         PBHelper.vintPrefixed(in));
-    DomainSocket sock = peer.getDomainSocket();
     switch (resp.getStatus()) {
     case SUCCESS:
       BlockReaderLocal reader = null;
       byte buf[] = new byte[1];
-      FileInputStream fis[] = new FileInputStream[2];
-      sock.recvFileInputStreams(fis, buf, 0, buf.length);
+      // The DataNode sends the file descriptor of its shared memory segment
+      // after those of the block if we don't have the current segment.
+      final boolean newShm = resp.hasShmSegmentId() &&
+          ((shm == null) || (shm.getSegmentId() != resp.getShmSegmentId()));
+      FileInputStream received[] = new FileInputStream[newShm ? 3 : 2];
+      sock.recvFileInputStreams(received, buf, 0, buf.length);
+      FileInputStream fis[] = new FileInputStream[] {
+          received[0], received[1] };
+      ShortCircuitShm.Slot slot = null;
+      try {
+        if (resp.hasShmSegmentId()) {
+          if (newShm) {
+            shm = ShortCircuitShm.map(resp.getShmSegmentId(), received[2]);
+            domSockFactory.putShm(sock.getPath(), shm);
+          }
+          slot = shm.getSlot(resp.getShmSlotIndex(),
+              resp.getShmSlotGeneration());
+        }
+      } catch (IOException e) {
+        DFSClient.LOG.warn("unable to use the shared memory segment of " +
+            "DataNode " + datanodeID + " for " + file, e);
+      } finally {
+        if (newShm) {
+          IOUtils.cleanup(DFSClient.LOG, received[2]);
+        }
+      }
+      if (fisCache != null) {
+        fisCache.incrementMisses();
+      }
       try {
         reader = new BlockReaderLocal.Builder(conf).
             setFilename(file).
@@ -203,6 +238,7 @@ private static BlockReaderLocal newShortCircuitBlockReader(
                 BlockMetadataHeader.preadHeader(fis[1].getChannel())).
             setFileInputStreamCache(fisCache).
             setCachingStrategy(cachingStrategy).
+            setSlot(slot).
             build();
       } finally {
         if (reader == null) {
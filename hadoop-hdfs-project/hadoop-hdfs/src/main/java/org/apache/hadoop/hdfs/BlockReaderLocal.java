@@ -30,6 +30,7 @@
 import org.apache.hadoop.hdfs.client.ClientMmap;
 import org.apache.hadoop.hdfs.DFSClient.Conf;
 import org.apache.hadoop.hdfs.client.ClientMmapManager;
+import org.apache.hadoop.hdfs.client.ShortCircuitShm;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
@@ -72,6 +73,7 @@ public static class Builder {
     private DatanodeID datanodeID;
     private FileInputStreamCache fisCache;
     private boolean mlocked;
+    private ShortCircuitShm.Slot slot;
     private BlockMetadataHeader header;
     private ExtendedBlock block;
 
@@ -124,6 +126,11 @@ public Builder setMlocked(boolean mlocked) {
       return this;
     }
 
+    public Builder setSlot(ShortCircuitShm.Slot slot) {
+      this.slot = slot;
+      return this;
+    }
+
     public Builder setBlockMetadataHeader(BlockMetadataHeader header) {
       this.header = header;
       return this;
@@ -182,6 +189,13 @@ public BlockReaderLocal build() {
    */
   private final AtomicBoolean mlocked;
 
+  /**
+   * The shared memory slot of the replica, or null if the DataNode did not
+   * give us one.  The DataNode updates it when the replica is invalidated,
+   * mlocked, or munlocked.
+   */
+  private final ShortCircuitShm.Slot slot;
+
   /**
    * Name of the block, for logging purposes.
    */
@@ -268,6 +282,7 @@ private BlockReaderLocal(Builder builder) {
     this.verifyChecksum = builder.verifyChecksum &&
         (this.checksum.getChecksumType().id != DataChecksum.CHECKSUM_NULL);
     this.mlocked = new AtomicBoolean(builder.mlocked);
+    this.slot = builder.slot;
     this.filename = builder.filename;
     this.datanodeID = builder.datanodeID;
     this.fisCache = builder.fisCache;
@@ -400,7 +415,11 @@ private synchronized int fillBuffer(ByteBuffer buf, boolean canSkipChecksum)
   }
 
   private boolean getCanSkipChecksum() {
-    return (!verifyChecksum) || mlocked.get();
+    return (!verifyChecksum) || isMlocked();
+  }
+
+  private boolean isMlocked() {
+    return mlocked.get() || ((slot != null) && slot.isMlocked());
   }
   
   @Override
@@ -644,7 +663,7 @@ public synchronized void close() throws IOException {
         LOG.debug("putting FileInputStream for " + filename +
             " back into FileInputStreamCache");
       }
-      fisCache.put(datanodeID, block, streams);
+      fisCache.put(datanodeID, block, streams, slot);
     } else {
       LOG.debug("closing FileInputStream for " + filename);
       IOUtils.cleanup(LOG, dataIn, checksumIn);
@@ -678,8 +697,15 @@ public boolean isShortCircuit() {
   @Override
   public synchronized ClientMmap getClientMmap(EnumSet<ReadOption> opts,
         ClientMmapManager mmapManager) {
+    if ((slot != null) && (!slot.isValid())) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("can't get an mmap for " + block + " of " + filename +
+            " since the DataNode invalidated the replica.");
+      }
+      return null;
+    }
     if ((!opts.contains(ReadOption.SKIP_CHECKSUMS)) &&
-          verifyChecksum && (!mlocked.get())) {
+          verifyChecksum && (!isMlocked())) {
       if (LOG.isTraceEnabled()) {
         LOG.trace("can't get an mmap for " + block + " of " + filename + 
             " since SKIP_CHECKSUMS was not given, " +
@@ -23,6 +23,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_BLOCK_WRITE_LOCATEFOLLOWINGBLOCK_RETRIES_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_BLOCK_WRITE_LOCATEFOLLOWINGBLOCK_RETRIES_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_BLOCK_WRITE_PIPELINE_AHEAD_ENABLE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_BLOCK_WRITE_PIPELINE_AHEAD_ENABLE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_BLOCK_WRITE_RETRIES_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_BLOCK_WRITE_RETRIES_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_CACHED_CONN_RETRY_DEFAULT;
@@ -69,6 +71,7 @@
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -76,6 +79,10 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.SocketFactory;
 
@@ -174,6 +181,7 @@
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /********************************************************
  * DFSClient can connect to a Hadoop Filesystem and 
@@ -216,6 +224,12 @@ public class DFSClient implements java.io.Closeable {
   private final CachingStrategy defaultReadCachingStrategy;
   private final CachingStrategy defaultWriteCachingStrategy;
   private ClientMmapManager mmapManager;
+  /** Runs hedged reads; null if hedged reads are disabled. */
+  private final ThreadPoolExecutor hedgedReadThreadPool;
+  private final DFSHedgedReadMetrics hedgedReadMetrics =
+      new DFSHedgedReadMetrics();
+  /** Reads ahead for sequential reads; null if read-ahead is disabled. */
+  private final ThreadPoolExecutor readPrefetchThreadPool;
   
   private static final ClientMmapManagerFactory MMAP_MANAGER_FACTORY =
       new ClientMmapManagerFactory();
@@ -274,6 +288,7 @@ public static class Conf {
     final int nCachedConnRetry;
     final int nBlockWriteRetry;
     final int nBlockWriteLocateFollowingRetry;
+    final boolean blockWritePipelineAhead;
     final long defaultBlockSize;
     final long prefetchSize;
     final short defaultReplication;
@@ -295,6 +310,12 @@ public static class Conf {
     final boolean domainSocketDataTraffic;
     final int shortCircuitStreamsCacheSize;
     final long shortCircuitStreamsCacheExpiryMs; 
+    final boolean shortCircuitSharedMemory;
+    final int hedgedReadThreadpoolSize;
+    final long hedgedReadThresholdMillis;
+    final int readPrefetchChunks;
+    final int readPrefetchChunkSize;
+    final int readPrefetchThreadpoolSize;
 
     public Conf(Configuration conf) {
       // The hdfsTimeout is currently the same as the ipc timeout 
@@ -346,6 +367,9 @@ public Conf(Configuration conf) {
       nBlockWriteLocateFollowingRetry = conf.getInt(
           DFS_CLIENT_BLOCK_WRITE_LOCATEFOLLOWINGBLOCK_RETRIES_KEY,
           DFS_CLIENT_BLOCK_WRITE_LOCATEFOLLOWINGBLOCK_RETRIES_DEFAULT);
+      blockWritePipelineAhead = conf.getBoolean(
+          DFS_CLIENT_BLOCK_WRITE_PIPELINE_AHEAD_ENABLE_KEY,
+          DFS_CLIENT_BLOCK_WRITE_PIPELINE_AHEAD_ENABLE_DEFAULT);
       uMask = FsPermission.getUMask(conf);
       connectToDnViaHostname = conf.getBoolean(DFS_CLIENT_USE_DN_HOSTNAME,
           DFS_CLIENT_USE_DN_HOSTNAME_DEFAULT);
@@ -408,6 +432,24 @@ public Conf(Configuration conf) {
       shortCircuitStreamsCacheExpiryMs = conf.getLong(
           DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_KEY,
           DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_DEFAULT);
+      shortCircuitSharedMemory = conf.getBoolean(
+          DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_SHARED_MEMORY_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_SHARED_MEMORY_DEFAULT);
+      hedgedReadThreadpoolSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_DEFAULT);
+      hedgedReadThresholdMillis = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY,
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_DEFAULT);
+      readPrefetchChunks = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_CHUNKS_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_CHUNKS_DEFAULT);
+      readPrefetchChunkSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_CHUNK_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_CHUNK_SIZE_DEFAULT);
+      readPrefetchThreadpoolSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_THREADPOOL_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_THREADPOOL_SIZE_DEFAULT);
     }
 
     private DataChecksum.Type getChecksumType(Configuration conf) {
@@ -588,6 +630,36 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
     this.defaultWriteCachingStrategy =
         new CachingStrategy(writeDropBehind, readahead);
     this.mmapManager = MMAP_MANAGER_FACTORY.get(conf);
+
+    if (dfsClientConf.hedgedReadThreadpoolSize > 0) {
+      // A hedged read which cannot get a thread is not started, so the
+      // pool needs no queue.
+      this.hedgedReadThreadPool = new ThreadPoolExecutor(1,
+          dfsClientConf.hedgedReadThreadpoolSize, 60, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(),
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("hedgedRead-%d")
+              .build());
+      this.hedgedReadThreadPool.allowCoreThreadTimeOut(true);
+    } else {
+      this.hedgedReadThreadPool = null;
+    }
+    if (dfsClientConf.readPrefetchChunks > 0
+        && dfsClientConf.readPrefetchThreadpoolSize > 0) {
+      // Each stream queues at most readPrefetchChunks chunks.
+      this.readPrefetchThreadPool = new ThreadPoolExecutor(
+          dfsClientConf.readPrefetchThreadpoolSize,
+          dfsClientConf.readPrefetchThreadpoolSize, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("readPrefetch-%d")
+              .build());
+      this.readPrefetchThreadPool.allowCoreThreadTimeOut(true);
+    } else {
+      this.readPrefetchThreadPool = null;
+    }
   }
   
   /**
@@ -845,6 +917,12 @@ public synchronized void close() throws IOException {
       MMAP_MANAGER_FACTORY.unref(mmapManager);
       mmapManager = null;
     }
+    if (hedgedReadThreadPool != null) {
+      hedgedReadThreadPool.shutdownNow();
+    }
+    if (readPrefetchThreadPool != null) {
+      readPrefetchThreadPool.shutdownNow();
+    }
     if(clientRunning) {
       closeAllFilesBeingWritten(false);
       clientRunning = false;
@@ -854,6 +932,36 @@ public synchronized void close() throws IOException {
     }
   }
 
+  /**
+   * @return true if positional reads may be hedged across DataNodes.
+   */
+  boolean isHedgedReadsEnabled() {
+    return hedgedReadThreadPool != null;
+  }
+
+  ThreadPoolExecutor getHedgedReadsThreadPool() {
+    return hedgedReadThreadPool;
+  }
+
+  long getHedgedReadTimeout() {
+    return dfsClientConf.hedgedReadThresholdMillis;
+  }
+
+  /**
+   * @return the pool reading ahead for sequential reads, or null if
+   *         read-ahead is disabled.
+   */
+  ThreadPoolExecutor getReadPrefetchThreadPool() {
+    return readPrefetchThreadPool;
+  }
+
+  /**
+   * @return the counters of the hedged reads of this client.
+   */
+  public DFSHedgedReadMetrics getHedgedReadMetrics() {
+    return hedgedReadMetrics;
+  }
+
   /**
    * Close all open streams, abandoning all of the leases and files being
    * created.
@@ -1145,6 +1253,48 @@ boolean recoverLease(String src) throws IOException {
   public BlockLocation[] getBlockLocations(String src, long start, 
     long length) throws IOException, UnresolvedLinkException {
     LocatedBlocks blocks = getLocatedBlocks(src, start, length);
+    return toHdfsBlockLocations(blocks);
+  }
+
+  /**
+   * Get block location info about a number of files with one call to the
+   * namenode, for the same range of each file.
+   *
+   * The files are sent to the namenode in batches of at most
+   * {@link DFSConfigKeys#DFS_NAMENODE_BLOCK_LOCATIONS_BATCH_MAX_KEY} paths.
+   *
+   * @return the block locations of each file, in the order of srcs.  An
+   *         element is null if the file does not exist or its path contains
+   *         a symlink.
+   * @see #getBlockLocations(String, long, long)
+   */
+  public BlockLocation[][] getBlockLocations(String[] srcs, long start,
+      long length) throws IOException {
+    checkOpen();
+    final int batchMax = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_BATCH_MAX_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_BATCH_MAX_DEFAULT);
+    final BlockLocation[][] locations = new BlockLocation[srcs.length][];
+    for (int from = 0; from < srcs.length; from += batchMax) {
+      final String[] batch = Arrays.copyOfRange(srcs, from,
+          Math.min(from + batchMax, srcs.length));
+      final LocatedBlocks[] blocks;
+      try {
+        blocks = namenode.getBatchedBlockLocations(batch, start, length);
+      } catch(RemoteException re) {
+        throw re.unwrapRemoteException(AccessControlException.class);
+      }
+      for (int i = 0; i < blocks.length; i++) {
+        if (blocks[i] != null) {
+          locations[from + i] = toHdfsBlockLocations(blocks[i]);
+        }
+      }
+    }
+    return locations;
+  }
+
+  private static BlockLocation[] toHdfsBlockLocations(LocatedBlocks blocks)
+      throws IOException {
     BlockLocation[] locations =  DFSUtil.locatedBlocks2Locations(blocks);
     HdfsBlockLocation[] hdfsLocations = new HdfsBlockLocation[locations.length];
     for (int i = 0; i < locations.length; i++) {
@@ -46,4 +46,6 @@ public boolean uncorruptPacket() {
   public boolean failPacket() {
     return false;
   }
+
+  public void startFetchFromDatanode() {}
 }
@@ -82,6 +82,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_CLIENT_FAILOVER_CONNECTION_RETRIES_DEFAULT = 0;
   public static final String  DFS_CLIENT_FAILOVER_CONNECTION_RETRIES_ON_SOCKET_TIMEOUTS_KEY = "dfs.client.failover.connection.retries.on.timeouts";
   public static final int     DFS_CLIENT_FAILOVER_CONNECTION_RETRIES_ON_SOCKET_TIMEOUTS_DEFAULT = 0;
+  public static final String  DFS_CLIENT_FAILOVER_STANDBY_READS_ENABLED_KEY = "dfs.client.failover.standby.reads.enabled";
+  public static final boolean DFS_CLIENT_FAILOVER_STANDBY_READS_ENABLED_DEFAULT = false;
+  public static final String  DFS_CLIENT_FAILOVER_STANDBY_READS_RECHECK_MS_KEY = "dfs.client.failover.standby.reads.recheck.ms";
+  public static final long    DFS_CLIENT_FAILOVER_STANDBY_READS_RECHECK_MS_DEFAULT = 10000;
   
   public static final String  DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY = "dfs.client.socketcache.expiryMsec";
   public static final long    DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_DEFAULT = 2 * 60 * 1000;
@@ -94,6 +98,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_BACKUP_SERVICE_RPC_ADDRESS_KEY = "dfs.namenode.backup.dnrpc-address";
   public static final String  DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_KEY = "dfs.datanode.balance.bandwidthPerSec";
   public static final long    DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT = 1024*1024;
+  public static final String  DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY = "dfs.datanode.balance.max.concurrent.moves";
+  public static final int     DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT = 5;
   public static final String  DFS_DATANODE_READAHEAD_BYTES_KEY = "dfs.datanode.readahead.bytes";
   public static final long    DFS_DATANODE_READAHEAD_BYTES_DEFAULT = 4 * 1024 * 1024; // 4MB
   public static final String  DFS_DATANODE_DROP_CACHE_BEHIND_WRITES_KEY = "dfs.datanode.drop.cache.behind.writes";
@@ -122,6 +128,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_SERVICE_RPC_BIND_HOST_KEY = "dfs.namenode.servicerpc-bind-host";
   public static final String  DFS_NAMENODE_MAX_OBJECTS_KEY = "dfs.namenode.max.objects";
   public static final long    DFS_NAMENODE_MAX_OBJECTS_DEFAULT = 0;
+  public static final String  DFS_NAMENODE_DELETE_ASYNC_KEY = "dfs.namenode.delete.async";
+  public static final boolean DFS_NAMENODE_DELETE_ASYNC_DEFAULT = false;
+  public static final String  DFS_NAMENODE_DELETE_ASYNC_MAX_PENDING_KEY = "dfs.namenode.delete.async.max.pending";
+  public static final int     DFS_NAMENODE_DELETE_ASYNC_MAX_PENDING_DEFAULT = 1000;
+  public static final String  DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_KEY = "dfs.namenode.max-lock-hold-to-release-lease-ms";
+  public static final long    DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_DEFAULT = 25;
+  public static final String  DFS_NAMENODE_BLOCK_LOCATIONS_BATCH_MAX_KEY = "dfs.namenode.block-locations.batch.max";
+  public static final int     DFS_NAMENODE_BLOCK_LOCATIONS_BATCH_MAX_DEFAULT = 1000;
+  public static final String  DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_SIZE_KEY = "dfs.namenode.block-locations.cache.size";
+  public static final int     DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_SIZE_DEFAULT = 0;
+  public static final String  DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_EXPIRY_MS_KEY = "dfs.namenode.block-locations.cache.expiry.ms";
+  public static final long    DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_EXPIRY_MS_DEFAULT = 3000;
   public static final String  DFS_NAMENODE_SAFEMODE_EXTENSION_KEY = "dfs.namenode.safemode.extension";
   public static final int     DFS_NAMENODE_SAFEMODE_EXTENSION_DEFAULT = 30000;
   public static final String  DFS_NAMENODE_SAFEMODE_THRESHOLD_PCT_KEY = "dfs.namenode.safemode.threshold-pct";
@@ -133,6 +151,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
     "dfs.namenode.replqueue.threshold-pct";
   public static final String  DFS_NAMENODE_SAFEMODE_MIN_DATANODES_KEY = "dfs.namenode.safemode.min.datanodes";
   public static final int     DFS_NAMENODE_SAFEMODE_MIN_DATANODES_DEFAULT = 0;
+  public static final String  DFS_NAMENODE_SAFEMODE_PARALLEL_INITIAL_BLOCK_REPORTS_KEY = "dfs.namenode.safemode.parallel.initial.block.reports";
+  public static final boolean DFS_NAMENODE_SAFEMODE_PARALLEL_INITIAL_BLOCK_REPORTS_DEFAULT = true;
+  public static final String  DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_ASYNC_KEY = "dfs.namenode.incremental.block.report.async";
+  public static final boolean DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_ASYNC_DEFAULT = false;
+  public static final String  DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_BATCH_BLOCKS_KEY = "dfs.namenode.incremental.block.report.batch.blocks";
+  public static final int     DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_BATCH_BLOCKS_DEFAULT = 1000;
+  public static final String  DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_QUEUE_SIZE_KEY = "dfs.namenode.incremental.block.report.queue.size";
+  public static final int     DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_QUEUE_SIZE_DEFAULT = 1000;
   public static final String  DFS_NAMENODE_SECONDARY_HTTP_ADDRESS_KEY = "dfs.namenode.secondary.http-address";
   public static final String  DFS_NAMENODE_SECONDARY_HTTP_ADDRESS_DEFAULT = "0.0.0.0:50090";
   public static final String  DFS_NAMENODE_SECONDARY_HTTPS_ADDRESS_KEY = "dfs.namenode.secondary.https-address";
@@ -203,6 +229,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   
   public static final String  DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH = "dfs.namenode.edits.noeditlogchannelflush";
   public static final boolean DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_LOADER_PIPELINED_KEY = "dfs.namenode.edits.loader.pipelined";
+  public static final boolean DFS_NAMENODE_EDITS_LOADER_PIPELINED_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_LOADER_PIPELINE_CAPACITY_KEY = "dfs.namenode.edits.loader.pipeline.capacity";
+  public static final int     DFS_NAMENODE_EDITS_LOADER_PIPELINE_CAPACITY_DEFAULT = 1000;
   
   public static final String  DFS_LIST_LIMIT = "dfs.ls.limit";
   public static final int     DFS_LIST_LIMIT_DEFAULT = 1000;
@@ -227,6 +257,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS =
       "dfs.namenode.path.based.cache.refresh.interval.ms";
   public static final long    DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS_DEFAULT = 300000L;
+  public static final String  DFS_NAMENODE_PATH_BASED_CACHE_RESCAN_MAX_LOCK_HOLD_MS =
+      "dfs.namenode.path.based.cache.rescan.max.lock.hold.ms";
+  public static final long    DFS_NAMENODE_PATH_BASED_CACHE_RESCAN_MAX_LOCK_HOLD_MS_DEFAULT = 100L;
 
   // Whether to enable datanode's stale state detection and usage for reads
   public static final String DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_READ_KEY = "dfs.namenode.avoid.read.stale.datanode";
@@ -304,10 +337,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_DEFAULT_AUDIT_LOGGER_NAME = "default";
   public static final String  DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_KEY = "dfs.namenode.audit.log.token.tracking.id";
   public static final boolean DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT = false;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY = "dfs.namenode.audit.log.async";
+  public static final boolean DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT = false;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_KEY = "dfs.namenode.audit.log.async.buffer.size";
+  public static final int     DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_DEFAULT = 8192;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_OFFER_TIMEOUT_MS_KEY = "dfs.namenode.audit.log.async.offer.timeout.ms";
+  public static final long    DFS_NAMENODE_AUDIT_LOG_ASYNC_OFFER_TIMEOUT_MS_DEFAULT = 1000;
 
   // Much code in hdfs is not yet updated to use these keys.
   public static final String  DFS_CLIENT_BLOCK_WRITE_LOCATEFOLLOWINGBLOCK_RETRIES_KEY = "dfs.client.block.write.locateFollowingBlock.retries";
   public static final int     DFS_CLIENT_BLOCK_WRITE_LOCATEFOLLOWINGBLOCK_RETRIES_DEFAULT = 5;
+  public static final String  DFS_CLIENT_BLOCK_WRITE_PIPELINE_AHEAD_ENABLE_KEY = "dfs.client.block.write.pipeline-ahead.enable";
+  public static final boolean DFS_CLIENT_BLOCK_WRITE_PIPELINE_AHEAD_ENABLE_DEFAULT = false;
   public static final String  DFS_CLIENT_BLOCK_WRITE_RETRIES_KEY = "dfs.client.block.write.retries";
   public static final int     DFS_CLIENT_BLOCK_WRITE_RETRIES_DEFAULT = 3;
   public static final String  DFS_CLIENT_MAX_BLOCK_ACQUIRE_FAILURES_KEY = "dfs.client.max.block.acquire.failures";
@@ -322,6 +363,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_BALANCER_MOVERTHREADS_DEFAULT = 1000;
   public static final String  DFS_BALANCER_DISPATCHERTHREADS_KEY = "dfs.balancer.dispatcherThreads";
   public static final int     DFS_BALANCER_DISPATCHERTHREADS_DEFAULT = 200;
+  public static final String  DFS_BALANCER_MAX_SIZE_TO_MOVE_KEY = "dfs.balancer.max-size-to-move";
+  public static final long    DFS_BALANCER_MAX_SIZE_TO_MOVE_DEFAULT = 10L*1024*1024*1024;
+  public static final String  DFS_BALANCER_GETBLOCKS_SIZE_KEY = "dfs.balancer.getBlocks.size";
+  public static final long    DFS_BALANCER_GETBLOCKS_SIZE_DEFAULT = 2L*1024*1024*1024;
+  public static final String  DFS_BALANCER_MAX_CONCURRENT_MOVES_KEY = "dfs.balancer.max.concurrent.moves";
+  public static final int     DFS_BALANCER_MAX_CONCURRENT_MOVES_DEFAULT = 5;
   public static final String  DFS_DATANODE_ADDRESS_KEY = "dfs.datanode.address";
   public static final int     DFS_DATANODE_DEFAULT_PORT = 50010;
   public static final String  DFS_DATANODE_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_DEFAULT_PORT;
@@ -331,6 +378,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_DATANODE_DIRECTORYSCAN_INTERVAL_DEFAULT = 21600;
   public static final String  DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY = "dfs.datanode.directoryscan.threads";
   public static final int     DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT = 1;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY = "dfs.datanode.directoryscan.throttle.limit.ms.per.sec";
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT = 1000;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY = "dfs.datanode.directoryscan.reconcile.batch.size";
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_DEFAULT = 100;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_SKIP_UNCHANGED_DIRS_KEY = "dfs.datanode.directoryscan.skip.unchanged.dirs";
+  public static final boolean DFS_DATANODE_DIRECTORYSCAN_SKIP_UNCHANGED_DIRS_DEFAULT = false;
   public static final String  DFS_DATANODE_DNS_INTERFACE_KEY = "dfs.datanode.dns.interface";
   public static final String  DFS_DATANODE_DNS_INTERFACE_DEFAULT = "default";
   public static final String  DFS_DATANODE_DNS_NAMESERVER_KEY = "dfs.datanode.dns.nameserver";
@@ -344,10 +397,24 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_HTTP_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_HTTP_DEFAULT_PORT;
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY = "dfs.datanode.max.transfer.threads";
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_TRANSFER_SERVER_NIO_ENABLED_KEY = "dfs.datanode.transfer.server.nio.enabled";
+  public static final boolean DFS_DATANODE_TRANSFER_SERVER_NIO_ENABLED_DEFAULT = false;
+  public static final String  DFS_DATANODE_TRANSFER_SERVER_NIO_WORKERS_KEY = "dfs.datanode.transfer.server.nio.workers";
+  public static final int     DFS_DATANODE_TRANSFER_SERVER_NIO_WORKERS_DEFAULT = 64;
+  public static final String  DFS_DATANODE_TRANSFER_SERVER_NIO_QUEUE_SIZE_KEY = "dfs.datanode.transfer.server.nio.queue.size";
+  public static final int     DFS_DATANODE_TRANSFER_SERVER_NIO_QUEUE_SIZE_DEFAULT = 1024;
   public static final String  DFS_DATANODE_NUMBLOCKS_KEY = "dfs.datanode.numblocks";
   public static final int     DFS_DATANODE_NUMBLOCKS_DEFAULT = 64;
   public static final String  DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
   public static final int     DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 0;
+  public static final String  DFS_DATANODE_SCAN_PER_VOLUME_ENABLED_KEY = "dfs.datanode.scan.per.volume.enabled";
+  public static final boolean DFS_DATANODE_SCAN_PER_VOLUME_ENABLED_DEFAULT = false;
+  public static final String  DFS_DATANODE_SCAN_ADAPTIVE_ENABLED_KEY = "dfs.datanode.scan.adaptive.enabled";
+  public static final boolean DFS_DATANODE_SCAN_ADAPTIVE_ENABLED_DEFAULT = false;
+  public static final String  DFS_DATANODE_SCAN_ADAPTIVE_LATENCY_THRESHOLD_MS_KEY = "dfs.datanode.scan.adaptive.latency.threshold.ms";
+  public static final long    DFS_DATANODE_SCAN_ADAPTIVE_LATENCY_THRESHOLD_MS_DEFAULT = 20;
+  public static final String  DFS_DATANODE_SCAN_ADAPTIVE_UTILIZATION_THRESHOLD_KEY = "dfs.datanode.scan.adaptive.utilization.threshold";
+  public static final float   DFS_DATANODE_SCAN_ADAPTIVE_UTILIZATION_THRESHOLD_DEFAULT = 0.5f;
   public static final String  DFS_DATANODE_TRANSFERTO_ALLOWED_KEY = "dfs.datanode.transferTo.allowed";
   public static final boolean DFS_DATANODE_TRANSFERTO_ALLOWED_DEFAULT = true;
   public static final String  DFS_HEARTBEAT_INTERVAL_KEY = "dfs.heartbeat.interval";
@@ -358,6 +425,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_NAMENODE_DECOMMISSION_INTERVAL_DEFAULT = 30;
   public static final String  DFS_NAMENODE_DECOMMISSION_NODES_PER_INTERVAL_KEY = "dfs.namenode.decommission.nodes.per.interval";
   public static final int     DFS_NAMENODE_DECOMMISSION_NODES_PER_INTERVAL_DEFAULT = 5;
+  public static final String  DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_INTERVAL_KEY = "dfs.namenode.decommission.blocks.per.interval";
+  public static final int     DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_INTERVAL_DEFAULT = 500000;
   public static final String  DFS_NAMENODE_HANDLER_COUNT_KEY = "dfs.namenode.handler.count";
   public static final int     DFS_NAMENODE_HANDLER_COUNT_DEFAULT = 10;
   public static final String  DFS_NAMENODE_SERVICE_HANDLER_COUNT_KEY = "dfs.namenode.service.handler.count";
@@ -397,12 +466,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_BLOCKREPORT_INTERVAL_MSEC_DEFAULT = 60 * 60 * 1000;
   public static final String  DFS_BLOCKREPORT_INITIAL_DELAY_KEY = "dfs.blockreport.initialDelay";
   public static final int     DFS_BLOCKREPORT_INITIAL_DELAY_DEFAULT = 0;
+  public static final String  DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_DELAY_MS_KEY = "dfs.datanode.incremental.block.report.delay.ms";
+  public static final long    DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_DELAY_MS_DEFAULT = 0;
+  public static final String  DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_MAX_BLOCKS_KEY = "dfs.datanode.incremental.block.report.max.blocks";
+  public static final int     DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_MAX_BLOCKS_DEFAULT = 1000;
   public static final String  DFS_CACHEREPORT_INTERVAL_MSEC_KEY = "dfs.cachereport.intervalMsec";
   public static final long    DFS_CACHEREPORT_INTERVAL_MSEC_DEFAULT = 10 * 1000;
   public static final String  DFS_BLOCK_INVALIDATE_LIMIT_KEY = "dfs.block.invalidate.limit";
   public static final int     DFS_BLOCK_INVALIDATE_LIMIT_DEFAULT = 1000;
   public static final String  DFS_DEFAULT_MAX_CORRUPT_FILES_RETURNED_KEY = "dfs.corruptfilesreturned.max";
   public static final int     DFS_DEFAULT_MAX_CORRUPT_FILES_RETURNED = 500;
+  public static final String  DFS_NAMENODE_FSCK_MAX_THREADS_KEY = "dfs.namenode.fsck.max.threads";
+  public static final int     DFS_NAMENODE_FSCK_MAX_THREADS_DEFAULT = 8;
 
   public static final String DFS_CLIENT_READ_SHORTCIRCUIT_KEY = "dfs.client.read.shortcircuit";
   public static final boolean DFS_CLIENT_READ_SHORTCIRCUIT_DEFAULT = false;
@@ -413,6 +488,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_SIZE_DEFAULT = 100;
   public static final String DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_KEY = "dfs.client.read.shortcircuit.streams.cache.expiry.ms";
   public static final long DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_DEFAULT = 5000;
+  public static final String DFS_CLIENT_READ_SHORTCIRCUIT_SHARED_MEMORY_KEY = "dfs.client.read.shortcircuit.shared.memory";
+  public static final boolean DFS_CLIENT_READ_SHORTCIRCUIT_SHARED_MEMORY_DEFAULT = true;
   public static final int DFS_CLIENT_READ_SHORTCIRCUIT_BUFFER_SIZE_DEFAULT = 1024 * 1024;
   public static final String DFS_CLIENT_DOMAIN_SOCKET_DATA_TRAFFIC = "dfs.client.domain.socket.data.traffic";
   public static final boolean DFS_CLIENT_DOMAIN_SOCKET_DATA_TRAFFIC_DEFAULT = false;
@@ -422,6 +499,16 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long DFS_CLIENT_MMAP_CACHE_TIMEOUT_MS_DEFAULT  = 15 * 60 * 1000;
   public static final String DFS_CLIENT_MMAP_CACHE_THREAD_RUNS_PER_TIMEOUT = "dfs.client.mmap.cache.thread.runs.per.timeout";
   public static final int DFS_CLIENT_MMAP_CACHE_THREAD_RUNS_PER_TIMEOUT_DEFAULT  = 4;
+  public static final String DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY = "dfs.client.hedged.read.threadpool.size";
+  public static final int DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_DEFAULT = 0;
+  public static final String DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY = "dfs.client.hedged.read.threshold.millis";
+  public static final long DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_DEFAULT = 500;
+  public static final String DFS_CLIENT_READ_PREFETCH_CHUNKS_KEY = "dfs.client.read.prefetch.chunks";
+  public static final int DFS_CLIENT_READ_PREFETCH_CHUNKS_DEFAULT = 0;
+  public static final String DFS_CLIENT_READ_PREFETCH_CHUNK_SIZE_KEY = "dfs.client.read.prefetch.chunk.size";
+  public static final int DFS_CLIENT_READ_PREFETCH_CHUNK_SIZE_DEFAULT = 4 * 1024 * 1024;
+  public static final String DFS_CLIENT_READ_PREFETCH_THREADPOOL_SIZE_KEY = "dfs.client.read.prefetch.threadpool.size";
+  public static final int DFS_CLIENT_READ_PREFETCH_THREADPOOL_SIZE_DEFAULT = 16;
 
   // property for fsimage compression
   public static final String DFS_IMAGE_COMPRESS_KEY = "dfs.image.compress";
@@ -447,6 +534,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_THRESHOLD_DEFAULT = 1024L * 1024L * 1024L * 10L; // 10 GB
   public static final String  DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_PREFERENCE_FRACTION_KEY = "dfs.datanode.available-space-volume-choosing-policy.balanced-space-preference-fraction";
   public static final float   DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_PREFERENCE_FRACTION_DEFAULT = 0.75f;
+  public static final String  DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_KEY = "dfs.datanode.load-aware-volume-choosing-policy.slow-volume-factor";
+  public static final float   DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_DEFAULT = 3.0f;
+  public static final String  DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_MIN_LATENCY_MS_KEY = "dfs.datanode.load-aware-volume-choosing-policy.slow-volume-min-latency-ms";
+  public static final long    DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_MIN_LATENCY_MS_DEFAULT = 20;
   public static final String  DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY = "dfs.datanode.socket.write.timeout";
   public static final String  DFS_DATANODE_STARTUP_KEY = "dfs.datanode.startup";
   public static final String  DFS_NAMENODE_PLUGINS_KEY = "dfs.namenode.plugins";
@@ -480,6 +571,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_BLOCK_LOCAL_PATH_ACCESS_USER_KEY = "dfs.block.local-path-access.user";
   public static final String DFS_DOMAIN_SOCKET_PATH_KEY = "dfs.domain.socket.path";
   public static final String DFS_DOMAIN_SOCKET_PATH_DEFAULT = "";
+  public static final String DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_KEY = "dfs.datanode.shared.file.descriptor.paths";
+  public static final String DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_DEFAULT = "/dev/shm,/tmp";
+  public static final String DFS_DATANODE_SHARED_MEMORY_SLOTS_KEY = "dfs.datanode.shared.memory.slots";
+  public static final int DFS_DATANODE_SHARED_MEMORY_SLOTS_DEFAULT = 8192;
 
   // HA related configuration
   public static final String DFS_HA_NAMENODES_KEY_PREFIX = "dfs.ha.namenodes";
@@ -490,6 +585,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_HA_LOGROLL_PERIOD_DEFAULT = 2 * 60; // 2m
   public static final String DFS_HA_TAILEDITS_PERIOD_KEY = "dfs.ha.tail-edits.period";
   public static final int DFS_HA_TAILEDITS_PERIOD_DEFAULT = 60; // 1m
+  public static final String DFS_HA_STANDBY_READS_ENABLED_KEY = "dfs.ha.standby.reads.enabled";
+  public static final boolean DFS_HA_STANDBY_READS_ENABLED_DEFAULT = false;
+  public static final String DFS_HA_STANDBY_READS_MAX_CLIENTS_KEY = "dfs.ha.standby.reads.max.clients";
+  public static final int DFS_HA_STANDBY_READS_MAX_CLIENTS_DEFAULT = 100000;
   public static final String DFS_HA_FENCE_METHODS_KEY = "dfs.ha.fencing.methods";
   public static final String DFS_HA_AUTO_FAILOVER_ENABLED_KEY = "dfs.ha.automatic-failover.enabled";
   public static final boolean DFS_HA_AUTO_FAILOVER_ENABLED_DEFAULT = false;
@@ -19,11 +19,15 @@
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,7 +36,15 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -88,7 +100,7 @@ public class DFSInputStream extends FSInputStream
   private final String src;
   private BlockReader blockReader = null;
   private final boolean verifyChecksum;
-  private LocatedBlocks locatedBlocks = null;
+  private volatile LocatedBlocks locatedBlocks = null;
   private long lastBlockBeingWrittenLength = 0;
   private DatanodeInfo currentNode = null;
   private LocatedBlock currentLocatedBlock = null;
@@ -106,12 +118,30 @@ public class DFSInputStream extends FSInputStream
   private final IdentityHashStore<ByteBuffer, Object>
       extendedReadBuffers = new IdentityHashStore<ByteBuffer, Object>(0);
 
+  /**
+   * The chunks read ahead of the position of the sequential reads, in file
+   * order and without gaps.  Always empty if read-ahead is disabled.
+   */
+  private final ArrayDeque<PrefetchedChunk> prefetchedChunks =
+      new ArrayDeque<PrefetchedChunk>();
+  /** The buffers of consumed chunks, reused for the next chunks. */
+  private final ArrayDeque<byte[]> freePrefetchBuffers =
+      new ArrayDeque<byte[]>();
+  /** Sequential reads before this offset are not read ahead. */
+  private long prefetchResumeOffset = 0;
+  /** Where the last read ended; only reads continuing it are read ahead. */
+  private long lastReadEnd = 0;
+  /** Spreads the chunks of a block over its replicas. */
+  private int prefetchRotation = 0;
+
   public static class ReadStatistics {
     public ReadStatistics() {
       this.totalBytesRead = 0;
       this.totalLocalBytesRead = 0;
       this.totalShortCircuitBytesRead = 0;
       this.totalZeroCopyBytesRead = 0;
+      this.shortCircuitFdCacheHits = 0;
+      this.shortCircuitFdCacheMisses = 0;
     }
 
     public ReadStatistics(ReadStatistics rhs) {
@@ -119,6 +149,8 @@ public ReadStatistics(ReadStatistics rhs) {
       this.totalLocalBytesRead = rhs.getTotalLocalBytesRead();
       this.totalShortCircuitBytesRead = rhs.getTotalShortCircuitBytesRead();
       this.totalZeroCopyBytesRead = rhs.getTotalZeroCopyBytesRead();
+      this.shortCircuitFdCacheHits = rhs.getShortCircuitFdCacheHits();
+      this.shortCircuitFdCacheMisses = rhs.getShortCircuitFdCacheMisses();
     }
 
     /**
@@ -152,6 +184,31 @@ public long getTotalZeroCopyBytesRead() {
       return totalZeroCopyBytesRead;
     }
 
+    /**
+     * @return The number of short-circuit block readers which were set up
+     * with file descriptors from the FileInputStreamCache.
+     */
+    public long getShortCircuitFdCacheHits() {
+      return shortCircuitFdCacheHits;
+    }
+
+    /**
+     * @return The number of short-circuit block readers which had to ask
+     * the DataNode for file descriptors.
+     */
+    public long getShortCircuitFdCacheMisses() {
+      return shortCircuitFdCacheMisses;
+    }
+
+    /**
+     * @return The fraction of short-circuit block readers which were set up
+     * from the FileInputStreamCache, or 0 if there were none.
+     */
+    public double getShortCircuitFdCacheHitRatio() {
+      long total = shortCircuitFdCacheHits + shortCircuitFdCacheMisses;
+      return (total == 0) ? 0 : ((double)shortCircuitFdCacheHits) / total;
+    }
+
     /**
      * @return The total number of bytes read which were not local.
      */
@@ -188,6 +245,10 @@ void addZeroCopyBytes(long amt) {
     private long totalShortCircuitBytesRead;
 
     private long totalZeroCopyBytesRead;
+
+    private long shortCircuitFdCacheHits;
+
+    private long shortCircuitFdCacheMisses;
   }
   
   private final FileInputStreamCache fileInputStreamCache;
@@ -364,8 +425,9 @@ public synchronized long getFileLength() {
   }
 
   // Short circuit local reads are forbidden for files that are
-  // under construction.  See HDFS-2757.
-  synchronized boolean shortCircuitForbidden() {
+  // under construction.  See HDFS-2757.  Not synchronized, as the threads
+  // reading ahead call it while a reader holds the lock of the stream.
+  boolean shortCircuitForbidden() {
     return locatedBlocks.isUnderConstruction();
   }
 
@@ -634,6 +696,7 @@ public void accept(ByteBuffer k, Object v) {
       blockReader.close();
       blockReader = null;
     }
+    cancelPrefetches();
     super.close();
     fileInputStreamCache.close();
     closed = true;
@@ -652,6 +715,9 @@ public synchronized int read() throws IOException {
   private interface ReaderStrategy {
     public int doRead(BlockReader blockReader, int off, int len,
         ReadStatistics readStatistics) throws ChecksumException, IOException;
+
+    /** Copy bytes which have already been read. */
+    public void copyFrom(byte[] src, int srcOff, int off, int len);
   }
 
   private static void updateReadStatistics(ReadStatistics readStatistics, 
@@ -686,6 +752,11 @@ public int doRead(BlockReader blockReader, int off, int len,
         updateReadStatistics(readStatistics, nRead, blockReader);
         return nRead;
     }
+
+    @Override
+    public void copyFrom(byte[] src, int srcOff, int off, int len) {
+      System.arraycopy(src, srcOff, buf, off, len);
+    }
   }
 
   /**
@@ -716,6 +787,11 @@ public int doRead(BlockReader blockReader, int off, int len,
         }
       } 
     }
+
+    @Override
+    public void copyFrom(byte[] src, int srcOff, int off, int len) {
+      buf.put(src, srcOff, len);
+    }
   }
 
   /* This is a used by regular read() and handles ChecksumExceptions.
@@ -783,6 +859,14 @@ private int readWithStrategy(ReaderStrategy strategy, int off, int len) throws I
       = new HashMap<ExtendedBlock, Set<DatanodeInfo>>();
     failures = 0;
     if (pos < getFileLength()) {
+      if (dfsClient.getReadPrefetchThreadPool() != null
+          && pos == lastReadEnd) {
+        int result = readPrefetched(strategy, off, len);
+        if (result >= 0) {
+          lastReadEnd = pos;
+          return result;
+        }
+      }
       int retries = 2;
       while (retries > 0) {
         try {
@@ -796,6 +880,7 @@ private int readWithStrategy(ReaderStrategy strategy, int off, int len) throws I
           
           if (result >= 0) {
             pos += result;
+            lastReadEnd = pos;
           } else {
             // got a EOS from reader though we expect more data on it.
             throw new IOException("Unexpected EOS from the reader");
@@ -826,6 +911,226 @@ private int readWithStrategy(ReaderStrategy strategy, int off, int len) throws I
     return -1;
   }
 
+  /**
+   * Serve a sequential read from the chunks read ahead, and read ahead the
+   * chunks following it.
+   *
+   * @return the number of bytes read, or -1 if the read should go through
+   *         the current block reader instead.
+   */
+  private synchronized int readPrefetched(ReaderStrategy strategy, int off,
+      int len) throws IOException {
+    final PrefetchedChunk chunk = schedulePrefetches();
+    if (chunk == null) {
+      return -1;
+    }
+    Throwable error = null;
+    try {
+      chunk.future.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while reading ahead "
+          + chunk.block.getBlock() + " of " + src);
+    } catch (ExecutionException e) {
+      error = e.getCause();
+    }
+
+    reportCheckSumFailure(chunk.corruptedBlockMap,
+        chunk.block.getLocations().length);
+    if (error != null) {
+      // Let the block reader retry, which refetches the block locations and
+      // access tokens as needed; read ahead again after this chunk.
+      DFSClient.LOG.warn("Failed to read ahead " + chunk.block.getBlock()
+          + " of " + src + ": " + error);
+      prefetchResumeOffset = chunk.end;
+      cancelPrefetches();
+      return -1;
+    }
+
+    // The block reader is not at pos any more.
+    closeCurrentBlockReader();
+    blockEnd = -1;
+    currentLocatedBlock = chunk.block;
+
+    final int n = (int)Math.min(len, chunk.end - pos);
+    strategy.copyFrom(chunk.buf, (int)(pos - chunk.start), off, n);
+    pos += n;
+    readStatistics.totalBytesRead += n;
+    if (dfsClient.stats != null) {
+      dfsClient.stats.incrementBytesRead(n);
+    }
+    if (pos == chunk.end) {
+      prefetchedChunks.removeFirst();
+      freePrefetchBuffers.add(chunk.buf);
+      schedulePrefetches();
+    }
+    return n;
+  }
+
+  /**
+   * Drop the chunks before pos, and read ahead from pos until
+   * dfs.client.read.prefetch.chunks chunks are queued.  Only the completed
+   * blocks are read ahead, as the length of the last block may change.
+   *
+   * @return the chunk containing pos, or null if pos is not read ahead.
+   */
+  private synchronized PrefetchedChunk schedulePrefetches()
+      throws IOException {
+    while (!prefetchedChunks.isEmpty()
+        && prefetchedChunks.peekFirst().end <= pos) {
+      recyclePrefetch(prefetchedChunks.removeFirst());
+    }
+    if (!prefetchedChunks.isEmpty()
+        && prefetchedChunks.peekFirst().start > pos) {
+      // seeked backwards
+      cancelPrefetches();
+    }
+    final LocatedBlock last = locatedBlocks.getLastLocatedBlock();
+    final long limit = locatedBlocks.isLastBlockComplete() || last == null ?
+        locatedBlocks.getFileLength() : last.getStartOffset();
+    if (pos < prefetchResumeOffset || pos >= limit) {
+      return null;
+    }
+
+    final DFSClient.Conf conf = dfsClient.getConf();
+    long next = prefetchedChunks.isEmpty() ?
+        pos : prefetchedChunks.peekLast().end;
+    while (prefetchedChunks.size() < conf.readPrefetchChunks
+        && next < limit) {
+      final LocatedBlock block = getBlockAt(next, false);
+      final List<DatanodeInfo> nodes = new ArrayList<DatanodeInfo>();
+      for (DatanodeInfo node : block.getLocations()) {
+        if (!deadNodes.containsKey(node)) {
+          nodes.add(node);
+        }
+      }
+      if (nodes.isEmpty()) {
+        break;
+      }
+      Collections.rotate(nodes, -(prefetchRotation++ % nodes.size()));
+      final long end = Math.min(next + conf.readPrefetchChunkSize,
+          block.getStartOffset() + block.getBlockSize());
+      byte[] buf = freePrefetchBuffers.poll();
+      if (buf == null) {
+        buf = new byte[conf.readPrefetchChunkSize];
+      }
+      final PrefetchedChunk chunk = new PrefetchedChunk(block, next, end,
+          nodes, buf, cachingStrategy);
+      try {
+        chunk.future = dfsClient.getReadPrefetchThreadPool().submit(chunk);
+      } catch (RejectedExecutionException e) {
+        // the client is closing
+        break;
+      }
+      prefetchedChunks.add(chunk);
+      next = end;
+    }
+    final PrefetchedChunk first = prefetchedChunks.peekFirst();
+    return first != null && first.start <= pos ? first : null;
+  }
+
+  /** Drop all the chunks read ahead, stopping those still being read. */
+  private synchronized void cancelPrefetches() {
+    PrefetchedChunk chunk;
+    while ((chunk = prefetchedChunks.poll()) != null) {
+      recyclePrefetch(chunk);
+    }
+  }
+
+  private void recyclePrefetch(PrefetchedChunk chunk) {
+    if (chunk.future.isDone()) {
+      freePrefetchBuffers.add(chunk.buf);
+    } else {
+      // a running read may still write into the buffer
+      chunk.future.cancel(false);
+    }
+  }
+
+  /**
+   * Read a chunk ahead from the first DataNode of the chunk which succeeds.
+   * Runs without the lock of the stream, which the reader waiting for the
+   * chunk holds, so it neither refetches block locations nor marks
+   * DataNodes dead; a failed chunk is read again by the block reader of the
+   * stream, which does.
+   */
+  private void fetchPrefetchedChunk(PrefetchedChunk chunk)
+      throws IOException {
+    final LocatedBlock block = chunk.block;
+    final int len = (int)(chunk.end - chunk.start);
+    final long offsetIntoBlock = chunk.start - block.getStartOffset();
+    IOException lastException = null;
+    for (DatanodeInfo node : chunk.nodes) {
+      if (deadNodes.containsKey(node)) {
+        continue;
+      }
+      final DNAddrPair datanode = getDNAddrPair(node);
+      BlockReader reader = null;
+      try {
+        reader = getBlockReader(datanode.addr, node, src, block.getBlock(),
+            block.getBlockToken(), offsetIntoBlock, len, buffersize,
+            verifyChecksum, dfsClient.clientName, chunk.cachingStrategy);
+        int nread = reader.readAll(chunk.buf, 0, len);
+        if (nread != len) {
+          throw new IOException("truncated return from reader.read(): " +
+              "excpected " + len + ", got " + nread);
+        }
+        return;
+      } catch (ChecksumException e) {
+        DFSClient.LOG.warn("Got a checksum exception reading ahead " + src
+            + " at " + block.getBlock() + ":" + e.getPos() + " from " + node);
+        addIntoCorruptedBlockMap(block.getBlock(), node,
+            chunk.corruptedBlockMap);
+        lastException = e;
+      } catch (IOException e) {
+        if (DFSClient.LOG.isDebugEnabled()) {
+          DFSClient.LOG.debug("Failed to read ahead " + block.getBlock()
+              + " of " + src + " from " + datanode.addr, e);
+        }
+        lastException = e;
+      } finally {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+    }
+    throw lastException != null ? lastException :
+        new IOException("No live nodes contain " + block.getBlock());
+  }
+
+  /**
+   * A range of a block read ahead of the sequential reads.  The chunk never
+   * spans two blocks.
+   */
+  private class PrefetchedChunk implements Callable<Void> {
+    final LocatedBlock block;
+    /** The file offsets of the chunk, start inclusive and end exclusive. */
+    final long start;
+    final long end;
+    /** The DataNodes to read from, in order. */
+    final List<DatanodeInfo> nodes;
+    final byte[] buf;
+    final CachingStrategy cachingStrategy;
+    final Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap =
+        new HashMap<ExtendedBlock, Set<DatanodeInfo>>();
+    Future<Void> future;
+
+    PrefetchedChunk(LocatedBlock block, long start, long end,
+        List<DatanodeInfo> nodes, byte[] buf,
+        CachingStrategy cachingStrategy) {
+      this.block = block;
+      this.start = start;
+      this.end = end;
+      this.nodes = nodes;
+      this.buf = buf;
+      this.cachingStrategy = cachingStrategy;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      fetchPrefetchedChunk(this);
+      return null;
+    }
+  }
+
   /**
    * Read the entire buffer.
    */
@@ -864,17 +1169,20 @@ private void addIntoCorruptedBlockMap(ExtendedBlock blk, DatanodeInfo node,
       
   private DNAddrPair chooseDataNode(LocatedBlock block)
     throws IOException {
+    return chooseDataNode(block, Collections.<DatanodeInfo>emptyList());
+  }
+
+  /**
+   * Choose a live DataNode for the given block, refetching the block
+   * locations if none is left.
+   * @param ignoredNodes nodes not to choose, besides the dead nodes.
+   */
+  private DNAddrPair chooseDataNode(LocatedBlock block,
+      Collection<DatanodeInfo> ignoredNodes) throws IOException {
     while (true) {
       DatanodeInfo[] nodes = block.getLocations();
       try {
-        DatanodeInfo chosenNode = bestNode(nodes, deadNodes);
-        final String dnAddr =
-            chosenNode.getXferAddr(dfsClient.getConf().connectToDnViaHostname);
-        if (DFSClient.LOG.isDebugEnabled()) {
-          DFSClient.LOG.debug("Connecting to datanode " + dnAddr);
-        }
-        InetSocketAddress targetAddr = NetUtils.createSocketAddr(dnAddr);
-        return new DNAddrPair(chosenNode, targetAddr);
+        return getDNAddrPair(bestNode(nodes, deadNodes, ignoredNodes));
       } catch (IOException ie) {
         String blockInfo = block.getBlock() + " file=" + src;
         if (failures >= dfsClient.getMaxBlockAcquireFailures()) {
@@ -913,7 +1221,17 @@ private DNAddrPair chooseDataNode(LocatedBlock block)
       }
     }
   } 
-      
+
+  private DNAddrPair getDNAddrPair(DatanodeInfo chosenNode) {
+    final String dnAddr =
+        chosenNode.getXferAddr(dfsClient.getConf().connectToDnViaHostname);
+    if (DFSClient.LOG.isDebugEnabled()) {
+      DFSClient.LOG.debug("Connecting to datanode " + dnAddr);
+    }
+    InetSocketAddress targetAddr = NetUtils.createSocketAddr(dnAddr);
+    return new DNAddrPair(chosenNode, targetAddr);
+  }
+
   private void fetchBlockByteRange(LocatedBlock block, long start, long end,
       byte[] buf, int offset,
       Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
@@ -921,21 +1239,43 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
     //
     // Connect to best DataNode for desired Block, with potential offset
     //
-    int refetchToken = 1; // only need to get a new access token once
-    int refetchEncryptionKey = 1; // only need to get a new encryption key once
-    
     while (true) {
       // cached block locations may have been updated by chooseDataNode()
       // or fetchBlockAt(). Always get the latest list of locations at the 
       // start of the loop.
+      synchronized (this) {
+        block = getBlockAt(block.getStartOffset(), false);
+      }
+      DNAddrPair retval = chooseDataNode(block);
+      if (actualGetFromOneDataNode(retval, block, start, end, buf, offset,
+          corruptedBlockMap)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Read the given range of a block from one DataNode, retrying that
+   * DataNode after refetching an expired access token or encryption key.
+   * @return true if the range was read; false if the DataNode failed and
+   *         was added to the dead nodes.
+   */
+  private boolean actualGetFromOneDataNode(DNAddrPair datanode,
+      LocatedBlock block, long start, long end, byte[] buf, int offset,
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
+      throws IOException {
+    int refetchToken = 1; // only need to get a new access token once
+    int refetchEncryptionKey = 1; // only need to get a new encryption key once
+    DatanodeInfo chosenNode = datanode.info;
+    InetSocketAddress targetAddr = datanode.addr;
+
+    while (true) {
       CachingStrategy curCachingStrategy;
       synchronized (this) {
         block = getBlockAt(block.getStartOffset(), false);
         curCachingStrategy = cachingStrategy;
       }
-      DNAddrPair retval = chooseDataNode(block);
-      DatanodeInfo chosenNode = retval.info;
-      InetSocketAddress targetAddr = retval.addr;
+      DFSClientFaultInjector.get().startFetchFromDatanode();
       BlockReader reader = null;
           
       try {
@@ -950,7 +1290,7 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
           throw new IOException("truncated return from reader.read(): " +
                                 "excpected " + len + ", got " + nread);
         }
-        return;
+        return true;
       } catch (ChecksumException e) {
         DFSClient.LOG.warn("fetchBlockByteRange(). Got a checksum exception for " +
                  src + " at " + block.getBlock() + ":" + 
@@ -987,6 +1327,176 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
       }
       // Put chosen node into dead list, continue
       addToDeadNodes(chosenNode);
+      return false;
+    }
+  }
+
+  /**
+   * Like {@link #fetchBlockByteRange}, but if a DataNode has not returned
+   * the data within the hedged read threshold, read the range from another
+   * DataNode as well, and use whichever read completes first.
+   */
+  private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
+      long end, byte[] buf, int offset,
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
+      throws IOException {
+    final CompletionService<HedgedRead> hedgedService =
+        new ExecutorCompletionService<HedgedRead>(
+            dfsClient.getHedgedReadsThreadPool());
+    final DFSHedgedReadMetrics metrics = dfsClient.getHedgedReadMetrics();
+    // the nodes being read from
+    final List<DatanodeInfo> ignored = new ArrayList<DatanodeInfo>();
+    final List<Future<HedgedRead>> futures =
+        new ArrayList<Future<HedgedRead>>();
+    synchronized (this) {
+      block = getBlockAt(block.getStartOffset(), false);
+    }
+    try {
+      while (true) {
+        if (futures.isEmpty()) {
+          // first read, or all previous reads failed
+          HedgedRead read = new HedgedRead(chooseDataNode(block, ignored),
+              block, start, end);
+          try {
+            futures.add(hedgedService.submit(read));
+          } catch (RejectedExecutionException e) {
+            // no thread left to hedge with, read in this thread instead
+            metrics.incHedgedReadOpsInCurThread();
+            fetchBlockByteRange(block, start, end, buf, offset,
+                corruptedBlockMap);
+            return;
+          }
+          ignored.add(read.datanode.info);
+          Future<HedgedRead> done = hedgedService.poll(
+              dfsClient.getHedgedReadTimeout(), TimeUnit.MILLISECONDS);
+          if (done != null) {
+            futures.remove(done);
+            ignored.remove(read.datanode.info);
+            if (getHedgedResult(done, buf, offset, corruptedBlockMap)) {
+              return;
+            }
+            continue;
+          }
+        }
+
+        // The running reads are slow, or one of them failed: hedge with
+        // another DataNode, if there is one.
+        DatanodeInfo[] nodes = block.getLocations();
+        DatanodeInfo node = null;
+        try {
+          node = bestNode(nodes, deadNodes, ignored);
+        } catch (IOException e) {
+          // no other DataNode to read from; wait for the running reads
+        }
+        if (node != null) {
+          try {
+            HedgedRead read = new HedgedRead(getDNAddrPair(node), block,
+                start, end);
+            read.hedged = true;
+            futures.add(hedgedService.submit(read));
+            ignored.add(node);
+            metrics.incHedgedReadOps();
+          } catch (RejectedExecutionException e) {
+            // no thread left to hedge with; wait for the running reads
+          }
+        }
+
+        Future<HedgedRead> done = hedgedService.take();
+        futures.remove(done);
+        HedgedRead read = getDoneRead(done);
+        if (read != null) {
+          ignored.remove(read.datanode.info);
+        }
+        if (getHedgedResult(done, buf, offset, corruptedBlockMap)) {
+          if (read.hedged) {
+            metrics.incHedgedReadWins();
+          }
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for "
+          + "hedged reads of " + block.getBlock() + " file=" + src);
+    } finally {
+      for (Future<HedgedRead> future : futures) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  private static HedgedRead getDoneRead(Future<HedgedRead> done) {
+    try {
+      return done.get();
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Collect the result of a completed hedged read.
+   * @return true if the read succeeded and its data was copied into buf.
+   */
+  private boolean getHedgedResult(Future<HedgedRead> done, byte[] buf,
+      int offset, Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
+      throws IOException {
+    final HedgedRead read;
+    try {
+      read = done.get();
+    } catch (CancellationException e) {
+      return false;
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while reading "
+          + "hedged read results for file " + src);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      throw new IOException("Hedged read failed for file " + src, cause);
+    }
+    for (Map.Entry<ExtendedBlock, Set<DatanodeInfo>> entry :
+        read.corruptedBlockMap.entrySet()) {
+      for (DatanodeInfo node : entry.getValue()) {
+        addIntoCorruptedBlockMap(entry.getKey(), node, corruptedBlockMap);
+      }
+    }
+    if (!read.succeeded) {
+      return false;
+    }
+    System.arraycopy(read.buf, 0, buf, offset, read.buf.length);
+    return true;
+  }
+
+  /**
+   * A read of a block range from one DataNode, into a buffer of its own so
+   * that reads which lose the race cannot touch the caller's buffer.
+   */
+  private class HedgedRead implements Callable<HedgedRead> {
+    final DNAddrPair datanode;
+    final LocatedBlock block;
+    final long start;
+    final long end;
+    final byte[] buf;
+    final Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap =
+        new HashMap<ExtendedBlock, Set<DatanodeInfo>>();
+    /** Whether this read was started because another one was slow. */
+    boolean hedged;
+    boolean succeeded;
+
+    HedgedRead(DNAddrPair datanode, LocatedBlock block, long start,
+        long end) {
+      this.datanode = datanode;
+      this.block = block;
+      this.start = start;
+      this.end = end;
+      this.buf = new byte[(int)(end - start + 1)];
+    }
+
+    @Override
+    public HedgedRead call() throws IOException {
+      succeeded = actualGetFromOneDataNode(datanode, block, start, end, buf,
+          0, corruptedBlockMap);
+      return this;
     }
   }
 
@@ -1074,8 +1584,10 @@ protected BlockReader getBlockReader(InetSocketAddress dnAddr,
       throws IOException {
     // Firstly, we check to see if we have cached any file descriptors for
     // local blocks.  If so, we can just re-use those file descriptors.
-    FileInputStream fis[] = fileInputStreamCache.get(chosenNode, block);
-    if (fis != null) {
+    FileInputStreamCache.Value cached =
+        fileInputStreamCache.get(chosenNode, block);
+    if (cached != null) {
+      FileInputStream fis[] = cached.getFileInputStreams();
       if (DFSClient.LOG.isDebugEnabled()) {
         DFSClient.LOG.debug("got FileInputStreams for " + block + " from " +
             "the FileInputStreamCache.");
@@ -1091,6 +1603,7 @@ protected BlockReader getBlockReader(InetSocketAddress dnAddr,
               preadHeader(fis[1].getChannel())).
           setFileInputStreamCache(fileInputStreamCache).
           setCachingStrategy(curCachingStrategy).
+          setSlot(cached.getSlot()).
           build();
     }
     
@@ -1244,8 +1757,15 @@ public int read(long position, byte[] buffer, int offset, int length)
       long targetStart = position - blk.getStartOffset();
       long bytesToRead = Math.min(remaining, blk.getBlockSize() - targetStart);
       try {
-        fetchBlockByteRange(blk, targetStart, 
-            targetStart + bytesToRead - 1, buffer, offset, corruptedBlockMap);
+        if (dfsClient.isHedgedReadsEnabled()) {
+          hedgedFetchBlockByteRange(blk, targetStart,
+              targetStart + bytesToRead - 1, buffer, offset,
+              corruptedBlockMap);
+        } else {
+          fetchBlockByteRange(blk, targetStart,
+              targetStart + bytesToRead - 1, buffer, offset,
+              corruptedBlockMap);
+        }
       } finally {
         // Check and report if any block replicas are corrupted.
         // BlockMissingException may be caught if all block replicas are
@@ -1434,9 +1954,20 @@ public void reset() throws IOException {
   static DatanodeInfo bestNode(DatanodeInfo nodes[], 
                                AbstractMap<DatanodeInfo, DatanodeInfo> deadNodes)
                                throws IOException {
+    return bestNode(nodes, deadNodes, Collections.<DatanodeInfo>emptyList());
+  }
+
+  /**
+   * Pick the best node from which to stream the data, which is neither dead
+   * nor one of the ignored nodes.
+   */
+  static DatanodeInfo bestNode(DatanodeInfo nodes[],
+      AbstractMap<DatanodeInfo, DatanodeInfo> deadNodes,
+      Collection<DatanodeInfo> ignoredNodes) throws IOException {
     if (nodes != null) { 
       for (int i = 0; i < nodes.length; i++) {
-        if (!deadNodes.containsKey(nodes[i])) {
+        if (!deadNodes.containsKey(nodes[i])
+            && !ignoredNodes.contains(nodes[i])) {
           return nodes[i];
         }
       }
@@ -1458,7 +1989,10 @@ static class DNAddrPair {
    * Get statistics about the reads which this DFSInputStream has done.
    */
   public synchronized ReadStatistics getReadStatistics() {
-    return new ReadStatistics(readStatistics);
+    ReadStatistics ret = new ReadStatistics(readStatistics);
+    ret.shortCircuitFdCacheHits = fileInputStreamCache.getHits();
+    ret.shortCircuitFdCacheMisses = fileInputStreamCache.getMisses();
+    return ret;
   }
 
   private synchronized void closeCurrentBlockReader() {
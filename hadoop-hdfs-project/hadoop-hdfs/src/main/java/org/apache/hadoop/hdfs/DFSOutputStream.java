@@ -152,7 +152,89 @@ public class DFSOutputStream extends FSOutputSummer
   private boolean shouldSyncBlock = false; // force blocks to disk upon close
   private AtomicReference<CachingStrategy> cachingStrategy;
   private boolean failPacket = false;
-  
+  // guarded by the dataQueue lock
+  private final WriteStatistics writeStatistics = new WriteStatistics();
+
+  /**
+   * Statistics about the packets written by a DFSOutputStream.  The times
+   * are only accounted for the packets which were acknowledged.
+   */
+  public static class WriteStatistics {
+    private long packetsAcked;
+    private long totalQueueTimeMs;
+    private long maxQueueTimeMs;
+    private long totalAckTimeMs;
+    private long maxAckTimeMs;
+    private long pipelinesClosedInBackground;
+
+    public WriteStatistics() {
+    }
+
+    public WriteStatistics(WriteStatistics rhs) {
+      this.packetsAcked = rhs.packetsAcked;
+      this.totalQueueTimeMs = rhs.totalQueueTimeMs;
+      this.maxQueueTimeMs = rhs.maxQueueTimeMs;
+      this.totalAckTimeMs = rhs.totalAckTimeMs;
+      this.maxAckTimeMs = rhs.maxAckTimeMs;
+      this.pipelinesClosedInBackground = rhs.pipelinesClosedInBackground;
+    }
+
+    private void packetAcked(Packet packet, long now) {
+      final long queueTime = packet.sentTime - packet.queuedTime;
+      final long ackTime = now - packet.sentTime;
+      packetsAcked++;
+      totalQueueTimeMs += queueTime;
+      maxQueueTimeMs = Math.max(maxQueueTimeMs, queueTime);
+      totalAckTimeMs += ackTime;
+      maxAckTimeMs = Math.max(maxAckTimeMs, ackTime);
+    }
+
+    /**
+     * @return The number of data packets acknowledged by the pipelines.
+     */
+    public long getPacketsAcked() {
+      return packetsAcked;
+    }
+
+    /**
+     * @return The total time the packets waited in the data queue before
+     * the streamer sent them.
+     */
+    public long getTotalQueueTimeMs() {
+      return totalQueueTimeMs;
+    }
+
+    /**
+     * @return The longest time a packet waited in the data queue.
+     */
+    public long getMaxQueueTimeMs() {
+      return maxQueueTimeMs;
+    }
+
+    /**
+     * @return The total time between sending the packets and receiving
+     * their acknowledgements from the pipeline.
+     */
+    public long getTotalAckTimeMs() {
+      return totalAckTimeMs;
+    }
+
+    /**
+     * @return The longest time a packet waited for its acknowledgement.
+     */
+    public long getMaxAckTimeMs() {
+      return maxAckTimeMs;
+    }
+
+    /**
+     * @return The number of block pipelines which were closed in the
+     * background while the next block was being written.
+     */
+    public long getPipelinesClosedInBackground() {
+      return pipelinesClosedInBackground;
+    }
+  }
+
   private static class Packet {
     private static final long HEART_BEAT_SEQNO = -1L;
     long seqno; // sequencenumber of buffer in block
@@ -162,6 +244,8 @@ private static class Packet {
     final int maxChunks; // max chunks in packet
     byte[]  buf;
     private boolean lastPacketInBlock; // is this the last packet in block?
+    long queuedTime; // when the packet was added to the data queue
+    long sentTime; // when the packet was sent to the pipeline
 
     /**
      * buf is pointed into like follows:
@@ -311,6 +395,8 @@ class DataStreamer extends Daemon {
     private DataOutputStream blockStream;
     private DataInputStream blockReplyStream;
     private ResponseProcessor response = null;
+    /** The responder of the previous block's pipeline closing in the background. */
+    private ResponseProcessor closingResponse = null;
     private volatile DatanodeInfo[] nodes = null; // list of targets for current block
     private volatile String[] storageIDs = null;
     private LoadingCache<DatanodeInfo, DatanodeInfo> excludedNodes =
@@ -555,6 +641,7 @@ public void run() {
             // move packet from dataQueue to ackQueue
             if (!one.isHeartbeatPacket()) {
               dataQueue.removeFirst();
+              one.sentTime = Time.monotonicNow();
               ackQueue.addLast(one);
               dataQueue.notifyAll();
             }
@@ -588,7 +675,8 @@ public void run() {
           }
 
           // Is this block full?
-          if (one.lastPacketInBlock) {
+          if (one.lastPacketInBlock && !(dfsClient.getConf()
+              .blockWritePipelineAhead && closePipelineInBackground(one))) {
             // wait for the close packet has been acked
             synchronized (dataQueue) {
               while (!streamerClosed && !hasError && 
@@ -625,6 +713,23 @@ public void run() {
     private void closeInternal() {
       closeResponder();       // close and join
       closeStream();
+      if (closingResponse != null) {
+        // let the previous pipeline finish closing, but not for longer than
+        // a read from it may take
+        try {
+          closingResponse.join(dfsClient.getDatanodeReadTimeout(
+              closingResponse.targets.length));
+          if (closingResponse.isAlive()) {
+            DFSClient.LOG.warn("Giving up on closing the pipeline of "
+                + closingResponse.block + " in the background");
+            closingResponse.close();
+          }
+        } catch (InterruptedException e) {
+          DFSClient.LOG.warn("Caught exception ", e);
+        } finally {
+          closingResponse = null;
+        }
+      }
       streamerClosed = true;
       closed = true;
       synchronized (dataQueue) {
@@ -651,6 +756,47 @@ void close(boolean force) {
       }
     }
 
+    /**
+     * Leave the end-of-block packet which was just sent to the responder of
+     * the current pipeline, which closes the pipeline once the DataNodes
+     * have finalized the block, and detach the pipeline from this streamer,
+     * so that the next block can be allocated right away.  All the data of
+     * the block has been acknowledged, so its length is final.
+     *
+     * @return false if the packet has been acknowledged already or the
+     *         pipeline failed, in which case the block is ended as usual.
+     */
+    private boolean closePipelineInBackground(Packet lastPacket)
+        throws InterruptedException {
+      // at most one pipeline closes in the background
+      if (closingResponse != null) {
+        closingResponse.join();
+        closingResponse = null;
+      }
+      synchronized (dataQueue) {
+        if (hasError || response == null || ackQueue.size() != 1
+            || ackQueue.getFirst() != lastPacket) {
+          return false;
+        }
+        ackQueue.removeFirst();
+        response.closeInBackground(lastPacket, blockStream, s);
+        writeStatistics.pipelinesClosedInBackground++;
+      }
+      if (DFSClient.LOG.isDebugEnabled()) {
+        DFSClient.LOG.debug("Closing the pipeline of " + block
+            + " in the background");
+      }
+      closingResponse = response;
+      response = null;
+      blockStream = null;
+      blockReplyStream = null;
+      s = null;
+      this.setName("DataStreamer for file " + src);
+      setPipeline(null, null);
+      stage = BlockConstructionStage.PIPELINE_SETUP_CREATE;
+      return true;
+    }
+
     private void closeResponder() {
       if (response != null) {
         try {
@@ -703,9 +849,38 @@ private class ResponseProcessor extends Daemon {
       private volatile boolean responderClosed = false;
       private DatanodeInfo[] targets = null;
       private boolean isLastPacketInBlock = false;
+      // the block, token and reply stream of this pipeline, which outlive
+      // those of the streamer if the pipeline is closed in the background
+      private final ExtendedBlock block;
+      private final Token<BlockTokenIdentifier> accessToken;
+      private final DataInputStream blockReplyStream;
+      // The packets awaiting acks on this pipeline, guarded by the dataQueue
+      // lock.  The ackQueue, unless the pipeline is closed in the background.
+      private LinkedList<Packet> acks = ackQueue;
+      private boolean background = false;
+      private DataOutputStream backgroundBlockStream;
+      private Socket backgroundSocket;
 
       ResponseProcessor (DatanodeInfo[] targets) {
         this.targets = targets;
+        this.block = DataStreamer.this.block;
+        this.accessToken = DataStreamer.this.accessToken;
+        this.blockReplyStream = DataStreamer.this.blockReplyStream;
+      }
+
+      /**
+       * Wait for the ack of the end-of-block packet on a queue of its own,
+       * and then close the pipeline.  If the ack fails, the block is
+       * finalized through {@link #recoverClose(int)} instead of the
+       * streamer's recovery.  Called with the dataQueue lock held.
+       */
+      private void closeInBackground(Packet lastPacket,
+          DataOutputStream blockStream, Socket socket) {
+        acks = new LinkedList<Packet>();
+        acks.add(lastPacket);
+        background = true;
+        backgroundBlockStream = blockStream;
+        backgroundSocket = socket;
       }
 
       @Override
@@ -714,7 +889,10 @@ public void run() {
         setName("ResponseProcessor for block " + block);
         PipelineAck ack = new PipelineAck();
 
+        Exception backgroundError = null;
+        int badIndex = -1;
         while (!responderClosed && dfsClient.clientRunning && !isLastPacketInBlock) {
+          badIndex = -1;
           // process responses from datanodes.
           try {
             // read an ack from the pipeline
@@ -728,7 +906,7 @@ public void run() {
             for (int i = ack.getNumOfReplies()-1; i >=0  && dfsClient.clientRunning; i--) {
               final Status reply = ack.getReply(i);
               if (reply != SUCCESS) {
-                errorIndex = i; // first bad datanode
+                badIndex = i; // first bad datanode
                 throw new IOException("Bad response " + reply +
                     " for block " + block +
                     " from datanode " + 
@@ -745,7 +923,7 @@ public void run() {
             // a success ack for a data packet
             Packet one;
             synchronized (dataQueue) {
-              one = ackQueue.getFirst();
+              one = acks.getFirst();
             }
             if (one.seqno != seqno) {
               throw new IOException("ResponseProcessor: Expecting seqno " +
@@ -767,26 +945,125 @@ public void run() {
             block.setNumBytes(one.getLastByteOffsetBlock());
 
             synchronized (dataQueue) {
-              lastAckedSeqno = seqno;
-              ackQueue.removeFirst();
+              // a pipeline closing in the background may be acked last
+              lastAckedSeqno = Math.max(lastAckedSeqno, seqno);
+              acks.removeFirst();
+              writeStatistics.packetAcked(one, Time.monotonicNow());
               dataQueue.notifyAll();
             }
           } catch (Exception e) {
             if (!responderClosed) {
-              if (e instanceof IOException) {
-                setLastException((IOException)e);
-              }
-              hasError = true;
-              errorIndex = errorIndex==-1 ? 0 : errorIndex;
               synchronized (dataQueue) {
+                if (background) {
+                  // the streamer has moved on, recover below
+                  backgroundError = e;
+                } else {
+                  if (e instanceof IOException) {
+                    setLastException((IOException)e);
+                  }
+                  if (badIndex >= 0) {
+                    errorIndex = badIndex;
+                  }
+                  hasError = true;
+                  errorIndex = errorIndex==-1 ? 0 : errorIndex;
+                  DFSClient.LOG.warn("DFSOutputStream ResponseProcessor "
+                      + "exception  for block " + block, e);
+                }
                 dataQueue.notifyAll();
               }
-              DFSClient.LOG.warn("DFSOutputStream ResponseProcessor exception "
-                  + " for block " + block, e);
               responderClosed = true;
             }
           }
         }
+
+        final boolean closeStreams;
+        synchronized (dataQueue) {
+          closeStreams = background;
+        }
+        if (closeStreams) {
+          IOUtils.closeStream(backgroundBlockStream);
+          IOUtils.closeStream(blockReplyStream);
+          IOUtils.closeSocket(backgroundSocket);
+        }
+        if (backgroundError != null) {
+          DFSClient.LOG.warn("Failed to close the pipeline of " + block
+              + " in the background", backgroundError);
+          final boolean recovered = recoverClose(badIndex);
+          synchronized (dataQueue) {
+            if (recovered) {
+              for (Packet one : acks) {
+                lastAckedSeqno = Math.max(lastAckedSeqno, one.seqno);
+              }
+              acks.clear();
+            } else {
+              setLastException(new IOException("Failed to close the pipeline"
+                  + " of " + block + " on " + Arrays.asList(targets),
+                  backgroundError));
+              streamerClosed = true;
+            }
+            dataQueue.notifyAll();
+          }
+        }
+      }
+
+      /**
+       * Finalize the replicas of a block whose end-of-block packet was not
+       * acknowledged, after the streamer moved on to the next block.  The
+       * NameNode has committed the block by now, so its pipeline cannot be
+       * updated; instead, as in the PIPELINE_CLOSE stage of the streamer's
+       * recovery, each remaining datanode is asked to finalize its replica
+       * with the length acknowledged before and the same generation stamp.
+       *
+       * @param badIndex the index of the datanode which failed, or -1 if
+       *                 unknown.
+       * @return true if at least one replica was finalized.
+       */
+      private boolean recoverClose(int badIndex) {
+        boolean recovered = false;
+        for (int i = 0; i < targets.length && dfsClient.clientRunning
+            && !isInterrupted(); i++) {
+          if (i == badIndex) {
+            continue;
+          }
+          Socket sock = null;
+          DataOutputStream out = null;
+          DataInputStream in = null;
+          try {
+            sock = createSocketForPipeline(targets[i], 1, dfsClient);
+            OutputStream unbufOut = NetUtils.getOutputStream(sock,
+                dfsClient.getDatanodeWriteTimeout(1));
+            InputStream unbufIn = NetUtils.getInputStream(sock);
+            if (dfsClient.shouldEncryptData()) {
+              IOStreamPair encryptedStreams =
+                  DataTransferEncryptor.getEncryptedStreams(unbufOut,
+                      unbufIn, dfsClient.getDataEncryptionKey());
+              unbufOut = encryptedStreams.out;
+              unbufIn = encryptedStreams.in;
+            }
+            out = new DataOutputStream(new BufferedOutputStream(unbufOut,
+                HdfsConstants.SMALL_BUFFER_SIZE));
+            in = new DataInputStream(unbufIn);
+            new Sender(out).writeBlock(block, accessToken,
+                dfsClient.clientName, new DatanodeInfo[0], null,
+                BlockConstructionStage.PIPELINE_CLOSE_RECOVERY, 1,
+                block.getNumBytes(), block.getNumBytes(),
+                block.getGenerationStamp(), checksum, cachingStrategy.get());
+            BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
+                PBHelper.vintPrefixed(in));
+            if (resp.getStatus() != SUCCESS) {
+              throw new IOException("Bad response " + resp.getStatus());
+            }
+            recovered = true;
+          } catch (IOException e) {
+            DFSClient.LOG.warn("Failed to finalize " + block + " on "
+                + targets[i], e);
+          } finally {
+            IOUtils.closeStream(out);
+            IOUtils.closeStream(in);
+            IOUtils.closeSocket(sock);
+          }
+        }
+        return recovered;
       }
 
       void close() {
@@ -1489,6 +1766,7 @@ private void computePacketChunkSize(int psize, int csize) {
   private void queueCurrentPacket() {
     synchronized (dataQueue) {
       if (currentPacket == null) return;
+      currentPacket.queuedTime = Time.monotonicNow();
       dataQueue.addLast(currentPacket);
       lastQueuedSeqno = currentPacket.seqno;
       if (DFSClient.LOG.isDebugEnabled()) {
@@ -1848,6 +2126,15 @@ private void waitForAckedSeqno(long seqno) throws IOException {
   private synchronized void start() {
     streamer.start();
   }
+
+  /**
+   * Get statistics about the packets this DFSOutputStream has written.
+   */
+  public WriteStatistics getWriteStatistics() {
+    synchronized (dataQueue) {
+      return new WriteStatistics(writeStatistics);
+    }
+  }
   
   /**
    * Aborts this output stream and releases any system 
@@ -221,6 +221,32 @@ public BlockLocation[] next(final FileSystem fs, final Path p)
     }.resolve(this, absF);
   }
 
+  /**
+   * Get the block locations of the same range of a number of files, using as
+   * few calls to the namenode as possible.
+   *
+   * @return the block locations of each file, in the order of the paths.
+   * @throws FileNotFoundException if some file does not exist.
+   * @see #getFileBlockLocations(Path, long, long)
+   */
+  public BlockLocation[][] getFileBlockLocations(final Path[] paths,
+      final long start, final long len) throws IOException {
+    statistics.incrementReadOps(1);
+    final String[] srcs = new String[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      srcs[i] = getPathName(fixRelativePart(paths[i]));
+    }
+    final BlockLocation[][] locations =
+        dfs.getBlockLocations(srcs, start, len);
+    for (int i = 0; i < locations.length; i++) {
+      if (locations[i] == null) {
+        // Resolve symlinks, or throw FileNotFoundException.
+        locations[i] = getFileBlockLocations(paths[i], start, len);
+      }
+    }
+    return locations;
+  }
+
   /**
    * Used to query storage location information for a list of blocks. This list
    * of blocks is normally constructed via a series of calls to
@@ -719,66 +745,108 @@ public FileStatus[] next(final FileSystem fs, final Path p)
   protected RemoteIterator<LocatedFileStatus> listLocatedStatus(final Path p,
       final PathFilter filter)
   throws IOException {
-    final Path absF = fixRelativePart(p);
-    return new RemoteIterator<LocatedFileStatus>() {
-      private DirectoryListing thisListing;
-      private int i;
-      private String src;
-      private LocatedFileStatus curStat = null;
-
-      { // initializer
-        // Fully resolve symlinks in path first to avoid additional resolution
-        // round-trips as we fetch more batches of listings
-        src = getPathName(resolvePath(absF));
-        // fetch the first batch of entries in the directory
-        thisListing = dfs.listPaths(src, HdfsFileStatus.EMPTY_NAME, true);
-        statistics.incrementReadOps(1);
-        if (thisListing == null) { // the directory does not exist
-          throw new FileNotFoundException("File " + p + " does not exist.");
-        }
+    Path absF = fixRelativePart(p);
+    return new DirListingIterator<LocatedFileStatus>(absF, filter, true);
+  }
+
+  /**
+   * Returns a remote iterator which fetches the entries of a directory from
+   * the NameNode one batch at a time, as they are consumed.
+   *
+   * Note that this operation is not atomic for a large directory.
+   * It only guarantees that each name occurs once if a directory
+   * undergoes changes between the calls.
+   */
+  @Override
+  public RemoteIterator<FileStatus> listStatusIterator(final Path p)
+  throws IOException {
+    Path absF = fixRelativePart(p);
+    return new DirListingIterator<FileStatus>(absF, null, false);
+  }
+
+  /**
+   * An iterator over the file status of each file/subdirectory of a
+   * directory, fetching one batch of entries from the NameNode at a time.
+   * If needLocation is set, the status of a file contains its block
+   * locations.
+   * 
+   * @param <T> the type of the file status
+   */
+  private class DirListingIterator<T extends FileStatus>
+      implements RemoteIterator<T> {
+    private DirectoryListing thisListing;
+    private int i;
+    private final Path p;
+    private final String src;
+    private T curStat = null;
+    private final PathFilter filter;
+    private final boolean needLocation;
+
+    private DirListingIterator(Path p, PathFilter filter,
+        boolean needLocation) throws IOException {
+      this.p = p;
+      // Fully resolve symlinks in path first to avoid additional resolution
+      // round-trips as we fetch more batches of listings
+      this.src = getPathName(resolvePath(p));
+      this.filter = filter;
+      this.needLocation = needLocation;
+      // fetch the first batch of entries in the directory
+      thisListing = dfs.listPaths(src, HdfsFileStatus.EMPTY_NAME,
+          needLocation);
+      statistics.incrementReadOps(1);
+      if (thisListing == null) { // the directory does not exist
+        throw new FileNotFoundException("File " + p + " does not exist.");
       }
+    }
 
-      @Override
-      public boolean hasNext() throws IOException {
-        while (curStat == null && hasNextNoFilter()) {
-          LocatedFileStatus next = 
-              ((HdfsLocatedFileStatus)thisListing.getPartialListing()[i++])
-              .makeQualifiedLocated(getUri(), absF);
-          if (filter.accept(next.getPath())) {
-            curStat = next;
-          }
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext() throws IOException {
+      while (curStat == null && hasNextNoFilter()) {
+        T next;
+        HdfsFileStatus fileStat = thisListing.getPartialListing()[i++];
+        if (needLocation) {
+          next = (T)((HdfsLocatedFileStatus)fileStat)
+              .makeQualifiedLocated(getUri(), p);
+        } else {
+          next = (T)fileStat.makeQualified(getUri(), p);
+        }
+        // apply filter if not null
+        if (filter == null || filter.accept(next.getPath())) {
+          curStat = next;
         }
-        return curStat != null;
       }
+      return curStat != null;
+    }
       
-      /** Check if there is a next item before applying the given filter */
-      private boolean hasNextNoFilter() throws IOException {
+    /** Check if there is a next item before applying the given filter */
+    private boolean hasNextNoFilter() throws IOException {
+      if (thisListing == null) {
+        return false;
+      }
+      if (i >= thisListing.getPartialListing().length
+          && thisListing.hasMore()) { 
+        // current listing is exhausted & fetch a new listing
+        thisListing = dfs.listPaths(src, thisListing.getLastName(),
+            needLocation);
+        statistics.incrementReadOps(1);
         if (thisListing == null) {
           return false;
         }
-        if (i>=thisListing.getPartialListing().length
-            && thisListing.hasMore()) { 
-          // current listing is exhausted & fetch a new listing
-          thisListing = dfs.listPaths(src, thisListing.getLastName(), true);
-          statistics.incrementReadOps(1);
-          if (thisListing == null) {
-            return false;
-          }
-          i = 0;
-        }
-        return (i<thisListing.getPartialListing().length);
+        i = 0;
       }
+      return (i < thisListing.getPartialListing().length);
+    }
 
-      @Override
-      public LocatedFileStatus next() throws IOException {
-        if (hasNext()) {
-          LocatedFileStatus tmp = curStat;
-          curStat = null;
-          return tmp;
-        } 
-        throw new java.util.NoSuchElementException("No more entry in " + p);
-      }
-    };
+    @Override
+    public T next() throws IOException {
+      if (hasNext()) {
+        T tmp = curStat;
+        curStat = null;
+        return tmp;
+      } 
+      throw new java.util.NoSuchElementException("No more entry in " + p);
+    }
   }
   
   /**
@@ -19,12 +19,14 @@
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.hdfs.DFSClient.Conf;
+import org.apache.hadoop.hdfs.client.ShortCircuitShm;
 import org.apache.hadoop.net.unix.DomainSocket;
 
 import com.google.common.cache.Cache;
@@ -47,6 +49,12 @@ enum PathStatus {
       .expireAfterWrite(10, TimeUnit.MINUTES)
       .build();
 
+  /**
+   * The shared memory segments of the DataNodes, by domain socket path.
+   */
+  private final HashMap<String, ShortCircuitShm> segments =
+      new HashMap<String, ShortCircuitShm>();
+
   public DomainSocketFactory(Conf conf) {
     this.conf = conf;
 
@@ -138,6 +146,34 @@ DomainSocket create(InetSocketAddress addr, DFSInputStream stream) {
 
   public void disableShortCircuitForPath(String path) {
     pathInfo.put(path, PathStatus.SHORT_CIRCUIT_DISABLED);
+    putShm(path, null);
+  }
+
+  /**
+   * Get the shared memory segment of the DataNode at a domain socket path.
+   *
+   * @param path        The domain socket path.
+   *
+   * @return            null if we have not mapped a segment of this
+   *                    DataNode; the segment otherwise.
+   */
+  synchronized ShortCircuitShm getShm(String path) {
+    return segments.get(path);
+  }
+
+  /**
+   * Set the shared memory segment of the DataNode at a domain socket path.
+   * The slots of the previous segment, if any, are no longer valid.
+   *
+   * @param path        The domain socket path.
+   * @param shm         The new segment, or null to forget the segment.
+   */
+  synchronized void putShm(String path, ShortCircuitShm shm) {
+    ShortCircuitShm prev = (shm == null) ?
+        segments.remove(path) : segments.put(path, shm);
+    if ((prev != null) && (prev != shm)) {
+      prev.markStale();
+    }
   }
 
   public void disableDomainSocketPath(String path) {
@@ -30,6 +30,7 @@
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.client.ShortCircuitShm;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.io.IOUtils;
@@ -41,6 +42,9 @@
 /**
  * FileInputStream cache is used to cache FileInputStream objects that we
  * have received from the DataNode.
+ *
+ * Streams which came with a shared memory slot are kept for as long as the
+ * slot says the replica is valid, rather than for the expiry time.
  */
 class FileInputStreamCache {
   private final static Log LOG = LogFactory.getLog(FileInputStreamCache.class);
@@ -80,6 +84,16 @@ class FileInputStreamCache {
    */
   private final LinkedListMultimap<Key, Value> map = LinkedListMultimap.create();
 
+  /**
+   * The number of times streams were found in the cache.
+   */
+  private long hits = 0;
+
+  /**
+   * The number of times streams had to be requested from a DataNode.
+   */
+  private long misses = 0;
+
   /**
    * Expiry thread which makes sure that the file descriptors get closed
    * after a while.
@@ -100,14 +114,12 @@ public void run() {
         if (cache.closed) return;
         long curTime = Time.monotonicNow();
         for (Iterator<Entry<Key, Value>> iter =
-                  cache.map.entries().iterator(); iter.hasNext();
-              iter = cache.map.entries().iterator()) {
+                  cache.map.entries().iterator(); iter.hasNext(); ) {
           Entry<Key, Value> entry = iter.next();
-          if (entry.getValue().getTime() + cache.expiryTimeMs >= curTime) {
-            break;
+          if (entry.getValue().isStale(curTime, cache.expiryTimeMs)) {
+            entry.getValue().close();
+            iter.remove();
           }
-          entry.getValue().close();
-          iter.remove();
         }
       }
     }
@@ -154,15 +166,17 @@ public int hashCode() {
   }
 
   /**
-   * The value containing a FileInputStream array and the time it was added to
-   * the cache.
+   * The value containing a FileInputStream array, its shared memory slot,
+   * and the time it was added to the cache.
    */
   static class Value {
     private final FileInputStream fis[];
+    private final ShortCircuitShm.Slot slot;
     private final long time;
     
-    public Value (FileInputStream fis[]) {
+    public Value (FileInputStream fis[], ShortCircuitShm.Slot slot) {
       this.fis = fis;
+      this.slot = slot;
       this.time = Time.monotonicNow();
     }
 
@@ -170,9 +184,28 @@ public FileInputStream[] getFileInputStreams() {
       return fis;
     }
 
+    /**
+     * @return     The shared memory slot of the replica, or null.
+     */
+    public ShortCircuitShm.Slot getSlot() {
+      return slot;
+    }
+
     public long getTime() {
       return time;
     }
+
+    /**
+     * @return     True if the streams should no longer be used.  Streams
+     *             with a slot are stale once the DataNode marks the slot
+     *             invalid; other streams expire after expiryTimeMs.
+     */
+    boolean isStale(long curTime, long expiryTimeMs) {
+      if (slot != null) {
+        return !slot.isValid();
+      }
+      return time + expiryTimeMs < curTime;
+    }
     
     public void close() {
       IOUtils.cleanup(LOG, fis);
@@ -201,10 +234,25 @@ public FileInputStreamCache(int maxCacheSize, long expiryTimeMs) {
    */
   public void put(DatanodeID datanodeID, ExtendedBlock block,
       FileInputStream fis[]) {
+    put(datanodeID, block, fis, null);
+  }
+
+  /**
+   * Put an array of FileInputStream objects into the cache.
+   *
+   * @param datanodeID          The DatanodeID to store the streams under.
+   * @param block               The Block to store the streams under.
+   * @param fis                 The streams.
+   * @param slot                The shared memory slot of the replica, or
+   *                            null if the DataNode did not give us one.
+   */
+  public void put(DatanodeID datanodeID, ExtendedBlock block,
+      FileInputStream fis[], ShortCircuitShm.Slot slot) {
     boolean inserted = false;
     try {
       synchronized(this) {
         if (closed) return;
+        if ((slot != null) && (!slot.isValid())) return;
         if (map.size() + 1 > maxCacheSize) {
           Iterator<Entry<Key, Value>> iter = map.entries().iterator();
           if (!iter.hasNext()) return;
@@ -219,7 +267,7 @@ public void put(DatanodeID datanodeID, ExtendedBlock block,
                   TimeUnit.MILLISECONDS);
           cacheCleaner.setFuture(future);
         }
-        map.put(new Key(datanodeID, block), new Value(fis));
+        map.put(new Key(datanodeID, block), new Value(fis, slot));
         inserted = true;
       }
     } finally {
@@ -235,18 +283,50 @@ public void put(DatanodeID datanodeID, ExtendedBlock block,
    * @param datanodeID          The DatanodeID to search for.
    * @param block               The Block to search for.
    *
-   * @return                    null if no streams can be found; the
-   *                            array otherwise.  If this is non-null, the
-   *                            array will have been removed from the cache.
+   * @return                    null if no usable streams can be found;
+   *                            the streams and their slot otherwise.  If
+   *                            this is non-null, the streams will have been
+   *                            removed from the cache.
    */
-  public synchronized FileInputStream[] get(DatanodeID datanodeID,
+  public synchronized Value get(DatanodeID datanodeID,
       ExtendedBlock block) {
     Key key = new Key(datanodeID, block);
     List<Value> ret = map.get(key);
-    if (ret.isEmpty()) return null;
-    Value val = ret.get(0);
-    map.remove(key, val);
-    return val.getFileInputStreams();
+    while (!ret.isEmpty()) {
+      Value val = ret.get(0);
+      map.remove(key, val);
+      // Checking the slot is just a memory read, so we can afford to do it
+      // on every lookup instead of waiting for the cleaner.
+      if ((val.getSlot() != null) && (!val.getSlot().isValid())) {
+        val.close();
+        continue;
+      }
+      hits++;
+      return val;
+    }
+    return null;
+  }
+
+  /**
+   * Record that streams had to be requested from a DataNode.
+   */
+  public synchronized void incrementMisses() {
+    misses++;
+  }
+
+  /**
+   * @return     The number of times streams were found in the cache.
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return     The number of times streams had to be requested from a
+   *             DataNode.
+   */
+  public synchronized long getMisses() {
+    return misses;
   }
   
   /**
@@ -273,6 +353,8 @@ public synchronized String toString() {
       bld.append(entry.getKey());
       prefix = ", ";
     }
+    bld.append(prefix).append("hits=").append(hits).
+        append(", misses=").append(misses);
     bld.append(")");
     return bld.toString();
   }
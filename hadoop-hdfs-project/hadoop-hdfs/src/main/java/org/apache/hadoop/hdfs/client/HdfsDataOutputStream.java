@@ -70,6 +70,14 @@ public void hsync(EnumSet<SyncFlag> syncFlags) throws IOException {
     ((DFSOutputStream) getWrappedStream()).hsync(syncFlags);
   }
   
+  /**
+   * Get statistics about the packets this stream has written, such as the
+   * time they spent queued and waiting for their acknowledgements.
+   */
+  public DFSOutputStream.WriteStatistics getWriteStatistics() {
+    return ((DFSOutputStream) getWrappedStream()).getWriteStatistics();
+  }
+
   public static enum SyncFlag {
     /**
      * When doing sync to DataNodes, also update the metadata (block
@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.client;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A shared memory segment which a DataNode uses to tell its short-circuit
+ * clients about the replicas they have file descriptors for.
+ *
+ * The segment is an array of 8-byte slots.  The DataNode assigns a slot to
+ * a replica when it passes the file descriptors of the replica to a client.
+ * The slot holds the generation of the assignment, and the VALID and MLOCKED
+ * flags of the replica.  When the replica is invalidated, or the slot is
+ * reassigned to another replica, the VALID flag is cleared or the generation
+ * changes.  So a client can check whether its file descriptors are still
+ * good with a memory read, rather than a round trip to the DataNode.
+ *
+ * The DataNode maps the segment read-write, and the clients map it
+ * read-only.
+ */
+@InterfaceAudience.Private
+public class ShortCircuitShm {
+  /**
+   * The size of a slot in bytes.
+   */
+  public static final int SLOT_SIZE = 8;
+
+  /**
+   * Set while the replica of the slot is valid.
+   */
+  public static final long VALID_FLAG = 1L;
+
+  /**
+   * Set while the replica of the slot is mlocked by the DataNode.
+   */
+  public static final long MLOCKED_FLAG = 2L;
+
+  private static final int GENERATION_SHIFT = 2;
+
+  /**
+   * Build the contents of a slot.
+   *
+   * @param generation   The generation of the slot assignment.
+   * @param valid        True if the replica is valid.
+   * @param mlocked      True if the replica is mlocked.
+   *
+   * @return             The 8-byte word to store in the slot.
+   */
+  public static long makeSlotWord(long generation, boolean valid,
+      boolean mlocked) {
+    return (generation << GENERATION_SHIFT) |
+        (valid ? VALID_FLAG : 0) | (mlocked ? MLOCKED_FLAG : 0);
+  }
+
+  /**
+   * The DataNode's id for this segment.  It changes when the DataNode
+   * restarts.
+   */
+  private final long segmentId;
+
+  /**
+   * The read-only mapping of the segment.
+   */
+  private final MappedByteBuffer map;
+
+  /**
+   * True once the segment has been replaced by a newer one from the same
+   * DataNode.
+   */
+  private volatile boolean stale = false;
+
+  private ShortCircuitShm(long segmentId, MappedByteBuffer map) {
+    this.segmentId = segmentId;
+    this.map = map;
+  }
+
+  /**
+   * Map a segment which was received from a DataNode.  The stream may be
+   * closed once this returns.
+   *
+   * @param segmentId    The DataNode's id for the segment.
+   * @param stream       A stream for the segment file descriptor.
+   *
+   * @return             The mapped segment.
+   * @throws IOException If the segment could not be mapped.
+   */
+  public static ShortCircuitShm map(long segmentId, FileInputStream stream)
+      throws IOException {
+    if (stream == null) {
+      throw new IOException("the DataNode did not send the file " +
+          "descriptor of shared memory segment " + segmentId);
+    }
+    FileChannel channel = stream.getChannel();
+    long size = channel.size();
+    if ((size == 0) || (size % SLOT_SIZE != 0) ||
+        (size > Integer.MAX_VALUE)) {
+      throw new IOException("invalid size " + size + " for shared " +
+          "memory segment " + segmentId);
+    }
+    return new ShortCircuitShm(segmentId,
+        channel.map(MapMode.READ_ONLY, 0, size));
+  }
+
+  public long getSegmentId() {
+    return segmentId;
+  }
+
+  public int getNumSlots() {
+    return map.capacity() / SLOT_SIZE;
+  }
+
+  /**
+   * Mark this segment as replaced by a newer segment from the same DataNode.
+   * The slots of a stale segment are never valid.
+   */
+  public void markStale() {
+    stale = true;
+  }
+
+  /**
+   * Get a slot which the DataNode assigned to a replica.
+   *
+   * @param index        The index of the slot.
+   * @param generation   The generation of the slot assignment.
+   *
+   * @return             The slot.
+   * @throws IOException If the index is out of range.
+   */
+  public Slot getSlot(int index, long generation) throws IOException {
+    if ((index < 0) || (index >= getNumSlots())) {
+      throw new IOException("invalid slot index " + index + " for shared " +
+          "memory segment " + segmentId + " with " + getNumSlots() +
+          " slots");
+    }
+    return new Slot(index, generation);
+  }
+
+  @Override
+  public String toString() {
+    return "ShortCircuitShm(segmentId=" + segmentId + ", numSlots=" +
+        getNumSlots() + (stale ? ", stale" : "") + ")";
+  }
+
+  /**
+   * A slot which the DataNode assigned to a replica.
+   */
+  public class Slot {
+    private final int index;
+    private final long generation;
+
+    private Slot(int index, long generation) {
+      this.index = index;
+      this.generation = generation;
+    }
+
+    /**
+     * Read the slot.
+     *
+     * @return   The flags of the slot, or 0 if the slot no longer belongs
+     *           to our replica.
+     */
+    private long getFlags() {
+      if (stale) {
+        return 0;
+      }
+      long word = map.getLong(index * SLOT_SIZE);
+      if ((word >>> GENERATION_SHIFT) != generation) {
+        return 0;
+      }
+      return word;
+    }
+
+    /**
+     * @return   True if the replica is still valid, so the file descriptors
+     *           we got along with this slot can still be used.
+     */
+    public boolean isValid() {
+      return (getFlags() & VALID_FLAG) != 0;
+    }
+
+    /**
+     * @return   True if the replica is valid and mlocked by the DataNode.
+     */
+    public boolean isMlocked() {
+      long flags = getFlags();
+      return ((flags & VALID_FLAG) != 0) && ((flags & MLOCKED_FLAG) != 0);
+    }
+
+    @Override
+    public String toString() {
+      return "Slot(segmentId=" + segmentId + ", index=" + index +
+          ", generation=" + generation + ")";
+    }
+  }
+}
@@ -41,6 +41,7 @@
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSelector;
 import org.apache.hadoop.hdfs.server.namenode.NotReplicatedYetException;
 import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
+import org.apache.hadoop.hdfs.server.namenode.ha.ReadOnly;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.retry.AtMostOnce;
@@ -115,12 +116,35 @@ public interface ClientProtocol {
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public LocatedBlocks getBlockLocations(String src,
                                          long offset,
                                          long length) 
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
 
+  /**
+   * Get locations of the blocks of many files within the same range,
+   * with one call.  The locations of each file are the ones that
+   * {@link #getBlockLocations(String, long, long)} would return.
+   * 
+   * @param srcs file names
+   * @param offset range start offset in each file
+   * @param length range length in each file
+   *
+   * @return the file length and blocks of each file, in the order of
+   *         <code>srcs</code>.  The element for a file which does not exist,
+   *         or whose path contains a symlink, is null.
+   *
+   * @throws AccessControlException If access to one of the files is denied
+   * @throws IOException If an I/O error occurred, or if there are more files
+   *         than the namenode serves in one call
+   */
+  @Idempotent
+  @ReadOnly
+  public LocatedBlocks[] getBatchedBlockLocations(String[] srcs,
+      long offset, long length) throws AccessControlException, IOException;
+
   /**
    * Get server default values for a number of configuration params.
    * @return a set of server default configuration values
@@ -548,6 +572,7 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public DirectoryListing getListing(String src,
                                      byte[] startAfter,
                                      boolean needLocation)
@@ -646,6 +671,7 @@ public DatanodeInfo[] getDatanodeReport(HdfsConstants.DatanodeReportType type)
    * @throws UnresolvedLinkException if the path contains a symlink. 
    */
   @Idempotent
+  @ReadOnly
   public long getPreferredBlockSize(String filename) 
       throws IOException, UnresolvedLinkException;
 
@@ -805,6 +831,7 @@ public CorruptFileBlocks listCorruptFileBlocks(String path, String cookie)
    * @throws IOException If an I/O error occurred        
    */
   @Idempotent
+  @ReadOnly
   public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
   
@@ -819,6 +846,7 @@ public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
    * @throws IOException If an I/O error occurred     
    */
   @Idempotent
+  @ReadOnly
   public boolean isFileClosed(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
   
@@ -835,6 +863,7 @@ public boolean isFileClosed(String src) throws AccessControlException,
    * @throws IOException If an I/O error occurred        
    */
   @Idempotent
+  @ReadOnly
   public HdfsFileStatus getFileLinkInfo(String src)
       throws AccessControlException, UnresolvedLinkException, IOException;
   
@@ -848,6 +877,7 @@ public HdfsFileStatus getFileLinkInfo(String src)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public ContentSummary getContentSummary(String path)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
@@ -956,6 +986,7 @@ public void createSymlink(String target, String link, FsPermission dirPerm,
    *           or an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public String getLinkTarget(String path) throws AccessControlException,
       FileNotFoundException, IOException; 
   
@@ -1184,4 +1215,22 @@ public BatchedEntries<CacheDirectiveEntry> listCacheDirectives(
   @Idempotent
   public BatchedEntries<CachePoolEntry> listCachePools(String prevPool)
       throws IOException;
+
+  /**
+   * Get the id of the last transaction applied to the namespace of this
+   * NameNode. A standby NameNode which serves reads rejects the call if it
+   * has not applied the given transaction yet, so that the client can tell
+   * whether the standby has seen all its writes.
+   *
+   * @param minTxId the transaction the client needs to have been applied,
+   *          or 0 for any
+   * @return the id of the last transaction applied or written
+   * @throws org.apache.hadoop.ipc.StandbyException if this is a standby
+   *           NameNode which does not serve reads
+   * @throws org.apache.hadoop.ipc.RetriableException if this is a standby
+   *           NameNode which has not applied the given transaction yet
+   * @throws IOException If an I/O error occurred
+   */
+  @Idempotent
+  public long msync(long minTxId) throws IOException;
 }
@@ -118,10 +118,15 @@ public void transferBlock(final ExtendedBlock blk,
    * @param blockToken      Security token for accessing the block.
    * @param maxVersion      Maximum version of the block data the client 
    *                        can understand.
+   * @param shmSlotRequested  True if the client wants the shared memory
+   *                          slot of the replica.
+   * @param shmSegmentId    The id of the shared memory segment of the
+   *                        DataNode which the client has mapped, or 0.
    */
   public void requestShortCircuitFds(final ExtendedBlock blk,
       final Token<BlockTokenIdentifier> blockToken,
-      int maxVersion) throws IOException;
+      int maxVersion, boolean shmSlotRequested, long shmSegmentId)
+      throws IOException;
 
   /**
    * Receive a block from a source datanode
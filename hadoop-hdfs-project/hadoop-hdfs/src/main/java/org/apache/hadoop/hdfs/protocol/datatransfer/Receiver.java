@@ -143,7 +143,8 @@ private void opRequestShortCircuitFds(DataInputStream in) throws IOException {
       OpRequestShortCircuitAccessProto.parseFrom(vintPrefixed(in));
     requestShortCircuitFds(PBHelper.convert(proto.getHeader().getBlock()),
         PBHelper.convert(proto.getHeader().getToken()),
-        proto.getMaxVersion());
+        proto.getMaxVersion(), proto.getShmSlotRequested(),
+        proto.getShmSegmentId());
   }
 
   /** Receive OP_REPLACE_BLOCK */
@@ -161,11 +161,14 @@ public void transferBlock(final ExtendedBlock blk,
   @Override
   public void requestShortCircuitFds(final ExtendedBlock blk,
       final Token<BlockTokenIdentifier> blockToken,
-      int maxVersion) throws IOException {
+      int maxVersion, boolean shmSlotRequested, long shmSegmentId)
+      throws IOException {
     OpRequestShortCircuitAccessProto proto =
         OpRequestShortCircuitAccessProto.newBuilder()
           .setHeader(DataTransferProtoUtil.buildBaseHeader(
-            blk, blockToken)).setMaxVersion(maxVersion).build();
+            blk, blockToken)).setMaxVersion(maxVersion)
+          .setShmSlotRequested(shmSlotRequested)
+          .setShmSegmentId(shmSegmentId).build();
     send(out, Op.REQUEST_SHORT_CIRCUIT_FDS, proto);
   }
   
@@ -48,6 +48,8 @@
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import javax.management.ObjectName;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -73,6 +75,7 @@
 import org.apache.hadoop.hdfs.server.namenode.UnsupportedActionException;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations.BlockWithLocations;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.metrics2.util.MBeans;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.net.NetworkTopology;
 import org.apache.hadoop.net.Node;
@@ -114,8 +117,9 @@
  * 
  * <p>The tool moves blocks from highly utilized datanodes to poorly 
  * utilized datanodes iteratively. In each iteration a datanode moves or 
- * receives no more than the lesser of 10G bytes or the threshold fraction 
- * of its capacity. Each iteration runs no more than 20 minutes.
+ * receives no more than the lesser of dfs.balancer.max-size-to-move 
+ * (10G bytes by default) or the threshold fraction of its capacity. 
+ * Each iteration runs no more than 20 minutes.
  * At the end of each iteration, the balancer obtains updated datanodes
  * information from the namenode.
  * 
@@ -150,6 +154,10 @@
  * iteration. Normally "Bytes Already Moved" is increasing while "Bytes Left 
  * To Move" is decreasing.
  * 
+ * <p>The same progress, together with the average throughput and the 
+ * estimated time remaining, is published over JMX as the 
+ * Hadoop:service=Balancer,name=BalancerInfo bean; see {@link BalancerMXBean}.
+ * 
  * <p>Running multiple instances of the balancer in an HDFS cluster is 
  * prohibited by the tool.
  * 
@@ -182,7 +190,6 @@
 @InterfaceAudience.Private
 public class Balancer {
   static final Log LOG = LogFactory.getLog(Balancer.class);
-  final private static long MAX_BLOCKS_SIZE_TO_FETCH = 2*1024*1024*1024L; //2GB
   private static long WIN_WIDTH = 5400*1000L; // 1.5 hour
 
   /** The maximum number of concurrent blocks moves for 
@@ -201,6 +208,13 @@ public class Balancer {
   private final NameNodeConnector nnc;
   private final BalancingPolicy policy;
   private final double threshold;
+  private final BalancerProgress progress;
+  /** Maximum bytes to move from or to a datanode in an iteration */
+  private final long maxSizeToMove;
+  /** Total size of the blocks to fetch in a getBlocks call */
+  private final long getBlocksSize;
+  /** Maximum number of concurrent moves at a datanode */
+  private final int maxConcurrentMoves;
   
   // all data node lists
   private Collection<Source> overUtilizedDatanodes
@@ -330,6 +344,8 @@ private boolean addTo(BalancerDatanode bdn) {
     /* Dispatch the block move task to the proxy source & wait for the response
      */
     private void dispatch() {
+      final long startTime = Time.monotonicNow();
+      boolean success = false;
       Socket sock = new Socket();
       DataOutputStream out = null;
       DataInputStream in = null;
@@ -356,6 +372,8 @@ private void dispatch() {
         sendRequest(out);
         receiveResponse(in);
         bytesMoved.inc(block.getNumBytes());
+        progress.incBytesMoved(block.getNumBytes());
+        success = true;
         LOG.info("Successfully moved " + this);
       } catch (IOException e) {
         LOG.warn("Failed to move " + this + ": " + e.getMessage());
@@ -366,6 +384,8 @@ private void dispatch() {
         
         proxySource.removePendingBlock(this);
         target.removePendingBlock(this);
+        target.moveCompleted(block.getNumBytes(),
+            Time.monotonicNow() - startTime, success);
 
         synchronized (this ) {
           reset();
@@ -491,7 +511,6 @@ private long getSize() {
   
   /* A class that keeps track of a datanode in Balancer */
   private static class BalancerDatanode {
-    final private static long MAX_SIZE_TO_MOVE = 10*1024*1024*1024L; //10GB
     final DatanodeInfo datanode;
     final double utilization;
     final long maxSize2Move;
@@ -499,6 +518,12 @@ private static class BalancerDatanode {
     //  blocks being moved but not confirmed yet
     private List<PendingBlockMove> pendingBlocks = 
       new ArrayList<PendingBlockMove>(MAX_NUM_CONCURRENT_MOVES); 
+    /** The upper bound of the number of concurrent moves */
+    private final int maxConcurrentMoves;
+    /** The number of concurrent moves currently allowed */
+    private int concurrentMovesLimit;
+    /** Moving average of the bytes per ms received by the datanode */
+    private double avgThroughput = 0.0;
     
     @Override
     public String toString() {
@@ -509,8 +534,11 @@ public String toString() {
     /* Constructor 
      * Depending on avgutil & threshold, calculate maximum bytes to move 
      */
-    private BalancerDatanode(DatanodeInfo node, BalancingPolicy policy, double threshold) {
+    private BalancerDatanode(DatanodeInfo node, BalancingPolicy policy,
+        double threshold, long maxSizeToMoveLimit, int maxConcurrentMoves) {
       datanode = node;
+      this.maxConcurrentMoves = maxConcurrentMoves;
+      this.concurrentMovesLimit = maxConcurrentMoves;
       utilization = policy.getUtilization(node);
       final double avgUtil = policy.getAvgUtilization();
       long maxSizeToMove;
@@ -525,7 +553,7 @@ private BalancerDatanode(DatanodeInfo node, BalancingPolicy policy, double thres
       if (utilization < avgUtil ) {
         maxSizeToMove = Math.min(datanode.getRemaining(), maxSizeToMove);
       }
-      this.maxSize2Move = Math.min(MAX_SIZE_TO_MOVE, maxSizeToMove);
+      this.maxSize2Move = Math.min(maxSizeToMoveLimit, maxSizeToMove);
     }
     
     /** Get the datanode */
@@ -575,11 +603,35 @@ protected synchronized void setScheduledSize(long size){
     
     /* Check if the node can schedule more blocks to move */
     synchronized private boolean isPendingQNotFull() {
-      if ( pendingBlocks.size() < MAX_NUM_CONCURRENT_MOVES ) {
+      if ( pendingBlocks.size() < concurrentMovesLimit ) {
         return true;
       }
       return false;
     }
+
+    /* Adjust the number of concurrent moves to the observed throughput of
+     * the datanode when a block move to it has completed.  The limit is
+     * halved when a move fails, lowered by one when the throughput of the
+     * datanode has dropped below half of its average, and raised by one
+     * otherwise, up to maxConcurrentMoves.
+     */
+    private synchronized void moveCompleted(long bytes, long elapsed,
+        boolean success) {
+      if (!success) {
+        concurrentMovesLimit = Math.max(1, concurrentMovesLimit / 2);
+        return;
+      }
+      // the move shared the datanode with the moves still pending
+      final double throughput = (double)bytes * (pendingBlocks.size() + 1)
+          / Math.max(1L, elapsed);
+      if (avgThroughput > 0 && throughput < avgThroughput / 2) {
+        concurrentMovesLimit = Math.max(1, concurrentMovesLimit - 1);
+      } else if (concurrentMovesLimit < maxConcurrentMoves) {
+        concurrentMovesLimit++;
+      }
+      avgThroughput = avgThroughput == 0? throughput
+          : 0.8 * avgThroughput + 0.2 * throughput;
+    }
     
     /* Check if all the dispatched moves are done */
     synchronized private boolean isPendingQEmpty() {
@@ -624,8 +676,9 @@ public void run() {
             = new ArrayList<BalancerBlock>();
     
     /* constructor */
-    private Source(DatanodeInfo node, BalancingPolicy policy, double threshold) {
-      super(node, policy, threshold);
+    private Source(DatanodeInfo node, BalancingPolicy policy,
+        double threshold, long maxSizeToMoveLimit, int maxConcurrentMoves) {
+      super(node, policy, threshold, maxSizeToMoveLimit, maxConcurrentMoves);
     }
     
     /** Add a node task */
@@ -647,7 +700,7 @@ private Iterator<BalancerBlock> getBlockIterator() {
      */
     private long getBlockList() throws IOException {
       BlockWithLocations[] newBlocks = nnc.namenode.getBlocks(datanode, 
-        Math.min(MAX_BLOCKS_SIZE_TO_FETCH, blocksToReceive)).getBlocks();
+        Math.min(getBlocksSize, blocksToReceive)).getBlocks();
       long bytesReceived = 0;
       for (BlockWithLocations blk : newBlocks) {
         bytesReceived += blk.getBlock().getNumBytes();
@@ -827,10 +880,25 @@ private static void checkReplicationPolicyCompatibility(Configuration conf
    * when connection fails.
    */
   Balancer(NameNodeConnector theblockpool, Parameters p, Configuration conf) {
+    this(theblockpool, p, conf, new BalancerProgress());
+  }
+
+  Balancer(NameNodeConnector theblockpool, Parameters p, Configuration conf,
+      BalancerProgress progress) {
     this.threshold = p.threshold;
     this.policy = p.policy;
     this.nnc = theblockpool;
+    this.progress = progress;
     cluster = NetworkTopology.getInstance(conf);
+    this.maxSizeToMove = conf.getLong(
+        DFSConfigKeys.DFS_BALANCER_MAX_SIZE_TO_MOVE_KEY,
+        DFSConfigKeys.DFS_BALANCER_MAX_SIZE_TO_MOVE_DEFAULT);
+    this.getBlocksSize = conf.getLong(
+        DFSConfigKeys.DFS_BALANCER_GETBLOCKS_SIZE_KEY,
+        DFSConfigKeys.DFS_BALANCER_GETBLOCKS_SIZE_DEFAULT);
+    this.maxConcurrentMoves = conf.getInt(
+        DFSConfigKeys.DFS_BALANCER_MAX_CONCURRENT_MOVES_KEY,
+        DFSConfigKeys.DFS_BALANCER_MAX_CONCURRENT_MOVES_DEFAULT);
 
     this.moverExecutor = Executors.newFixedThreadPool(
             conf.getInt(DFSConfigKeys.DFS_BALANCER_MOVERTHREADS_KEY,
@@ -877,7 +945,8 @@ private long initNodes(DatanodeInfo[] datanodes) {
       BalancerDatanode datanodeS;
       final double avg = policy.getAvgUtilization();
       if (policy.getUtilization(datanode) >= avg) {
-        datanodeS = new Source(datanode, policy, threshold);
+        datanodeS = new Source(datanode, policy, threshold, maxSizeToMove,
+            maxConcurrentMoves);
         if (isAboveAvgUtilized(datanodeS)) {
           this.aboveAvgUtilizedDatanodes.add((Source)datanodeS);
         } else {
@@ -888,7 +957,8 @@ private long initNodes(DatanodeInfo[] datanodes) {
               -threshold)*datanodeS.datanode.getCapacity()/100.0);
         }
       } else {
-        datanodeS = new BalancerDatanode(datanode, policy, threshold);
+        datanodeS = new BalancerDatanode(datanode, policy, threshold,
+            maxSizeToMove, maxConcurrentMoves);
         if ( isBelowOrEqualAvgUtilized(datanodeS)) {
           this.belowAvgUtilizedDatanodes.add(datanodeS);
         } else {
@@ -964,7 +1034,7 @@ public boolean match(NetworkTopology cluster, Node left, Node right) {
    * Decide all <source, target> pairs and
    * the number of bytes to move from a source to a target
    * Maximum bytes to be moved per node is
-   * Min(1 Band worth of bytes,  MAX_SIZE_TO_MOVE).
+   * Min(1 Band worth of bytes, dfs.balancer.max-size-to-move).
    * Return total number of bytes to move in this iteration
    */
   private long chooseNodes() {
@@ -1131,9 +1201,11 @@ static void setBlockMoveWaitTime(long time) {
   }
   
   /* wait for all block move confirmations 
-   * by checking each target's pendingMove queue 
+   * by checking each target's pendingMove queue.
+   * Every completed move notifies the balancer, so that the next iteration
+   * starts as soon as the last move of this one is done.
    */
-  private void waitForMoveCompletion() {
+  private synchronized void waitForMoveCompletion() {
     boolean shouldWait;
     do {
       shouldWait = false;
@@ -1144,7 +1216,7 @@ private void waitForMoveCompletion() {
       }
       if (shouldWait) {
         try {
-          Thread.sleep(blockMoveWaitTime);
+          wait(blockMoveWaitTime);
         } catch (InterruptedException ignored) {
         }
       }
@@ -1366,7 +1438,7 @@ private ReturnStatus run(int iteration, Formatter formatter,
       /* Decide all the nodes that will participate in the block move and
        * the number of bytes that need to be moved from one node to another
        * in this iteration. Maximum bytes to be moved per node is
-       * Min(1 Band worth of bytes,  MAX_SIZE_TO_MOVE).
+       * Min(1 Band worth of bytes, dfs.balancer.max-size-to-move).
        */
       final long bytesToMove = chooseNodes();
       if (bytesToMove == 0) {
@@ -1377,13 +1449,20 @@ private ReturnStatus run(int iteration, Formatter formatter,
             " in this iteration");
       }
 
+      progress.setPlan(nnc.blockpoolID, iteration, bytesLeftToMove,
+          bytesToMove);
       formatter.format("%-24s %10d  %19s  %18s  %17s%n",
           DateFormat.getDateTimeInstance().format(new Date()),
           iteration,
-          StringUtils.byteDesc(bytesMoved.get()),
+          StringUtils.byteDesc(progress.getBytesMoved()),
           StringUtils.byteDesc(bytesLeftToMove),
           StringUtils.byteDesc(bytesToMove)
           );
+      final long eta = progress.getEstimatedTimeRemaining();
+      if (eta >= 0) {
+        LOG.info("Moving " + StringUtils.byteDesc(progress.getThroughput())
+            + " per second, estimated time remaining: " + time2Str(eta));
+      }
       
       /* For each pair of <source, target>, start a thread that repeatedly 
        * decide a block to be moved and its proxy source, 
@@ -1431,6 +1510,9 @@ static int run(Collection<URI> namenodes, final Parameters p,
     
     final List<NameNodeConnector> connectors
         = new ArrayList<NameNodeConnector>(namenodes.size());
+    final BalancerProgress progress = new BalancerProgress();
+    final ObjectName mxbeanName = MBeans.register("Balancer", "BalancerInfo",
+        progress);
     try {
       for (URI uri : namenodes) {
         connectors.add(new NameNodeConnector(uri, conf));
@@ -1441,7 +1523,7 @@ static int run(Collection<URI> namenodes, final Parameters p,
         done = true;
         Collections.shuffle(connectors);
         for(NameNodeConnector nnc : connectors) {
-          final Balancer b = new Balancer(nnc, p, conf);
+          final Balancer b = new Balancer(nnc, p, conf, progress);
           final ReturnStatus r = b.run(iteration, formatter, conf);
           // clean all lists
           b.resetData(conf);
@@ -1461,6 +1543,9 @@ static int run(Collection<URI> namenodes, final Parameters p,
       for(NameNodeConnector nnc : connectors) {
         nnc.close();
       }
+      if (mxbeanName != null) {
+        MBeans.unregister(mxbeanName);
+      }
     }
     return ReturnStatus.SUCCESS.code;
   }
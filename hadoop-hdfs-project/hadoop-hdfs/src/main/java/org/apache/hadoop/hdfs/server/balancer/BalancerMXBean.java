@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.balancer;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * This is the JMX management interface for the progress of a running
+ * Balancer.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface BalancerMXBean {
+
+  /**
+   * @return the start time of the Balancer in milliseconds since the epoch
+   */
+  public long getStartTime();
+
+  /**
+   * @return the current iteration, starting from 0
+   */
+  public int getIteration();
+
+  /**
+   * @return the number of bytes moved since the Balancer started
+   */
+  public long getBytesMoved();
+
+  /**
+   * @return the number of bytes still to be moved to balance the cluster,
+   *         as estimated at the start of the current iteration
+   */
+  public long getBytesLeftToMove();
+
+  /**
+   * @return the number of bytes scheduled to be moved in the current
+   *         iteration
+   */
+  public long getBytesBeingMoved();
+
+  /**
+   * @return the average number of bytes moved per second
+   */
+  public long getThroughput();
+
+  /**
+   * @return the estimated time in milliseconds until the cluster is
+   *         balanced, or -1 if it cannot be estimated yet
+   */
+  public long getEstimatedTimeRemaining();
+}
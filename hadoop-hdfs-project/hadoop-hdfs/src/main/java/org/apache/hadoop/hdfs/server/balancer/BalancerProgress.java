@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.balancer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.util.Time;
+
+/**
+ * Keeps track of the progress of a Balancer across its iterations and
+ * namenodes, and publishes it over JMX as {@link BalancerMXBean}.
+ */
+@InterfaceAudience.Private
+public class BalancerProgress implements BalancerMXBean {
+  private final long startTime = Time.now();
+  private volatile int iteration = 0;
+  private final AtomicLong bytesMoved = new AtomicLong();
+  /** Map (block pool id -> bytes left to move) */
+  private final Map<String, Long> bytesLeftToMove
+      = new ConcurrentHashMap<String, Long>();
+  /** Map (block pool id -> bytes being moved) */
+  private final Map<String, Long> bytesBeingMoved
+      = new ConcurrentHashMap<String, Long>();
+  /** Bytes moved when the current plans were made. */
+  private volatile long bytesMovedAtPlan = 0L;
+
+  /** Record the move plan of an iteration for a block pool. */
+  void setPlan(String blockpoolID, int iteration, long bytesLeft,
+      long bytesToMove) {
+    this.iteration = iteration;
+    bytesLeftToMove.put(blockpoolID, bytesLeft);
+    bytesBeingMoved.put(blockpoolID, bytesToMove);
+    bytesMovedAtPlan = bytesMoved.get();
+  }
+
+  void incBytesMoved(long bytes) {
+    bytesMoved.addAndGet(bytes);
+  }
+
+  @Override // BalancerMXBean
+  public long getStartTime() {
+    return startTime;
+  }
+
+  @Override // BalancerMXBean
+  public int getIteration() {
+    return iteration;
+  }
+
+  @Override // BalancerMXBean
+  public long getBytesMoved() {
+    return bytesMoved.get();
+  }
+
+  @Override // BalancerMXBean
+  public long getBytesLeftToMove() {
+    return sum(bytesLeftToMove);
+  }
+
+  @Override // BalancerMXBean
+  public long getBytesBeingMoved() {
+    return sum(bytesBeingMoved);
+  }
+
+  @Override // BalancerMXBean
+  public long getThroughput() {
+    final long elapsed = Time.now() - startTime;
+    return elapsed <= 0? 0: bytesMoved.get() * 1000 / elapsed;
+  }
+
+  @Override // BalancerMXBean
+  public long getEstimatedTimeRemaining() {
+    final long throughput = getThroughput();
+    if (throughput <= 0) {
+      return -1;
+    }
+    final long left = Math.max(0L,
+        getBytesLeftToMove() - (bytesMoved.get() - bytesMovedAtPlan));
+    return left * 1000 / throughput;
+  }
+
+  private static long sum(Map<String, Long> bytes) {
+    long sum = 0L;
+    for (long b : bytes.values()) {
+      sum += b;
+    }
+    return sum;
+  }
+}
@@ -21,6 +21,7 @@
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -117,6 +118,15 @@ public class BlockManager {
   private volatile long scheduledReplicationBlocksCount = 0L;
   private AtomicLong excessBlocksCount = new AtomicLong(0L);
   private AtomicLong postponedMisreplicatedBlocksCount = new AtomicLong(0L);
+  /** Number of scheduled replications that datanodes reported complete. */
+  private final AtomicLong completedReplicationsCount = new AtomicLong(0L);
+  /** Smoothed rate of completed replications, in blocks per second. */
+  private volatile double replicationRate = 0;
+  /** Weight of the latest interval in {@link #replicationRate}. */
+  private static final double REPLICATION_RATE_WEIGHT = 0.1;
+  /** Time and completed count at the last {@link #updateReplicationRate()} */
+  private long lastReplicationRateUpdate = 0;
+  private long lastCompletedReplications = 0;
   
   /** Used by metrics */
   public long getPendingReplicationBlocksCount() {
@@ -147,6 +157,27 @@ public long getPostponedMisreplicatedBlocksCount() {
     return postponedMisreplicatedBlocksCount.get();
   }
   /** Used by metrics */
+  public long getCompletedReplicationsCount() {
+    return completedReplicationsCount.get();
+  }
+  /**
+   * Used by metrics.
+   * @return the estimated number of seconds until all under-replicated blocks
+   *         are replicated at the recent replication rate, or -1 if no
+   *         replication has completed recently.
+   */
+  public long getEstimatedReplicationTimeRemaining() {
+    final long remaining = underReplicatedBlocksCount;
+    final double rate = replicationRate;
+    if (remaining == 0) {
+      return 0;
+    }
+    if (rate <= 0) {
+      return -1;
+    }
+    return (long) Math.ceil(remaining / rate);
+  }
+  /** Used by metrics */
   public int getPendingDataNodeMessageCount() {
     return pendingDNMessages.count();
   }
@@ -162,6 +193,20 @@ public int getPendingDataNodeMessageCount() {
 
   /** Replication thread. */
   final Daemon replicationThread = new Daemon(new ReplicationMonitor());
+
+  /**
+   * Incremental block reports waiting to be applied, if they are applied
+   * asynchronously.  Reports are only removed under the write lock, so that
+   * they are always applied in order with the full block reports.
+   */
+  private final Queue<QueuedIncrementalBlockReport> incrementalBlockReports =
+      new ArrayDeque<QueuedIncrementalBlockReport>();
+  /** The number of blocks to apply per hold of the write lock. */
+  private final int incrementalBlockReportBatchBlocks;
+  /** The maximum number of queued incremental block reports. */
+  private final int incrementalBlockReportQueueSize;
+  /** Applies the queued incremental block reports, or null if synchronous. */
+  final Daemon incrementalBlockReportThread;
   
   /** Store blocks -> datanodedescriptor(s) map of corrupt replicas */
   final CorruptReplicasMap corruptReplicas = new CorruptReplicasMap();
@@ -233,6 +278,12 @@ public int getPendingDataNodeMessageCount() {
    */
   private boolean shouldPostponeBlocksFromFuture = false;
 
+  /**
+   * Whether the blocks of initial block reports received in startup safe
+   * mode are looked up under the read lock, in parallel for many datanodes.
+   */
+  private final boolean parallelInitialBlockReports;
+
   /** for block replicas placement */
   private BlockPlacementPolicy blockplacement;
 
@@ -309,6 +360,21 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     this.maxNumBlocksToLog =
         conf.getLong(DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_KEY,
             DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT);
+
+    this.parallelInitialBlockReports = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_SAFEMODE_PARALLEL_INITIAL_BLOCK_REPORTS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_SAFEMODE_PARALLEL_INITIAL_BLOCK_REPORTS_DEFAULT);
+
+    this.incrementalBlockReportThread = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_ASYNC_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_ASYNC_DEFAULT) ?
+        new Daemon(new IncrementalBlockReportMonitor()) : null;
+    this.incrementalBlockReportBatchBlocks = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_BATCH_BLOCKS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_BATCH_BLOCKS_DEFAULT);
+    this.incrementalBlockReportQueueSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_QUEUE_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_QUEUE_SIZE_DEFAULT);
     
     LOG.info("defaultReplication         = " + defaultReplication);
     LOG.info("maxReplication             = " + maxReplication);
@@ -318,6 +384,9 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
+    LOG.info("parallelInitialBlockReports = " + parallelInitialBlockReports);
+    LOG.info("asyncIncrementalBlockReports = "
+        + (incrementalBlockReportThread != null));
   }
 
   private static BlockTokenSecretManager createBlockTokenSecretManager(
@@ -399,6 +468,9 @@ public void activate(Configuration conf) {
     pendingReplications.start();
     datanodeManager.activate(conf);
     this.replicationThread.start();
+    if (incrementalBlockReportThread != null) {
+      incrementalBlockReportThread.start();
+    }
   }
 
   public void close() {
@@ -407,6 +479,10 @@ public void close() {
         replicationThread.interrupt();
         replicationThread.join(3000);
       }
+      if (incrementalBlockReportThread != null) {
+        incrementalBlockReportThread.interrupt();
+        incrementalBlockReportThread.join(3000);
+      }
     } catch (InterruptedException ie) {
     }
     datanodeManager.close();
@@ -871,8 +947,10 @@ void addKeyUpdateCommand(final List<DatanodeCommand> cmds,
       final DatanodeDescriptor nodeinfo) {
     // check access key update
     if (isBlockTokenEnabled() && nodeinfo.needKeyUpdate) {
-      cmds.add(new KeyUpdateCommand(blockTokenSecretManager.exportKeys()));
+      // Clear the flag first, so that a key update flagged by the heartbeat
+      // monitor while the keys are exported is sent with the next heartbeat.
       nodeinfo.needKeyUpdate = false;
+      cmds.add(new KeyUpdateCommand(blockTokenSecretManager.exportKeys()));
     }
   }
   
@@ -1078,6 +1156,7 @@ private void markBlockAsCorrupt(BlockToMarkCorrupt b,
     // Add this replica to corruptReplicas Map
     corruptReplicas.addToCorruptReplicasMap(b.corrupted, node, b.reason,
         b.reasonCode);
+    namesystem.blockLocationsChanged(bc);
     if (countNodes(b.stored).liveReplicas() >= bc.getBlockReplication()) {
       // the block is over-replicated so invalidate the replicas immediately
       invalidateBlock(b, node);
@@ -1145,6 +1224,27 @@ void updateState() {
     corruptReplicaBlocksCount = corruptReplicas.size();
   }
 
+  /**
+   * Fold the replications completed since the previous call into
+   * {@link #replicationRate}.  Called once per replication monitor iteration.
+   */
+  private void updateReplicationRate() {
+    final long now = Time.monotonicNow();
+    final long completed = completedReplicationsCount.get();
+    if (lastReplicationRateUpdate != 0) {
+      final long elapsed = now - lastReplicationRateUpdate;
+      if (elapsed <= 0) {
+        return;
+      }
+      final double current =
+          (completed - lastCompletedReplications) * 1000.0 / elapsed;
+      replicationRate = REPLICATION_RATE_WEIGHT * current
+          + (1 - REPLICATION_RATE_WEIGHT) * replicationRate;
+    }
+    lastReplicationRateUpdate = now;
+    lastCompletedReplications = completed;
+  }
+
   /** Return number of under-replicated but not missing blocks */
   public int getUnderReplicatedNotMissingBlocks() {
     return neededReplications.getUnderReplicatedBlockCount();
@@ -1205,6 +1305,10 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
 
     int scheduledWork = 0;
     List<ReplicationWork> work = new LinkedList<ReplicationWork>();
+    // Replication streams assigned to each source in this pass but not yet
+    // added to the source, so that a single pass does not overload a node.
+    Map<DatanodeDescriptor, Integer> plannedWork =
+        new HashMap<DatanodeDescriptor, Integer>();
 
     namesystem.writeLock();
     try {
@@ -1227,7 +1331,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
             NumberReplicas numReplicas = new NumberReplicas();
             srcNode = chooseSourceDatanode(
                 block, containingNodes, liveReplicaNodes, numReplicas,
-                priority);
+                priority, plannedWork);
             if(srcNode == null) { // block can not be replicated from any node
               LOG.debug("Block " + block + " cannot be repl from any node");
               continue;
@@ -1257,6 +1361,8 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
             work.add(new ReplicationWork(block, bc, srcNode,
                 containingNodes, liveReplicaNodes, additionalReplRequired,
                 priority));
+            Integer planned = plannedWork.get(srcNode);
+            plannedWork.put(srcNode, planned == null ? 1 : planned + 1);
           }
         }
       }
@@ -1460,6 +1566,23 @@ DatanodeDescriptor chooseSourceDatanode(Block block,
        List<DatanodeStorageInfo>  nodesContainingLiveReplicas,
        NumberReplicas numReplicas,
        int priority) {
+    return chooseSourceDatanode(block, containingNodes,
+        nodesContainingLiveReplicas, numReplicas, priority, null);
+  }
+
+  /**
+   * Like {@link #chooseSourceDatanode(Block, List, List, NumberReplicas, int)},
+   * but also counts the given replication streams, which have been planned
+   * but not yet assigned, against the replication limits of each node.
+   *
+   * @param plannedWork number of planned replications per node, or null
+   */
+  private DatanodeDescriptor chooseSourceDatanode(Block block,
+      List<DatanodeDescriptor> containingNodes,
+      List<DatanodeStorageInfo> nodesContainingLiveReplicas,
+      NumberReplicas numReplicas,
+      int priority,
+      Map<DatanodeDescriptor, Integer> plannedWork) {
     containingNodes.clear();
     nodesContainingLiveReplicas.clear();
     DatanodeDescriptor srcNode = null;
@@ -1488,12 +1611,19 @@ else if (excessBlocks != null && excessBlocks.contains(block)) {
       // If so, do not select the node as src node
       if ((nodesCorrupt != null) && nodesCorrupt.contains(node))
         continue;
+      int replicationStreams = node.getNumberOfBlocksToBeReplicated();
+      if (plannedWork != null) {
+        Integer planned = plannedWork.get(node);
+        if (planned != null) {
+          replicationStreams += planned;
+        }
+      }
       if(priority != UnderReplicatedBlocks.QUEUE_HIGHEST_PRIORITY
-          && node.getNumberOfBlocksToBeReplicated() >= maxReplicationStreams)
+          && replicationStreams >= maxReplicationStreams)
       {
         continue; // already reached replication limit
       }
-      if (node.getNumberOfBlocksToBeReplicated() >= replicationStreamsHardLimit)
+      if (replicationStreams >= replicationStreamsHardLimit)
       {
         continue;
       }
@@ -1618,10 +1748,18 @@ public String toString() {
   public void processReport(final DatanodeID nodeID,
       final DatanodeStorage storage, final String poolId,
       final BlockListAsLongs newReport) throws IOException {
+    // Look up the blocks of an initial report before taking the write lock,
+    // so that the write lock is only held to add the replicas.
+    final ResolvedFirstReport resolved =
+        resolveFirstBlockReport(nodeID, storage, newReport);
     namesystem.writeLock();
     final long startTime = Time.now(); //after acquiring write lock
     final long endTime;
     try {
+      // Apply the incremental block reports which the datanode sent before
+      // this report.
+      processQueuedIncrementalBlockReports(Integer.MAX_VALUE);
+
       final DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
       if (node == null || !node.isAlive) {
         throw new IOException(
@@ -1642,7 +1780,12 @@ public void processReport(final DatanodeID nodeID,
       if (storageInfo.numBlocks() == 0) {
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
-        processFirstBlockReport(node, storage.getStorageID(), newReport);
+        if (resolved != null && !shouldPostponeBlocksFromFuture
+            && resolved.isCurrent(blocksMap)) {
+          applyFirstBlockReport(node, storage.getStorageID(), resolved);
+        } else {
+          processFirstBlockReport(node, storage.getStorageID(), newReport);
+        }
       } else {
         processReport(node, storage, newReport);
       }
@@ -1817,6 +1960,156 @@ private void processFirstBlockReport(final DatanodeDescriptor node,
     }
   }
 
+  /**
+   * The blocks of an initial block report, looked up in the blocks map.
+   */
+  private static class ResolvedFirstReport {
+    /** The modification count of the blocks map at the lookup. */
+    final long blocksMapModCount;
+    final List<StatefulBlockInfo> toUC = new ArrayList<StatefulBlockInfo>();
+    final List<BlockToMarkCorrupt> toCorrupt =
+        new ArrayList<BlockToMarkCorrupt>();
+    final List<BlockInfo> toAdd;
+    /**
+     * The reported blocks stored as under construction, with the generation
+     * stamps they had at the lookup.  These may change without modifying the
+     * blocks map, e.g. on a pipeline update.
+     */
+    final Map<BlockInfoUnderConstruction, Long> ucGenStamps =
+        new HashMap<BlockInfoUnderConstruction, Long>();
+
+    ResolvedFirstReport(long blocksMapModCount, int numBlocks) {
+      this.blocksMapModCount = blocksMapModCount;
+      this.toAdd = new ArrayList<BlockInfo>(numBlocks);
+    }
+
+    /**
+     * @return true if the blocks map and the looked up blocks under
+     *         construction have not changed since the lookup.
+     */
+    boolean isCurrent(BlocksMap blocksMap) {
+      if (blocksMapModCount != blocksMap.getModCount()) {
+        return false;
+      }
+      for (Map.Entry<BlockInfoUnderConstruction, Long> e
+          : ucGenStamps.entrySet()) {
+        final BlockInfoUnderConstruction uc = e.getKey();
+        if (uc.getGenerationStamp() != e.getValue()
+            || uc.getBlockUCState() == BlockUCState.COMPLETE
+            || blocksMap.getStoredBlock(uc) != uc) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Look up the blocks of the initial block report of a storage under the
+   * read lock, so that the initial reports of many datanodes are looked up
+   * in parallel during startup.  The blocks must be added with
+   * {@link #applyFirstBlockReport} only if no block has been added to or
+   * removed from the blocks map, and no reported block under construction
+   * has changed, since.  In startup safe mode the namespace
+   * does not change, so this is the common case.
+   *
+   * @return the looked up blocks, or null if the report should be processed
+   *         under the write lock.
+   */
+  private ResolvedFirstReport resolveFirstBlockReport(final DatanodeID nodeID,
+      final DatanodeStorage storage, final BlockListAsLongs report)
+      throws IOException {
+    // In the Standby, reports may be postponed, which needs the write lock.
+    if (!parallelInitialBlockReports || report == null
+        || shouldPostponeBlocksFromFuture
+        || !namesystem.isInStartupSafeMode()) {
+      return null;
+    }
+    namesystem.readLock();
+    try {
+      final DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
+      if (node == null || !node.isAlive) {
+        return null;
+      }
+      final DatanodeStorageInfo storageInfo =
+          node.getStorageInfo(storage.getStorageID());
+      if (storageInfo != null && (storageInfo.getBlockReportCount() > 0
+          || storageInfo.numBlocks() > 0)) {
+        return null;
+      }
+
+      final ResolvedFirstReport resolved = new ResolvedFirstReport(
+          blocksMap.getModCount(), report.getNumberOfBlocks());
+      final BlockReportIterator itBR = report.getBlockReportIterator();
+      while (itBR.hasNext()) {
+        final Block iblk = itBR.next();
+        final ReplicaState reportedState = itBR.getCurrentReplicaState();
+        final BlockInfo storedBlock = blocksMap.getStoredBlock(iblk);
+        if (storedBlock == null) {
+          continue;
+        }
+        final BlockUCState ucState = storedBlock.getBlockUCState();
+        if (ucState != BlockUCState.COMPLETE) {
+          resolved.ucGenStamps.put((BlockInfoUnderConstruction)storedBlock,
+              storedBlock.getGenerationStamp());
+        }
+        final BlockToMarkCorrupt c = checkReplicaCorrupt(
+            iblk, reportedState, storedBlock, ucState, node);
+        if (c != null) {
+          resolved.toCorrupt.add(c);
+          continue;
+        }
+        if (isBlockUnderConstruction(storedBlock, ucState, reportedState)) {
+          // The iterator reuses the reported block, so copy it.
+          resolved.toUC.add(new StatefulBlockInfo(
+              (BlockInfoUnderConstruction)storedBlock, new Block(iblk),
+              reportedState));
+        }
+        if (reportedState == ReplicaState.FINALIZED) {
+          resolved.toAdd.add(storedBlock);
+        }
+      }
+      return resolved;
+    } finally {
+      namesystem.readUnlock();
+    }
+  }
+
+  /**
+   * Add the replicas of an initial block report looked up by
+   * {@link #resolveFirstBlockReport}, as {@link #processFirstBlockReport}
+   * would.  The blocks which reach the minimal replication are counted as
+   * safe once for the whole report.
+   */
+  private void applyFirstBlockReport(final DatanodeDescriptor node,
+      final String storageID, final ResolvedFirstReport resolved)
+      throws IOException {
+    assert (namesystem.hasWriteLock());
+    final DatanodeStorageInfo storageInfo = node.getStorageInfo(storageID);
+    assert (storageInfo.numBlocks() == 0);
+
+    for (StatefulBlockInfo b : resolved.toUC) {
+      b.storedBlock.addReplicaIfNotPresent(storageInfo, b.reportedBlock,
+          b.reportedState);
+      // OpenFileBlocks only inside snapshots also will be added to safemode
+      // threshold, see processFirstBlockReport.
+      if (namesystem.isInSnapshot(b.storedBlock)) {
+        namesystem.incrementSafeBlockCount(
+            b.storedBlock.getNumExpectedLocations());
+      }
+    }
+    for (BlockToMarkCorrupt c : resolved.toCorrupt) {
+      markBlockAsCorrupt(c, node, storageID);
+    }
+    int safeBlocks = 0;
+    for (BlockInfo storedBlock : resolved.toAdd) {
+      if (addStoredBlockImmediate(storedBlock, node, storageID, false)) {
+        safeBlocks++;
+      }
+    }
+    namesystem.incrementSafeBlockCount(minReplication, safeBlocks);
+  }
+
   private void reportDiff(DatanodeDescriptor dn, DatanodeStorage storage, 
       BlockListAsLongs newReport, 
       Collection<BlockInfo> toAdd,              // add to DatanodeDescriptor
@@ -2018,6 +2311,7 @@ public void processAllPendingDNMessages() throws IOException {
     assert !shouldPostponeBlocksFromFuture :
       "processAllPendingDNMessages() should be called after disabling " +
       "block postponement.";
+    processQueuedIncrementalBlockReports(Integer.MAX_VALUE);
     int count = pendingDNMessages.count();
     if (count > 0) {
       LOG.info("Processing " + count + " messages from DataNodes " +
@@ -2147,16 +2441,31 @@ void addStoredBlockUnderConstruction(StatefulBlockInfo ucBlock,
    */
   private void addStoredBlockImmediate(BlockInfo storedBlock,
       DatanodeDescriptor node, String storageID)
+  throws IOException {
+    addStoredBlockImmediate(storedBlock, node, storageID, true);
+  }
+
+  /**
+   * @param countSafe whether to count the block as safe if it has reached
+   *          the minimal replication, or leave it to the caller
+   * @return true if the block has reached the minimal replication and was
+   *         not counted as safe
+   */
+  private boolean addStoredBlockImmediate(BlockInfo storedBlock,
+      DatanodeDescriptor node, String storageID, boolean countSafe)
   throws IOException {
     assert (storedBlock != null && namesystem.hasWriteLock());
     if (!namesystem.isInStartupSafeMode() 
         || namesystem.isPopulatingReplQueues()) {
       addStoredBlock(storedBlock, node, storageID, null, false);
-      return;
+      return false;
     }
 
     // just add it
     node.addBlock(storageID, storedBlock);
+    if (storedBlock.getBlockCollection() != null) {
+      namesystem.blockLocationsChanged(storedBlock.getBlockCollection());
+    }
 
     // Now check for completion of blocks and safe block count
     int numCurrentReplica = countLiveNodes(storedBlock);
@@ -2168,8 +2477,12 @@ private void addStoredBlockImmediate(BlockInfo storedBlock,
       // only complete blocks are counted towards that.
       // In the case that the block just became complete above, completeBlock()
       // handles the safe block count maintenance.
+      if (!countSafe) {
+        return numCurrentReplica == minReplication;
+      }
       namesystem.incrementSafeBlockCount(numCurrentReplica);
     }
+    return false;
   }
 
   /**
@@ -2224,6 +2537,7 @@ private Block addStoredBlock(final BlockInfo block,
           + "Redundant addStoredBlock request received for " + storedBlock
           + " on " + node + " size " + storedBlock.getNumBytes());
     }
+    namesystem.blockLocationsChanged(bc);
 
     // Now check for completion of blocks and safe block count
     NumberReplicas num = countNodes(storedBlock);
@@ -2328,6 +2642,9 @@ private void invalidateCorruptReplicas(BlockInfo blk) {
     // Remove the block from corruptReplicasMap
     if (removedFromBlocksMap) {
       corruptReplicas.removeFromCorruptReplicasMap(blk);
+      if (blk.getBlockCollection() != null) {
+        namesystem.blockLocationsChanged(blk.getBlockCollection());
+      }
     }
   }
 
@@ -2610,6 +2927,7 @@ public void removeStoredBlock(Block block, DatanodeDescriptor node) {
       if (bc != null) {
         namesystem.decrementSafeBlockCount(block);
         updateNeededReplications(block, -1, 0);
+        namesystem.blockLocationsChanged(bc);
       }
 
       //
@@ -2681,7 +2999,9 @@ void addBlock(DatanodeDescriptor node, String storageID, Block block, String del
     //
     // Modify the blocks->datanode map and node's map.
     //
-    pendingReplications.decrement(block, node);
+    if (pendingReplications.decrement(block, node)) {
+      completedReplicationsCount.incrementAndGet();
+    }
     processAndHandleReportedBlock(node, storageID, block, ReplicaState.FINALIZED,
         delHintNode);
   }
@@ -2783,6 +3103,146 @@ public void processIncrementalBlockReport(final DatanodeID nodeID,
         + ", " + " deleted: " + deleted);
   }
 
+  /** An incremental block report waiting to be applied. */
+  private static class QueuedIncrementalBlockReport {
+    final DatanodeID nodeID;
+    final String poolId;
+    final StorageReceivedDeletedBlocks[] reports;
+    final long queuedTime = Time.monotonicNow();
+
+    QueuedIncrementalBlockReport(DatanodeID nodeID, String poolId,
+        StorageReceivedDeletedBlocks[] reports) {
+      this.nodeID = nodeID;
+      this.poolId = poolId;
+      this.reports = reports;
+    }
+
+    int getNumBlocks() {
+      int n = 0;
+      for (StorageReceivedDeletedBlocks r : reports) {
+        n += r.getBlocks().length;
+      }
+      return n;
+    }
+  }
+
+  /**
+   * @return true if incremental block reports are queued by
+   *         {@link #queueIncrementalBlockReport} and applied in batches.
+   */
+  public boolean isIncrementalBlockReportAsync() {
+    return incrementalBlockReportThread != null;
+  }
+
+  /**
+   * Queue the incremental block reports of a datanode, to be applied with
+   * the queued reports of other datanodes under one hold of the write lock.
+   *
+   * @return false if the queue is full, in which case the caller must apply
+   *         the reports itself with {@link #processIncrementalBlockReport(
+   *         DatanodeID, String, StorageReceivedDeletedBlocks[])}
+   */
+  public boolean queueIncrementalBlockReport(final DatanodeID nodeID,
+      final String poolId, final StorageReceivedDeletedBlocks[] reports) {
+    synchronized (incrementalBlockReports) {
+      if (incrementalBlockReports.size() >= incrementalBlockReportQueueSize) {
+        return false;
+      }
+      incrementalBlockReports.add(
+          new QueuedIncrementalBlockReport(nodeID, poolId, reports));
+      incrementalBlockReports.notifyAll();
+      return true;
+    }
+  }
+
+  /**
+   * Apply the incremental block reports of all the storages of a datanode,
+   * after the queued incremental block reports so that the reports of a
+   * node are applied in order.
+   *
+   * This method must be called with FSNamesystem lock held.
+   */
+  public void processIncrementalBlockReport(final DatanodeID nodeID,
+      final String poolId, final StorageReceivedDeletedBlocks[] reports)
+      throws IOException {
+    assert namesystem.hasWriteLock();
+    processQueuedIncrementalBlockReports(Integer.MAX_VALUE);
+    for (StorageReceivedDeletedBlocks r : reports) {
+      processIncrementalBlockReport(nodeID, poolId, r);
+    }
+  }
+
+  /** @return the number of incremental block reports waiting to be applied */
+  public int getQueuedIncrementalBlockReportCount() {
+    synchronized (incrementalBlockReports) {
+      return incrementalBlockReports.size();
+    }
+  }
+
+  /**
+   * Apply queued incremental block reports with about the given number of
+   * blocks.  The report of each storage is applied independently.  A report
+   * which fails is dropped, and the node is asked to register again, which
+   * makes it send a full block report.
+   *
+   * @return the number of reports applied
+   */
+  private int processQueuedIncrementalBlockReports(int maxBlocks) {
+    assert namesystem.hasWriteLock();
+    if (incrementalBlockReportThread == null) {
+      return 0;
+    }
+    final long now = Time.monotonicNow();
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    int numReports = 0;
+    for (int numBlocks = 0; numBlocks < maxBlocks; ) {
+      final QueuedIncrementalBlockReport queued;
+      synchronized (incrementalBlockReports) {
+        queued = incrementalBlockReports.poll();
+      }
+      if (queued == null) {
+        break;
+      }
+      numReports++;
+      numBlocks += queued.getNumBlocks();
+      if (metrics != null) {
+        metrics.addIncrementalBlockReportQueueTime(now - queued.queuedTime);
+      }
+      for (StorageReceivedDeletedBlocks r : queued.reports) {
+        try {
+          processIncrementalBlockReport(queued.nodeID, queued.poolId, r);
+        } catch (IOException e) {
+          blockLog.warn("BLOCK* processQueuedIncrementalBlockReports: "
+              + "dropped the incremental block report of storage "
+              + r.getStorageID() + " from " + queued.nodeID + ": "
+              + e.getMessage());
+          forceRegistration(queued.nodeID);
+        }
+      }
+    }
+    if (metrics != null && numReports > 0) {
+      metrics.addIncrementalBlockReportBatch(numReports);
+    }
+    return numReports;
+  }
+
+  /**
+   * Ask a node to register again on its next heartbeat, so that it sends a
+   * full block report.  A node which is not registered is asked to register
+   * on its next heartbeat anyway.
+   */
+  private void forceRegistration(DatanodeID nodeID) {
+    final DatanodeDescriptor node;
+    try {
+      node = datanodeManager.getDatanode(nodeID);
+    } catch (UnregisteredNodeException e) {
+      return;
+    }
+    if (node != null) {
+      node.setForceRegistration(true);
+    }
+  }
+
   /**
    * Return the number of nodes hosting a given block, grouped
    * by the state of those replicas.
@@ -2888,65 +3348,111 @@ void processOverReplicatedBlocksOnReCommission(
   }
 
   /**
-   * Return true if there are any blocks on this node that have not
-   * yet reached their replication factor. Otherwise returns false.
-   */
-  boolean isReplicationInProgress(DatanodeDescriptor srcNode) {
-    boolean status = false;
-    boolean firstReplicationLog = true;
-    int underReplicatedBlocks = 0;
-    int decommissionOnlyReplicas = 0;
-    int underReplicatedInOpenFiles = 0;
+   * Check the replication of the blocks of a decommissioning node, queueing
+   * those which need replication, and update its
+   * {@link DatanodeDescriptor#decommissioningStatus}.  The node may be
+   * decommissioned once no block with fewer than the default number of
+   * replicas is left, i.e. once
+   * {@link DatanodeDescriptor.DecommissioningStatus#getBlockingBlocks()}
+   * is zero after this call.
+   * <p>
+   * The first check scans all blocks of the node and remembers those which
+   * are under-replicated.  Later checks only recheck the remembered blocks,
+   * in rounds, at most maxBlocks of them per call, and forget those which
+   * have been replicated since.  The counts in the status are updated at the
+   * end of each round.  When a round finds no block which holds up the
+   * decommissioning, the node is scanned in full once more, to catch blocks
+   * written to it since the first scan.  Full scans are not limited by
+   * maxBlocks.
+   *
+   * @return the number of blocks checked
+   */
+  int checkDecommissionProgress(DatanodeDescriptor srcNode, int maxBlocks) {
+    final DatanodeDescriptor.DecommissioningStatus status =
+        srcNode.decommissioningStatus;
+    int checked = 0;
+    if (status.blocksToRecheck != null) {
+      while (checked < maxBlocks && status.roundRemaining > 0) {
+        final Block block = status.blocksToRecheck.poll();
+        status.roundRemaining--;
+        checked++;
+        if (checkDecommissioningBlock(srcNode, block, status)) {
+          status.blocksToRecheck.add(block);
+        }
+      }
+      if (status.roundRemaining > 0) {
+        return checked;
+      }
+      status.endRound();
+      if (status.getBlockingBlocks() > 0) {
+        return checked;
+      }
+    }
+
+    // First check, or no remembered block holds up decommissioning any more.
+    status.blocksToRecheck = new ArrayDeque<Block>();
     final Iterator<? extends Block> it = srcNode.getBlockIterator();
     while(it.hasNext()) {
       final Block block = it.next();
-      BlockCollection bc = blocksMap.getBlockCollection(block);
+      checked++;
+      if (checkDecommissioningBlock(srcNode, block, status)) {
+        status.blocksToRecheck.add(block);
+      }
+    }
+    status.endRound();
+    return checked;
+  }
 
-      if (bc != null) {
-        NumberReplicas num = countNodes(block);
-        int curReplicas = num.liveReplicas();
-        int curExpectedReplicas = getReplication(block);
-        if (isNeededReplication(block, curExpectedReplicas, curReplicas)) {
-          if (curExpectedReplicas > curReplicas) {
-            // Log info about one block for this node which needs replication
-            if (!status) {
-              status = true;
-              if (firstReplicationLog) {
-                logBlockReplicationInfo(block, srcNode, num);
-              }
-              // Allowing decommission as long as default replication is met
-              if (curReplicas >= defaultReplication) {
-                status = false;
-                firstReplicationLog = false;
-              }
-            }
-            underReplicatedBlocks++;
-            if ((curReplicas == 0) && (num.decommissionedReplicas() > 0)) {
-              decommissionOnlyReplicas++;
-            }
-            if (bc.isUnderConstruction()) {
-              underReplicatedInOpenFiles++;
-            }
-          }
-          if (!neededReplications.contains(block) &&
-            pendingReplications.getNumReplicas(block) == 0) {
-            //
-            // These blocks have been reported from the datanode
-            // after the startDecommission method has been executed. These
-            // blocks were in flight when the decommissioning was started.
-            //
-            neededReplications.add(block,
-                                   curReplicas,
-                                   num.decommissionedReplicas(),
-                                   curExpectedReplicas);
-          }
-        }
+  /**
+   * Check the replication of a block on a decommissioning node, queue it for
+   * replication if needed, and count it in the current round of the status.
+   *
+   * @return true if the block is under-replicated and has to be rechecked
+   */
+  private boolean checkDecommissioningBlock(DatanodeDescriptor srcNode,
+      Block block, DatanodeDescriptor.DecommissioningStatus status) {
+    final BlockCollection bc = blocksMap.getBlockCollection(block);
+    if (bc == null) {
+      return false;
+    }
+    final NumberReplicas num = countNodes(block);
+    final int curReplicas = num.liveReplicas();
+    final int curExpectedReplicas = getReplication(block);
+    if (!isNeededReplication(block, curExpectedReplicas, curReplicas)) {
+      return false;
+    }
+    if (!neededReplications.contains(block) &&
+        pendingReplications.getNumReplicas(block) == 0) {
+      //
+      // These blocks have been reported from the datanode
+      // after the startDecommission method has been executed. These
+      // blocks were in flight when the decommissioning was started.
+      //
+      neededReplications.add(block,
+                             curReplicas,
+                             num.decommissionedReplicas(),
+                             curExpectedReplicas);
+    }
+    if (curExpectedReplicas <= curReplicas) {
+      // Only needs to be placed on another rack
+      return false;
+    }
+    // Allowing decommission as long as default replication is met
+    if (curReplicas < defaultReplication) {
+      if (status.roundBlocking == 0) {
+        // Log info about one block for this node which needs replication
+        logBlockReplicationInfo(block, srcNode, num);
       }
+      status.roundBlocking++;
+    }
+    status.roundUnderReplicated++;
+    if ((curReplicas == 0) && (num.decommissionedReplicas() > 0)) {
+      status.roundDecommissionOnly++;
+    }
+    if (bc.isUnderConstruction()) {
+      status.roundInOpenFiles++;
     }
-    srcNode.decommissioningStatus.set(underReplicatedBlocks,
-        decommissionOnlyReplicas, 
-        underReplicatedInOpenFiles);
-    return status;
+    return true;
   }
 
   public int getActiveBlockCount() {
@@ -3176,6 +3682,19 @@ public long[] getCorruptReplicaBlockIds(int numExpectedBlocks,
                                                      startingBlockId);
   }
 
+  /**
+   * @return a copy of the blocks waiting for replication, including the
+   *         missing and corrupt blocks.  The caller must hold the namesystem
+   *         lock.
+   */
+  public List<Block> getNeededReplicationBlocks() {
+    final List<Block> blocks = new ArrayList<Block>(neededReplications.size());
+    for (Iterator<Block> it = neededReplications.iterator(); it.hasNext();) {
+      blocks.add(it.next());
+    }
+    return blocks;
+  }
+
   /**
    * Return an iterator over the set of blocks for which there are no replicas.
    */
@@ -3228,6 +3747,41 @@ public void run() {
   }
 
 
+  /**
+   * Applies the queued incremental block reports in batches.
+   */
+  private class IncrementalBlockReportMonitor implements Runnable {
+
+    @Override
+    public void run() {
+      while (namesystem.isRunning()) {
+        try {
+          synchronized (incrementalBlockReports) {
+            while (incrementalBlockReports.isEmpty()) {
+              incrementalBlockReports.wait();
+            }
+          }
+          namesystem.writeLock();
+          try {
+            processQueuedIncrementalBlockReports(
+                incrementalBlockReportBatchBlocks);
+          } finally {
+            namesystem.writeUnlock();
+          }
+        } catch (InterruptedException ie) {
+          if (!namesystem.isRunning()) {
+            LOG.info("Stopping IncrementalBlockReportMonitor.");
+            break;
+          }
+        } catch (Throwable t) {
+          LOG.fatal("IncrementalBlockReportMonitor thread received Runtime "
+              + "exception. ", t);
+          terminate(1, t);
+        }
+      }
+    }
+  }
+
   /**
    * Compute block replication and block invalidation work that can be scheduled
    * on data-nodes. The datanode will be informed of this work at the next
@@ -3257,6 +3811,7 @@ int computeDatanodeWork() {
     namesystem.writeLock();
     try {
       this.updateState();
+      this.updateReplicationRate();
       this.scheduledReplicationBlocksCount = workFound;
     } finally {
       namesystem.writeUnlock();
@@ -59,6 +59,9 @@ public void remove()  {
   
   private GSet<Block, BlockInfo> blocks;
 
+  /** The number of times a block has been added, removed or replaced. */
+  private long modCount = 0;
+
   BlocksMap(int capacity) {
     // Use 2% of total memory to size the GSet capacity
     this.capacity = capacity;
@@ -86,6 +89,7 @@ BlockInfo addBlockCollection(BlockInfo b, BlockCollection bc) {
     if (info != b) {
       info = b;
       blocks.put(info);
+      modCount++;
     }
     info.setBlockCollection(bc);
     return info;
@@ -100,6 +104,7 @@ void removeBlock(Block block) {
     BlockInfo blockInfo = blocks.remove(block);
     if (blockInfo == null)
       return;
+    modCount++;
 
     blockInfo.setBlockCollection(null);
     for(int idx = blockInfo.numNodes()-1; idx >= 0; idx--) {
@@ -156,6 +161,7 @@ boolean removeNode(Block b, DatanodeDescriptor node) {
     if (info.getDatanode(0) == null     // no datanodes left
               && info.getBlockCollection() == null) {  // does not belong to a file
       blocks.remove(b);  // remove block from the map
+      modCount++;
     }
     return removed;
   }
@@ -189,6 +195,16 @@ BlockInfo replaceBlock(BlockInfo newBlock) {
     }
     // replace block in the map itself
     blocks.put(newBlock);
+    modCount++;
     return newBlock;
   }
+
+  /**
+   * @return the number of times a block has been added to, removed from or
+   *         replaced in the map, so that callers can tell whether the blocks
+   *         they looked up are still in the map.
+   */
+  long getModCount() {
+    return modCount;
+  }
 }
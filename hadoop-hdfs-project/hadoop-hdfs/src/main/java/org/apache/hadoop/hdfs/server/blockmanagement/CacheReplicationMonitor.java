@@ -21,12 +21,17 @@
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -47,6 +52,8 @@
 import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
 import org.apache.hadoop.hdfs.server.namenode.INodeFile;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
 import org.apache.hadoop.util.GSet;
 import org.apache.hadoop.util.Time;
@@ -57,7 +64,13 @@
  * Scans the namesystem, scheduling blocks to be cached as appropriate.
  *
  * The CacheReplicationMonitor does a full scan when the NameNode first
- * starts up, and at configurable intervals afterwards.
+ * starts up, and at configurable intervals afterwards.  Directives which are
+ * only added are applied by an incremental scan of their files and blocks.
+ * Removing or modifying directives or pools requires a full scan, since a
+ * block may be needed by other directives.
+ *
+ * A scan releases the FSN write lock after holding it for the configured
+ * maximum time, between directives or cached blocks.
  */
 @InterfaceAudience.LimitedPrivate({"HDFS"})
 public class CacheReplicationMonitor extends Thread implements Closeable {
@@ -83,6 +96,16 @@ public class CacheReplicationMonitor extends Thread implements Closeable {
    */
   private final long intervalMs;
 
+  /**
+   * The maximum time a scan holds the FSN write lock at a time.
+   */
+  private final long maxLockHoldMs;
+
+  /**
+   * When the current scan last acquired the FSN write lock.
+   */
+  private long lockAcquiredMs;
+
   /**
    * The CacheReplicationMonitor (CRM) lock. Used to synchronize starting and
    * waiting for rescan operations.
@@ -105,11 +128,38 @@ public class CacheReplicationMonitor extends Thread implements Closeable {
    */
   private boolean needsRescan = true;
 
+  /**
+   * Directives added since the last scan, which are applied by an incremental
+   * scan unless a full rescan is needed. Protected by the CRM lock.
+   */
+  private List<CacheDirective> addedDirectives =
+      new ArrayList<CacheDirective>();
+
   /**
    * Whether we are currently doing a rescan. Protected by the CRM lock.
    */
   private boolean isScanning = false;
 
+  /** The statistics of a directive or a pool, as counted by a scan. */
+  private static class Statistics {
+    long bytesNeeded;
+    long bytesCached;
+    long filesNeeded;
+    long filesCached;
+  }
+
+  /**
+   * The statistics of the directives scanned by the current scan.  A scan
+   * may release the FSN write lock, so it counts into these, and publishes
+   * them to the directives and pools all at once when it is done.
+   */
+  private final Map<CacheDirective, Statistics> directiveStats =
+      new HashMap<CacheDirective, Statistics>();
+
+  /** The statistics of the pools of the directives being scanned. */
+  private final Map<CachePool, Statistics> poolStats =
+      new HashMap<CachePool, Statistics>();
+
   /**
    * The number of rescans completed. Used to wait for scans to finish.
    * Protected by the CacheReplicationMonitor lock.
@@ -137,12 +187,14 @@ public class CacheReplicationMonitor extends Thread implements Closeable {
   private long scannedBlocks;
 
   public CacheReplicationMonitor(FSNamesystem namesystem,
-      CacheManager cacheManager, long intervalMs, ReentrantLock lock) {
+      CacheManager cacheManager, long intervalMs, long maxLockHoldMs,
+      ReentrantLock lock) {
     this.namesystem = namesystem;
     this.blockManager = namesystem.getBlockManager();
     this.cacheManager = cacheManager;
     this.cachedBlocks = cacheManager.getCachedBlocks();
     this.intervalMs = intervalMs;
+    this.maxLockHoldMs = maxLockHoldMs;
     this.lock = lock;
     this.doRescan = this.lock.newCondition();
     this.scanFinished = this.lock.newCondition();
@@ -158,6 +210,7 @@ public void run() {
     try {
       long curTimeMs = Time.monotonicNow();
       while (true) {
+        List<CacheDirective> added = null;
         lock.lock();
         try {
           while (true) {
@@ -175,18 +228,36 @@ public void run() {
                   " milliseconds");
               break;
             }
+            if (!addedDirectives.isEmpty()) {
+              added = addedDirectives;
+              break;
+            }
             doRescan.await(delta, TimeUnit.MILLISECONDS);
             curTimeMs = Time.monotonicNow();
           }
           isScanning = true;
           needsRescan = false;
+          addedDirectives = new ArrayList<CacheDirective>();
         } finally {
           lock.unlock();
         }
-        startTimeMs = curTimeMs;
-        mark = !mark;
-        rescan();
+        final long scanStartMs = Time.monotonicNow();
+        if (added == null) {
+          startTimeMs = curTimeMs;
+          mark = !mark;
+          rescan();
+        } else {
+          rescanAddedDirectives(added);
+        }
         curTimeMs = Time.monotonicNow();
+        final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+        if (metrics != null) {
+          if (added == null) {
+            metrics.addCacheRescan(curTimeMs - scanStartMs);
+          } else {
+            metrics.addCacheIncrementalRescan(curTimeMs - scanStartMs);
+          }
+        }
         // Update synchronization-related variables.
         lock.lock();
         try {
@@ -196,8 +267,9 @@ public void run() {
         } finally {
           lock.unlock();
         }
-        LOG.info("Scanned " + scannedDirectives + " directive(s) and " +
-            scannedBlocks + " block(s) in " + (curTimeMs - startTimeMs) + " " +
+        LOG.info("Scanned " + scannedDirectives +
+            (added == null ? "" : " new") + " directive(s) and " +
+            scannedBlocks + " block(s) in " + (curTimeMs - scanStartMs) + " " +
             "millisecond(s).");
       }
     } catch (InterruptedException e) {
@@ -222,7 +294,7 @@ public void waitForRescanIfNeeded() {
         "Must not hold the FSN write lock when waiting for a rescan.");
     Preconditions.checkArgument(lock.isHeldByCurrentThread(),
         "Must hold the CRM lock when waiting for a rescan.");
-    if (!needsRescan) {
+    if (!needsRescan && addedDirectives.isEmpty()) {
       return;
     }
     // If no scan is already ongoing, mark the CRM as dirty and kick
@@ -250,6 +322,22 @@ public void setNeedsRescan() {
     Preconditions.checkArgument(lock.isHeldByCurrentThread(),
         "Must hold the CRM lock when setting the needsRescan bit.");
     this.needsRescan = true;
+    this.addedDirectives.clear();
+  }
+
+  /**
+   * Indicates to the CacheReplicationMonitor that a directive was added, and
+   * starts an incremental scan for it unless a full rescan is pending.
+   */
+  public void addDirective(CacheDirective directive) {
+    Preconditions.checkArgument(lock.isHeldByCurrentThread(),
+        "Must hold the CRM lock when adding a directive.");
+    if (!needsRescan) {
+      addedDirectives.add(directive);
+      if (!isScanning) {
+        doRescan.signal();
+      }
+    }
   }
 
   /**
@@ -278,14 +366,12 @@ public void close() throws IOException {
   private void rescan() throws InterruptedException {
     scannedDirectives = 0;
     scannedBlocks = 0;
-    namesystem.writeLock();
+    writeLock();
     try {
-      if (shutdown) {
-        throw new InterruptedException("CacheReplicationMonitor was " +
-            "shut down.");
-      }
-      resetStatistics();
+      directiveStats.clear();
+      poolStats.clear();
       rescanCacheDirectives();
+      publishStatistics();
       rescanCachedBlockMap();
       blockManager.getDatanodeManager().resetLastCachingDirectiveSentTime();
     } finally {
@@ -293,66 +379,210 @@ private void rescan() throws InterruptedException {
     }
   }
 
-  private void resetStatistics() {
+  /**
+   * Apply directives added since the last scan, and update only the blocks
+   * of their files.  Added directives can only increase the replication of
+   * blocks, so the other blocks do not need to be scanned.
+   */
+  private void rescanAddedDirectives(List<CacheDirective> added)
+      throws InterruptedException {
+    scannedDirectives = 0;
+    scannedBlocks = 0;
+    writeLock();
+    try {
+      directiveStats.clear();
+      poolStats.clear();
+      // Count on top of the current pool statistics, without the estimates
+      // made when the directives were added.
+      for (CacheDirective directive : added) {
+        CachePool pool = directive.getPool();
+        if (pool == null) {
+          continue;
+        }
+        Statistics stats = poolStats.get(pool);
+        if (stats == null) {
+          stats = new Statistics();
+          stats.bytesNeeded = pool.getBytesNeeded();
+          stats.bytesCached = pool.getBytesCached();
+          stats.filesNeeded = pool.getFilesNeeded();
+          stats.filesCached = pool.getFilesCached();
+          poolStats.put(pool, stats);
+        }
+        stats.bytesNeeded -= directive.getBytesNeeded();
+        stats.bytesCached -= directive.getBytesCached();
+        stats.filesNeeded -= directive.getFilesNeeded();
+        stats.filesCached -= directive.getFilesCached();
+      }
+      final long now = new Date().getTime();
+      final Set<CachedBlock> touched = new LinkedHashSet<CachedBlock>();
+      for (CacheDirective directive : added) {
+        yieldLockIfNeeded();
+        if (directive.getPool() == null) {
+          // Removed since it was added, which triggers a full rescan.
+          continue;
+        }
+        rescanCacheDirective(directive, now, touched);
+      }
+      // Replace the estimates by what was counted.
+      for (Map.Entry<CacheDirective, Statistics> e :
+          directiveStats.entrySet()) {
+        CacheDirective directive = e.getKey();
+        Statistics stats = e.getValue();
+        if (directive.getPool() == null) {
+          continue;
+        }
+        directive.addBytesNeeded(stats.bytesNeeded
+            - directive.getBytesNeeded());
+        directive.addBytesCached(stats.bytesCached
+            - directive.getBytesCached());
+        directive.addFilesNeeded(stats.filesNeeded
+            - directive.getFilesNeeded());
+        directive.addFilesCached(stats.filesCached
+            - directive.getFilesCached());
+      }
+      directiveStats.clear();
+      poolStats.clear();
+      rescanCachedBlocks(touched);
+      blockManager.getDatanodeManager().resetLastCachingDirectiveSentTime();
+    } finally {
+      namesystem.writeUnlock();
+    }
+  }
+
+  private void writeLock() throws InterruptedException {
+    namesystem.writeLock();
+    lockAcquiredMs = Time.monotonicNow();
+    if (shutdown) {
+      namesystem.writeUnlock();
+      throw new InterruptedException("CacheReplicationMonitor was " +
+          "shut down.");
+    }
+  }
+
+  /**
+   * Release and reacquire the FSN write lock if it has been held for too
+   * long, so that other operations can proceed.  Callers must not rely on
+   * state read before this call.
+   */
+  private void yieldLockIfNeeded() throws InterruptedException {
+    if (Time.monotonicNow() - lockAcquiredMs < maxLockHoldMs) {
+      return;
+    }
+    namesystem.writeUnlock();
+    writeLock();
+  }
+
+  /**
+   * Replace the statistics of all directives and pools by those counted by a
+   * full scan, without releasing the lock in between.
+   */
+  private void publishStatistics() {
     for (CachePool pool: cacheManager.getCachePools()) {
       pool.resetStatistics();
     }
     for (CacheDirective directive: cacheManager.getCacheDirectives()) {
+      Statistics stats = directiveStats.get(directive);
+      if (stats == null) {
+        // Added while the lock was released; keep its estimate.
+        CachePool pool = directive.getPool();
+        pool.addBytesNeeded(directive.getBytesNeeded());
+        pool.addBytesCached(directive.getBytesCached());
+        pool.addFilesNeeded(directive.getFilesNeeded());
+        pool.addFilesCached(directive.getFilesCached());
+        continue;
+      }
+      // These add to the pool statistics as well.
       directive.resetStatistics();
+      directive.addBytesNeeded(stats.bytesNeeded);
+      directive.addBytesCached(stats.bytesCached);
+      directive.addFilesNeeded(stats.filesNeeded);
+      directive.addFilesCached(stats.filesCached);
+    }
+    directiveStats.clear();
+    poolStats.clear();
+  }
+
+  /** @return the statistics counted so far for the pool of a directive. */
+  private Statistics getPoolStatistics(CachePool pool) {
+    Statistics stats = poolStats.get(pool);
+    if (stats == null) {
+      stats = new Statistics();
+      poolStats.put(pool, stats);
     }
+    return stats;
   }
 
   /**
    * Scan all CacheDirectives.  Use the information to figure out
    * what cache replication factor each block should have.
    */
-  private void rescanCacheDirectives() {
-    FSDirectory fsDir = namesystem.getFSDirectory();
+  private void rescanCacheDirectives() throws InterruptedException {
     final long now = new Date().getTime();
-    for (CacheDirective directive : cacheManager.getCacheDirectives()) {
-      // Reset the directive's statistics
-      directive.resetStatistics();
-      // Skip processing this entry if it has expired
-      if (LOG.isTraceEnabled()) {
-        LOG.trace("Directive expiry is at " + directive.getExpiryTime());
-      }
-      if (directive.getExpiryTime() > 0 && directive.getExpiryTime() <= now) {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Skipping directive id " + directive.getId()
-              + " because it has expired (" + directive.getExpiryTime() + "<="
-              + now + ")");
-        }
+    // The directives may change while the lock is released.
+    final List<CacheDirective> directives =
+        new ArrayList<CacheDirective>(cacheManager.getCacheDirectives());
+    for (CacheDirective directive : directives) {
+      yieldLockIfNeeded();
+      if (directive.getPool() == null) {
+        // Removed while the lock was released, which triggers a full rescan.
         continue;
       }
-      scannedDirectives++;
-      String path = directive.getPath();
-      INode node;
-      try {
-        node = fsDir.getINode(path);
-      } catch (UnresolvedLinkException e) {
-        // We don't cache through symlinks
-        continue;
+      rescanCacheDirective(directive, now, null);
+    }
+  }
+
+  /**
+   * Apply a CacheDirective to the files at its path.
+   *
+   * @param directive The CacheDirective to apply.
+   * @param now The current time, to check the expiry of the directive.
+   * @param touched If not null, the cached blocks of the files are added.
+   */
+  private void rescanCacheDirective(CacheDirective directive, long now,
+      Collection<CachedBlock> touched) {
+    FSDirectory fsDir = namesystem.getFSDirectory();
+    // Start counting the directive's statistics
+    directiveStats.put(directive, new Statistics());
+    // Skip processing this entry if it has expired
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Directive expiry is at " + directive.getExpiryTime());
+    }
+    if (directive.getExpiryTime() > 0 && directive.getExpiryTime() <= now) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Skipping directive id " + directive.getId()
+            + " because it has expired (" + directive.getExpiryTime() + "<="
+            + now + ")");
       }
-      if (node == null)  {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("No inode found at " + path);
-        }
-      } else if (node.isDirectory()) {
-        INodeDirectory dir = node.asDirectory();
-        ReadOnlyList<INode> children = dir.getChildrenList(null);
-        for (INode child : children) {
-          if (child.isFile()) {
-            rescanFile(directive, child.asFile());
-          }
-        }
-      } else if (node.isFile()) {
-        rescanFile(directive, node.asFile());
-      } else {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Ignoring non-directory, non-file inode " + node +
-                    " found at " + path);
+      return;
+    }
+    scannedDirectives++;
+    String path = directive.getPath();
+    INode node;
+    try {
+      node = fsDir.getINode(path);
+    } catch (UnresolvedLinkException e) {
+      // We don't cache through symlinks
+      return;
+    }
+    if (node == null)  {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("No inode found at " + path);
+      }
+    } else if (node.isDirectory()) {
+      INodeDirectory dir = node.asDirectory();
+      ReadOnlyList<INode> children = dir.getChildrenList(null);
+      for (INode child : children) {
+        if (child.isFile()) {
+          rescanFile(directive, child.asFile(), touched);
         }
       }
+    } else if (node.isFile()) {
+      rescanFile(directive, node.asFile(), touched);
+    } else {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Ignoring non-directory, non-file inode " + node +
+                  " found at " + path);
+      }
     }
   }
   
@@ -361,29 +591,35 @@ private void rescanCacheDirectives() {
    * 
    * @param directive The CacheDirective to apply.
    * @param file The file.
+   * @param touched If not null, the cached blocks of the file are added.
    */
-  private void rescanFile(CacheDirective directive, INodeFile file) {
+  private void rescanFile(CacheDirective directive, INodeFile file,
+      Collection<CachedBlock> touched) {
     BlockInfo[] blockInfos = file.getBlocks();
+    Statistics stats = directiveStats.get(directive);
+    CachePool pool = directive.getPool();
+    Statistics pstats = getPoolStatistics(pool);
 
     // Increment the "needed" statistics
-    directive.addFilesNeeded(1);
+    stats.filesNeeded++;
+    pstats.filesNeeded++;
     // We don't cache UC blocks, don't add them to the total here
     long neededTotal = file.computeFileSizeNotIncludingLastUcBlock() *
         directive.getReplication();
-    directive.addBytesNeeded(neededTotal);
+    stats.bytesNeeded += neededTotal;
+    pstats.bytesNeeded += neededTotal;
 
     // The pool's bytesNeeded is incremented as we scan. If the demand
     // thus far plus the demand of this file would exceed the pool's limit,
     // do not cache this file.
-    CachePool pool = directive.getPool();
-    if (pool.getBytesNeeded() > pool.getLimit()) {
+    if (pstats.bytesNeeded > pool.getLimit()) {
       if (LOG.isDebugEnabled()) {
         LOG.debug(String.format("Skipping directive id %d file %s because "
             + "limit of pool %s would be exceeded (%d > %d)",
             directive.getId(),
             file.getFullPathName(),
             pool.getPoolName(),
-            pool.getBytesNeeded(),
+            pstats.bytesNeeded,
             pool.getLimit()));
       }
       return;
@@ -401,7 +637,13 @@ private void rescanFile(CacheDirective directive, INodeFile file) {
       CachedBlock ocblock = cachedBlocks.get(ncblock);
       if (ocblock == null) {
         cachedBlocks.put(ncblock);
+        if (touched != null) {
+          touched.add(ncblock);
+        }
       } else {
+        if (touched != null) {
+          touched.add(ocblock);
+        }
         // Update bytesUsed using the current replication levels.
         // Assumptions: we assume that all the blocks are the same length
         // on each datanode.  We can assume this because we're only caching
@@ -433,9 +675,11 @@ private void rescanFile(CacheDirective directive, INodeFile file) {
       }
     }
     // Increment the "cached" statistics
-    directive.addBytesCached(cachedTotal);
+    stats.bytesCached += cachedTotal;
+    pstats.bytesCached += cachedTotal;
     if (cachedTotal == neededTotal) {
-      directive.addFilesCached(1);
+      stats.filesCached++;
+      pstats.filesCached++;
     }
     if (LOG.isTraceEnabled()) {
       LOG.trace("Directive " + directive.getId() + " is caching " +
@@ -479,76 +723,98 @@ private String findReasonForNotCaching(CachedBlock cblock,
    * Any blocks which are under-replicated should be assigned new Datanodes.
    * Blocks that are over-replicated should be removed from Datanodes.
    */
-  private void rescanCachedBlockMap() {
-    for (Iterator<CachedBlock> cbIter = cachedBlocks.iterator();
-        cbIter.hasNext(); ) {
+  private void rescanCachedBlockMap() throws InterruptedException {
+    // Cache reports may add blocks while the lock is released.
+    final List<CachedBlock> blocks =
+        new ArrayList<CachedBlock>(cachedBlocks.size());
+    for (CachedBlock cblock : cachedBlocks) {
+      blocks.add(cblock);
+    }
+    rescanCachedBlocks(blocks);
+  }
+
+  private void rescanCachedBlocks(Collection<CachedBlock> blocks)
+      throws InterruptedException {
+    for (CachedBlock cblock : blocks) {
+      yieldLockIfNeeded();
+      if (cachedBlocks.get(cblock) != cblock) {
+        continue;
+      }
       scannedBlocks++;
-      CachedBlock cblock = cbIter.next();
-      List<DatanodeDescriptor> pendingCached =
-          cblock.getDatanodes(Type.PENDING_CACHED);
-      List<DatanodeDescriptor> cached =
-          cblock.getDatanodes(Type.CACHED);
-      List<DatanodeDescriptor> pendingUncached =
-          cblock.getDatanodes(Type.PENDING_UNCACHED);
-      // Remove nodes from PENDING_UNCACHED if they were actually uncached.
-      for (Iterator<DatanodeDescriptor> iter = pendingUncached.iterator();
-          iter.hasNext(); ) {
-        DatanodeDescriptor datanode = iter.next();
-        if (!cblock.isInList(datanode.getCached())) {
-          datanode.getPendingUncached().remove(cblock);
-          iter.remove();
-        }
+      if (rescanCachedBlock(cblock)) {
+        cachedBlocks.remove(cblock);
       }
-      BlockInfo blockInfo = blockManager.
-            getStoredBlock(new Block(cblock.getBlockId()));
-      String reason = findReasonForNotCaching(cblock, blockInfo);
-      int neededCached = 0;
-      if (reason != null) {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("not caching " + cblock + " because it is " + reason);
-        }
-      } else {
-        neededCached = cblock.getReplication();
+    }
+  }
+
+  /**
+   * Update the pending cached and uncached lists of a block.
+   *
+   * @return true if the block no longer needs to be tracked.
+   */
+  private boolean rescanCachedBlock(CachedBlock cblock) {
+    List<DatanodeDescriptor> pendingCached =
+        cblock.getDatanodes(Type.PENDING_CACHED);
+    List<DatanodeDescriptor> cached =
+        cblock.getDatanodes(Type.CACHED);
+    List<DatanodeDescriptor> pendingUncached =
+        cblock.getDatanodes(Type.PENDING_UNCACHED);
+    // Remove nodes from PENDING_UNCACHED if they were actually uncached.
+    for (Iterator<DatanodeDescriptor> iter = pendingUncached.iterator();
+        iter.hasNext(); ) {
+      DatanodeDescriptor datanode = iter.next();
+      if (!cblock.isInList(datanode.getCached())) {
+        datanode.getPendingUncached().remove(cblock);
+        iter.remove();
       }
-      int numCached = cached.size();
-      if (numCached >= neededCached) {
-        // If we have enough replicas, drop all pending cached.
-        for (Iterator<DatanodeDescriptor> iter = pendingCached.iterator();
-            iter.hasNext(); ) {
-          DatanodeDescriptor datanode = iter.next();
-          datanode.getPendingCached().remove(cblock);
-          iter.remove();
-        }
+    }
+    BlockInfo blockInfo = blockManager.
+          getStoredBlock(new Block(cblock.getBlockId()));
+    String reason = findReasonForNotCaching(cblock, blockInfo);
+    int neededCached = 0;
+    if (reason != null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("not caching " + cblock + " because it is " + reason);
       }
-      if (numCached < neededCached) {
-        // If we don't have enough replicas, drop all pending uncached.
-        for (Iterator<DatanodeDescriptor> iter = pendingUncached.iterator();
-            iter.hasNext(); ) {
-          DatanodeDescriptor datanode = iter.next();
-          datanode.getPendingUncached().remove(cblock);
-          iter.remove();
-        }
+    } else {
+      neededCached = cblock.getReplication();
+    }
+    int numCached = cached.size();
+    if (numCached >= neededCached) {
+      // If we have enough replicas, drop all pending cached.
+      for (Iterator<DatanodeDescriptor> iter = pendingCached.iterator();
+          iter.hasNext(); ) {
+        DatanodeDescriptor datanode = iter.next();
+        datanode.getPendingCached().remove(cblock);
+        iter.remove();
       }
-      int neededUncached = numCached -
-          (pendingUncached.size() + neededCached);
-      if (neededUncached > 0) {
-        addNewPendingUncached(neededUncached, cblock, cached,
-            pendingUncached);
-      } else {
-        int additionalCachedNeeded = neededCached -
-            (numCached + pendingCached.size());
-        if (additionalCachedNeeded > 0) {
-          addNewPendingCached(additionalCachedNeeded, cblock, cached,
-              pendingCached);
-        }
+    }
+    if (numCached < neededCached) {
+      // If we don't have enough replicas, drop all pending uncached.
+      for (Iterator<DatanodeDescriptor> iter = pendingUncached.iterator();
+          iter.hasNext(); ) {
+        DatanodeDescriptor datanode = iter.next();
+        datanode.getPendingUncached().remove(cblock);
+        iter.remove();
       }
-      if ((neededCached == 0) &&
-          pendingUncached.isEmpty() &&
-          pendingCached.isEmpty()) {
-        // we have nothing more to do with this block.
-        cbIter.remove();
+    }
+    int neededUncached = numCached -
+        (pendingUncached.size() + neededCached);
+    if (neededUncached > 0) {
+      addNewPendingUncached(neededUncached, cblock, cached,
+          pendingUncached);
+    } else {
+      int additionalCachedNeeded = neededCached -
+          (numCached + pendingCached.size());
+      if (additionalCachedNeeded > 0) {
+        addNewPendingCached(additionalCachedNeeded, cblock, cached,
+            pendingCached);
       }
     }
+    // If nothing is needed, we have nothing more to do with this block.
+    return (neededCached == 0) &&
+        pendingUncached.isEmpty() &&
+        pendingCached.isEmpty();
   }
 
   /**
@@ -624,6 +890,7 @@ private void addNewPendingCached(int neededCached,
       DatanodeDescriptor datanode = blockInfo.getDatanode(i);
       if ((datanode != null) && 
           ((!pendingCached.contains(datanode)) &&
+          (!cached.contains(datanode)) &&
           ((corrupt == null) || (!corrupt.contains(datanode))))) {
         possibilities.add(datanode);
       }
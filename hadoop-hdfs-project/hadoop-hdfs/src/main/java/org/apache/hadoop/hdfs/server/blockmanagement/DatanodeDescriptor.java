@@ -176,8 +176,8 @@ public CachedBlocksList getPendingUncached() {
 
   // isAlive == heartbeats.contains(this)
   // This is an optimization, because contains takes O(n) time on Arraylist
-  public boolean isAlive = false;
-  public boolean needKeyUpdate = false;
+  public volatile boolean isAlive = false;
+  public volatile boolean needKeyUpdate = false;
 
   
   // A system administrator can tune the balancer bandwidth parameter
@@ -213,6 +213,12 @@ public CachedBlocksList getPendingUncached() {
    */
   private boolean disallowed = false;
 
+  /**
+   * When set to true, the node is asked to register again, and thus to send
+   * a full block report, on its next heartbeat.
+   */
+  private volatile boolean forceRegistration = false;
+
   /**
    * DatanodeDescriptor constructor
    * @param nodeID id of the data node
@@ -540,8 +546,29 @@ public class DecommissioningStatus {
     private int underReplicatedBlocks;
     private int decommissionOnlyReplicas;
     private int underReplicatedInOpenFiles;
+    /** Under-replicated blocks with fewer than the default replicas */
+    private int blockingBlocks;
+    /** blockingBlocks as found by the first check */
+    private int initialBlockingBlocks = -1;
     private long startTime;
-    
+
+    // The following are used by BlockManager#checkDecommissionProgress to
+    // recheck only the under-replicated blocks, in rounds, and are guarded
+    // by the namesystem lock.
+
+    /**
+     * The blocks found under-replicated by their last check, or null if all
+     * blocks of the node have to be scanned.
+     */
+    Queue<Block> blocksToRecheck = null;
+    /** Number of blocks left to recheck in the current round. */
+    int roundRemaining;
+    /** Counts of the blocks checked in the current round. */
+    int roundUnderReplicated;
+    int roundDecommissionOnly;
+    int roundInOpenFiles;
+    int roundBlocking;
+
     synchronized void set(int underRep,
         int onlyRep, int underConstruction) {
       if (isDecommissionInProgress() == false) {
@@ -552,6 +579,69 @@ synchronized void set(int underRep,
       underReplicatedInOpenFiles = underConstruction;
     }
 
+    /**
+     * Publish the counts of the round that just ended, and start the next
+     * round over all blocks still to be rechecked.
+     */
+    void endRound() {
+      set(roundUnderReplicated, roundDecommissionOnly, roundInOpenFiles);
+      synchronized (this) {
+        blockingBlocks = roundBlocking;
+        if (initialBlockingBlocks < 0) {
+          initialBlockingBlocks = roundBlocking;
+        }
+      }
+      roundUnderReplicated = 0;
+      roundDecommissionOnly = 0;
+      roundInOpenFiles = 0;
+      roundBlocking = 0;
+      roundRemaining = blocksToRecheck.size();
+    }
+
+    /** Forget the tracked blocks, so that the next check starts over. */
+    void resetTracking() {
+      blocksToRecheck = null;
+      roundRemaining = 0;
+      roundUnderReplicated = 0;
+      roundDecommissionOnly = 0;
+      roundInOpenFiles = 0;
+      roundBlocking = 0;
+      synchronized (this) {
+        blockingBlocks = 0;
+        initialBlockingBlocks = -1;
+      }
+    }
+
+    /**
+     * @return the number of under-replicated blocks which keep the node from
+     *         being decommissioned
+     */
+    public synchronized int getBlockingBlocks() {
+      if (isDecommissionInProgress() == false) {
+        return 0;
+      }
+      return blockingBlocks;
+    }
+
+    /**
+     * @return the estimated time in milliseconds until the node can be
+     *         decommissioned, extrapolated from the progress since it
+     *         started, or -1 if unknown
+     */
+    public synchronized long getEstimatedTimeRemaining() {
+      if (isDecommissionInProgress() == false || initialBlockingBlocks < 0) {
+        return -1;
+      }
+      if (blockingBlocks == 0) {
+        return 0;
+      }
+      final int done = initialBlockingBlocks - blockingBlocks;
+      if (done <= 0) {
+        return -1;
+      }
+      return (Time.now() - startTime) * blockingBlocks / done;
+    }
+
     /** @return the number of under-replicated blocks */
     public synchronized int getUnderReplicatedBlocks() {
       if (isDecommissionInProgress() == false) {
@@ -598,6 +688,15 @@ public boolean isDisallowed() {
     return disallowed;
   }
 
+  /** Set the flag to ask the node to register again on its next heartbeat. */
+  public void setForceRegistration(boolean force) {
+    forceRegistration = force;
+  }
+  /** Should the node register again on its next heartbeat? */
+  public boolean isForceRegistration() {
+    return forceRegistration;
+  }
+
   /**
    * @return number of failed volumes in the datanode.
    */
@@ -611,6 +710,7 @@ public int getVolumeFailures() {
   @Override
   public void updateRegInfo(DatanodeID nodeReg) {
     super.updateRegInfo(nodeReg);
+    forceRegistration = false;
     
     // must re-process IBR after re-registration
     for(DatanodeStorageInfo storage : getStorageInfos()) {
@@ -299,7 +299,9 @@ void activate(final Configuration conf) {
         conf.getInt(DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_INTERVAL_KEY, 
                     DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_INTERVAL_DEFAULT),
         conf.getInt(DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_NODES_PER_INTERVAL_KEY, 
-                    DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_NODES_PER_INTERVAL_DEFAULT)));
+                    DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_NODES_PER_INTERVAL_DEFAULT),
+        conf.getInt(DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_INTERVAL_KEY,
+                    DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_INTERVAL_DEFAULT)));
     decommissionthread.start();
 
     heartbeatManager.activate(conf);
@@ -709,15 +711,28 @@ private void checkDecommissioning(DatanodeDescriptor nodeReg) {
    * decommission completed. Return true if decommission is complete.
    */
   boolean checkDecommissionState(DatanodeDescriptor node) {
-    // Check to see if all blocks in this decommissioned
-    // node has reached their target replication factor.
+    checkDecommissionProgress(node, Integer.MAX_VALUE);
+    return node.isDecommissioned();
+  }
+
+  /**
+   * Check whether all blocks of a decommissioning node have reached their
+   * target replication factor, checking at most about maxBlocks blocks, and
+   * mark the node decommissioned if so.
+   * @see BlockManager#checkDecommissionProgress(DatanodeDescriptor, int)
+   * @return the number of blocks checked
+   */
+  int checkDecommissionProgress(DatanodeDescriptor node, int maxBlocks) {
+    int checked = 0;
     if (node.isDecommissionInProgress()) {
-      if (!blockManager.isReplicationInProgress(node)) {
+      checked = blockManager.checkDecommissionProgress(node, maxBlocks);
+      if (node.decommissioningStatus.getBlockingBlocks() == 0) {
         node.setDecommissioned();
+        node.decommissioningStatus.resetTracking();
         LOG.info("Decommission complete for " + node);
       }
     }
-    return node.isDecommissioned();
+    return checked;
   }
 
   /** Start decommissioning the specified datanode. */
@@ -729,6 +744,7 @@ private void startDecommission(DatanodeDescriptor node) {
       }
       heartbeatManager.startDecommission(node);
       node.decommissioningStatus.setStartTime(now());
+      node.decommissioningStatus.resetTracking();
       
       // all the blocks that reside on this node have to be replicated.
       checkDecommissionState(node);
@@ -740,6 +756,7 @@ void stopDecommission(DatanodeDescriptor node) {
     if (node.isDecommissionInProgress() || node.isDecommissioned()) {
       LOG.info("Stop Decommissioning " + node);
       heartbeatManager.stopDecommission(node);
+      node.decommissioningStatus.resetTracking();
       // Over-replicated blocks will be detected and processed when 
       // the dead node comes back and send in its full block report.
       if (node.isAlive) {
@@ -1222,133 +1239,137 @@ private void setDatanodeDead(DatanodeDescriptor node) {
     node.setLastUpdate(0);
   }
 
-  /** Handle heartbeat from datanodes. */
+  /**
+   * Handle heartbeat from datanodes.
+   * The datanode map and the heartbeat manager are locked only to look up
+   * the datanode and to update the statistics.  The commands are then
+   * built from the per-datanode queues, which are synchronized separately,
+   * so that heartbeats from different datanodes do not wait for each other.
+   */
   public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
       StorageReport[] reports, final String blockPoolId,
       long cacheCapacity, long cacheUsed, int xceiverCount, 
       int maxTransfers, int failedVolumes
       ) throws IOException {
-    synchronized (heartbeatManager) {
-      synchronized (datanodeMap) {
-        DatanodeDescriptor nodeinfo = null;
-        try {
-          nodeinfo = getDatanode(nodeReg);
-        } catch(UnregisteredNodeException e) {
-          return new DatanodeCommand[]{RegisterCommand.REGISTER};
-        }
-        
-        // Check if this datanode should actually be shutdown instead. 
-        if (nodeinfo != null && nodeinfo.isDisallowed()) {
-          setDatanodeDead(nodeinfo);
-          throw new DisallowedDatanodeException(nodeinfo);
-        }
+    DatanodeDescriptor nodeinfo = null;
+    synchronized (datanodeMap) {
+      try {
+        nodeinfo = getDatanode(nodeReg);
+      } catch(UnregisteredNodeException e) {
+        return new DatanodeCommand[]{RegisterCommand.REGISTER};
+      }
+    }
 
-        if (nodeinfo == null || !nodeinfo.isAlive) {
-          return new DatanodeCommand[]{RegisterCommand.REGISTER};
-        }
+    // Check if this datanode should actually be shutdown instead. 
+    if (nodeinfo != null && nodeinfo.isDisallowed()) {
+      setDatanodeDead(nodeinfo);
+      throw new DisallowedDatanodeException(nodeinfo);
+    }
 
-        heartbeatManager.updateHeartbeat(nodeinfo, reports,
-                                         cacheCapacity, cacheUsed,
-                                         xceiverCount, failedVolumes);
+    if (nodeinfo == null || nodeinfo.isForceRegistration()
+        || !heartbeatManager.updateHeartbeat(nodeinfo, reports,
+            cacheCapacity, cacheUsed, xceiverCount, failedVolumes)) {
+      return new DatanodeCommand[]{RegisterCommand.REGISTER};
+    }
 
-        // If we are in safemode, do not send back any recovery / replication
-        // requests. Don't even drain the existing queue of work.
-        if(namesystem.isInSafeMode()) {
-          return new DatanodeCommand[0];
-        }
+    // If we are in safemode, do not send back any recovery / replication
+    // requests. Don't even drain the existing queue of work.
+    if(namesystem.isInSafeMode()) {
+      return new DatanodeCommand[0];
+    }
 
-        //check lease recovery
-        BlockInfoUnderConstruction[] blocks = nodeinfo
-            .getLeaseRecoveryCommand(Integer.MAX_VALUE);
-        if (blocks != null) {
-          BlockRecoveryCommand brCommand = new BlockRecoveryCommand(
-              blocks.length);
-          for (BlockInfoUnderConstruction b : blocks) {
-            final DatanodeStorageInfo[] storages = b.getExpectedStorageLocations();
-            // Skip stale nodes during recovery - not heart beated for some time (30s by default).
-            final List<DatanodeStorageInfo> recoveryLocations =
-                new ArrayList<DatanodeStorageInfo>(storages.length);
-            for (int i = 0; i < storages.length; i++) {
-              if (!storages[i].getDatanodeDescriptor().isStale(staleInterval)) {
-                recoveryLocations.add(storages[i]);
-              }
-            }
-            // If we only get 1 replica after eliminating stale nodes, then choose all
-            // replicas for recovery and let the primary data node handle failures.
-            if (recoveryLocations.size() > 1) {
-              if (recoveryLocations.size() != storages.length) {
-                LOG.info("Skipped stale nodes for recovery : " +
-                    (storages.length - recoveryLocations.size()));
-              }
-              brCommand.add(new RecoveringBlock(
-                  new ExtendedBlock(blockPoolId, b),
-                  DatanodeStorageInfo.toDatanodeInfos(recoveryLocations),
-                  b.getBlockRecoveryId()));
-            } else {
-              // If too many replicas are stale, then choose all replicas to participate
-              // in block recovery.
-              brCommand.add(new RecoveringBlock(
-                  new ExtendedBlock(blockPoolId, b),
-                  DatanodeStorageInfo.toDatanodeInfos(storages),
-                  b.getBlockRecoveryId()));
-            }
+    //check lease recovery
+    BlockInfoUnderConstruction[] blocks = nodeinfo
+        .getLeaseRecoveryCommand(Integer.MAX_VALUE);
+    if (blocks != null) {
+      BlockRecoveryCommand brCommand = new BlockRecoveryCommand(
+          blocks.length);
+      for (BlockInfoUnderConstruction b : blocks) {
+        final DatanodeStorageInfo[] storages = b.getExpectedStorageLocations();
+        // Skip stale nodes during recovery - not heart beated for some time (30s by default).
+        final List<DatanodeStorageInfo> recoveryLocations =
+            new ArrayList<DatanodeStorageInfo>(storages.length);
+        for (int i = 0; i < storages.length; i++) {
+          if (!storages[i].getDatanodeDescriptor().isStale(staleInterval)) {
+            recoveryLocations.add(storages[i]);
           }
-          return new DatanodeCommand[] { brCommand };
-        }
-
-        final List<DatanodeCommand> cmds = new ArrayList<DatanodeCommand>();
-        //check pending replication
-        List<BlockTargetPair> pendingList = nodeinfo.getReplicationCommand(
-              maxTransfers);
-        if (pendingList != null) {
-          cmds.add(new BlockCommand(DatanodeProtocol.DNA_TRANSFER, blockPoolId,
-              pendingList));
         }
-        //check block invalidation
-        Block[] blks = nodeinfo.getInvalidateBlocks(blockInvalidateLimit);
-        if (blks != null) {
-          cmds.add(new BlockCommand(DatanodeProtocol.DNA_INVALIDATE,
-              blockPoolId, blks));
-        }
-        boolean sendingCachingCommands = false;
-        long nowMs = Time.monotonicNow();
-        if (shouldSendCachingCommands && 
-            ((nowMs - nodeinfo.getLastCachingDirectiveSentTimeMs()) >=
-                timeBetweenResendingCachingDirectivesMs)) {
-          DatanodeCommand pendingCacheCommand =
-              getCacheCommand(nodeinfo.getPendingCached(), nodeinfo,
-                DatanodeProtocol.DNA_CACHE, blockPoolId);
-          if (pendingCacheCommand != null) {
-            cmds.add(pendingCacheCommand);
-            sendingCachingCommands = true;
-          }
-          DatanodeCommand pendingUncacheCommand =
-              getCacheCommand(nodeinfo.getPendingUncached(), nodeinfo,
-                DatanodeProtocol.DNA_UNCACHE, blockPoolId);
-          if (pendingUncacheCommand != null) {
-            cmds.add(pendingUncacheCommand);
-            sendingCachingCommands = true;
-          }
-          if (sendingCachingCommands) {
-            nodeinfo.setLastCachingDirectiveSentTimeMs(nowMs);
+        // If we only get 1 replica after eliminating stale nodes, then choose all
+        // replicas for recovery and let the primary data node handle failures.
+        if (recoveryLocations.size() > 1) {
+          if (recoveryLocations.size() != storages.length) {
+            LOG.info("Skipped stale nodes for recovery : " +
+                (storages.length - recoveryLocations.size()));
           }
+          brCommand.add(new RecoveringBlock(
+              new ExtendedBlock(blockPoolId, b),
+              DatanodeStorageInfo.toDatanodeInfos(recoveryLocations),
+              b.getBlockRecoveryId()));
+        } else {
+          // If too many replicas are stale, then choose all replicas to participate
+          // in block recovery.
+          brCommand.add(new RecoveringBlock(
+              new ExtendedBlock(blockPoolId, b),
+              DatanodeStorageInfo.toDatanodeInfos(storages),
+              b.getBlockRecoveryId()));
         }
+      }
+      return new DatanodeCommand[] { brCommand };
+    }
 
-        blockManager.addKeyUpdateCommand(cmds, nodeinfo);
+    final List<DatanodeCommand> cmds = new ArrayList<DatanodeCommand>();
+    //check pending replication
+    List<BlockTargetPair> pendingList = nodeinfo.getReplicationCommand(
+          maxTransfers);
+    if (pendingList != null) {
+      cmds.add(new BlockCommand(DatanodeProtocol.DNA_TRANSFER, blockPoolId,
+          pendingList));
+    }
+    //check block invalidation
+    Block[] blks = nodeinfo.getInvalidateBlocks(blockInvalidateLimit);
+    if (blks != null) {
+      cmds.add(new BlockCommand(DatanodeProtocol.DNA_INVALIDATE,
+          blockPoolId, blks));
+    }
+    boolean sendingCachingCommands = false;
+    long nowMs = Time.monotonicNow();
+    if (shouldSendCachingCommands && 
+        ((nowMs - nodeinfo.getLastCachingDirectiveSentTimeMs()) >=
+            timeBetweenResendingCachingDirectivesMs)) {
+      DatanodeCommand pendingCacheCommand =
+          getCacheCommand(nodeinfo.getPendingCached(), nodeinfo,
+            DatanodeProtocol.DNA_CACHE, blockPoolId);
+      if (pendingCacheCommand != null) {
+        cmds.add(pendingCacheCommand);
+        sendingCachingCommands = true;
+      }
+      DatanodeCommand pendingUncacheCommand =
+          getCacheCommand(nodeinfo.getPendingUncached(), nodeinfo,
+            DatanodeProtocol.DNA_UNCACHE, blockPoolId);
+      if (pendingUncacheCommand != null) {
+        cmds.add(pendingUncacheCommand);
+        sendingCachingCommands = true;
+      }
+      if (sendingCachingCommands) {
+        nodeinfo.setLastCachingDirectiveSentTimeMs(nowMs);
+      }
+    }
 
-        // check for balancer bandwidth update
-        if (nodeinfo.getBalancerBandwidth() > 0) {
-          cmds.add(new BalancerBandwidthCommand(nodeinfo.getBalancerBandwidth()));
-          // set back to 0 to indicate that datanode has been sent the new value
-          nodeinfo.setBalancerBandwidth(0);
-        }
+    blockManager.addKeyUpdateCommand(cmds, nodeinfo);
 
-        if (!cmds.isEmpty()) {
-          return cmds.toArray(new DatanodeCommand[cmds.size()]);
-        }
+    // check for balancer bandwidth update
+    synchronized (datanodeMap) {
+      if (nodeinfo.getBalancerBandwidth() > 0) {
+        cmds.add(new BalancerBandwidthCommand(nodeinfo.getBalancerBandwidth()));
+        // set back to 0 to indicate that datanode has been sent the new value
+        nodeinfo.setBalancerBandwidth(0);
       }
     }
 
+    if (!cmds.isEmpty()) {
+      return cmds.toArray(new DatanodeCommand[cmds.size()]);
+    }
+
     return new DatanodeCommand[0];
   }
 
@@ -50,17 +50,22 @@ class Monitor implements Runnable {
     private final long recheckInterval;
     /** The number of decommission nodes to check for each interval */
     private final int numNodesPerCheck;
+    /** The approximate number of blocks to check for each interval */
+    private final int numBlocksPerCheck;
     /** firstkey can be initialized to anything. */
     private String firstkey = "";
 
-    Monitor(int recheckIntervalInSecond, int numNodesPerCheck) {
+    Monitor(int recheckIntervalInSecond, int numNodesPerCheck,
+        int numBlocksPerCheck) {
       this.recheckInterval = recheckIntervalInSecond * 1000L;
       this.numNodesPerCheck = numNodesPerCheck;
+      this.numBlocksPerCheck = numBlocksPerCheck;
     }
 
     /**
-     * Check decommission status of numNodesPerCheck nodes
-     * for every recheckInterval milliseconds.
+     * Check decommission status of numNodesPerCheck nodes, or as many as
+     * checking numBlocksPerCheck blocks allows, for every recheckInterval
+     * milliseconds.
      */
     @Override
     public void run() {
@@ -83,6 +88,7 @@ public void run() {
     private void check() {
       final DatanodeManager dm = blockmanager.getDatanodeManager();
       int count = 0;
+      int blocks = 0;
       for(Map.Entry<String, DatanodeDescriptor> entry
           : dm.getDatanodeCyclicIteration(firstkey)) {
         final DatanodeDescriptor d = entry.getValue();
@@ -90,11 +96,12 @@ private void check() {
 
         if (d.isDecommissionInProgress()) {
           try {
-            dm.checkDecommissionState(d);
+            blocks += dm.checkDecommissionProgress(d,
+                numBlocksPerCheck - blocks);
           } catch(Exception e) {
             LOG.warn("entry=" + entry, e);
           }
-          if (++count == numNodesPerCheck) {
+          if (++count == numNodesPerCheck || blocks >= numBlocksPerCheck) {
             return;
           }
         }
@@ -33,8 +33,9 @@
 
 /**
  * Manage the heartbeats received from datanodes.
- * The datanode list and statistics are synchronized
- * by the heartbeat manager lock.
+ * The datanode list and statistics are updated under
+ * the heartbeat manager lock.  The statistics are read
+ * from a published copy, without taking the lock.
  */
 class HeartbeatManager implements DatanodeStatistics {
   static final Log LOG = LogFactory.getLog(HeartbeatManager.class);
@@ -50,6 +51,13 @@ class HeartbeatManager implements DatanodeStatistics {
 
   /** Statistics, which are synchronized by the heartbeat manager lock. */
   private final Stats stats = new Stats();
+  /**
+   * A copy of {@link #stats}, replaced after every update.
+   * The getters read it so that they never wait for heartbeat processing.
+   */
+  private volatile Stats publishedStats = new Stats();
+  /** The size of {@link #datanodes}, for readers without the lock. */
+  private volatile int liveDatanodeCount = 0;
 
   /** The time period to check for expired datanodes */
   private final long heartbeatRecheckInterval;
@@ -98,83 +106,96 @@ void close() {
     }
   }
   
-  synchronized int getLiveDatanodeCount() {
-    return datanodes.size();
+  int getLiveDatanodeCount() {
+    return liveDatanodeCount;
   }
 
   @Override
-  public synchronized long getCapacityTotal() {
-    return stats.capacityTotal;
+  public long getCapacityTotal() {
+    return publishedStats.capacityTotal;
   }
 
   @Override
-  public synchronized long getCapacityUsed() {
-    return stats.capacityUsed;
+  public long getCapacityUsed() {
+    return publishedStats.capacityUsed;
   }
 
   @Override
-  public synchronized float getCapacityUsedPercent() {
-    return DFSUtil.getPercentUsed(stats.capacityUsed, stats.capacityTotal);
+  public float getCapacityUsedPercent() {
+    final Stats s = publishedStats;
+    return DFSUtil.getPercentUsed(s.capacityUsed, s.capacityTotal);
   }
 
   @Override
-  public synchronized long getCapacityRemaining() {
-    return stats.capacityRemaining;
+  public long getCapacityRemaining() {
+    return publishedStats.capacityRemaining;
   }
 
   @Override
-  public synchronized float getCapacityRemainingPercent() {
-    return DFSUtil.getPercentRemaining(
-        stats.capacityRemaining, stats.capacityTotal);
+  public float getCapacityRemainingPercent() {
+    final Stats s = publishedStats;
+    return DFSUtil.getPercentRemaining(s.capacityRemaining, s.capacityTotal);
   }
 
   @Override
-  public synchronized long getBlockPoolUsed() {
-    return stats.blockPoolUsed;
+  public long getBlockPoolUsed() {
+    return publishedStats.blockPoolUsed;
   }
 
   @Override
-  public synchronized float getPercentBlockPoolUsed() {
-    return DFSUtil.getPercentUsed(stats.blockPoolUsed, stats.capacityTotal);
+  public float getPercentBlockPoolUsed() {
+    final Stats s = publishedStats;
+    return DFSUtil.getPercentUsed(s.blockPoolUsed, s.capacityTotal);
   }
 
   @Override
-  public synchronized long getCapacityUsedNonDFS() {
-    final long nonDFSUsed = stats.capacityTotal
-        - stats.capacityRemaining - stats.capacityUsed;
+  public long getCapacityUsedNonDFS() {
+    final Stats s = publishedStats;
+    final long nonDFSUsed = s.capacityTotal
+        - s.capacityRemaining - s.capacityUsed;
     return nonDFSUsed < 0L? 0L : nonDFSUsed;
   }
 
   @Override
-  public synchronized int getXceiverCount() {
-    return stats.xceiverCount;
+  public int getXceiverCount() {
+    return publishedStats.xceiverCount;
   }
   
   @Override
-  public synchronized long getCacheCapacity() {
-    return stats.cacheCapacity;
+  public long getCacheCapacity() {
+    return publishedStats.cacheCapacity;
   }
 
   @Override
-  public synchronized long getCacheUsed() {
-    return stats.cacheUsed;
+  public long getCacheUsed() {
+    return publishedStats.cacheUsed;
   }
   
 
   @Override
-  public synchronized long[] getStats() {
-    return new long[] {getCapacityTotal(),
-                       getCapacityUsed(),
-                       getCapacityRemaining(),
+  public long[] getStats() {
+    final Stats s = publishedStats;
+    return new long[] {s.capacityTotal,
+                       s.capacityUsed,
+                       s.capacityRemaining,
                        -1L,
                        -1L,
                        -1L,
-                       getBlockPoolUsed()};
+                       s.blockPoolUsed};
   }
 
   @Override
-  public synchronized int getExpiredHeartbeats() {
-    return stats.expiredHeartbeats;
+  public int getExpiredHeartbeats() {
+    return publishedStats.expiredHeartbeats;
+  }
+
+  /**
+   * Publish the current statistics to the readers.
+   * Must be called with the heartbeat manager lock held.
+   */
+  private void publishStats() {
+    publishedStats = new Stats(stats);
+    liveDatanodeCount = datanodes.size();
   }
 
   synchronized void register(final DatanodeDescriptor d) {
@@ -193,6 +214,7 @@ synchronized DatanodeDescriptor[] getDatanodes() {
   synchronized void addDatanode(final DatanodeDescriptor d) {
     datanodes.add(d);
     d.isAlive = true;
+    publishStats();
   }
 
   synchronized void removeDatanode(DatanodeDescriptor node) {
@@ -200,28 +222,41 @@ synchronized void removeDatanode(DatanodeDescriptor node) {
       stats.subtract(node);
       datanodes.remove(node);
       node.isAlive = false;
+      publishStats();
     }
   }
 
-  synchronized void updateHeartbeat(final DatanodeDescriptor node,
+  /**
+   * Update the statistics of a live datanode from its heartbeat.
+   * @return false if the datanode is no longer alive, for example because
+   *         it was removed after the caller looked it up.
+   */
+  synchronized boolean updateHeartbeat(final DatanodeDescriptor node,
       StorageReport[] reports, long cacheCapacity, long cacheUsed,
       int xceiverCount, int failedVolumes) {
+    if (!node.isAlive) {
+      return false;
+    }
     stats.subtract(node);
     node.updateHeartbeat(reports, cacheCapacity, cacheUsed,
       xceiverCount, failedVolumes);
     stats.add(node);
+    publishStats();
+    return true;
   }
 
   synchronized void startDecommission(final DatanodeDescriptor node) {
     stats.subtract(node);
     node.startDecommission();
     stats.add(node);
+    publishStats();
   }
 
   synchronized void stopDecommission(final DatanodeDescriptor node) {
     stats.subtract(node);
     node.stopDecommission();
     stats.add(node);
+    publishStats();
   }
   
   /**
@@ -257,6 +292,9 @@ void heartbeatCheck() {
         
         // Set the number of stale nodes in the DatanodeManager
         dm.setNumStaleNodes(numOfStaleNodes);
+        if (dead != null) {
+          publishStats();
+        }
       }
 
       allAlive = dead == null;
@@ -325,6 +363,20 @@ private static class Stats {
 
     private int expiredHeartbeats = 0;
 
+    private Stats() {
+    }
+
+    private Stats(final Stats other) {
+      capacityTotal = other.capacityTotal;
+      capacityUsed = other.capacityUsed;
+      capacityRemaining = other.capacityRemaining;
+      blockPoolUsed = other.blockPoolUsed;
+      xceiverCount = other.xceiverCount;
+      cacheCapacity = other.cacheCapacity;
+      cacheUsed = other.cacheUsed;
+      expiredHeartbeats = other.expiredHeartbeats;
+    }
+
     private void add(final DatanodeDescriptor node) {
       capacityUsed += node.getDfsUsed();
       blockPoolUsed += node.getBlockPoolUsed();
@@ -94,19 +94,23 @@ void increment(Block block, DatanodeDescriptor[] targets) {
    * for this block.
    * 
    * @param The DataNode that finishes the replication
+   * @return true if a replication of the block to the given DataNode was
+   *         pending, i.e. it has now completed
    */
-  void decrement(Block block, DatanodeDescriptor dn) {
+  boolean decrement(Block block, DatanodeDescriptor dn) {
     synchronized (pendingReplications) {
       PendingBlockInfo found = pendingReplications.get(block);
+      boolean removed = false;
       if (found != null) {
         if(LOG.isDebugEnabled()) {
           LOG.debug("Removing pending replication for " + block);
         }
-        found.decrementReplicas(dn);
+        removed = found.decrementReplicas(dn);
         if (found.getNumReplicas() <= 0) {
           pendingReplications.remove(block);
         }
       }
+      return removed;
     }
   }
 
@@ -198,8 +202,8 @@ void incrementReplicas(DatanodeDescriptor... newTargets) {
       }
     }
 
-    void decrementReplicas(DatanodeDescriptor dn) {
-      targets.remove(dn);
+    boolean decrementReplicas(DatanodeDescriptor dn) {
+      return targets.remove(dn);
     }
 
     int getNumReplicas() {
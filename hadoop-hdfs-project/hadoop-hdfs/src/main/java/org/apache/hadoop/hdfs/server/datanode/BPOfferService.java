@@ -205,7 +205,7 @@ void notifyNamenodeReceivedBlock(
         delHint);
 
     for (BPServiceActor actor : bpServices) {
-      actor.notifyNamenodeBlockImmediately(bInfo, storageUuid);
+      actor.notifyNamenodeBlock(bInfo, storageUuid);
     }
   }
 
@@ -238,7 +238,7 @@ void notifyNamenodeReceivingBlock(ExtendedBlock block, String storageUuid) {
        block.getLocalBlock(), BlockStatus.RECEIVING_BLOCK, null);
     
     for (BPServiceActor actor : bpServices) {
-      actor.notifyNamenodeBlockImmediately(bInfo, storageUuid);
+      actor.notifyNamenodeBlock(bInfo, storageUuid);
     }
   }
 
@@ -104,6 +104,8 @@ class BPServiceActor implements Runnable {
       pendingIncrementalBRperStorage = Maps.newHashMap();
 
   private volatile int pendingReceivedRequests = 0;
+  /** When the oldest of the pendingReceivedRequests was added */
+  private volatile long pendingReceivedSince = 0;
   private volatile boolean shouldServiceRun = true;
   private final DataNode dn;
   private final DNConf dnConf;
@@ -300,11 +302,17 @@ private void reportReceivedDeletedBlocks() throws IOException {
 
     // Send incremental block reports to the Namenode outside the lock
     boolean success = false;
+    final long startTime = now();
     try {
       bpNamenode.blockReceivedAndDeleted(bpRegistration,
           bpos.getBlockPoolId(),
           reports.toArray(new StorageReceivedDeletedBlocks[reports.size()]));
       success = true;
+      int numBlocks = 0;
+      for (StorageReceivedDeletedBlocks report : reports) {
+        numBlocks += report.getBlocks().length;
+      }
+      dn.getMetrics().addIncrementalBlockReport(now() - startTime, numBlocks);
     } finally {
       if (!success) {
         synchronized (pendingIncrementalBRperStorage) {
@@ -364,20 +372,41 @@ void addPendingReplicationBlockInfo(ReceivedDeletedBlockInfo bInfo,
     getIncrementalBRMapForStorage(storageUuid).putBlockInfo(bInfo);
   }
 
-  /*
-   * Informing the name node could take a long long time! Should we wait
-   * till namenode is informed before responding with success to the
-   * client? For now we don't.
+  /**
+   * Queue a received or receiving block to be reported to the namenode.
+   * The report is sent immediately if no delay is configured, or once the
+   * first pending block has waited for the delay or enough blocks are
+   * pending.  The client is not made to wait for the report.
    */
-  void notifyNamenodeBlockImmediately(
+  void notifyNamenodeBlock(
       ReceivedDeletedBlockInfo bInfo, String storageUuid) {
     synchronized (pendingIncrementalBRperStorage) {
       addPendingReplicationBlockInfo(bInfo, storageUuid);
-      pendingReceivedRequests++;
-      pendingIncrementalBRperStorage.notifyAll();
+      if (pendingReceivedRequests++ == 0) {
+        pendingReceivedSince = now();
+      }
+      // Only wake up the actor when the report may have become due, so that
+      // blocks received in a burst are reported together.
+      if (dnConf.incrementalBlockReportDelay <= 0
+          || pendingReceivedRequests == 1
+          || pendingReceivedRequests >= dnConf.incrementalBlockReportMaxBlocks) {
+        pendingIncrementalBRperStorage.notifyAll();
+      }
     }
   }
 
+  /**
+   * @return true if the received blocks have waited for the configured
+   *         delay, or enough of them are waiting, to send an incremental
+   *         block report.
+   */
+  private boolean isIncrementalBlockReportDue(long now) {
+    return pendingReceivedRequests > 0
+        && (now - pendingReceivedSince >= dnConf.incrementalBlockReportDelay
+            || pendingReceivedRequests
+                >= dnConf.incrementalBlockReportMaxBlocks);
+  }
+
   void notifyNamenodeDeletedBlock(
       ReceivedDeletedBlockInfo bInfo, String storageUuid) {
     synchronized (pendingIncrementalBRperStorage) {
@@ -653,7 +682,7 @@ private void offerService() throws Exception {
             }
           }
         }
-        if (pendingReceivedRequests > 0
+        if (isIncrementalBlockReportDue(startTime)
             || (startTime - lastDeletedReport > dnConf.deleteReportInterval)) {
           reportReceivedDeletedBlocks();
           lastDeletedReport = startTime;
@@ -675,10 +704,14 @@ private void offerService() throws Exception {
         // There is no work to do;  sleep until hearbeat timer elapses, 
         // or work arrives, and then iterate again.
         //
-        long waitTime = dnConf.heartBeatInterval - 
-        (Time.now() - lastHeartbeat);
+        final long curTime = Time.now();
+        long waitTime = dnConf.heartBeatInterval - (curTime - lastHeartbeat);
         synchronized(pendingIncrementalBRperStorage) {
-          if (waitTime > 0 && pendingReceivedRequests == 0) {
+          if (pendingReceivedRequests > 0) {
+            waitTime = Math.min(waitTime, pendingReceivedSince
+                + dnConf.incrementalBlockReportDelay - curTime);
+          }
+          if (waitTime > 0 && !isIncrementalBlockReportDue(curTime)) {
             try {
               pendingIncrementalBRperStorage.wait(waitTime);
             } catch (InterruptedException ie) {
@@ -29,7 +29,9 @@
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -69,9 +71,11 @@ class BlockPoolSliceScanner {
   
   private static final String DATA_FORMAT = "yyyy-MM-dd HH:mm:ss,SSS";
 
-  private static final int MAX_SCAN_RATE = 8 * 1024 * 1024; // 8MB per sec
-  private static final int MIN_SCAN_RATE = 1 * 1024 * 1024; // 1MB per sec
-  private static final long DEFAULT_SCAN_PERIOD_HOURS = 21*24L; // three weeks
+  static final int MAX_SCAN_RATE = 8 * 1024 * 1024; // 8MB per sec
+  static final int MIN_SCAN_RATE = 1 * 1024 * 1024; // 1MB per sec
+  static final long DEFAULT_SCAN_PERIOD_HOURS = 21*24L; // three weeks
+  /** How often the adaptive scan rate is adjusted while scanning a block */
+  static final long ADJUST_INTERVAL_MS = 1000;
 
   private static final String VERIFICATION_PREFIX = "dncp_block_verification.log";
 
@@ -104,8 +108,64 @@ class BlockPoolSliceScanner {
   
   private final LogFileHandler verificationLog;
   
-  private final DataTransferThrottler throttler = new DataTransferThrottler(
-       200, MAX_SCAN_RATE);
+  private final DataTransferThrottler throttler = new ScanThrottler();
+
+  /** The load of the client reads, or null if the scan rate is not adaptive */
+  private final ReadLoadMonitor readLoadMonitor;
+  /** The adaptive scan rate of each volume */
+  private final Map<FsVolumeSpi, Long> volumeScanRates =
+      new HashMap<FsVolumeSpi, Long>();
+  /** The volume of the block being verified */
+  private volatile FsVolumeSpi currentVolume;
+
+  /**
+   * Throttles the reads of the scanner, and adjusts the adaptive scan rate
+   * to the load of the volume every {@link #ADJUST_INTERVAL_MS}, so that the
+   * scan of a large block backs off quickly too.
+   */
+  private class ScanThrottler extends DataTransferThrottler {
+    private long lastAdjusted = Time.monotonicNow();
+
+    ScanThrottler() {
+      super(200, MAX_SCAN_RATE);
+    }
+
+    @Override
+    public void throttle(long numOfBytes) {
+      // not synchronized, adjustThrottler() locks the scanner first
+      if (readLoadMonitor != null) {
+        final long now = Time.monotonicNow();
+        if (now - lastAdjusted >= ADJUST_INTERVAL_MS) {
+          lastAdjusted = now;
+          adjustThrottler();
+        }
+      }
+      super.throttle(numOfBytes);
+    }
+  }
+
+  /** The scan coverage of the blocks of a volume. */
+  static class VolumeScanCoverage {
+    private long totalBlocks;
+    private long totalBytes;
+    private long verifiedBlocks;
+    private long verifiedBytes;
+
+    /** @return the number of blocks of the volume. */
+    long getTotalBlocks() {
+      return totalBlocks;
+    }
+
+    /** @return the number of blocks verified within the scan period. */
+    long getVerifiedBlocks() {
+      return verifiedBlocks;
+    }
+
+    /** @return the percentage of bytes verified within the scan period. */
+    double getVerifiedBytesPercentage() {
+      return totalBytes == 0 ? 100 : verifiedBytes * 100.0 / totalBytes;
+    }
+  }
   
   private static enum ScanType {
     VERIFICATION_SCAN,     // scanned as part of periodic verfication
@@ -172,10 +232,12 @@ public LinkedElement getNext() {
   }
   
   BlockPoolSliceScanner(String bpid, DataNode datanode,
-      FsDatasetSpi<? extends FsVolumeSpi> dataset, Configuration conf) {
+      FsDatasetSpi<? extends FsVolumeSpi> dataset, Configuration conf,
+      ReadLoadMonitor readLoadMonitor) {
     this.datanode = datanode;
     this.dataset = dataset;
     this.blockPoolId  = bpid;
+    this.readLoadMonitor = readLoadMonitor;
     
     long hours = conf.getInt(DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY, 
                              DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT);
@@ -287,6 +349,13 @@ synchronized void deleteBlock(Block block) {
     }
   }
 
+  /** @return the adaptive scan rate of the volume, or 0 if it has none. */
+  @VisibleForTesting
+  synchronized long getVolumeScanRate(FsVolumeSpi volume) {
+    final Long rate = volumeScanRates.get(volume);
+    return rate == null ? 0 : rate;
+  }
+
   @VisibleForTesting
   long getTotalScans() {
     return totalScans;
@@ -401,7 +470,40 @@ static LogEntry parseEntry(String line) {
   private synchronized void adjustThrottler() {
     long timeLeft = currentPeriodStart+scanPeriod - Time.now();
     long bw = Math.max(bytesLeft*1000/timeLeft, MIN_SCAN_RATE);
-    throttler.setBandwidth(Math.min(bw, MAX_SCAN_RATE));
+    bw = Math.min(bw, MAX_SCAN_RATE);
+    final FsVolumeSpi volume = currentVolume;
+    if (readLoadMonitor != null && volume != null) {
+      bw = adjustVolumeScanRate(volume, bw);
+    }
+    throttler.setBandwidth(bw);
+  }
+
+  /**
+   * Halve the scan rate of the volume while its client reads are slow or
+   * keep it busy, and raise it by {@link #MIN_SCAN_RATE} while they do not,
+   * never below the rate needed to finish the scan period.
+   *
+   * @param neededRate the rate needed to finish the scan period
+   * @return the new scan rate of the volume
+   */
+  private synchronized long adjustVolumeScanRate(FsVolumeSpi volume,
+      long neededRate) {
+    final Long current = volumeScanRates.get(volume);
+    long rate = current == null ? neededRate : current;
+    if (readLoadMonitor.isBusy(volume)) {
+      rate = Math.max(rate / 2, MIN_SCAN_RATE);
+    } else {
+      rate = Math.min(Math.max(rate + MIN_SCAN_RATE, neededRate),
+          MAX_SCAN_RATE);
+    }
+    if (current == null || rate != current) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Scan rate of " + volume.getBasePath() + " set to "
+            + rate + " bytes/s");
+      }
+      volumeScanRates.put(volume, rate);
+    }
+    return rate;
   }
   
   @VisibleForTesting
@@ -416,6 +518,7 @@ void verifyBlock(ExtendedBlock block) {
       boolean second = (i > 0);
       
       try {
+        currentVolume = dataset.getVolume(block);
         adjustThrottler();
         
         blockSender = new BlockSender(block, 0, -1, false, true, true, 
@@ -745,6 +848,20 @@ synchronized void printBlockReport(StringBuilder buffer,
       }
     }
     
+    for (Map.Entry<String, VolumeScanCoverage> e :
+        getVolumeScanCoverage().entrySet()) {
+      final VolumeScanCoverage coverage = e.getValue();
+      buffer.append(String.format("%nVolume %s : verified in SCAN_PERIOD"
+          + " %d of %d blocks, %.2f%% of bytes", e.getKey(),
+          coverage.verifiedBlocks, coverage.totalBlocks,
+          coverage.getVerifiedBytesPercentage()));
+    }
+    for (Map.Entry<FsVolumeSpi, Long> e : volumeScanRates.entrySet()) {
+      buffer.append(String.format("%nVolume %s : scan rate limit KBps %d",
+          e.getKey().getBasePath(), Math.round(e.getValue() / 1024.0)));
+    }
+    buffer.append(String.format("%n"));
+
     double pctPeriodLeft = (scanPeriod + currentPeriodStart - now)
                            *100.0/scanPeriod;
     double pctProgress = (totalBytesToScan == 0) ? 100 :
@@ -773,6 +890,37 @@ synchronized void printBlockReport(StringBuilder buffer,
                                 pctProgress, pctPeriodLeft));
   }
   
+  /**
+   * @return the scan coverage of the blocks of this block pool on each
+   *         volume, by the base path of the volume.
+   */
+  synchronized Map<String, VolumeScanCoverage> getVolumeScanCoverage() {
+    final Map<String, VolumeScanCoverage> coverages =
+        new TreeMap<String, VolumeScanCoverage>();
+    final long now = Time.now();
+    for (BlockScanInfo info : blockInfoSet) {
+      final FsVolumeSpi volume = dataset.getVolume(
+          new ExtendedBlock(blockPoolId, info));
+      if (volume == null) {
+        // deleted, or not yet removed from the scanner
+        continue;
+      }
+      VolumeScanCoverage coverage = coverages.get(volume.getBasePath());
+      if (coverage == null) {
+        coverage = new VolumeScanCoverage();
+        coverages.put(volume.getBasePath(), coverage);
+      }
+      coverage.totalBlocks++;
+      coverage.totalBytes += info.getNumBytes();
+      if (info.lastScanType == ScanType.VERIFICATION_SCAN
+          && now - info.lastScanTime <= scanPeriod) {
+        coverage.verifiedBlocks++;
+        coverage.verifiedBytes += info.getNumBytes();
+      }
+    }
+    return coverages;
+  }
+
   /**
    * This class takes care of log file used to store the last verification
    * times of the blocks.
@@ -45,6 +45,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
@@ -93,6 +94,8 @@ class BlockReceiver implements Closeable {
   private Daemon responder = null;
   private DataTransferThrottler throttler;
   private ReplicaOutputStreams streams;
+  /** Records the time taken to write the packets, if not null */
+  private final VolumeIoStats ioStats;
   private DatanodeInfo srcDataNode = null;
   private Checksum partialCrc = null;
   private final DataNode datanode;
@@ -208,6 +211,9 @@ class BlockReceiver implements Closeable {
           || stage == BlockConstructionStage.PIPELINE_SETUP_CREATE;
       streams = replicaInfo.createStreams(isCreate, requestedChecksum);
       assert streams != null : "null streams!";
+      this.ioStats = replicaInfo instanceof ReplicaInfo
+          && ((ReplicaInfo)replicaInfo).getVolume() != null ?
+          ((ReplicaInfo)replicaInfo).getVolume().getIoStats() : null;
 
       // read checksum meta information
       this.clientChecksum = requestedChecksum;
@@ -543,11 +549,17 @@ private int receivePacket() throws IOException {
       // by this point, the data in the buffer uses the disk checksum
 
       byte[] lastChunkChecksum;
+      long writeStart = 0;
+      boolean timingWrite = false;
       
       try {
         long onDiskLen = replicaInfo.getBytesOnDisk();
         if (onDiskLen<offsetInBlock) {
           //finally write to the disk :
+          if (ioStats != null) {
+            writeStart = ioStats.begin();
+            timingWrite = true;
+          }
           
           if (onDiskLen % bytesPerChecksum != 0) { 
             // prepare to overwrite last checksum
@@ -616,6 +628,10 @@ private int receivePacket() throws IOException {
       } catch (IOException iex) {
         datanode.checkDiskError(iex);
         throw iex;
+      } finally {
+        if (timingWrite) {
+          ioStats.endWrite(writeStart);
+        }
       }
     }
 
@@ -1075,6 +1091,7 @@ public void run() {
      * @param startTime time when BlockReceiver started receiving the block
      */
     private void finalizeBlock(long startTime) throws IOException {
+      DataNodeFaultInjector.get().beforeFinalizeBlock(block);
       BlockReceiver.this.close();
       final long endTime = ClientTraceLog.isInfoEnabled() ? System.nanoTime()
           : 0;
@@ -37,6 +37,8 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
@@ -152,6 +154,11 @@ class BlockSender implements java.io.Closeable {
   private final boolean dropCacheBehindAllReads;
   
   private long lastCacheDropOffset;
+
+  /** The volume of the replica, if known */
+  private FsVolumeSpi volume;
+  /** Records the time taken to read the packets, if not null */
+  private VolumeIoStats ioStats;
   
   @VisibleForTesting
   static long CACHE_DROP_INTERVAL_BYTES = 1024 * 1024; // 1MB
@@ -227,6 +234,9 @@ class BlockSender implements java.io.Closeable {
       synchronized(datanode.data) { 
         replica = getReplica(block, datanode);
         replicaVisibleLength = replica.getVisibleLength();
+        if (replica instanceof ReplicaInfo) {
+          volume = ((ReplicaInfo)replica).getVolume();
+        }
       }
       // if there is a write in progress
       ChunkChecksum chunkChecksum = null;
@@ -473,6 +483,16 @@ private int numberOfChunks(long datalen) {
     return (int) ((datalen + chunkSize - 1)/chunkSize);
   }
   
+  /**
+   * Record the time taken to read each packet of the block in the I/O
+   * statistics of its volume.
+   */
+  void recordIoStats() {
+    if (volume != null) {
+      ioStats = volume.getIoStats();
+    }
+  }
+
   /**
    * Sends a packet with up to maxChunks chunks of data.
    * 
@@ -510,10 +530,29 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     
     int checksumOff = pkt.position();
     byte[] buf = pkt.array();
+    int dataOff = checksumOff + checksumDataLen;
     
-    if (checksumSize > 0 && checksumIn != null) {
-      readChecksum(buf, checksumOff, checksumDataLen);
+    // Only the reads from the volume are timed, as one read per packet.
+    // With transferTo, the data is read from the volume by
+    // FileChannel#transferTo, so the read ends after the transfer.
+    final boolean readChecksum = checksumSize > 0 && checksumIn != null;
+    final long readStart = ioStats != null ? ioStats.begin() : 0;
+    long readNanos = -1;
+    try {
+      if (readChecksum) {
+        readChecksum(buf, checksumOff, checksumDataLen);
+      }
+      if (!transferTo) { // normal transfer
+        IOUtils.readFully(blockIn, buf, dataOff, dataLen);
+      }
+      readNanos = System.nanoTime() - readStart;
+    } finally {
+      if (ioStats != null && (!transferTo || readNanos < 0)) {
+        ioStats.endRead(readStart);
+      }
+    }
 
+    if (readChecksum) {
       // write in progress that we need to use to get last checksum
       if (lastDataPacket && lastChunkChecksum != null) {
         int start = checksumOff + checksumDataLen - checksumSize;
@@ -525,27 +564,30 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
       }
     }
     
-    int dataOff = checksumOff + checksumDataLen;
-    if (!transferTo) { // normal transfer
-      IOUtils.readFully(blockIn, buf, dataOff, dataLen);
-
-      if (verifyChecksum) {
-        verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
-      }
+    if (!transferTo && verifyChecksum) {
+      verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
     }
     
     try {
       if (transferTo) {
         SocketOutputStream sockOut = (SocketOutputStream)out;
-        // First write header and checksums
-        sockOut.write(buf, headerOff, dataOff - headerOff);
-        
-        // no need to flush since we know out is not a buffered stream
-        FileChannel fileCh = ((FileInputStream)blockIn).getChannel();
         LongWritable waitTime = new LongWritable();
         LongWritable transferTime = new LongWritable();
-        sockOut.transferToFully(fileCh, blockInPosition, dataLen, 
-            waitTime, transferTime);
+        try {
+          // First write header and checksums
+          sockOut.write(buf, headerOff, dataOff - headerOff);
+
+          // no need to flush since we know out is not a buffered stream
+          FileChannel fileCh = ((FileInputStream)blockIn).getChannel();
+          sockOut.transferToFully(fileCh, blockInPosition, dataLen, 
+              waitTime, transferTime);
+        } finally {
+          if (ioStats != null) {
+            // The time waiting for the socket to become writable is
+            // reported apart from the time in FileChannel#transferTo.
+            ioStats.endTransfer(readNanos + transferTime.get());
+          }
+        }
         datanode.metrics.addSendDataPacketBlockedOnNetworkNanos(waitTime.get());
         datanode.metrics.addSendDataPacketTransferNanos(transferTime.get());
         blockInPosition += dataLen;
@@ -28,6 +28,10 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_SOCKET_TIMEOUT_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_DELAY_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_DELAY_MS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_MAX_BLOCKS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_MAX_BLOCKS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_MAX_LOCKED_MEMORY_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_MAX_LOCKED_MEMORY_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY;
@@ -71,6 +75,8 @@ public class DNConf {
   final long heartBeatInterval;
   final long blockReportInterval;
   final long deleteReportInterval;
+  final long incrementalBlockReportDelay;
+  final int incrementalBlockReportMaxBlocks;
   final long initialBlockReportDelay;
   final long cacheReportInterval;
   final int writePacketSize;
@@ -134,6 +140,12 @@ public DNConf(Configuration conf) {
         DFS_HEARTBEAT_INTERVAL_DEFAULT) * 1000L;
     
     this.deleteReportInterval = 100 * heartBeatInterval;
+    this.incrementalBlockReportDelay = conf.getLong(
+        DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_DELAY_MS_KEY,
+        DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_DELAY_MS_DEFAULT);
+    this.incrementalBlockReportMaxBlocks = conf.getInt(
+        DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_MAX_BLOCKS_KEY,
+        DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_MAX_BLOCKS_DEFAULT);
     // do we need to sync block file contents to disk when blockfile is closed?
     this.syncOnClose = conf.getBoolean(DFS_DATANODE_SYNCONCLOSE_KEY, 
         DFS_DATANODE_SYNCONCLOSE_DEFAULT);
@@ -19,6 +19,8 @@
 package org.apache.hadoop.hdfs.server.datanode;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
 
 import javax.servlet.http.HttpServlet;
@@ -29,6 +31,7 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
@@ -41,6 +44,11 @@
  * block pool a {@link BlockPoolSliceScanner} is created which runs in a separate
  * thread to scan the blocks for that block pool. When a {@link BPOfferService}
  * becomes alive or dies, blockPoolScannerMap in this class is updated.
+ *
+ * If {@link DFSConfigKeys#DFS_DATANODE_SCAN_PER_VOLUME_ENABLED_KEY} is set,
+ * a {@link VolumeScanner} is created for each volume instead, which scans
+ * all the block pools of the volume in a separate thread and keeps its
+ * progress in a cursor file on the volume rather than in memory.
  */
 @InterfaceAudience.Private
 public class DataBlockScanner implements Runnable {
@@ -48,6 +56,10 @@ public class DataBlockScanner implements Runnable {
   private final DataNode datanode;
   private final FsDatasetSpi<? extends FsVolumeSpi> dataset;
   private final Configuration conf;
+  /** The load of the client reads, if the scan rate is adaptive */
+  private final ReadLoadMonitor readLoadMonitor;
+  /** The scanner of each volume, or null if the block pools are scanned */
+  private final List<VolumeScanner> volumeScanners;
   
   static final int SLEEP_PERIOD_MS = 5 * 1000;
 
@@ -65,6 +77,37 @@ public class DataBlockScanner implements Runnable {
     this.datanode = datanode;
     this.dataset = dataset;
     this.conf = conf;
+    this.readLoadMonitor = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_ENABLED_DEFAULT) ?
+        new ReadLoadMonitor(conf) : null;
+    if (conf.getBoolean(DFSConfigKeys.DFS_DATANODE_SCAN_PER_VOLUME_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_SCAN_PER_VOLUME_ENABLED_DEFAULT)) {
+      volumeScanners = new ArrayList<VolumeScanner>();
+      for (FsVolumeSpi volume : dataset.getVolumes()) {
+        volumeScanners.add(new VolumeScanner(datanode, dataset, volume, conf,
+            readLoadMonitor));
+      }
+    } else {
+      volumeScanners = null;
+    }
+  }
+
+  /**
+   * @return the scanner of each volume, or null if the block pools are
+   *         scanned instead.
+   */
+  @VisibleForTesting
+  List<VolumeScanner> getVolumeScanners() {
+    return volumeScanners;
+  }
+
+  /**
+   * @return the monitor of the client reads, or null if the scan rate does
+   *         not adapt to them.
+   */
+  ReadLoadMonitor getReadLoadMonitor() {
+    return readLoadMonitor;
   }
   
   @Override
@@ -188,6 +231,10 @@ private synchronized String[] getBpIdList() {
   }
   
   public void addBlock(ExtendedBlock block) {
+    if (volumeScanners != null) {
+      // the next walk of the volume finds it
+      return;
+    }
     BlockPoolSliceScanner bpScanner = getBPScanner(block.getBlockPoolId());
     if (bpScanner != null) {
       bpScanner.addBlock(block);
@@ -198,11 +245,26 @@ public void addBlock(ExtendedBlock block) {
   }
   
   boolean isInitialized(String bpid) {
+    if (volumeScanners != null) {
+      for (VolumeScanner vs : volumeScanners) {
+        if (!vs.hasBlockPool(bpid)) {
+          return false;
+        }
+      }
+      return true;
+    }
     return getBPScanner(bpid) != null;
   }
 
   public synchronized void printBlockReport(StringBuilder buffer,
       boolean summary) {
+    if (volumeScanners != null) {
+      buffer.append("Per-volume block scanner report\n");
+      for (VolumeScanner vs : volumeScanners) {
+        vs.printBlockReport(buffer);
+      }
+      return;
+    }
     String[] bpIdList = getBpIdList();
     if (bpIdList == null || bpIdList.length == 0) {
       buffer.append("Periodic block scanner is not yet initialized. "
@@ -218,6 +280,10 @@ public synchronized void printBlockReport(StringBuilder buffer,
   }
   
   public void deleteBlock(String poolId, Block toDelete) {
+    if (volumeScanners != null) {
+      // the walk skips the blocks not in the dataset
+      return;
+    }
     BlockPoolSliceScanner bpScanner = getBPScanner(poolId);
     if (bpScanner != null) {
       bpScanner.deleteBlock(toDelete);
@@ -228,6 +294,9 @@ public void deleteBlock(String poolId, Block toDelete) {
   }
 
   public void deleteBlocks(String poolId, Block[] toDelete) {
+    if (volumeScanners != null) {
+      return;
+    }
     BlockPoolSliceScanner bpScanner = getBPScanner(poolId);
     if (bpScanner != null) {
       bpScanner.deleteBlocks(toDelete);
@@ -253,20 +322,37 @@ public void shutdown() {
         // shutting down anyway
       }
     }
+    if (volumeScanners != null) {
+      for (VolumeScanner vs : volumeScanners) {
+        vs.shutdown();
+      }
+    }
   }
 
   public synchronized void addBlockPool(String blockPoolId) {
+    if (volumeScanners != null) {
+      for (VolumeScanner vs : volumeScanners) {
+        vs.addBlockPool(blockPoolId);
+      }
+      return;
+    }
     if (blockPoolScannerMap.get(blockPoolId) != null) {
       return;
     }
     BlockPoolSliceScanner bpScanner = new BlockPoolSliceScanner(blockPoolId,
-        datanode, dataset, conf);
+        datanode, dataset, conf, readLoadMonitor);
     blockPoolScannerMap.put(blockPoolId, bpScanner);
     LOG.info("Added bpid=" + blockPoolId + " to blockPoolScannerMap, new size="
         + blockPoolScannerMap.size());
   }
   
   public synchronized void removeBlockPool(String blockPoolId) {
+    if (volumeScanners != null) {
+      for (VolumeScanner vs : volumeScanners) {
+        vs.removeBlockPool(blockPoolId);
+      }
+      return;
+    }
     BlockPoolSliceScanner bpss = blockPoolScannerMap.remove(blockPoolId);
     if (bpss != null) {
       bpss.shutdown();
@@ -295,6 +381,12 @@ long getTotalScans(String bpid) throws IOException {
   }
 
   public void start() {
+    if (volumeScanners != null) {
+      for (VolumeScanner vs : volumeScanners) {
+        vs.start();
+      }
+      return;
+    }
     blockScannerThread = new Thread(this);
     blockScannerThread.setDaemon(true);
     blockScannerThread.start();
@@ -246,6 +246,7 @@ public static InetSocketAddress createSocketAddr(String target) {
   private DatanodeID id;
   
   final private String fileDescriptorPassingDisabledReason;
+  private final ShortCircuitRegistry shortCircuitRegistry;
   boolean isBlockTokenEnabled;
   BlockPoolTokenSecretManager blockPoolTokenSecretManager;
   private boolean hasAnyBlockPoolRegistered = false;
@@ -308,6 +309,8 @@ public static InetSocketAddress createSocketAddr(String target) {
           "File descriptor passing was not configured.";
       LOG.debug(this.fileDescriptorPassingDisabledReason);
     }
+    this.shortCircuitRegistry = new ShortCircuitRegistry(conf,
+        this.fileDescriptorPassingDisabledReason == null);
 
     try {
       hostName = getHostName(conf);
@@ -1308,6 +1311,9 @@ public void shutdown() {
     if (data != null) {
       data.shutdown();
     }
+    if (shortCircuitRegistry != null) {
+      shortCircuitRegistry.close();
+    }
     if (metrics != null) {
       metrics.shutdown();
     }
@@ -1380,7 +1386,15 @@ private void handleDiskError(String errMsgr) {
   /** Number of concurrent xceivers per node. */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    if (threadGroup == null) {
+      return 0;
+    }
+    int count = threadGroup.activeCount();
+    if (dataXceiverServer != null) {
+      count += ((DataXceiverServer)dataXceiverServer.getRunnable())
+          .getNumMultiplexedConnections();
+    }
+    return count;
   }
   
   int getXmitsInProgress() {
@@ -2385,7 +2399,8 @@ public String getNamenodeAddresses() {
   /**
    * Returned information is a JSON representation of a map with 
    * volume name as the key and value is a map of volume attribute 
-   * keys to its values
+   * keys to its values.  The recent read and write latencies and the
+   * outstanding I/Os of the volumes help to detect a slow disk.
    */
   @Override // DataNodeMXBean
   public String getVolumeInfo() {
@@ -2488,6 +2503,10 @@ public DNConf getDnConf() {
     return dnConf;
   }
 
+  public ShortCircuitRegistry getShortCircuitRegistry() {
+    return shortCircuitRegistry;
+  }
+
   public String getDatanodeUuid() {
     return id == null ? null : id.getDatanodeUuid();
   }
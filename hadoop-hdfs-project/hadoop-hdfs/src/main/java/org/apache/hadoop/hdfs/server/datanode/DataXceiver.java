@@ -39,6 +39,7 @@
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
 import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
@@ -95,6 +96,18 @@ class DataXceiver extends Receiver implements Runnable {
   private final InputStream socketIn;
   private OutputStream socketOut;
 
+  /**
+   * The selector which multiplexes this connection between operations, or
+   * null if the connection is served by a dedicated thread.
+   */
+  private final DataXceiverSelector selector;
+  private SelectionKey selectionKey;
+  private long parkedTime;
+  private boolean initialized = false;
+  private int opsProcessed = 0;
+  /** A streaming operation read on a worker, to be processed elsewhere. */
+  private Op streamingOp;
+
   /**
    * Client Name used in previous operation. Not available on first request
    * on the socket.
@@ -103,13 +116,21 @@ class DataXceiver extends Receiver implements Runnable {
   
   public static DataXceiver create(Peer peer, DataNode dn,
       DataXceiverServer dataXceiverServer) throws IOException {
-    return new DataXceiver(peer, dn, dataXceiverServer);
+    return new DataXceiver(peer, dn, dataXceiverServer, null);
+  }
+
+  static DataXceiver create(Peer peer, DataNode dn,
+      DataXceiverServer dataXceiverServer, DataXceiverSelector selector)
+      throws IOException {
+    return new DataXceiver(peer, dn, dataXceiverServer, selector);
   }
   
   private DataXceiver(Peer peer, DataNode datanode,
-      DataXceiverServer dataXceiverServer) throws IOException {
+      DataXceiverServer dataXceiverServer, DataXceiverSelector selector)
+      throws IOException {
 
     this.peer = peer;
+    this.selector = selector;
     this.dnConf = datanode.getDnConf();
     this.socketIn = peer.getInputStream();
     this.socketOut = peer.getOutputStream();
@@ -150,76 +171,126 @@ private OutputStream getOutputStream() {
     return socketOut;
   }
 
+  Peer getPeer() {
+    return peer;
+  }
+
+  SelectionKey getSelectionKey() {
+    return selectionKey;
+  }
+
+  void setSelectionKey(SelectionKey selectionKey) {
+    this.selectionKey = selectionKey;
+  }
+
+  long getParkedTime() {
+    return parkedTime;
+  }
+
+  void setParkedTime(long parkedTime) {
+    this.parkedTime = parkedTime;
+  }
+
+  int getOpsProcessed() {
+    return opsProcessed;
+  }
+
   /**
    * Read/write data from/to the DataXceiverServer.
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
     Op op = null;
+    boolean parked = false;
+    boolean handedOver = false;
 
-    dataXceiverServer.addPeer(peer);
     try {
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      if ((!peer.hasSecureChannel()) && dnConf.encryptDataTransfer) {
-        IOStreamPair encryptedStreams = null;
-        try {
-          encryptedStreams = DataTransferEncryptor.getEncryptedStreams(socketOut,
-              socketIn, datanode.blockPoolTokenSecretManager,
-              dnConf.encryptionAlgorithm);
-        } catch (InvalidMagicNumberException imne) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption");
-          return;
+      if (!initialized) {
+        dataXceiverServer.addPeer(peer);
+        initialized = true;
+        peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+        InputStream input = socketIn;
+        if ((!peer.hasSecureChannel()) && dnConf.encryptDataTransfer) {
+          IOStreamPair encryptedStreams = null;
+          try {
+            encryptedStreams = DataTransferEncryptor.getEncryptedStreams(socketOut,
+                socketIn, datanode.blockPoolTokenSecretManager,
+                dnConf.encryptionAlgorithm);
+          } catch (InvalidMagicNumberException imne) {
+            LOG.info("Failed to read expected encryption handshake from client " +
+                "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
+                "is running an older version of Hadoop which does not support " +
+                "encryption");
+            return;
+          }
+          input = encryptedStreams.in;
+          socketOut = encryptedStreams.out;
         }
-        input = encryptedStreams.in;
-        socketOut = encryptedStreams.out;
+        input = new BufferedInputStream(input, HdfsConstants.SMALL_BUFFER_SIZE);
+
+        super.initialize(new DataInputStream(input));
       }
-      input = new BufferedInputStream(input, HdfsConstants.SMALL_BUFFER_SIZE);
-      
-      super.initialize(new DataInputStream(input));
       
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
+      // When multiplexed, the keepalive wait happens on the selector, and
+      // this xceiver only runs once the next operation has arrived.
       do {
-        updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
+        if (streamingOp != null) {
+          // resumed on a thread of its own by the selector
+          op = streamingOp;
+          streamingOp = null;
+        } else {
+          updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
+
+          try {
+            if (opsProcessed != 0 && selector == null) {
+              assert dnConf.socketKeepaliveTimeout > 0;
+              peer.setReadTimeout(dnConf.socketKeepaliveTimeout);
+            } else {
+              peer.setReadTimeout(dnConf.socketTimeout);
+            }
+            op = readOp();
+          } catch (InterruptedIOException ignored) {
+            // Time out while we wait for client rpc
+            break;
+          } catch (IOException err) {
+            // Since we optimistically expect the next op, it's quite normal to get EOF here.
+            if (opsProcessed > 0 &&
+                (err instanceof EOFException || err instanceof ClosedChannelException)) {
+              if (LOG.isDebugEnabled()) {
+                LOG.debug("Cached " + peer + " closing after " + opsProcessed + " ops");
+              }
+            } else {
+              throw err;
+            }
+            break;
+          }
 
-        try {
-          if (opsProcessed != 0) {
-            assert dnConf.socketKeepaliveTimeout > 0;
-            peer.setReadTimeout(dnConf.socketKeepaliveTimeout);
-          } else {
+          // restore normal timeout
+          if (opsProcessed != 0 && selector == null) {
             peer.setReadTimeout(dnConf.socketTimeout);
           }
-          op = readOp();
-        } catch (InterruptedIOException ignored) {
-          // Time out while we wait for client rpc
-          break;
-        } catch (IOException err) {
-          // Since we optimistically expect the next op, it's quite normal to get EOF here.
-          if (opsProcessed > 0 &&
-              (err instanceof EOFException || err instanceof ClosedChannelException)) {
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("Cached " + peer + " closing after " + opsProcessed + " ops");
-            }
-          } else {
-            throw err;
-          }
-          break;
-        }
 
-        // restore normal timeout
-        if (opsProcessed != 0) {
-          peer.setReadTimeout(dnConf.socketTimeout);
+          if (selector != null && DataXceiverSelector.isStreamingOp(op)) {
+            // do not hold a shared worker for as long as the client takes
+            streamingOp = op;
+            handedOver = true;
+            break;
+          }
         }
 
         opStartTime = now();
         processOp(op);
         ++opsProcessed;
+
+        if (selector != null && !peer.isClosed()
+            && dnConf.socketKeepaliveTimeout > 0 && in.available() == 0) {
+          // give up this thread until the client sends the next operation
+          parked = true;
+          break;
+        }
       } while (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0);
     } catch (Throwable t) {
       LOG.error(datanode.getDisplayName() + ":DataXceiver error processing " +
@@ -227,31 +298,75 @@ public void run() {
                 " src: " + remoteAddress +
                 " dest: " + localAddress, t);
     } finally {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
-            + datanode.getXceiverCount());
+      // another thread may run this xceiver as soon as it is parked or
+      // handed over
+      if (parked) {
+        selector.park(this);
+      } else if (handedOver) {
+        selector.runStreamingOp(this);
+      } else {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
+              + datanode.getXceiverCount());
+        }
+        updateCurrentThreadName("Cleaning up");
+        close();
       }
-      updateCurrentThreadName("Cleaning up");
-      dataXceiverServer.closePeer(peer);
-      IOUtils.closeStream(in);
+    }
+  }
+
+  /** Close the connection of this xceiver. */
+  void close() {
+    dataXceiverServer.closePeer(peer);
+    IOUtils.closeStream(in);
+    if (selector != null) {
+      selector.connectionClosed(this);
     }
   }
 
   @Override
   public void requestShortCircuitFds(final ExtendedBlock blk,
       final Token<BlockTokenIdentifier> token,
-      int maxVersion) throws IOException {
+      int maxVersion, boolean shmSlotRequested, long shmSegmentId)
+      throws IOException {
     updateCurrentThreadName("Passing file descriptors for block " + blk);
     BlockOpResponseProto.Builder bld = BlockOpResponseProto.newBuilder();
     FileInputStream fis[] = null;
+    FileDescriptor shmFd = null;
     try {
       if (peer.getDomainSocket() == null) {
         throw new IOException("You cannot pass file descriptors over " +
             "anything but a UNIX domain socket.");
       }
       fis = datanode.requestShortCircuitFdsForRead(blk, token, maxVersion);
+      // Only assign a slot once the token was checked and the replica was
+      // opened.  The replica is checked again under the dataset lock, since
+      // an invalidation which removed it before the slot was assigned had
+      // no slot to clear.  A later invalidation clears the slot.
+      final ShortCircuitRegistry registry = datanode.getShortCircuitRegistry();
+      ShortCircuitRegistry.Slot slot = null;
+      if (shmSlotRequested) {
+        synchronized (datanode.data) {
+          slot = registry.registerSlot(blk.getBlockPoolId(), blk.getBlockId());
+          if ((slot != null) && !datanode.data.isValidBlock(blk) &&
+              !datanode.data.isValidRbw(blk)) {
+            registry.processBlockInvalidation(blk.getBlockPoolId(),
+                blk.getBlockId());
+            throw new IOException("Replica " + blk + " was invalidated " +
+                "while its file descriptors were being passed.");
+          }
+        }
+      }
+      if ((slot != null) && (shmSegmentId != registry.getSegmentId())) {
+        shmFd = registry.getSegmentFileDescriptor();
+      }
       bld.setStatus(SUCCESS);
       bld.setShortCircuitAccessVersion(DataNode.CURRENT_BLOCK_FORMAT_VERSION);
+      if (slot != null) {
+        bld.setShmSegmentId(registry.getSegmentId());
+        bld.setShmSlotIndex(slot.getIndex());
+        bld.setShmSlotGeneration(slot.getGeneration());
+      }
     } catch (ShortCircuitFdsVersionException e) {
       bld.setStatus(ERROR_UNSUPPORTED);
       bld.setShortCircuitAccessVersion(DataNode.CURRENT_BLOCK_FORMAT_VERSION);
@@ -265,14 +380,21 @@ public void requestShortCircuitFds(final ExtendedBlock blk,
     } catch (IOException e) {
       bld.setStatus(ERROR);
       bld.setMessage(e.getMessage());
+      // Do not pass the file descriptors along with an error.
+      IOUtils.cleanup(LOG, fis);
+      fis = null;
     }
     try {
       bld.build().writeDelimitedTo(socketOut);
       if (fis != null) {
-        FileDescriptor fds[] = new FileDescriptor[fis.length];
-        for (int i = 0; i < fds.length; i++) {
+        FileDescriptor fds[] =
+            new FileDescriptor[fis.length + (shmFd == null ? 0 : 1)];
+        for (int i = 0; i < fis.length; i++) {
           fds[i] = fis[i].getFD();
         }
+        if (shmFd != null) {
+          fds[fis.length] = shmFd;
+        }
         byte buf[] = new byte[] { (byte)0 };
         peer.getDomainSocket().
           sendFileDescriptors(fds, buf, 0, buf.length);
@@ -333,6 +455,7 @@ public void readBlock(final ExtendedBlock block,
         sendResponse(ERROR, msg);
         throw e;
       }
+      blockSender.recordIoStats();
       
       // send op status
       writeSuccessWithChecksumInfo(blockSender, new DataOutputStream(getOutputStream()));
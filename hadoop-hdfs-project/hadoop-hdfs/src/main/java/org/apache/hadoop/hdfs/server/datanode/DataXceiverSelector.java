@@ -0,0 +1,332 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.hdfs.protocol.datatransfer.Op;
+import org.apache.hadoop.net.SocketInputStream;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Multiplexes data transfer connections on a single selector thread.
+ *
+ * A connection is parked on the selector while it waits for its next
+ * operation.  Once the client sends one, the {@link DataXceiver} is run on a
+ * bounded pool of worker threads, which reads the operation and processes
+ * it with the usual blocking streams.  Operations which stream block data
+ * for as long as the client or the pipeline takes, see
+ * {@link #isStreamingOp(Op)}, are handed over to a thread of their own, so
+ * that slow readers and writers cannot starve the shared workers.  After
+ * the operation the connection is parked again, rather than holding on to
+ * its thread for the keepalive period.
+ *
+ * The workers queue at most a bounded number of operations.  When the
+ * queue is full, the DataXceiverServer refuses new connections just as it
+ * does above the xceiver limit, and operations which still do not fit close
+ * their connection, so that clients back off to other DataNodes.
+ *
+ * None of these threads are counted by {@link DataNode#getXceiverCount()},
+ * which counts the connections of this selector instead.
+ */
+class DataXceiverSelector implements Runnable {
+  public static final Log LOG = DataNode.LOG;
+
+  /** How often parked connections are checked for timeouts. */
+  private static final long TIMEOUT_CHECK_INTERVAL_MS = 100;
+
+  private final DataNode datanode;
+  private final Selector selector;
+  private final ThreadPoolExecutor workers;
+  /** Runs the streaming operations, one thread each. */
+  private final ThreadPoolExecutor streamers;
+  private final Queue<DataXceiver> pending =
+      new ConcurrentLinkedQueue<DataXceiver>();
+
+  /** Number of connections served by this selector, parked or running. */
+  private final AtomicInteger numConnections = new AtomicInteger();
+
+  DataXceiverSelector(DataNode datanode, int maxWorkers, int maxQueued)
+      throws IOException {
+    this.datanode = datanode;
+    this.selector = Selector.open();
+    // Keep the threads out of the DataNode's thread group, whose size is
+    // the xceiver count, since the connections are counted already.
+    final ThreadGroup group = new ThreadGroup("dataXceiverSelector");
+    final ThreadFactory groupFactory = new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        return new Thread(group, r);
+      }
+    };
+    this.workers = new ThreadPoolExecutor(maxWorkers, maxWorkers,
+        60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maxQueued),
+        new ThreadFactoryBuilder()
+            .setThreadFactory(groupFactory)
+            .setDaemon(true)
+            .setNameFormat("DataXceiver worker %d")
+            .build());
+    this.workers.allowCoreThreadTimeOut(true);
+    // The number of streaming operations is bounded by the xceiver limit.
+    this.streamers = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+        60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadFactoryBuilder()
+            .setThreadFactory(groupFactory)
+            .setDaemon(true)
+            .setNameFormat("DataXceiver streamer %d")
+            .build());
+  }
+
+  /**
+   * @return whether the given operation may take as long as its client or
+   *         downstream pipeline, and should not run on a shared worker.
+   */
+  static boolean isStreamingOp(Op op) {
+    switch (op) {
+    case WRITE_BLOCK:
+    case READ_BLOCK:
+    case TRANSFER_BLOCK:
+    case COPY_BLOCK:
+    case REPLACE_BLOCK:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * @return the selectable channel of the given peer, or null if the peer
+   *         cannot be multiplexed.
+   */
+  static SelectableChannel getSelectableChannel(Peer peer) {
+    ReadableByteChannel channel = peer.getInputStreamChannel();
+    if (channel instanceof SocketInputStream) {
+      channel = ((SocketInputStream)channel).getChannel();
+    }
+    return channel instanceof SelectableChannel ?
+        (SelectableChannel)channel : null;
+  }
+
+  /** Start serving a newly accepted connection. */
+  void add(DataXceiver xceiver) {
+    numConnections.incrementAndGet();
+    park(xceiver);
+  }
+
+  /**
+   * Wait on the selector until the client of the given xceiver sends its
+   * next operation.  The caller must not touch the xceiver afterwards.
+   */
+  void park(DataXceiver xceiver) {
+    pending.add(xceiver);
+    selector.wakeup();
+  }
+
+  /** Called once a connection of this selector has been closed. */
+  void connectionClosed(DataXceiver xceiver) {
+    SelectionKey key = xceiver.getSelectionKey();
+    if (key != null) {
+      key.cancel();
+    }
+    numConnections.decrementAndGet();
+  }
+
+  /** @return the number of connections served by this selector. */
+  int getNumConnections() {
+    return numConnections.get();
+  }
+
+  /**
+   * @return whether the workers are all busy and no further operation can
+   *         be queued for them.
+   */
+  boolean isSaturated() {
+    return workers.getQueue().remainingCapacity() == 0
+        && workers.getActiveCount() >= workers.getMaximumPoolSize();
+  }
+
+  /**
+   * Continue running the given xceiver, which has read a streaming
+   * operation on a worker, on a thread of its own.
+   */
+  void runStreamingOp(DataXceiver xceiver) {
+    try {
+      streamers.execute(wrap(xceiver));
+    } catch (RejectedExecutionException e) {
+      LOG.warn(datanode.getDisplayName() + ":DataXceiverSelector: "
+          + "Failed to start an operation of " + xceiver.getPeer(), e);
+      xceiver.close();
+    }
+  }
+
+  @Override
+  public void run() {
+    long lastTimeoutCheck = Time.monotonicNow();
+    try {
+      while (datanode.shouldRun) {
+        selector.select(TIMEOUT_CHECK_INTERVAL_MS);
+        registerPending();
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (key.isValid()) {
+            key.interestOps(0);
+            dispatch((DataXceiver)key.attachment());
+          }
+        }
+
+        long now = Time.monotonicNow();
+        if (now - lastTimeoutCheck >= TIMEOUT_CHECK_INTERVAL_MS) {
+          closeTimedOut(now);
+          lastTimeoutCheck = now;
+        }
+      }
+    } catch (Throwable t) {
+      if (datanode.shouldRun) {
+        LOG.error(datanode.getDisplayName()
+            + ":DataXceiverSelector: Exiting due to: ", t);
+      }
+    } finally {
+      shutdown();
+    }
+  }
+
+  private void registerPending() {
+    final long now = Time.monotonicNow();
+    DataXceiver xceiver;
+    while ((xceiver = pending.poll()) != null) {
+      try {
+        SelectionKey key = xceiver.getSelectionKey();
+        if (key == null) {
+          key = getSelectableChannel(xceiver.getPeer()).register(
+              selector, SelectionKey.OP_READ, xceiver);
+          xceiver.setSelectionKey(key);
+        } else {
+          key.interestOps(SelectionKey.OP_READ);
+        }
+        xceiver.setParkedTime(now);
+      } catch (Exception e) {
+        // the connection was closed while parked
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Failed to park " + xceiver.getPeer(), e);
+        }
+        xceiver.close();
+      }
+    }
+  }
+
+  private void dispatch(DataXceiver xceiver) {
+    try {
+      workers.execute(wrap(xceiver));
+    } catch (RejectedExecutionException e) {
+      if (datanode.shouldRun) {
+        LOG.warn(datanode.getDisplayName() + ":DataXceiverSelector: "
+            + "Closing " + xceiver.getPeer() + " since all "
+            + workers.getMaximumPoolSize() + " workers are busy and "
+            + workers.getQueue().size() + " operations are queued");
+      }
+      xceiver.close();
+    }
+  }
+
+  /** Run the xceiver, restoring the name of the pooled thread afterwards. */
+  private static Runnable wrap(final DataXceiver xceiver) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        final Thread t = Thread.currentThread();
+        final String name = t.getName();
+        try {
+          xceiver.run();
+        } finally {
+          t.setName(name);
+        }
+      }
+    };
+  }
+
+  /**
+   * Close the parked connections whose client has not sent the next
+   * operation in time.  The first operation is given the socket timeout,
+   * as in {@link DataXceiver#run()}, later ones the keepalive timeout.
+   */
+  private void closeTimedOut(long now) {
+    final DNConf dnConf = datanode.getDnConf();
+    for (SelectionKey key : selector.keys()) {
+      if (!key.isValid() || key.interestOps() == 0) {
+        continue;
+      }
+      DataXceiver xceiver = (DataXceiver)key.attachment();
+      long timeout = xceiver.getOpsProcessed() == 0 ?
+          dnConf.socketTimeout : dnConf.socketKeepaliveTimeout;
+      if (timeout > 0 && now - xceiver.getParkedTime() > timeout) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Closing " + xceiver.getPeer() + " after waiting "
+              + timeout + " ms for an operation");
+        }
+        xceiver.close();
+      }
+    }
+  }
+
+  private void shutdown() {
+    DataXceiver xceiver;
+    while ((xceiver = pending.poll()) != null) {
+      xceiver.close();
+    }
+    for (SelectionKey key : selector.keys()) {
+      if (key.isValid() && key.interestOps() != 0) {
+        ((DataXceiver)key.attachment()).close();
+      }
+    }
+    workers.shutdownNow();
+    streamers.shutdownNow();
+    try {
+      workers.awaitTermination(30, TimeUnit.SECONDS);
+      streamers.awaitTermination(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      LOG.warn(datanode.getDisplayName()
+          + ":DataXceiverSelector: close exception", e);
+    }
+  }
+}
@@ -28,7 +28,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.PeerServer;
-import org.apache.hadoop.hdfs.server.balancer.Balancer;
+import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
@@ -39,6 +39,11 @@
  * This is created to listen for requests from clients or 
  * other DataNodes.  This small server does not use the 
  * Hadoop IPC mechanism.
+ *
+ * Each connection is served by a thread of its own, unless
+ * {@link DFSConfigKeys#DFS_DATANODE_TRANSFER_SERVER_NIO_ENABLED_KEY} is set,
+ * in which case TCP connections are multiplexed by a
+ * {@link DataXceiverSelector}.
  */
 class DataXceiverServer implements Runnable {
   public static final Log LOG = DataNode.LOG;
@@ -63,14 +68,18 @@ class DataXceiverServer implements Runnable {
    */
   static class BlockBalanceThrottler extends DataTransferThrottler {
    private int numThreads;
+   private final int maxThreads;
    
    /**Constructor
     * 
     * @param bandwidth Total amount of bandwidth can be used for balancing 
+    * @param maxThreads Maximum number of concurrent block moves
     */
-   private BlockBalanceThrottler(long bandwidth) {
+   private BlockBalanceThrottler(long bandwidth, int maxThreads) {
      super(bandwidth);
+     this.maxThreads = maxThreads;
      LOG.info("Balancing bandwith is "+ bandwidth + " bytes/s");
+     LOG.info("Number threads for balancing is "+ maxThreads);
    }
    
    /** Check if the block move can start. 
@@ -79,7 +88,7 @@ private BlockBalanceThrottler(long bandwidth) {
     * the counter is incremented; False otherwise.
     */
    synchronized boolean acquire() {
-     if (numThreads >= Balancer.MAX_NUM_CONCURRENT_MOVES) {
+     if (numThreads >= maxThreads) {
        return false;
      }
      numThreads++;
@@ -103,10 +112,12 @@ synchronized void release() {
    * i.e. either the actual block size or the default block size.
    */
   long estimateBlockSize;
-  
+
+  /** Multiplexes the TCP connections, or null if not enabled. */
+  private final DataXceiverSelector selector;
   
   DataXceiverServer(PeerServer peerServer, Configuration conf,
-      DataNode datanode) {
+      DataNode datanode) throws IOException {
     
     this.peerServer = peerServer;
     this.datanode = datanode;
@@ -121,12 +132,48 @@ synchronized void release() {
     //set up parameter for cluster balancing
     this.balanceThrottler = new BlockBalanceThrottler(
       conf.getLong(DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_KEY, 
-                   DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT));
+                   DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT),
+      conf.getInt(DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
+          DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT));
+
+    // Domain sockets cannot be selected on, and encrypted streams buffer
+    // data which a selector would not see.
+    if (conf.getBoolean(DFSConfigKeys.DFS_DATANODE_TRANSFER_SERVER_NIO_ENABLED_KEY,
+            DFSConfigKeys.DFS_DATANODE_TRANSFER_SERVER_NIO_ENABLED_DEFAULT)
+        && peerServer instanceof TcpPeerServer
+        && !datanode.getDnConf().encryptDataTransfer) {
+      this.selector = new DataXceiverSelector(datanode,
+          conf.getInt(DFSConfigKeys.DFS_DATANODE_TRANSFER_SERVER_NIO_WORKERS_KEY,
+              DFSConfigKeys.DFS_DATANODE_TRANSFER_SERVER_NIO_WORKERS_DEFAULT),
+          conf.getInt(DFSConfigKeys.DFS_DATANODE_TRANSFER_SERVER_NIO_QUEUE_SIZE_KEY,
+              DFSConfigKeys.DFS_DATANODE_TRANSFER_SERVER_NIO_QUEUE_SIZE_DEFAULT));
+    } else {
+      this.selector = null;
+    }
+  }
+
+  /**
+   * @return the number of connections multiplexed by the selector, which
+   *         unlike the other connections do not own a thread.
+   */
+  int getNumMultiplexedConnections() {
+    return selector == null ? 0 : selector.getNumConnections();
+  }
+
+  /**
+   * @return the number of threads serving the DataNode's xceivers without
+   *         being one, i.e. this server and its selector, if any.
+   */
+  int getNumServerThreads() {
+    return selector == null ? 1 : 2;
   }
 
   @Override
   public void run() {
     Peer peer = null;
+    if (selector != null) {
+      new Daemon(datanode.threadGroup, selector).start();
+    }
     while (datanode.shouldRun) {
       try {
         peer = peerServer.accept();
@@ -138,10 +185,19 @@ public void run() {
               + " exceeds the limit of concurrent xcievers: "
               + maxXceiverCount);
         }
+        if (selector != null && selector.isSaturated()) {
+          throw new IOException("All DataXceiver workers are busy and their"
+              + " queue is full");
+        }
 
-        new Daemon(datanode.threadGroup,
-            DataXceiver.create(peer, datanode, this))
-            .start();
+        if (selector != null
+            && DataXceiverSelector.getSelectableChannel(peer) != null) {
+          selector.add(DataXceiver.create(peer, datanode, this, selector));
+        } else {
+          new Daemon(datanode.threadGroup,
+              DataXceiver.create(peer, datanode, this))
+              .start();
+        }
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (AsynchronousCloseException ace) {
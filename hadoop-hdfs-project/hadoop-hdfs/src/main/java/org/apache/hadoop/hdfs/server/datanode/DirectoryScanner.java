@@ -19,8 +19,10 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +34,7 @@
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -61,11 +64,23 @@ public class DirectoryScanner implements Runnable {
   private final ExecutorService reportCompileThreadPool;
   private final ScheduledExecutorService masterThread;
   private final long scanPeriodMsecs;
+  private final int throttleLimitMsPerSec;
+  private final int reconcileBatchSize;
+  private final boolean skipUnchangedDirs;
   private volatile boolean shouldRun = false;
   private boolean retainDiffs = false;
 
+  /**
+   * The directory listings of the previous scan, per volume base path.
+   * Only used by the master thread.
+   */
+  private Map<String, Map<String, DirListing>> dirListings =
+      new HashMap<String, Map<String, DirListing>>();
+
   ScanInfoPerBlockPool diffs = new ScanInfoPerBlockPool();
   Map<String, Stats> stats = new HashMap<String, Stats>();
+  /** Number of directories whose listing was reused by the last scan. */
+  final AtomicLong skippedDirs = new AtomicLong();
   
   /**
    * Allow retaining diffs for unit test and analysis
@@ -308,6 +323,22 @@ public long getGenStamp() {
     }
   }
 
+  /**
+   * The listing of a block directory, which is reused by the next scan if
+   * the modification time of the directory has not changed.
+   */
+  private static class DirListing {
+    private final long mtime;
+    private final List<ScanInfo> blocks;
+    private final List<File> subdirs;
+
+    DirListing(long mtime, List<ScanInfo> blocks, List<File> subdirs) {
+      this.mtime = mtime;
+      this.blocks = blocks;
+      this.subdirs = subdirs;
+    }
+  }
+
   DirectoryScanner(FsDatasetSpi<?> dataset, Configuration conf) {
     this.dataset = dataset;
     int interval = conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INTERVAL_KEY,
@@ -316,6 +347,24 @@ public long getGenStamp() {
     int threads = 
         conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
                     DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT);
+    int throttleLimit = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT);
+    if (throttleLimit <= 0 || throttleLimit > 1000) {
+      LOG.error(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY
+          + " set to value outside of (0, 1000]: " + throttleLimit
+          + ". Using the default of "
+          + DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT);
+      throttleLimit =
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT;
+    }
+    throttleLimitMsPerSec = throttleLimit;
+    reconcileBatchSize = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_DEFAULT));
+    skipUnchangedDirs = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_SKIP_UNCHANGED_DIRS_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_SKIP_UNCHANGED_DIRS_DEFAULT);
 
     reportCompileThreadPool = Executors.newFixedThreadPool(threads, 
         new Daemon.DaemonFactory());
@@ -341,6 +390,7 @@ boolean getRunStatus() {
   private void clear() {
     diffs.clear();
     stats.clear();
+    skippedDirs.set(0);
   }
 
   /**
@@ -398,17 +448,24 @@ void shutdown() {
   }
 
   /**
-   * Reconcile differences between disk and in-memory blocks
+   * Reconcile differences between disk and in-memory blocks.
+   * The differences are fixed in batches, and the dataset lock is released
+   * between the batches so that writers are not held up by a long diff.
    */
   void reconcile() {
     scan();
     for (Entry<String, LinkedList<ScanInfo>> entry : diffs.entrySet()) {
       String bpid = entry.getKey();
-      LinkedList<ScanInfo> diff = entry.getValue();
-      
-      for (ScanInfo info : diff) {
-        dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
-            info.getMetaFile(), info.getVolume());
+      Iterator<ScanInfo> it = entry.getValue().iterator();
+
+      while (it.hasNext()) {
+        synchronized (dataset) {
+          for (int i = 0; i < reconcileBatchSize && it.hasNext(); i++) {
+            ScanInfo info = it.next();
+            dataset.checkAndUpdate(bpid, info.getBlockId(),
+                info.getBlockFile(), info.getMetaFile(), info.getVolume());
+          }
+        }
       }
     }
     if (!retainDiffs) clear();
@@ -417,74 +474,75 @@ void reconcile() {
   /**
    * Scan for the differences between disk and in-memory blocks
    * Scan only the "finalized blocks" lists of both disk and memory.
+   * The disk report is compared with a copy of the in-memory blocks, so the
+   * dataset lock is only held while the copy is taken; a difference found
+   * here is checked again under the lock by
+   * {@link FsDatasetSpi#checkAndUpdate}.
    */
   void scan() {
     clear();
     Map<String, ScanInfo[]> diskReport = getDiskReport();
 
-    // Hold FSDataset lock to prevent further changes to the block map
-    synchronized(dataset) {
-      for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
-        String bpid = entry.getKey();
-        ScanInfo[] blockpoolReport = entry.getValue();
-        
-        Stats statsRecord = new Stats(bpid);
-        stats.put(bpid, statsRecord);
-        LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
-        diffs.put(bpid, diffRecord);
-        
-        statsRecord.totalBlocks = blockpoolReport.length;
-        List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
-        FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
-        Arrays.sort(memReport); // Sort based on blockId
-  
-        int d = 0; // index for blockpoolReport
-        int m = 0; // index for memReprot
-        while (m < memReport.length && d < blockpoolReport.length) {
-          Block memBlock = memReport[Math.min(m, memReport.length - 1)];
-          ScanInfo info = blockpoolReport[Math.min(
-              d, blockpoolReport.length - 1)];
-          if (info.getBlockId() < memBlock.getBlockId()) {
-            // Block is missing in memory
-            statsRecord.missingMemoryBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-            d++;
-            continue;
-          }
-          if (info.getBlockId() > memBlock.getBlockId()) {
-            // Block is missing on the disk
-            addDifference(diffRecord, statsRecord,
-                          memBlock.getBlockId(), info.getVolume());
-            m++;
-            continue;
-          }
-          // Block file and/or metadata file exists on the disk
-          // Block exists in memory
-          if (info.getBlockFile() == null) {
-            // Block metadata file exits and block file is missing
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getGenStamp() != memBlock.getGenerationStamp()
-              || info.getBlockFileLength() != memBlock.getNumBytes()) {
-            // Block metadata file is missing or has wrong generation stamp,
-            // or block file length is different than expected
-            statsRecord.mismatchBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-          }
+    for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
+      String bpid = entry.getKey();
+      ScanInfo[] blockpoolReport = entry.getValue();
+      
+      Stats statsRecord = new Stats(bpid);
+      stats.put(bpid, statsRecord);
+      LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
+      diffs.put(bpid, diffRecord);
+      
+      statsRecord.totalBlocks = blockpoolReport.length;
+      List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
+      FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
+      Arrays.sort(memReport); // Sort based on blockId
+
+      int d = 0; // index for blockpoolReport
+      int m = 0; // index for memReprot
+      while (m < memReport.length && d < blockpoolReport.length) {
+        Block memBlock = memReport[Math.min(m, memReport.length - 1)];
+        ScanInfo info = blockpoolReport[Math.min(
+            d, blockpoolReport.length - 1)];
+        if (info.getBlockId() < memBlock.getBlockId()) {
+          // Block is missing in memory
+          statsRecord.missingMemoryBlocks++;
+          addDifference(diffRecord, statsRecord, info);
           d++;
-          m++;
+          continue;
         }
-        while (m < memReport.length) {
-          FinalizedReplica current = memReport[m++];
+        if (info.getBlockId() > memBlock.getBlockId()) {
+          // Block is missing on the disk
           addDifference(diffRecord, statsRecord,
-                        current.getBlockId(), current.getVolume());
+                        memBlock.getBlockId(), info.getVolume());
+          m++;
+          continue;
         }
-        while (d < blockpoolReport.length) {
-          statsRecord.missingMemoryBlocks++;
-          addDifference(diffRecord, statsRecord, blockpoolReport[d++]);
+        // Block file and/or metadata file exists on the disk
+        // Block exists in memory
+        if (info.getBlockFile() == null) {
+          // Block metadata file exits and block file is missing
+          addDifference(diffRecord, statsRecord, info);
+        } else if (info.getGenStamp() != memBlock.getGenerationStamp()
+            || info.getBlockFileLength() != memBlock.getNumBytes()) {
+          // Block metadata file is missing or has wrong generation stamp,
+          // or block file length is different than expected
+          statsRecord.mismatchBlocks++;
+          addDifference(diffRecord, statsRecord, info);
         }
-        LOG.info(statsRecord.toString());
-      } //end for
-    } //end synchronized
+        d++;
+        m++;
+      }
+      while (m < memReport.length) {
+        FinalizedReplica current = memReport[m++];
+        addDifference(diffRecord, statsRecord,
+                      current.getBlockId(), current.getVolume());
+      }
+      while (d < blockpoolReport.length) {
+        statsRecord.missingMemoryBlocks++;
+        addDifference(diffRecord, statsRecord, blockpoolReport[d++]);
+      }
+      LOG.info(statsRecord.toString());
+    }
   }
 
   /**
@@ -529,11 +587,20 @@ private Map<String, ScanInfo[]> getDiskReport() {
 
     Map<Integer, Future<ScanInfoPerBlockPool>> compilersInProgress =
       new HashMap<Integer, Future<ScanInfoPerBlockPool>>();
+    Map<String, Map<String, DirListing>> newDirListings =
+      new HashMap<String, Map<String, DirListing>>();
 
     for (int i = 0; i < volumes.size(); i++) {
       if (isValid(dataset, volumes.get(i))) {
+        String basePath = volumes.get(i).getBasePath();
+        Map<String, DirListing> listings = null;
+        if (skipUnchangedDirs) {
+          listings = new HashMap<String, DirListing>();
+          newDirListings.put(basePath, listings);
+        }
         ReportCompiler reportCompiler =
-          new ReportCompiler(volumes.get(i));
+          new ReportCompiler(volumes.get(i), throttleLimitMsPerSec,
+              dirListings.get(basePath), listings, skippedDirs);
         Future<ScanInfoPerBlockPool> result = 
           reportCompileThreadPool.submit(reportCompiler);
         compilersInProgress.put(i, result);
@@ -550,6 +617,7 @@ private Map<String, ScanInfo[]> getDiskReport() {
         throw new RuntimeException(ex);
       }
     }
+    dirListings = newDirListings;
 
     // Compile consolidated report for all the volumes
     ScanInfoPerBlockPool list = new ScanInfoPerBlockPool();
@@ -570,14 +638,52 @@ private static boolean isBlockMetaFile(String blockId, String metaFile) {
 
   private static class ReportCompiler 
   implements Callable<ScanInfoPerBlockPool> {
-    private FsVolumeSpi volume;
+    /**
+     * A directory is only listed again if it was modified later than this
+     * before the previous listing, to allow for the coarse modification
+     * times of some file systems.
+     */
+    private static final long MTIME_GRANULARITY_MS = 2000;
 
-    public ReportCompiler(FsVolumeSpi volume) {
+    private FsVolumeSpi volume;
+    private final int throttleLimitMsPerSec;
+    /** Listings of the previous scan to reuse, or null. */
+    private final Map<String, DirListing> previousListings;
+    /** Listings made by this scan, or null if they are not kept. */
+    private final Map<String, DirListing> listings;
+    private final AtomicLong skippedDirs;
+    private long throttlePeriodStart;
+
+    public ReportCompiler(FsVolumeSpi volume, int throttleLimitMsPerSec,
+        Map<String, DirListing> previousListings,
+        Map<String, DirListing> listings, AtomicLong skippedDirs) {
       this.volume = volume;
+      this.throttleLimitMsPerSec = throttleLimitMsPerSec;
+      this.previousListings = previousListings;
+      this.listings = listings;
+      this.skippedDirs = skippedDirs;
+    }
+
+    /**
+     * Pause for the rest of the current second once the compiler has run
+     * for the throttle limit in it.
+     */
+    private void throttle() throws InterruptedException {
+      if (throttleLimitMsPerSec >= 1000) {
+        return;
+      }
+      long elapsed = Time.monotonicNow() - throttlePeriodStart;
+      if (elapsed >= throttleLimitMsPerSec) {
+        if (elapsed < 1000) {
+          Thread.sleep(1000 - elapsed);
+        }
+        throttlePeriodStart = Time.monotonicNow();
+      }
     }
 
     @Override
     public ScanInfoPerBlockPool call() throws Exception {
+      throttlePeriodStart = Time.monotonicNow();
       String[] bpList = volume.getBlockPoolList();
       ScanInfoPerBlockPool result = new ScanInfoPerBlockPool(bpList.length);
       for (String bpid : bpList) {
@@ -590,14 +696,59 @@ public ScanInfoPerBlockPool call() throws Exception {
 
     /** Compile list {@link ScanInfo} for the blocks in the directory <dir> */
     private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
-        LinkedList<ScanInfo> report) {
+        LinkedList<ScanInfo> report) throws InterruptedException {
+      throttle();
+      if (listings != null) {
+        String path = dir.getAbsolutePath();
+        DirListing previous = previousListings == null ? null :
+            previousListings.get(path);
+        long mtime = dir.lastModified();
+        if (previous != null && mtime != 0 && previous.mtime == mtime) {
+          skippedDirs.incrementAndGet();
+          listings.put(path, previous);
+          report.addAll(previous.blocks);
+          for (File subdir : previous.subdirs) {
+            compileReport(vol, subdir, report);
+          }
+          return report;
+        }
+        long listTime = Time.now();
+        List<ScanInfo> blocks = new ArrayList<ScanInfo>();
+        List<File> subdirs = new ArrayList<File>();
+        if (listDir(vol, dir, blocks, subdirs)) {
+          if (mtime != 0 && listTime - mtime > MTIME_GRANULARITY_MS) {
+            listings.put(path, new DirListing(mtime, blocks, subdirs));
+          }
+          report.addAll(blocks);
+          for (File subdir : subdirs) {
+            compileReport(vol, subdir, report);
+          }
+        }
+        return report;
+      }
+
+      List<File> subdirs = new ArrayList<File>();
+      listDir(vol, dir, report, subdirs);
+      for (File subdir : subdirs) {
+        compileReport(vol, subdir, report);
+      }
+      return report;
+    }
+
+    /**
+     * Add the blocks in the directory <dir> to <blocks> and its
+     * subdirectories to <subdirs>.
+     * @return false if the directory could not be listed.
+     */
+    private boolean listDir(FsVolumeSpi vol, File dir, List<ScanInfo> blocks,
+        List<File> subdirs) {
       File[] files;
       try {
         files = FileUtil.listFiles(dir);
       } catch (IOException ioe) {
         LOG.warn("Exception occured while compiling report: ", ioe);
         // Ignore this directory and proceed.
-        return report;
+        return false;
       }
       Arrays.sort(files);
       /*
@@ -608,13 +759,13 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
        */
       for (int i = 0; i < files.length; i++) {
         if (files[i].isDirectory()) {
-          compileReport(vol, files[i], report);
+          subdirs.add(files[i]);
           continue;
         }
         if (!Block.isBlockFilename(files[i])) {
           if (isBlockMetaFile("blk_", files[i].getName())) {
             long blockId = Block.getBlockId(files[i].getName());
-            report.add(new ScanInfo(blockId, null, files[i], vol));
+            blocks.add(new ScanInfo(blockId, null, files[i], vol));
           }
           continue;
         }
@@ -632,9 +783,9 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
             break;
           }
         }
-        report.add(new ScanInfo(blockId, blockFile, metaFile, vol));
+        blocks.add(new ScanInfo(blockId, blockFile, metaFile, vol));
       }
-      return report;
+      return true;
     }
   }
 }
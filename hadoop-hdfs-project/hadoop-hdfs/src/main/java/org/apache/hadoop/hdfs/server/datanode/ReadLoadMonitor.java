@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
+
+/**
+ * Decides from the {@link VolumeIoStats} of the client reads of each volume
+ * whether the volume is busy, so that the block scanner can back off while
+ * it is.
+ */
+class ReadLoadMonitor {
+  private final long latencyThresholdNanos;
+  private final float utilizationThreshold;
+
+  ReadLoadMonitor(Configuration conf) {
+    this.latencyThresholdNanos = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_LATENCY_THRESHOLD_MS_KEY,
+        DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_LATENCY_THRESHOLD_MS_DEFAULT)
+        * 1000000L;
+    this.utilizationThreshold = conf.getFloat(
+        DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_UTILIZATION_THRESHOLD_KEY,
+        DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_UTILIZATION_THRESHOLD_DEFAULT);
+  }
+
+  /**
+   * @return true if the recent client reads of the volume were slow, or
+   *         kept it busy for most of the time.
+   */
+  boolean isBusy(FsVolumeSpi volume) {
+    final VolumeIoStats stats = volume.getIoStats();
+    return stats != null
+        && (stats.getReadLatencyNanos() > latencyThresholdNanos
+            || stats.getReadUtilization() > utilizationThreshold);
+  }
+}
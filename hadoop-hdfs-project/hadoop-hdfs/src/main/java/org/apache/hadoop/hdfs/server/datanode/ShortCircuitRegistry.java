@@ -0,0 +1,369 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SHARED_MEMORY_SLOTS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SHARED_MEMORY_SLOTS_KEY;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.client.ShortCircuitShm;
+import org.apache.hadoop.io.IOUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Manages the shared memory segment which the DataNode uses to tell its
+ * short-circuit clients about the state of the replicas they have file
+ * descriptors for.  See {@link ShortCircuitShm} for the layout of the
+ * segment.
+ *
+ * A slot is assigned to a replica the first time its file descriptors are
+ * passed to a client, and is shared by all the clients of the replica.  The
+ * slot is marked invalid when the replica is invalidated or reopened for
+ * append, and its MLOCKED flag follows the caching state of the replica.
+ * When all the slots are in use, the least recently used slot is marked
+ * invalid and reassigned, so its clients fall back to asking for new file
+ * descriptors.
+ */
+@InterfaceAudience.Private
+public class ShortCircuitRegistry implements Closeable {
+  public static final Log LOG = LogFactory.getLog(ShortCircuitRegistry.class);
+
+  /**
+   * Keys which identify replicas.
+   */
+  private static final class Key {
+    final long id;
+    final String bpid;
+
+    Key(long id, String bpid) {
+      this.id = id;
+      this.bpid = bpid;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)o;
+      return ((other.id == this.id) && (other.bpid.equals(this.bpid)));
+    }
+
+    @Override
+    public int hashCode() {
+      return new HashCodeBuilder().append(id).append(bpid).hashCode();
+    }
+  }
+
+  /**
+   * A slot assigned to a replica.
+   */
+  public static final class Slot {
+    private final int index;
+    private final long generation;
+
+    private Slot(int index, long generation) {
+      this.index = index;
+      this.generation = generation;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public long getGeneration() {
+      return generation;
+    }
+  }
+
+  private final long segmentId;
+
+  /**
+   * A stream for the unlinked segment file, whose file descriptor is passed
+   * to the clients.  Null if the registry is disabled.
+   */
+  private FileInputStream segmentStream;
+
+  /**
+   * The read-write mapping of the segment.  Null if the registry is
+   * disabled.
+   */
+  private MappedByteBuffer segment;
+
+  private final int numSlots;
+
+  /**
+   * The number of slots which have ever been assigned.  The slots above
+   * this have never been used.
+   */
+  private int numSlotsUsed = 0;
+
+  /**
+   * The last generation of every slot which has been used.
+   */
+  private final long generations[];
+
+  /**
+   * Slots which were used and then freed.
+   */
+  private final ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+
+  /**
+   * The slots assigned to replicas, least recently used first.
+   */
+  private final LinkedHashMap<Key, Slot> slots =
+      new LinkedHashMap<Key, Slot>(16, 0.75f, true);
+
+  /**
+   * The replicas which are mlocked, whether or not they have a slot.
+   */
+  private final HashSet<Key> mlocked = new HashSet<Key>();
+
+  /**
+   * Create the shared memory segment.  If it cannot be created, the
+   * registry is disabled, and clients get their file descriptors without
+   * a slot.
+   *
+   * @param conf     The DataNode configuration.
+   * @param enabled  False if the DataNode does not pass file descriptors,
+   *                 in which case the segment is not created.
+   */
+  public ShortCircuitRegistry(Configuration conf, boolean enabled) {
+    this.segmentId = new Random().nextLong() | 1L;
+    this.numSlots = enabled ? conf.getInt(
+        DFS_DATANODE_SHARED_MEMORY_SLOTS_KEY,
+        DFS_DATANODE_SHARED_MEMORY_SLOTS_DEFAULT) : 0;
+    this.generations = new long[Math.max(numSlots, 0)];
+    if (numSlots <= 0) {
+      LOG.debug("Disabling the short-circuit shared memory segment.");
+      return;
+    }
+    String dirs[] = conf.getTrimmedStrings(
+        DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_KEY,
+        DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_DEFAULT.split(","));
+    for (String dir : dirs) {
+      try {
+        createSegment(new File(dir));
+        LOG.info("Created a short-circuit shared memory segment with " +
+            numSlots + " slots in " + dir);
+        return;
+      } catch (IOException e) {
+        LOG.warn("Failed to create a short-circuit shared memory segment " +
+            "in " + dir, e);
+      }
+    }
+    LOG.warn("Disabling the short-circuit shared memory segment, since it " +
+        "could not be created in any of " +
+        DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_KEY + " = " +
+        conf.get(DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_KEY,
+            DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_DEFAULT));
+  }
+
+  private void createSegment(File dir) throws IOException {
+    File file = File.createTempFile("HadoopShortCircuitShm_", null, dir);
+    try {
+      long size = (long)numSlots * ShortCircuitShm.SLOT_SIZE;
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(size);
+        // The mapping stays valid after the file is closed.
+        segment = raf.getChannel().map(MapMode.READ_WRITE, 0, size);
+      } finally {
+        raf.close();
+      }
+      segmentStream = new FileInputStream(file);
+    } finally {
+      if (!file.delete()) {
+        LOG.warn("Failed to unlink short-circuit shared memory segment " +
+            file);
+      }
+    }
+  }
+
+  /**
+   * @return   True if the shared memory segment was created.
+   */
+  public synchronized boolean isEnabled() {
+    return segment != null;
+  }
+
+  public long getSegmentId() {
+    return segmentId;
+  }
+
+  /**
+   * @return   The file descriptor of the segment, to pass to clients.
+   */
+  public synchronized FileDescriptor getSegmentFileDescriptor()
+      throws IOException {
+    if (segmentStream == null) {
+      throw new IOException("The short-circuit shared memory segment is " +
+          "not available.");
+    }
+    return segmentStream.getFD();
+  }
+
+  @VisibleForTesting
+  synchronized int getNumSlotsInUse() {
+    return slots.size();
+  }
+
+  /**
+   * @return   The slot assigned to a replica, or null if it has none.
+   */
+  @VisibleForTesting
+  synchronized Slot getSlot(String bpid, long blockId) {
+    return slots.get(new Key(blockId, bpid));
+  }
+
+  private void writeSlot(Key key, Slot slot, boolean valid) {
+    segment.putLong(slot.getIndex() * ShortCircuitShm.SLOT_SIZE,
+        ShortCircuitShm.makeSlotWord(slot.getGeneration(), valid,
+            mlocked.contains(key)));
+  }
+
+  /**
+   * Get the slot of a replica, assigning one if it has none.
+   *
+   * This must be called after the file descriptors of the replica were
+   * opened, and the caller must then check that the replica is still valid,
+   * holding the dataset lock across both, so that an invalidation which
+   * races with the request is either caught by the check or clears the slot.
+   *
+   * @return   The slot, or null if the registry is disabled.
+   */
+  public synchronized Slot registerSlot(String bpid, long blockId) {
+    if (segment == null) {
+      return null;
+    }
+    Key key = new Key(blockId, bpid);
+    Slot slot = slots.get(key);
+    if (slot != null) {
+      return slot;
+    }
+    int index;
+    if (!freeSlots.isEmpty()) {
+      index = freeSlots.removeFirst();
+    } else if (numSlotsUsed < numSlots) {
+      index = numSlotsUsed++;
+    } else {
+      Iterator<Entry<Key, Slot>> iter = slots.entrySet().iterator();
+      Entry<Key, Slot> eldest = iter.next();
+      iter.remove();
+      writeSlot(eldest.getKey(), eldest.getValue(), false);
+      index = eldest.getValue().getIndex();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Reassigning slot " + index + " of block " +
+            eldest.getKey().id + " in " + eldest.getKey().bpid +
+            " to block " + blockId + " in " + bpid);
+      }
+    }
+    slot = new Slot(index, ++generations[index]);
+    slots.put(key, slot);
+    writeSlot(key, slot, true);
+    return slot;
+  }
+
+  /**
+   * Mark the slot of a replica invalid, because the replica was invalidated
+   * or reopened for append.
+   */
+  public synchronized void processBlockInvalidation(String bpid,
+      long blockId) {
+    Key key = new Key(blockId, bpid);
+    mlocked.remove(key);
+    if (segment == null) {
+      return;
+    }
+    Slot slot = slots.remove(key);
+    if (slot != null) {
+      writeSlot(key, slot, false);
+      freeSlots.addLast(slot.getIndex());
+    }
+  }
+
+  /**
+   * Record that a replica was mlocked.
+   */
+  public synchronized void processBlockMlockEvent(String bpid, long blockId) {
+    setMlocked(new Key(blockId, bpid), true);
+  }
+
+  /**
+   * Record that a replica is about to be munlocked.  This must be called
+   * before the replica is unmapped, so that the clients stop relying on it.
+   */
+  public synchronized void processBlockMunlockEvent(String bpid,
+      long blockId) {
+    setMlocked(new Key(blockId, bpid), false);
+  }
+
+  private void setMlocked(Key key, boolean isMlocked) {
+    if (isMlocked) {
+      mlocked.add(key);
+    } else {
+      mlocked.remove(key);
+    }
+    if (segment == null) {
+      return;
+    }
+    Slot slot = slots.get(key);
+    if (slot != null) {
+      writeSlot(key, slot, true);
+    }
+  }
+
+  /**
+   * Mark all the slots invalid and close the segment.
+   */
+  @Override
+  public synchronized void close() {
+    if (segment == null) {
+      return;
+    }
+    for (Entry<Key, Slot> entry : slots.entrySet()) {
+      writeSlot(entry.getKey(), entry.getValue(), false);
+    }
+    slots.clear();
+    IOUtils.cleanup(LOG, segmentStream);
+    segmentStream = null;
+    segment = null;
+  }
+}
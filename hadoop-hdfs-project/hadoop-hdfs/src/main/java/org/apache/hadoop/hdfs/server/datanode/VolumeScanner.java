@@ -0,0 +1,657 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.hdfs.server.datanode.BlockPoolSliceScanner.ADJUST_INTERVAL_MS;
+import static org.apache.hadoop.hdfs.server.datanode.BlockPoolSliceScanner.DEFAULT_SCAN_PERIOD_HOURS;
+import static org.apache.hadoop.hdfs.server.datanode.BlockPoolSliceScanner.MAX_SCAN_RATE;
+import static org.apache.hadoop.hdfs.server.datanode.BlockPoolSliceScanner.MIN_SCAN_RATE;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.util.AtomicFileOutputStream;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Scans the finalized block files of one volume, for each block pool, and
+ * verifies that they are not corrupt.
+ *
+ * Unlike {@link BlockPoolSliceScanner}, it keeps no state per block in
+ * memory. It walks the finalized directory of each block pool in the order
+ * of the file names, holding only the listings of the directories on the
+ * current path, and saves the path of the last verified block file as a
+ * cursor in the block pool directory. After a restart it resumes the walk
+ * where it left off, and a new walk starts once per scan period.
+ */
+class VolumeScanner implements Runnable {
+
+  public static final Log LOG = LogFactory.getLog(VolumeScanner.class);
+
+  /** The name of the cursor file in the directory of a block pool */
+  static final String CURSOR_FILE = "scanner.cursor";
+  /** How often the cursors are saved while scanning */
+  private static final long CURSOR_SAVE_INTERVAL_MS = 60 * 1000;
+
+  private static final String DATA_FORMAT = "yyyy-MM-dd HH:mm:ss,SSS";
+
+  private final DataNode datanode;
+  private final FsDatasetSpi<? extends FsVolumeSpi> dataset;
+  private final FsVolumeSpi volume;
+  private final long scanPeriod;
+  /** The load of the client reads, or null if the scan rate is not adaptive */
+  private final ReadLoadMonitor readLoadMonitor;
+
+  /** The block pools of the volume, by block pool id */
+  private final Map<String, BlockPoolCursor> cursors =
+      new TreeMap<String, BlockPoolCursor>();
+
+  private final DataTransferThrottler throttler = new ScanThrottler();
+  /** The adaptive scan rate, or 0 before the first adjustment */
+  private long scanRate = 0;
+  /** The cursor of the block being verified */
+  private volatile BlockPoolCursor currentCursor;
+
+  private long totalScans = 0;
+  private long totalScanErrors = 0;
+  private long totalTransientErrors = 0;
+
+  private Thread scannerThread;
+
+  /**
+   * Throttles the reads of the scanner, and adjusts the scan rate to the
+   * load of the volume every {@link BlockPoolSliceScanner#ADJUST_INTERVAL_MS},
+   * so that the scan of a large block backs off quickly too.
+   */
+  private class ScanThrottler extends DataTransferThrottler {
+    private long lastAdjusted = Time.monotonicNow();
+
+    ScanThrottler() {
+      super(200, MAX_SCAN_RATE);
+    }
+
+    @Override
+    public void throttle(long numOfBytes) {
+      // not synchronized, adjustThrottler() locks the scanner first
+      final long now = Time.monotonicNow();
+      if (now - lastAdjusted >= ADJUST_INTERVAL_MS) {
+        lastAdjusted = now;
+        adjustThrottler();
+      }
+      super.throttle(numOfBytes);
+    }
+  }
+
+  /**
+   * Walks the block files under a finalized directory in the order of
+   * their paths. Only the sorted listings of the directories on the current
+   * path are kept in memory.
+   */
+  static class BlockFileIterator {
+    /** The listing of a directory and the position in it. */
+    private static class Level {
+      private final File dir;
+      /** The path of the directory relative to the root, ending with '/' */
+      private final String prefix;
+      private final String[] names;
+      private int next = 0;
+
+      Level(File dir, String prefix) {
+        this.dir = dir;
+        this.prefix = prefix;
+        final String[] list = dir.list();
+        this.names = list == null ? new String[0] : list;
+        Arrays.sort(names);
+      }
+    }
+
+    private final Deque<Level> levels = new ArrayDeque<Level>();
+    private String lastPath = null;
+
+    /**
+     * @param root the finalized directory
+     * @param cursor the relative path of the last visited block file, or
+     *        null to start from the beginning
+     */
+    BlockFileIterator(File root, String cursor) {
+      levels.push(new Level(root, ""));
+      if (cursor != null) {
+        seek(cursor);
+      }
+    }
+
+    /** Position the walk right after the given relative path. */
+    private void seek(String cursor) {
+      final String[] components = cursor.split("/");
+      for (int i = 0; i < components.length; i++) {
+        final Level level = levels.peek();
+        final int pos = Arrays.binarySearch(level.names, components[i]);
+        if (pos < 0) {
+          // removed since, continue with the next name in the order
+          level.next = -(pos + 1);
+          return;
+        }
+        level.next = pos + 1;
+        final File child = new File(level.dir, components[i]);
+        if (i == components.length - 1 || !child.isDirectory()) {
+          return;
+        }
+        levels.push(new Level(child, level.prefix + components[i] + "/"));
+      }
+    }
+
+    /** @return the next block file, or null at the end of the walk. */
+    File next() {
+      while (!levels.isEmpty()) {
+        final Level level = levels.peek();
+        if (level.next >= level.names.length) {
+          levels.pop();
+          continue;
+        }
+        final String name = level.names[level.next++];
+        final File f = new File(level.dir, name);
+        if (name.startsWith(DataStorage.BLOCK_SUBDIR_PREFIX)
+            && f.isDirectory()) {
+          levels.push(new Level(f, level.prefix + name + "/"));
+        } else if (Block.isBlockFilename(f)) {
+          lastPath = level.prefix + name;
+          return f;
+        }
+      }
+      return null;
+    }
+
+    /** @return the relative path of the last returned block file. */
+    String getLastPath() {
+      return lastPath;
+    }
+  }
+
+  /** The progress of the scan of a block pool on the volume. */
+  static class BlockPoolCursor {
+    private static final String ITERATION_START = "iterationStart";
+    private static final String LAST_ITERATION_BYTES = "lastIterationBytes";
+    private static final String CURSOR = "cursor";
+
+    private final String bpid;
+    private final File cursorFile;
+    private final File finalizedDir;
+
+    /** The start time of the current or last walk, 0 if none */
+    private long iterationStart = 0;
+    /** The bytes verified by the last complete walk */
+    private long lastIterationBytes = 0;
+    /** The relative path of the last verified block file, or null */
+    private String cursor = null;
+    /** Whether the current walk is complete */
+    private boolean done = true;
+    private BlockFileIterator iterator = null;
+    private long lastSaved = 0;
+
+    /** Verified by the current walk since the datanode started */
+    private long verifiedBlocks = 0;
+    private long verifiedBytes = 0;
+
+    BlockPoolCursor(String bpid, File bpDir, File finalizedDir) {
+      this.bpid = bpid;
+      this.cursorFile = new File(bpDir, CURSOR_FILE);
+      this.finalizedDir = finalizedDir;
+    }
+
+    /** Load the cursor saved by a previous run of the datanode, if any. */
+    void load() {
+      if (!cursorFile.exists()) {
+        return;
+      }
+      final Properties props = new Properties();
+      InputStream in = null;
+      try {
+        in = new FileInputStream(cursorFile);
+        props.load(in);
+        iterationStart = Long.parseLong(props.getProperty(ITERATION_START));
+        lastIterationBytes = Long.parseLong(
+            props.getProperty(LAST_ITERATION_BYTES));
+        cursor = props.getProperty(CURSOR);
+        // only an unfinished walk has a cursor
+        done = cursor == null;
+      } catch (Exception e) {
+        LOG.warn("Failed to load " + cursorFile + ", starting a new walk", e);
+        iterationStart = 0;
+        cursor = null;
+        done = true;
+      } finally {
+        IOUtils.closeStream(in);
+      }
+    }
+
+    /** Atomically save the cursor. */
+    void save() {
+      final Properties props = new Properties();
+      props.setProperty(ITERATION_START, Long.toString(iterationStart));
+      props.setProperty(LAST_ITERATION_BYTES,
+          Long.toString(lastIterationBytes));
+      if (!done && cursor != null) {
+        props.setProperty(CURSOR, cursor);
+      }
+      AtomicFileOutputStream out = null;
+      try {
+        out = new AtomicFileOutputStream(cursorFile);
+        props.store(out, "block scanner cursor of " + bpid);
+        out.close();
+        out = null;
+        lastSaved = Time.monotonicNow();
+      } catch (IOException e) {
+        LOG.warn("Failed to save " + cursorFile, e);
+      } finally {
+        if (out != null) {
+          out.abort();
+        }
+      }
+    }
+
+    /** @return whether a walk is in progress or due at the given time. */
+    boolean hasWork(long now, long scanPeriod) {
+      return !done || now - iterationStart >= scanPeriod;
+    }
+
+    /** @return the next block file to verify, or null if none is due. */
+    File nextBlockFile(long now, long scanPeriod) {
+      if (done) {
+        if (now - iterationStart < scanPeriod) {
+          return null;
+        }
+        LOG.info("Starting a new walk of " + finalizedDir + ", "
+            + lastIterationBytes + " bytes verified by the previous walk");
+        iterationStart = now;
+        cursor = null;
+        done = false;
+        verifiedBlocks = 0;
+        verifiedBytes = 0;
+      }
+      if (iterator == null) {
+        iterator = new BlockFileIterator(finalizedDir, cursor);
+      }
+      final File f = iterator.next();
+      if (f == null) {
+        done = true;
+        iterator = null;
+        cursor = null;
+        lastIterationBytes = verifiedBytes;
+        save();
+      }
+      return f;
+    }
+
+    /** Advance the cursor past the last block file. */
+    void advance(long numBytes) {
+      cursor = iterator.getLastPath();
+      verifiedBlocks++;
+      verifiedBytes += numBytes;
+      if (Time.monotonicNow() - lastSaved >= CURSOR_SAVE_INTERVAL_MS) {
+        save();
+      }
+    }
+
+    /** @return the bytes estimated to be left to verify in this walk. */
+    long getBytesLeft() {
+      return done ? 0 : Math.max(lastIterationBytes - verifiedBytes, 0);
+    }
+
+    long getIterationStart() {
+      return iterationStart;
+    }
+
+    long getVerifiedBlocks() {
+      return verifiedBlocks;
+    }
+
+    long getVerifiedBytes() {
+      return verifiedBytes;
+    }
+
+    boolean isDone() {
+      return done;
+    }
+
+    String getCursor() {
+      return cursor;
+    }
+
+    File getCursorFile() {
+      return cursorFile;
+    }
+  }
+
+  VolumeScanner(DataNode datanode,
+      FsDatasetSpi<? extends FsVolumeSpi> dataset, FsVolumeSpi volume,
+      Configuration conf, ReadLoadMonitor readLoadMonitor) {
+    this.datanode = datanode;
+    this.dataset = dataset;
+    this.volume = volume;
+    this.readLoadMonitor = readLoadMonitor;
+
+    long hours = conf.getInt(DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY,
+        DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT);
+    if (hours <= 0) {
+      hours = DEFAULT_SCAN_PERIOD_HOURS;
+    }
+    this.scanPeriod = hours * 3600 * 1000;
+  }
+
+  FsVolumeSpi getVolume() {
+    return volume;
+  }
+
+  /** Start scanning the given block pool, from its saved cursor if any. */
+  synchronized void addBlockPool(String bpid) {
+    if (cursors.containsKey(bpid)) {
+      return;
+    }
+    final BlockPoolCursor c;
+    try {
+      c = new BlockPoolCursor(bpid, new File(volume.getPath(bpid)),
+          volume.getFinalizedDir(bpid));
+    } catch (IOException e) {
+      LOG.warn("Block pool " + bpid + " is not on " + volume.getBasePath(), e);
+      return;
+    }
+    c.load();
+    cursors.put(bpid, c);
+    LOG.info("Added bpid=" + bpid + " to the scanner of "
+        + volume.getBasePath() + ", resuming after " + c.getCursor());
+  }
+
+  synchronized void removeBlockPool(String bpid) {
+    final BlockPoolCursor c = cursors.remove(bpid);
+    if (c != null) {
+      c.save();
+    }
+  }
+
+  synchronized boolean hasBlockPool(String bpid) {
+    return cursors.containsKey(bpid);
+  }
+
+  @VisibleForTesting
+  synchronized BlockPoolCursor getCursor(String bpid) {
+    return cursors.get(bpid);
+  }
+
+  @VisibleForTesting
+  synchronized long getTotalScans() {
+    return totalScans;
+  }
+
+  /** @return the cursor with work due and the earliest walk start. */
+  private synchronized BlockPoolCursor getNextCursor() {
+    final long now = Time.now();
+    BlockPoolCursor next = null;
+    for (BlockPoolCursor c : cursors.values()) {
+      if (c.hasWork(now, scanPeriod) && datanode.isBPServiceAlive(c.bpid)
+          && (next == null || c.getIterationStart() < next.getIterationStart())) {
+        next = c;
+      }
+    }
+    return next;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (datanode.shouldRun && !Thread.currentThread().isInterrupted()) {
+        if (!dataset.getVolumes().contains(volume)) {
+          LOG.info(volume.getBasePath() + " was removed, stop scanning it");
+          break;
+        }
+        if (!scanNextBlock()) {
+          try {
+            Thread.sleep(DataBlockScanner.SLEEP_PERIOD_MS);
+          } catch (InterruptedException e) {
+            break;
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      LOG.warn("RuntimeException in the scanner of " + volume.getBasePath(),
+          e);
+      throw e;
+    } finally {
+      synchronized (this) {
+        for (BlockPoolCursor c : cursors.values()) {
+          c.save();
+        }
+      }
+    }
+  }
+
+  /** @return false if no block was due for verification. */
+  private boolean scanNextBlock() {
+    final BlockPoolCursor c = getNextCursor();
+    if (c == null) {
+      return false;
+    }
+    final File blockFile;
+    synchronized (this) {
+      blockFile = c.nextBlockFile(Time.now(), scanPeriod);
+    }
+    if (blockFile == null) {
+      // the walk just completed
+      return true;
+    }
+    long numBytes = 0;
+    try {
+      final Block b = dataset.getStoredBlock(c.bpid,
+          Block.filename2id(blockFile.getName()));
+      final ExtendedBlock block = b == null ? null
+          : new ExtendedBlock(c.bpid, b);
+      // skip the blocks deleted or moved to other volumes since
+      if (block != null && dataset.getVolume(block) == volume) {
+        currentCursor = c;
+        verifyBlock(block);
+        numBytes = block.getNumBytes();
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to look up " + blockFile, e);
+    }
+    if (Thread.currentThread().isInterrupted()) {
+      // verify the block again after a restart
+      return true;
+    }
+    synchronized (this) {
+      c.advance(numBytes);
+    }
+    return true;
+  }
+
+  private synchronized void adjustThrottler() {
+    final BlockPoolCursor c = currentCursor;
+    long needed = MIN_SCAN_RATE;
+    if (c != null) {
+      final long timeLeft = Math.max(
+          c.getIterationStart() + scanPeriod - Time.now(), 1);
+      needed = c.getBytesLeft() * 1000 / timeLeft;
+    }
+    needed = Math.min(Math.max(needed, MIN_SCAN_RATE), MAX_SCAN_RATE);
+    long rate = needed;
+    if (readLoadMonitor != null) {
+      rate = scanRate == 0 ? needed : scanRate;
+      if (readLoadMonitor.isBusy(volume)) {
+        rate = Math.max(rate / 2, MIN_SCAN_RATE);
+      } else {
+        rate = Math.min(Math.max(rate + MIN_SCAN_RATE, needed),
+            MAX_SCAN_RATE);
+      }
+    }
+    if (rate != scanRate) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Scan rate of " + volume.getBasePath() + " set to "
+            + rate + " bytes/s");
+      }
+      scanRate = rate;
+    }
+    throttler.setBandwidth(rate);
+  }
+
+  @VisibleForTesting
+  void verifyBlock(ExtendedBlock block) {
+    BlockSender blockSender = null;
+
+    // In case of failure, attempt to read a second time to reduce transient
+    // errors.
+    for (int i = 0; i < 2; i++) {
+      boolean second = (i > 0);
+
+      try {
+        adjustThrottler();
+
+        blockSender = new BlockSender(block, 0, -1, false, true, true,
+            datanode, null, CachingStrategy.newDropBehind());
+
+        DataOutputStream out =
+            new DataOutputStream(new IOUtils.NullOutputStream());
+
+        blockSender.sendBlock(out, null, throttler);
+
+        LOG.info((second ? "Second " : "") +
+                 "Verification succeeded for " + block);
+
+        if (second) {
+          synchronized (this) {
+            totalTransientErrors++;
+          }
+        }
+        return;
+      } catch (IOException e) {
+        // If the block does not exists anymore, then its not an error
+        if (!dataset.contains(block)) {
+          LOG.info(block + " is no longer in the dataset");
+          return;
+        }
+
+        // The block may be moved by a concurrent write, see
+        // BlockPoolSliceScanner#verifyBlock
+        if (e instanceof FileNotFoundException) {
+          LOG.info("Verification failed for " + block +
+              " - may be due to race with write");
+          return;
+        }
+
+        LOG.warn((second ? "Second " : "First ") + "Verification failed for "
+            + block, e);
+
+        if (second) {
+          synchronized (this) {
+            totalScanErrors++;
+          }
+          datanode.getMetrics().incrBlockVerificationFailures();
+          handleScanFailure(block);
+          return;
+        }
+      } finally {
+        IOUtils.closeStream(blockSender);
+        datanode.getMetrics().incrBlocksVerified();
+        synchronized (this) {
+          totalScans++;
+        }
+      }
+    }
+  }
+
+  private void handleScanFailure(ExtendedBlock block) {
+    LOG.info("Reporting bad " + block);
+    try {
+      datanode.reportBadBlocks(block);
+    } catch (IOException ie) {
+      // it is bad, but not bad enough to shutdown the scanner
+      LOG.warn("Cannot report bad " + block.getBlockId());
+    }
+  }
+
+  synchronized void printBlockReport(StringBuilder buffer) {
+    final DateFormat dateFormat = new SimpleDateFormat(DATA_FORMAT);
+    final long now = Time.now();
+    buffer.append(String.format("%nVolume %s :", volume.getBasePath()));
+    for (BlockPoolCursor c : cursors.values()) {
+      final long total = c.isDone() ? c.getVerifiedBytes()
+          : Math.max(c.lastIterationBytes, c.getVerifiedBytes());
+      buffer.append(String.format("%n  Block pool %s : walk started %s,"
+          + " %s, verified %d blocks, %.2f%% of bytes, cursor %s",
+          c.bpid,
+          c.getIterationStart() == 0 ? "never"
+              : dateFormat.format(new Date(c.getIterationStart())),
+          c.isDone() ? "complete" : String.format("%.2f%% of SCAN_PERIOD"
+              + " elapsed", (now - c.getIterationStart()) * 100.0 / scanPeriod),
+          c.getVerifiedBlocks(),
+          total == 0 ? 100.0 : c.getVerifiedBytes() * 100.0 / total,
+          c.getCursor()));
+    }
+    buffer.append(String.format("%n  Scans since restart          : %6d" +
+                                "%n  Scan errors since restart    : %6d" +
+                                "%n  Transient scan errors        : %6d" +
+                                "%n  Current scan rate limit KBps : %6d%n",
+                                totalScans, totalScanErrors,
+                                totalTransientErrors,
+                                Math.round(throttler.getBandwidth() / 1024.0)));
+  }
+
+  void start() {
+    scannerThread = new Thread(this, "VolumeScanner(" + volume.getBasePath()
+        + ")");
+    scannerThread.setDaemon(true);
+    scannerThread.start();
+  }
+
+  /** Stop scanning, and save the cursors. */
+  void shutdown() {
+    final Thread t = scannerThread;
+    if (t != null) {
+      t.interrupt();
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        // shutting down anyway
+      }
+    }
+  }
+}
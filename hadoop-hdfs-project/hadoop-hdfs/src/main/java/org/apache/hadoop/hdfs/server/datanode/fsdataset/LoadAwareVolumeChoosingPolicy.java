@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_MIN_LATENCY_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_MIN_LATENCY_MS_KEY;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.DiskChecker.DiskOutOfSpaceException;
+
+/**
+ * A DN volume choosing policy which takes into account the recent
+ * {@link VolumeIoStats} of each of the volumes with enough space for a new
+ * replica.  Volumes whose write latency is far above the median of the
+ * volumes are considered slow and skipped, and the remaining volumes are
+ * chosen at random with a weight inversely proportional to their write
+ * latency and their number of outstanding reads and writes.  Volumes
+ * without any recent writes are treated as idle, so that they are tried.
+ */
+public class LoadAwareVolumeChoosingPolicy<V extends FsVolumeSpi>
+    implements VolumeChoosingPolicy<V>, Configurable {
+
+  private static final Log LOG =
+      LogFactory.getLog(LoadAwareVolumeChoosingPolicy.class);
+
+  private static final Random RAND = new Random();
+
+  private float slowVolumeFactor =
+      DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_DEFAULT;
+  private long slowVolumeMinLatencyNanos =
+      DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_MIN_LATENCY_MS_DEFAULT
+      * 1000000L;
+
+  @Override
+  public synchronized void setConf(Configuration conf) {
+    slowVolumeFactor = conf.getFloat(
+        DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_KEY,
+        DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_DEFAULT);
+    slowVolumeMinLatencyNanos = conf.getLong(
+        DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_MIN_LATENCY_MS_KEY,
+        DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_MIN_LATENCY_MS_DEFAULT)
+        * 1000000L;
+
+    LOG.info("Load aware volume choosing policy initialized: " +
+        DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_KEY +
+        " = " + slowVolumeFactor + ", " +
+        DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_MIN_LATENCY_MS_KEY +
+        " = " + slowVolumeMinLatencyNanos / 1000000L);
+
+    if (slowVolumeFactor < 1.0) {
+      LOG.warn("The value of " +
+          DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_KEY +
+          " is less than 1.0 so most volumes will be considered slow");
+    }
+  }
+
+  @Override
+  public synchronized Configuration getConf() {
+    // Nothing to do. Only added to fulfill the Configurable contract.
+    return null;
+  }
+
+  @Override
+  public synchronized V chooseVolume(List<V> volumes,
+      final long replicaSize) throws IOException {
+    if (volumes.size() < 1) {
+      throw new DiskOutOfSpaceException("No more available volumes");
+    }
+
+    final List<V> candidates = new ArrayList<V>(volumes.size());
+    long maxAvailable = 0;
+    for (V volume : volumes) {
+      final long available = volume.getAvailable();
+      if (available > replicaSize) {
+        candidates.add(volume);
+      }
+      maxAvailable = Math.max(maxAvailable, available);
+    }
+    if (candidates.isEmpty()) {
+      throw new DiskOutOfSpaceException("Out of space: "
+          + "The volume with the most available space (=" + maxAvailable
+          + " B) is less than the block size (=" + replicaSize + " B).");
+    }
+
+    final int n = candidates.size();
+    final long[] latencies = new long[n];
+    final int[] outstanding = new int[n];
+    for (int i = 0; i < n; i++) {
+      final VolumeIoStats stats = candidates.get(i).getIoStats();
+      if (stats != null) {
+        latencies[i] = stats.getWriteLatencyNanos();
+        outstanding[i] = stats.getOutstandingIo();
+      }
+    }
+    final long slowLatency = Math.max(slowVolumeMinLatencyNanos,
+        (long)(slowVolumeFactor * median(latencies)));
+
+    final double[] weights = new double[n];
+    double totalWeight = 0;
+    for (int i = 0; i < n; i++) {
+      if (latencies[i] > slowLatency) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Skipping slow volume " + candidates.get(i)
+              + " with a write latency of " + latencies[i] / 1000000L
+              + " ms for write of block size " + replicaSize);
+        }
+        continue;
+      }
+      weights[i] = 1.0 / ((1.0 + latencies[i] / 1000000.0)
+          * (1 + outstanding[i]));
+      totalWeight += weights[i];
+    }
+    if (totalWeight == 0) {
+      // every volume is slow; do not refuse the write
+      return candidates.get(RAND.nextInt(n));
+    }
+
+    double r = RAND.nextDouble() * totalWeight;
+    for (int i = 0; i < n; i++) {
+      if (weights[i] > 0 && (r -= weights[i]) < 0) {
+        return candidates.get(i);
+      }
+    }
+    // rounding; choose the last volume which is not slow
+    for (int i = n - 1; ; i--) {
+      if (weights[i] > 0) {
+        return candidates.get(i);
+      }
+    }
+  }
+
+  /** @return the lower median of the latencies of the volumes with I/O */
+  private static long median(long[] latencies) {
+    final long[] sorted = new long[latencies.length];
+    int n = 0;
+    for (long latency : latencies) {
+      if (latency > 0) {
+        sorted[n++] = latency;
+      }
+    }
+    if (n == 0) {
+      return 0;
+    }
+    Arrays.sort(sorted, 0, n);
+    return sorted[(n - 1) / 2];
+  }
+}
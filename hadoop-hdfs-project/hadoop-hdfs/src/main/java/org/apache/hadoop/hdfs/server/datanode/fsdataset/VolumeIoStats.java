@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.util.Time;
+
+/**
+ * The recent I/O statistics of the client reads and writes of a volume.
+ *
+ * The latencies and the utilization are measured over the current and the
+ * previous period of {@link #PERIOD_MS}.  A latency is the average time it
+ * took to read or write a packet of data, and the read utilization is the
+ * time spent reading from the volume divided by the wall clock time, which
+ * exceeds 1 with concurrent readers.  The number of outstanding I/Os is the
+ * number of packets being read or written at this moment.
+ *
+ * Only the time spent on the volume is counted, not the time spent sending
+ * to or receiving from the network.  A packet sent with transferTo counts
+ * the read of its checksums and the time in FileChannel#transferTo, which
+ * reads its data, but not the time waiting for the socket to be writable.
+ */
+@InterfaceAudience.Private
+public class VolumeIoStats {
+  public static final long PERIOD_MS = 5000;
+
+  private final Window reads = new Window();
+  private final Window writes = new Window();
+  private final AtomicInteger outstanding = new AtomicInteger();
+
+  private static class Window {
+    private long periodStart = Time.monotonicNow();
+    private long count;
+    private long nanos;
+    private long prevCount;
+    private long prevNanos;
+
+    private void roll(long now) {
+      if (now - periodStart >= 2 * PERIOD_MS) {
+        // idle for more than a period
+        prevCount = prevNanos = count = nanos = 0;
+        periodStart = now;
+      } else if (now - periodStart >= PERIOD_MS) {
+        prevCount = count;
+        prevNanos = nanos;
+        count = nanos = 0;
+        periodStart += PERIOD_MS;
+      }
+    }
+
+    synchronized void add(long n, long now) {
+      roll(now);
+      count++;
+      nanos += n;
+    }
+
+    synchronized long getLatencyNanos(long now) {
+      roll(now);
+      final long c = count + prevCount;
+      return c == 0 ? 0 : (nanos + prevNanos) / c;
+    }
+
+    synchronized float getUtilization(long now) {
+      roll(now);
+      final long windowMs = now - periodStart + PERIOD_MS;
+      return (nanos + prevNanos) / (windowMs * 1000000f);
+    }
+  }
+
+  /**
+   * Mark the start of a read or a write of the volume.
+   * @return the start time, to be passed to {@link #endRead(long)} or
+   *         {@link #endWrite(long)}.
+   */
+  public long begin() {
+    outstanding.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  /** Mark the end of a read started at the given time. */
+  public void endRead(long startNanos) {
+    outstanding.decrementAndGet();
+    addRead(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Mark the end of a read started with {@link #begin()} whose data was sent
+   * with transferTo, which spent the given time reading from the volume.
+   */
+  public void endTransfer(long readNanos) {
+    outstanding.decrementAndGet();
+    addRead(readNanos);
+  }
+
+  /** Mark the end of a write started at the given time. */
+  public void endWrite(long startNanos) {
+    outstanding.decrementAndGet();
+    addWrite(System.nanoTime() - startNanos);
+  }
+
+  /** Record a read of a packet which took the given time. */
+  public void addRead(long nanos) {
+    reads.add(nanos, Time.monotonicNow());
+  }
+
+  /** Record a write of a packet which took the given time. */
+  public void addWrite(long nanos) {
+    writes.add(nanos, Time.monotonicNow());
+  }
+
+  /** @return the recent average packet read latency. */
+  public long getReadLatencyNanos() {
+    return reads.getLatencyNanos(Time.monotonicNow());
+  }
+
+  /** @return the recent average packet write latency. */
+  public long getWriteLatencyNanos() {
+    return writes.getLatencyNanos(Time.monotonicNow());
+  }
+
+  /** @return the recent utilization of the volume by reads. */
+  public float getReadUtilization() {
+    return reads.getUtilization(Time.monotonicNow());
+  }
+
+  /** @return the number of reads and writes in progress. */
+  public int getOutstandingIo() {
+    return outstanding.get();
+  }
+}
@@ -327,6 +327,9 @@ synchronized void uncacheBlock(String bpid, long blockId) {
       }
       mappableBlockMap.put(key,
           new Value(prevValue.mappableBlock, State.UNCACHING));
+      // Clients must stop skipping checksums before the block is unmapped.
+      dataset.datanode.getShortCircuitRegistry().
+          processBlockMunlockEvent(bpid, blockId);
       uncachingExecutor.execute(new UncachingTask(key));
       break;
     default:
@@ -414,6 +417,8 @@ public void run() {
             return;
           }
           mappableBlockMap.put(key, new Value(mappableBlock, State.CACHED));
+          dataset.datanode.getShortCircuitRegistry().
+              processBlockMlockEvent(key.bpid, key.id);
         }
         if (LOG.isDebugEnabled()) {
           LOG.debug("Successfully cached block " + key.id + " in " + key.bpid +
@@ -77,6 +77,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RollingLogs;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RoundRobinVolumeChoosingPolicy;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
@@ -134,13 +135,13 @@ public StorageReport[] getStorageReports(String bpid)
   }
 
   @Override
-  public synchronized FsVolumeImpl getVolume(final ExtendedBlock b) {
+  public FsVolumeImpl getVolume(final ExtendedBlock b) {
     final ReplicaInfo r =  volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
     return r != null? (FsVolumeImpl)r.getVolume(): null;
   }
 
   @Override // FsDatasetSpi
-  public synchronized Block getStoredBlock(String bpid, long blkid)
+  public Block getStoredBlock(String bpid, long blkid)
       throws IOException {
     File blockfile = getFile(bpid, blkid);
     if (blockfile == null) {
@@ -392,10 +393,7 @@ File getBlockFile(String bpid, Block b) throws IOException {
    */
   private File getBlockFileNoExistsCheck(ExtendedBlock b)
       throws IOException {
-    final File f;
-    synchronized(this) {
-      f = getFile(b.getBlockPoolId(), b.getLocalBlock().getBlockId());
-    }
+    final File f = getFile(b.getBlockPoolId(), b.getLocalBlock().getBlockId());
     if (f == null) {
       throw new IOException("Block " + b + " is not valid");
     }
@@ -602,6 +600,9 @@ public synchronized ReplicaInPipeline append(ExtendedBlock b,
   private synchronized ReplicaBeingWritten append(String bpid,
       FinalizedReplica replicaInfo, long newGS, long estimateBlockLen)
       throws IOException {
+    // The short-circuit clients must not read the replica while it changes.
+    datanode.getShortCircuitRegistry().processBlockInvalidation(bpid,
+        replicaInfo.getBlockId());
     // If the block is cached, start uncaching it.
     cacheManager.uncacheBlock(bpid, replicaInfo.getBlockId());
     // unlink the finalized replica
@@ -768,8 +769,22 @@ private void bumpReplicaGS(ReplicaInfo replicaInfo,
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline createRbw(ExtendedBlock b)
+  public ReplicaInPipeline createRbw(ExtendedBlock b)
       throws IOException {
+    checkReplicaNotExists(b);
+    // create a new block
+    FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
+    // create a rbw file to hold block in the designated volume, without
+    // holding the dataset lock while waiting on the disk
+    File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
+    ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(), 
+        b.getGenerationStamp(), v, f.getParentFile());
+    addNewReplica(b, newReplicaInfo);
+    return newReplicaInfo;
+  }
+
+  private void checkReplicaNotExists(ExtendedBlock b)
+      throws ReplicaAlreadyExistsException {
     ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
         b.getBlockId());
     if (replicaInfo != null) {
@@ -777,14 +792,25 @@ public synchronized ReplicaInPipeline createRbw(ExtendedBlock b)
       " already exists in state " + replicaInfo.getState() +
       " and thus cannot be created.");
     }
-    // create a new block
-    FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
-    // create a rbw file to hold block in the designated volume
-    File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
-    ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(), 
-        b.getGenerationStamp(), v, f.getParentFile());
+  }
+
+  /**
+   * Add a replica whose file was created outside the dataset lock.  If
+   * another writer added a replica of the same block in the meantime, the
+   * newly created file is deleted and the new replica is rejected.
+   */
+  private synchronized void addNewReplica(ExtendedBlock b,
+      ReplicaInfo newReplicaInfo) throws ReplicaAlreadyExistsException {
+    try {
+      checkReplicaNotExists(b);
+    } catch (ReplicaAlreadyExistsException e) {
+      final File f = newReplicaInfo.getBlockFile();
+      if (!f.delete()) {
+        LOG.warn("Not able to delete the block file: " + f);
+      }
+      throw e;
+    }
     volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
-    return newReplicaInfo;
   }
   
   @Override // FsDatasetSpi
@@ -906,21 +932,16 @@ public synchronized ReplicaInPipeline convertTemporaryToRbw(
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline createTemporary(ExtendedBlock b)
+  public ReplicaInPipeline createTemporary(ExtendedBlock b)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-          " already exists in state " + replicaInfo.getState() +
-          " and thus cannot be created.");
-    }
+    checkReplicaNotExists(b);
     
     FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
     // create a temporary file to hold block in the designated volume
     File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
     ReplicaInPipeline newReplicaInfo = new ReplicaInPipeline(b.getBlockId(), 
         b.getGenerationStamp(), v, f.getParentFile());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+    addNewReplica(b, newReplicaInfo);
     
     return newReplicaInfo;
   }
@@ -1056,25 +1077,26 @@ public Map<DatanodeStorage, BlockListAsLongs> getBlockReports(String bpid) {
       uc.put(v.getStorageID(), new ArrayList<ReplicaInfo>());
     }
 
-    synchronized(this) {
-      for (ReplicaInfo b : volumeMap.replicas(bpid)) {
-        switch(b.getState()) {
-          case FINALIZED:
-            finalized.get(b.getVolume().getStorageID()).add(b);
-            break;
-          case RBW:
-          case RWR:
-            uc.get(b.getVolume().getStorageID()).add(b);
-            break;
-          case RUR:
-            ReplicaUnderRecovery rur = (ReplicaUnderRecovery)b;
-            uc.get(rur.getVolume().getStorageID()).add(rur.getOriginalReplica());
-            break;
-          case TEMPORARY:
-            break;
-          default:
-            assert false : "Illegal ReplicaInfo state.";
-        }
+    // The replica map may be iterated without the dataset lock, so that
+    // a large block report does not hold up writers.  Replicas which change
+    // state while the report is being built are reported in either state.
+    for (ReplicaInfo b : volumeMap.replicas(bpid)) {
+      switch(b.getState()) {
+        case FINALIZED:
+          finalized.get(b.getVolume().getStorageID()).add(b);
+          break;
+        case RBW:
+        case RWR:
+          uc.get(b.getVolume().getStorageID()).add(b);
+          break;
+        case RUR:
+          ReplicaUnderRecovery rur = (ReplicaUnderRecovery)b;
+          uc.get(rur.getVolume().getStorageID()).add(rur.getOriginalReplica());
+          break;
+        case TEMPORARY:
+          break;
+        default:
+          assert false : "Illegal ReplicaInfo state.";
       }
     }
 
@@ -1134,10 +1156,7 @@ private boolean isValid(final ExtendedBlock b, final ReplicaState state) {
    */
   File validateBlockFile(String bpid, Block b) {
     //Should we check for metadata file too?
-    final File f;
-    synchronized(this) {
-      f = getFile(bpid, b.getBlockId());
-    }
+    final File f = getFile(bpid, b.getBlockId());
     
     if(f != null ) {
       if(f.exists())
@@ -1230,6 +1249,9 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
         }
         volumeMap.remove(bpid, invalidBlks[i]);
       }
+      // Tell the short-circuit clients that the replica is gone.
+      datanode.getShortCircuitRegistry().processBlockInvalidation(bpid,
+          invalidBlks[i].getBlockId());
       // If the block is cached, start uncaching it.
       cacheManager.uncacheBlock(bpid, invalidBlks[i].getBlockId());
       // Delete the block asynchronously to make sure we can do it fast enough.
@@ -1310,7 +1332,7 @@ public void uncache(String bpid, long[] blockIds) {
   }
 
   @Override // FsDatasetSpi
-  public synchronized boolean contains(final ExtendedBlock block) {
+  public boolean contains(final ExtendedBlock block) {
     final long blockId = block.getLocalBlock().getBlockId();
     return getFile(block.getBlockPoolId(), blockId) != null;
   }
@@ -1591,7 +1613,7 @@ public ReplicaInfo getReplica(String bpid, long blockId) {
   }
 
   @Override 
-  public synchronized String getReplicaString(String bpid, long blockId) {
+  public String getReplicaString(String bpid, long blockId) {
     final Replica r = volumeMap.get(bpid, blockId);
     return r == null? "null": r.toString();
   }
@@ -1752,7 +1774,7 @@ private FinalizedReplica updateReplicaUnderRecovery(
   }
 
   @Override // FsDatasetSpi
-  public synchronized long getReplicaVisibleLength(final ExtendedBlock block)
+  public long getReplicaVisibleLength(final ExtendedBlock block)
   throws IOException {
     final Replica replica = getReplicaInfo(block.getBlockPoolId(), 
         block.getBlockId());
@@ -1788,12 +1810,19 @@ private static class VolumeInfo {
     final long usedSpace;
     final long freeSpace;
     final long reservedSpace;
+    final long readLatencyMicros;
+    final long writeLatencyMicros;
+    final int outstandingIo;
 
     VolumeInfo(FsVolumeImpl v, long usedSpace, long freeSpace) {
       this.directory = v.toString();
       this.usedSpace = usedSpace;
       this.freeSpace = freeSpace;
       this.reservedSpace = v.getReserved();
+      final VolumeIoStats ioStats = v.getIoStats();
+      this.readLatencyMicros = ioStats.getReadLatencyNanos() / 1000;
+      this.writeLatencyMicros = ioStats.getWriteLatencyNanos() / 1000;
+      this.outstandingIo = ioStats.getOutstandingIo();
     }
   }  
 
@@ -1825,6 +1854,9 @@ public Map<String, Object> getVolumeInfoMap() {
       innerInfo.put("usedSpace", v.usedSpace);
       innerInfo.put("freeSpace", v.freeSpace);
       innerInfo.put("reservedSpace", v.reservedSpace);
+      innerInfo.put("readLatencyMicros", v.readLatencyMicros);
+      innerInfo.put("writeLatencyMicros", v.writeLatencyMicros);
+      innerInfo.put("outstandingIo", v.outstandingIo);
       info.put(v.directory, innerInfo);
     }
     return info;
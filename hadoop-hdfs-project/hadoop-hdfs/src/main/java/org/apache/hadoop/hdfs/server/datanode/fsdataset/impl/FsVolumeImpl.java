@@ -38,6 +38,7 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
 
@@ -65,6 +66,7 @@ class FsVolumeImpl implements FsVolumeSpi {
    * contention.
    */
   private final ThreadPoolExecutor cacheExecutor;
+  private final VolumeIoStats ioStats = new VolumeIoStats();
   
   FsVolumeImpl(FsDatasetImpl dataset, String storageID, File currentDir,
       Configuration conf, StorageType storageType) throws IOException {
@@ -333,6 +335,11 @@ public String getStorageID() {
   public StorageType getStorageType() {
     return storageType;
   }
+
+  @Override
+  public VolumeIoStats getIoStats() {
+    return ioStats;
+  }
   
   DatanodeStorage toDatanodeStorage() {
     return new DatanodeStorage(storageID, DatanodeStorage.State.NORMAL, storageType);
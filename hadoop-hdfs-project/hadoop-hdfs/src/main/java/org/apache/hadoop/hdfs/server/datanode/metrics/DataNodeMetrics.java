@@ -76,6 +76,9 @@ public class DataNodeMetrics {
   @Metric MutableRate replaceBlockOp;
   @Metric MutableRate heartbeats;
   @Metric MutableRate blockReports;
+  @Metric MutableRate incrementalBlockReports;
+  @Metric("Blocks per incremental block report")
+  MutableRate incrementalBlockReportBlocks;
   @Metric MutableRate cacheReports;
   @Metric MutableRate packetAckRoundTripTimeNanos;
   MutableQuantiles[] packetAckRoundTripTimeNanosQuantiles;
@@ -154,6 +157,11 @@ public void addBlockReport(long latency) {
     blockReports.add(latency);
   }
 
+  public void addIncrementalBlockReport(long latency, int numBlocks) {
+    incrementalBlockReports.add(latency);
+    incrementalBlockReportBlocks.add(numBlocks);
+  }
+
   public void addCacheReport(long latency) {
     cacheReports.add(latency);
   }
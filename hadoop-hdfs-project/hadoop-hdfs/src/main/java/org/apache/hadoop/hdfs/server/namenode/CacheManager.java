@@ -25,6 +25,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LIST_CACHE_POOLS_NUM_RESPONSES_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_RESCAN_MAX_LOCK_HOLD_MS;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_RESCAN_MAX_LOCK_HOLD_MS_DEFAULT;
 
 import java.io.DataInput;
 import java.io.DataOutputStream;
@@ -150,6 +152,11 @@ public final class CacheManager {
    */
   private final long scanIntervalMs;
 
+  /**
+   * Maximum time in milliseconds a scan holds the namesystem lock at a time.
+   */
+  private final long scanMaxLockHoldMs;
+
   /**
    * All cached blocks.
    */
@@ -179,6 +186,9 @@ public final class CacheManager {
     scanIntervalMs = conf.getLong(
         DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS,
         DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS_DEFAULT);
+    scanMaxLockHoldMs = conf.getLong(
+        DFS_NAMENODE_PATH_BASED_CACHE_RESCAN_MAX_LOCK_HOLD_MS,
+        DFS_NAMENODE_PATH_BASED_CACHE_RESCAN_MAX_LOCK_HOLD_MS_DEFAULT);
     float cachedBlocksPercent = conf.getFloat(
           DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT,
           DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT_DEFAULT);
@@ -198,7 +208,7 @@ public void startMonitorThread() {
     try {
       if (this.monitor == null) {
         this.monitor = new CacheReplicationMonitor(namesystem, this,
-            scanIntervalMs, crmLock);
+            scanIntervalMs, scanMaxLockHoldMs, crmLock);
         this.monitor.start();
       }
     } finally {
@@ -462,7 +472,7 @@ private void addInternal(CacheDirective directive, CachePool pool) {
     directive.addBytesNeeded(stats.getBytesNeeded());
     directive.addFilesNeeded(directive.getFilesNeeded());
 
-    setNeedsRescan();
+    directiveAdded(directive);
   }
 
   /**
@@ -1050,6 +1060,17 @@ public void waitForRescanIfNeeded() {
     }
   }
 
+  private void directiveAdded(CacheDirective directive) {
+    crmLock.lock();
+    try {
+      if (monitor != null) {
+        monitor.addDirective(directive);
+      }
+    } finally {
+      crmLock.unlock();
+    }
+  }
+
   private void setNeedsRescan() {
     crmLock.lock();
     try {
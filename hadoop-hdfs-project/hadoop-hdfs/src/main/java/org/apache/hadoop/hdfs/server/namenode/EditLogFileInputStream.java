@@ -58,6 +58,7 @@ public class EditLogFileInputStream extends EditLogInputStream {
   private final long lastTxId;
   private final boolean isInProgress;
   private int maxOpSize;
+  private boolean opCacheDisabled = false;
   static private enum State {
     UNINIT,
     OPEN,
@@ -148,6 +149,9 @@ private void init() throws LogHeaderCorruptException, IOException {
       }
       reader = new FSEditLogOp.Reader(dataIn, tracker, logVersion);
       reader.setMaxOpSize(maxOpSize);
+      if (opCacheDisabled) {
+        reader.disableOpCache();
+      }
       state = State.OPEN;
     } finally {
       if (reader == null) {
@@ -441,4 +445,13 @@ public void setMaxOpSize(int maxOpSize) {
       reader.setMaxOpSize(maxOpSize);
     }
   }
+
+  @Override
+  public boolean disableOpCache() {
+    this.opCacheDisabled = true;
+    if (reader != null) {
+      reader.disableOpCache();
+    }
+    return true;
+  }
 }
@@ -183,4 +183,15 @@ public boolean skipUntil(long txid) throws IOException {
    * Set the maximum opcode size in bytes.
    */
   public abstract void setMaxOpSize(int maxOpSize);
+
+  /**
+   * Stop re-using op instances across calls to {@link #readOp()}, so that a
+   * caller may keep ops it has read while reading further ones.  Streams
+   * which cannot do this return false and keep re-using op instances.
+   *
+   * @return true if every op read from now on is a distinct instance
+   */
+  public boolean disableOpCache() {
+    return false;
+  }
 }
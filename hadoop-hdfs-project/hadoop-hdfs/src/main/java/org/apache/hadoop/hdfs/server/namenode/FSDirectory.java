@@ -1276,12 +1276,16 @@ void unprotectedConcat(String target, String [] srcs, long timestamp)
    * @param src Path of a directory to delete
    * @param collectedBlocks Blocks under the deleted directory
    * @param removedINodes INodes that should be removed from {@link #inodeMap}
+   * @param detachedSubtrees if not null, a deleted subtree which is not in a
+   *                      snapshot is added here instead of being walked, and
+   *                      the caller collects its blocks and inodes later
    * @param logRetryCache Whether to record RPC IDs in editlog to support retry
    *                      cache rebuilding.
    * @return true on successful deletion; else false
    */
   boolean delete(String src, BlocksMapUpdateInfo collectedBlocks,
-      List<INode> removedINodes, boolean logRetryCache) throws IOException {
+      List<INode> removedINodes, List<INode> detachedSubtrees,
+      boolean logRetryCache) throws IOException {
     if (NameNode.stateChangeLog.isDebugEnabled()) {
       NameNode.stateChangeLog.debug("DIR* FSDirectory.delete: " + src);
     }
@@ -1303,7 +1307,7 @@ boolean delete(String src, BlocksMapUpdateInfo collectedBlocks,
             new ArrayList<INodeDirectorySnapshottable>();
         checkSnapshot(targetNode, snapshottableDirs);
         filesRemoved = unprotectedDelete(inodesInPath, collectedBlocks,
-            removedINodes, now);
+            removedINodes, detachedSubtrees, now);
         if (snapshottableDirs.size() > 0) {
           // There are some snapshottable directories without snapshots to be
           // deleted. Need to update the SnapshotManager.
@@ -1399,6 +1403,19 @@ void unprotectedDelete(String src, long mtime) throws UnresolvedLinkException,
    */ 
   long unprotectedDelete(INodesInPath iip, BlocksMapUpdateInfo collectedBlocks,
       List<INode> removedINodes, long mtime) throws QuotaExceededException {
+    return unprotectedDelete(iip, collectedBlocks, removedINodes, null, mtime);
+  }
+
+  /**
+   * Like {@link #unprotectedDelete(INodesInPath, BlocksMapUpdateInfo, List,
+   * long)}, but if detachedSubtrees is not null and the deleted inode is not
+   * in the latest snapshot, the unlinked subtree is added to it instead of
+   * being walked to collect its blocks and inodes.
+   */
+  private long unprotectedDelete(INodesInPath iip,
+      BlocksMapUpdateInfo collectedBlocks, List<INode> removedINodes,
+      List<INode> detachedSubtrees, long mtime)
+      throws QuotaExceededException {
     assert hasWriteLock();
 
     // check if target node exists
@@ -1427,7 +1444,12 @@ long unprotectedDelete(INodesInPath iip, BlocksMapUpdateInfo collectedBlocks,
     
     // collect block
     if (!targetNode.isInLatestSnapshot(latestSnapshot)) {
-      targetNode.destroyAndCollectBlocks(collectedBlocks, removedINodes);
+      if (detachedSubtrees != null) {
+        // Nothing refers to the subtree any more; let the caller walk it.
+        detachedSubtrees.add(targetNode);
+      } else {
+        targetNode.destroyAndCollectBlocks(collectedBlocks, removedINodes);
+      }
     } else {
       Quota.Counts counts = targetNode.cleanSubtree(null, latestSnapshot,
           collectedBlocks, removedINodes, true);
@@ -1507,14 +1529,32 @@ DirectoryListing getListing(String src, byte[] startAfter,
       int startChild = INodeDirectory.nextChild(contents, startAfter);
       int totalNumChildren = contents.size();
       int numOfListing = Math.min(totalNumChildren-startChild, this.lsLimit);
+      int locationBudget = this.lsLimit;
+      int listingCnt = 0;
       HdfsFileStatus listing[] = new HdfsFileStatus[numOfListing];
-      for (int i=0; i<numOfListing; i++) {
+      for (int i=0; i<numOfListing && locationBudget>0; i++) {
         INode cur = contents.get(startChild+i);
         listing[i] = createFileStatus(cur.getLocalNameBytes(), cur,
             needLocation, snapshot);
+        listingCnt++;
+        if (needLocation) {
+          // Once we hit lsLimit locations, stop, so that the time spent
+          // under the lock and the response size stay bounded.  The caller
+          // fetches the rest with the next call, starting after the last
+          // returned name.  Approximate the number of locations with
+          // locatedBlockCount() * replication.
+          LocatedBlocks blks =
+              ((HdfsLocatedFileStatus)listing[i]).getBlockLocations();
+          locationBudget -= (blks == null) ? 0 :
+              blks.locatedBlockCount() * listing[i].getReplication();
+        }
+      }
+      // truncate the returned array if the location budget ran out
+      if (listingCnt < numOfListing) {
+        listing = Arrays.copyOf(listing, listingCnt);
       }
       return new DirectoryListing(
-          listing, totalNumChildren-startChild-numOfListing);
+          listing, totalNumChildren-startChild-listingCnt);
     } finally {
       readUnlock();
     }
@@ -2315,6 +2355,7 @@ public final void removeFromInodeMap(List<? extends INode> inodes) {
           inodeMap.remove(inode);
         }
       }
+      getFSNamesystem().getSnapshotManager().removeFromDiffIndexes(inodes);
     }
   }
   
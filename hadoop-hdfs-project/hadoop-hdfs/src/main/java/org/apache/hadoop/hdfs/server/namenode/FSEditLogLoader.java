@@ -96,11 +96,26 @@ public class FSEditLogLoader {
   static long REPLAY_TRANSACTION_LOG_INTERVAL = 1000; // 1sec
   private final FSNamesystem fsNamesys;
   private long lastAppliedTxId;
+  /** Number of ops to decode ahead of the one being applied; 0 if serial. */
+  private int pipelineCapacity = 0;
   
   public FSEditLogLoader(FSNamesystem fsNamesys, long lastAppliedTxId) {
     this.fsNamesys = fsNamesys;
     this.lastAppliedTxId = lastAppliedTxId;
   }
+
+  /**
+   * Decode ops on a separate thread while applying them, allowing up to
+   * the given number of decoded ops to be queued.  This is only done for
+   * streams which support it.
+   *
+   * @param capacity maximum number of queued ops, or 0 to load serially
+   */
+  void setPipelineCapacity(int capacity) {
+    Preconditions.checkArgument(capacity >= 0,
+        "pipeline capacity must not be negative: %s", capacity);
+    this.pipelineCapacity = capacity;
+  }
   
   /**
    * Load an edit log, and apply the changes to the in-memory structure
@@ -118,9 +133,11 @@ long loadFSEdits(EditLogInputStream edits, long expectedStartingTxId,
       FSImage.LOG.info("Start loading edits file " + edits.getName());
       long numEdits = loadEditRecords(edits, false, 
                                  expectedStartingTxId, recovery);
+      long elapsed = now() - startTime;
       FSImage.LOG.info("Edits file " + edits.getName() 
           + " of size " + edits.length() + " edits # " + numEdits 
-          + " loaded in " + (now()-startTime)/1000 + " seconds");
+          + " loaded in " + elapsed/1000 + " seconds"
+          + (elapsed > 0 ? " (" + numEdits*1000/elapsed + " ops/sec)" : ""));
       return numEdits;
     } finally {
       edits.close();
@@ -129,7 +146,7 @@ long loadFSEdits(EditLogInputStream edits, long expectedStartingTxId,
     }
   }
 
-  long loadEditRecords(EditLogInputStream in, boolean closeOnExit,
+  long loadEditRecords(EditLogInputStream edits, boolean closeOnExit,
                       long expectedStartingTxId, MetaRecoveryContext recovery)
       throws IOException {
     FSDirectory fsDir = fsNamesys.dir;
@@ -149,16 +166,23 @@ long loadEditRecords(EditLogInputStream in, boolean closeOnExit,
     
     long expectedTxId = expectedStartingTxId;
     long numEdits = 0;
-    long lastTxId = in.getLastTxId();
+    long lastTxId = edits.getLastTxId();
     long numTxns = (lastTxId - expectedStartingTxId) + 1;
     StartupProgress prog = NameNode.getStartupProgress();
-    Step step = createStartupProgressStep(in);
+    Step step = createStartupProgressStep(edits);
     prog.setTotal(Phase.LOADING_EDITS, step, numTxns);
     Counter counter = prog.getCounter(Phase.LOADING_EDITS, step);
     long lastLogTime = now();
     long lastInodeId = fsNamesys.getLastInodeId();
+    EditLogInputStream in = edits;
+    PipelinedEditLogInputStream pipeline = null;
     
     try {
+      // Decode ops on a separate thread, if configured and possible.
+      if (pipelineCapacity > 0 && edits.disableOpCache()) {
+        pipeline = new PipelinedEditLogInputStream(edits, pipelineCapacity);
+        in = pipeline;
+      }
       while (true) {
         try {
           FSEditLogOp op;
@@ -241,9 +265,12 @@ long loadEditRecords(EditLogInputStream in, boolean closeOnExit,
         }
       }
     } finally {
+      if (pipeline != null) {
+        pipeline.stopDecoding();
+      }
       fsNamesys.resetLastInodeId(lastInodeId);
       if(closeOnExit) {
-        in.close();
+        edits.close();
       }
       fsDir.writeUnlock();
       fsNamesys.writeUnlock();
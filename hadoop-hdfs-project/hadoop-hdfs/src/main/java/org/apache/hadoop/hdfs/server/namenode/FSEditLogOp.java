@@ -125,51 +125,74 @@ public abstract class FSEditLogOp {
   final public static class OpInstanceCache {
     private EnumMap<FSEditLogOpCodes, FSEditLogOp> inst = 
         new EnumMap<FSEditLogOpCodes, FSEditLogOp>(FSEditLogOpCodes.class);
+    private boolean useCache = true;
     
     public OpInstanceCache() {
-      inst.put(OP_ADD, new AddOp());
-      inst.put(OP_CLOSE, new CloseOp());
-      inst.put(OP_SET_REPLICATION, new SetReplicationOp());
-      inst.put(OP_CONCAT_DELETE, new ConcatDeleteOp());
-      inst.put(OP_RENAME_OLD, new RenameOldOp());
-      inst.put(OP_DELETE, new DeleteOp());
-      inst.put(OP_MKDIR, new MkdirOp());
-      inst.put(OP_SET_GENSTAMP_V1, new SetGenstampV1Op());
-      inst.put(OP_SET_PERMISSIONS, new SetPermissionsOp());
-      inst.put(OP_SET_OWNER, new SetOwnerOp());
-      inst.put(OP_SET_NS_QUOTA, new SetNSQuotaOp());
-      inst.put(OP_CLEAR_NS_QUOTA, new ClearNSQuotaOp());
-      inst.put(OP_SET_QUOTA, new SetQuotaOp());
-      inst.put(OP_TIMES, new TimesOp());
-      inst.put(OP_SYMLINK, new SymlinkOp());
-      inst.put(OP_RENAME, new RenameOp());
-      inst.put(OP_REASSIGN_LEASE, new ReassignLeaseOp());
-      inst.put(OP_GET_DELEGATION_TOKEN, new GetDelegationTokenOp());
-      inst.put(OP_RENEW_DELEGATION_TOKEN, new RenewDelegationTokenOp());
-      inst.put(OP_CANCEL_DELEGATION_TOKEN, new CancelDelegationTokenOp());
-      inst.put(OP_UPDATE_MASTER_KEY, new UpdateMasterKeyOp());
-      inst.put(OP_START_LOG_SEGMENT, new LogSegmentOp(OP_START_LOG_SEGMENT));
-      inst.put(OP_END_LOG_SEGMENT, new LogSegmentOp(OP_END_LOG_SEGMENT));
-      inst.put(OP_UPDATE_BLOCKS, new UpdateBlocksOp());
-
-      inst.put(OP_ALLOW_SNAPSHOT, new AllowSnapshotOp());
-      inst.put(OP_DISALLOW_SNAPSHOT, new DisallowSnapshotOp());
-      inst.put(OP_CREATE_SNAPSHOT, new CreateSnapshotOp());
-      inst.put(OP_DELETE_SNAPSHOT, new DeleteSnapshotOp());
-      inst.put(OP_RENAME_SNAPSHOT, new RenameSnapshotOp());
-      inst.put(OP_SET_GENSTAMP_V2, new SetGenstampV2Op());
-      inst.put(OP_ALLOCATE_BLOCK_ID, new AllocateBlockIdOp());
-
-      inst.put(OP_ADD_CACHE_DIRECTIVE, new AddCacheDirectiveInfoOp());
-      inst.put(OP_MODIFY_CACHE_DIRECTIVE, new ModifyCacheDirectiveInfoOp());
-      inst.put(OP_REMOVE_CACHE_DIRECTIVE, new RemoveCacheDirectiveInfoOp());
-      inst.put(OP_ADD_CACHE_POOL, new AddCachePoolOp());
-      inst.put(OP_MODIFY_CACHE_POOL, new ModifyCachePoolOp());
-      inst.put(OP_REMOVE_CACHE_POOL, new RemoveCachePoolOp());
+      for (FSEditLogOpCodes opCode : FSEditLogOpCodes.values()) {
+        FSEditLogOp op = newInstance(opCode);
+        if (op != null) {
+          inst.put(opCode, op);
+        }
+      }
+    }
+
+    /**
+     * Stop sharing op instances.  After this call, every call to
+     * {@link #get(FSEditLogOpCodes)} returns a new instance, so that ops
+     * handed out earlier are not overwritten by later decodes.
+     */
+    public void disableCache() {
+      useCache = false;
     }
     
     public FSEditLogOp get(FSEditLogOpCodes opcode) {
-      return inst.get(opcode);
+      return useCache ? inst.get(opcode) : newInstance(opcode);
+    }
+
+    private static FSEditLogOp newInstance(FSEditLogOpCodes opcode) {
+      switch (opcode) {
+      case OP_ADD: return new AddOp();
+      case OP_CLOSE: return new CloseOp();
+      case OP_SET_REPLICATION: return new SetReplicationOp();
+      case OP_CONCAT_DELETE: return new ConcatDeleteOp();
+      case OP_RENAME_OLD: return new RenameOldOp();
+      case OP_DELETE: return new DeleteOp();
+      case OP_MKDIR: return new MkdirOp();
+      case OP_SET_GENSTAMP_V1: return new SetGenstampV1Op();
+      case OP_SET_PERMISSIONS: return new SetPermissionsOp();
+      case OP_SET_OWNER: return new SetOwnerOp();
+      case OP_SET_NS_QUOTA: return new SetNSQuotaOp();
+      case OP_CLEAR_NS_QUOTA: return new ClearNSQuotaOp();
+      case OP_SET_QUOTA: return new SetQuotaOp();
+      case OP_TIMES: return new TimesOp();
+      case OP_SYMLINK: return new SymlinkOp();
+      case OP_RENAME: return new RenameOp();
+      case OP_REASSIGN_LEASE: return new ReassignLeaseOp();
+      case OP_GET_DELEGATION_TOKEN: return new GetDelegationTokenOp();
+      case OP_RENEW_DELEGATION_TOKEN: return new RenewDelegationTokenOp();
+      case OP_CANCEL_DELEGATION_TOKEN: return new CancelDelegationTokenOp();
+      case OP_UPDATE_MASTER_KEY: return new UpdateMasterKeyOp();
+      case OP_START_LOG_SEGMENT:
+        return new LogSegmentOp(OP_START_LOG_SEGMENT);
+      case OP_END_LOG_SEGMENT: return new LogSegmentOp(OP_END_LOG_SEGMENT);
+      case OP_UPDATE_BLOCKS: return new UpdateBlocksOp();
+
+      case OP_ALLOW_SNAPSHOT: return new AllowSnapshotOp();
+      case OP_DISALLOW_SNAPSHOT: return new DisallowSnapshotOp();
+      case OP_CREATE_SNAPSHOT: return new CreateSnapshotOp();
+      case OP_DELETE_SNAPSHOT: return new DeleteSnapshotOp();
+      case OP_RENAME_SNAPSHOT: return new RenameSnapshotOp();
+      case OP_SET_GENSTAMP_V2: return new SetGenstampV2Op();
+      case OP_ALLOCATE_BLOCK_ID: return new AllocateBlockIdOp();
+
+      case OP_ADD_CACHE_DIRECTIVE: return new AddCacheDirectiveInfoOp();
+      case OP_MODIFY_CACHE_DIRECTIVE: return new ModifyCacheDirectiveInfoOp();
+      case OP_REMOVE_CACHE_DIRECTIVE: return new RemoveCacheDirectiveInfoOp();
+      case OP_ADD_CACHE_POOL: return new AddCachePoolOp();
+      case OP_MODIFY_CACHE_POOL: return new ModifyCachePoolOp();
+      case OP_REMOVE_CACHE_POOL: return new RemoveCachePoolOp();
+      default: return null;
+      }
     }
   }
 
@@ -3348,11 +3371,19 @@ public void setMaxOpSize(int maxOpSize) {
       this.maxOpSize = maxOpSize;
     }
 
+    /**
+     * Return a new op instance from every subsequent call to
+     * {@link #readOp(boolean)} instead of re-using instances.
+     */
+    public void disableOpCache() {
+      cache.disableCache();
+    }
+
     /**
      * Read an operation from the input stream.
      * 
      * Note that the objects returned from this method may be re-used by future
-     * calls to the same method.
+     * calls to the same method, unless {@link #disableOpCache()} was called.
      * 
      * @param skipBrokenEdits    If true, attempt to skip over damaged parts of
      * the input stream, rather than throwing an IOException
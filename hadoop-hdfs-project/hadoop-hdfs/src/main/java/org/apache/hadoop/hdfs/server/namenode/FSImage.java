@@ -721,6 +721,12 @@ public long loadEdits(Iterable<EditLogInputStream> editStreams,
     long prevLastAppliedTxId = lastAppliedTxId;  
     try {    
       FSEditLogLoader loader = new FSEditLogLoader(target, lastAppliedTxId);
+      if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_LOADER_PIPELINED_KEY,
+          DFSConfigKeys.DFS_NAMENODE_EDITS_LOADER_PIPELINED_DEFAULT)) {
+        loader.setPipelineCapacity(conf.getInt(
+            DFSConfigKeys.DFS_NAMENODE_EDITS_LOADER_PIPELINE_CAPACITY_KEY,
+            DFSConfigKeys.DFS_NAMENODE_EDITS_LOADER_PIPELINE_CAPACITY_DEFAULT));
+      }
       
       // Load latest edits
       for (EditLogInputStream editIn : editStreams) {
@@ -36,11 +36,25 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_OFFER_TIMEOUT_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_OFFER_TIMEOUT_MS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_EXPIRY_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_EXPIRY_MS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_SIZE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_CHECKPOINT_TXNS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_CHECKPOINT_TXNS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DEFAULT_AUDIT_LOGGER_NAME;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELETE_ASYNC_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELETE_ASYNC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELETE_ASYNC_MAX_PENDING_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELETE_ASYNC_MAX_PENDING_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELEGATION_TOKEN_ALWAYS_USE_DEFAULT;
@@ -57,6 +71,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDIT_LOG_AUTOROLL_MULTIPLIER_THRESHOLD_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ENABLE_RETRY_CACHE_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ENABLE_RETRY_CACHE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY;
@@ -100,11 +116,13 @@
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.URI;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -113,7 +131,11 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.management.NotCompliantMBeanException;
@@ -318,6 +340,18 @@ private void logAuditEvent(boolean succeeded, String cmd, String src,
   private void logAuditEvent(boolean succeeded,
       UserGroupInformation ugi, InetAddress addr, String cmd, String src,
       String dst, HdfsFileStatus stat) {
+    if (auditEventDispatcher != null) {
+      auditEventDispatcher.add(
+          new AuditEvent(succeeded, ugi, addr, cmd, src, dst, stat));
+    } else {
+      dispatchAuditEvent(succeeded, ugi, addr, cmd, src, dst, stat);
+    }
+  }
+
+  /** Pass an audit event to each of the configured audit loggers. */
+  private void dispatchAuditEvent(boolean succeeded,
+      UserGroupInformation ugi, InetAddress addr, String cmd, String src,
+      String dst, HdfsFileStatus stat) {
     FileStatus status = null;
     if (stat != null) {
       Path symlink = stat.isSymlink() ? new Path(stat.getSymlink()) : null;
@@ -377,12 +411,20 @@ private void logAuditEvent(boolean succeeded,
   // underlying logger is disabled, and avoid some unnecessary work.
   private final boolean isDefaultAuditLogger;
   private final List<AuditLogger> auditLoggers;
+  /**
+   * Passes audit events to the audit loggers in the background, or null if
+   * they are logged on the calling handler thread.
+   */
+  private final AuditEventDispatcher auditEventDispatcher;
+  private Daemon auditEventDispatcherThread = null;
 
   /** The namespace tree. */
   FSDirectory dir;
   private final BlockManager blockManager;
   private final SnapshotManager snapshotManager;
   private final CacheManager cacheManager;
+  /** The block locations of hot files, or null if disabled. */
+  private final LocatedBlocksCache locatedBlocksCache;
   private final DatanodeStatistics datanodeStatistics;
 
   // Block pool ID used by this namenode
@@ -404,6 +446,13 @@ private void logAuditEvent(boolean succeeded,
    */
   private final int editLogRollerInterval;
 
+  /**
+   * Reclaims the blocks and inodes of deleted subtrees in the background,
+   * or null if delete reclaims them on the calling handler thread.
+   */
+  private final DeletedSubtreeReclaimer deletedSubtreeReclaimer;
+  Daemon deletedSubtreeReclaimerThread = null;
+
   private volatile boolean hasResourcesAvailable = false;
   private volatile boolean fsRunning = true;
   
@@ -478,6 +527,8 @@ private void logAuditEvent(boolean succeeded,
   private HAContext haContext;
 
   private final boolean haEnabled;
+  /** Whether the standby serves the reads of the clients which msync */
+  private final boolean standbyReadsEnabled;
   
   /**
    * Whether the namenode is in the middle of starting the active service
@@ -666,6 +717,9 @@ public static FSNamesystem loadFromDisk(Configuration conf)
       // so that the standby has up-to-date namespace information
       String nameserviceId = DFSUtil.getNamenodeNameServiceId(conf);
       this.haEnabled = HAUtil.isHAEnabled(conf, nameserviceId);  
+      this.standbyReadsEnabled = conf.getBoolean(
+          DFSConfigKeys.DFS_HA_STANDBY_READS_ENABLED_KEY,
+          DFSConfigKeys.DFS_HA_STANDBY_READS_ENABLED_DEFAULT);
       
       // Sanity check the HA-related config.
       if (nameserviceId != null) {
@@ -725,6 +779,21 @@ public static FSNamesystem loadFromDisk(Configuration conf)
       this.editLogRollerInterval = conf.getInt(
           DFS_NAMENODE_EDIT_LOG_AUTOROLL_CHECK_INTERVAL_MS,
           DFS_NAMENODE_EDIT_LOG_AUTOROLL_CHECK_INTERVAL_MS_DEFAULT);
+      this.deletedSubtreeReclaimer = conf.getBoolean(
+          DFS_NAMENODE_DELETE_ASYNC_KEY, DFS_NAMENODE_DELETE_ASYNC_DEFAULT) ?
+          new DeletedSubtreeReclaimer(conf.getInt(
+              DFS_NAMENODE_DELETE_ASYNC_MAX_PENDING_KEY,
+              DFS_NAMENODE_DELETE_ASYNC_MAX_PENDING_DEFAULT)) : null;
+      this.leaseManager.setMaxLockHoldToReleaseLease(conf.getLong(
+          DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_KEY,
+          DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_DEFAULT));
+      final int locatedBlocksCacheSize = conf.getInt(
+          DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_SIZE_KEY,
+          DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_SIZE_DEFAULT);
+      this.locatedBlocksCache = locatedBlocksCacheSize > 0 ?
+          new LocatedBlocksCache(locatedBlocksCacheSize, conf.getLong(
+              DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_EXPIRY_MS_KEY,
+              DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_EXPIRY_MS_DEFAULT)) : null;
       this.inodeId = new INodeId();
       
       // For testing purposes, allow the DT secret manager to be started regardless
@@ -741,6 +810,16 @@ public static FSNamesystem loadFromDisk(Configuration conf)
       this.auditLoggers = initAuditLoggers(conf);
       this.isDefaultAuditLogger = auditLoggers.size() == 1 &&
         auditLoggers.get(0) instanceof DefaultAuditLogger;
+      if (conf.getBoolean(DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY,
+          DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT)) {
+        this.auditEventDispatcher = new AuditEventDispatcher(
+            conf.getInt(DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_KEY,
+                DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_DEFAULT),
+            conf.getLong(DFS_NAMENODE_AUDIT_LOG_ASYNC_OFFER_TIMEOUT_MS_KEY,
+                DFS_NAMENODE_AUDIT_LOG_ASYNC_OFFER_TIMEOUT_MS_DEFAULT));
+      } else {
+        this.auditEventDispatcher = null;
+      }
       this.retryCache = ignoreRetryCache ? null : initRetryCache(conf);
     } catch(IOException e) {
       LOG.error(getClass().getSimpleName() + " initialization failed.", e);
@@ -919,6 +998,10 @@ void startCommonServices(Configuration conf, HAContext haContext) throws IOExcep
     
     registerMXBean();
     DefaultMetricsSystem.instance().register(this);
+    startAuditEventDispatcher();
+    // Deleted subtrees are reclaimed in either HA state, so that whatever is
+    // still queued when the NameNode becomes standby is reclaimed as well.
+    startDeletedSubtreeReclaimer();
   }
   
   /** 
@@ -926,6 +1009,8 @@ void startCommonServices(Configuration conf, HAContext haContext) throws IOExcep
    * @throws IOException
    */
   void stopCommonServices() {
+    // The reclaimer takes the write lock, so stop it before taking the lock.
+    stopDeletedSubtreeReclaimer();
     writeLock();
     try {
       if (blockManager != null) blockManager.close();
@@ -1332,6 +1417,8 @@ void close() {
       } catch (IOException ie) {
         LOG.error("Error closing FSDirectory", ie);
         IOUtils.cleanup(LOG, dir);
+      } finally {
+        stopAuditEventDispatcher();
       }
     }
   }
@@ -1568,9 +1655,33 @@ private LocatedBlocks getBlockLocationsInt(String src, long offset,
         }
       }
     }
+    if (standbyReadsEnabled && isInStandbyState()) {
+      checkStandbyBlockLocations(src, ret);
+    }
     return ret;
   }
 
+  /**
+   * The standby may apply the edits of a new block before the datanodes
+   * report the block to it. Rather than let the client fail to read a block
+   * without locations, have it read the locations from the active.
+   * @throws StandbyException if a block has no locations yet
+   */
+  private void checkStandbyBlockLocations(String src, LocatedBlocks blocks)
+      throws StandbyException {
+    final List<LocatedBlock> located =
+        new ArrayList<LocatedBlock>(blocks.getLocatedBlocks());
+    if (blocks.getLastLocatedBlock() != null) {
+      located.add(blocks.getLastLocatedBlock());
+    }
+    for (LocatedBlock b : located) {
+      if (b.getLocations() == null || b.getLocations().length == 0) {
+        throw new StandbyException("The standby NameNode has no locations "
+            + "yet for " + b.getBlock() + " of " + src);
+      }
+    }
+  }
+
   /*
    * Get block locations within the specified range, updating the
    * access times if necessary. 
@@ -1601,8 +1712,9 @@ private LocatedBlocks getBlockLocationsUpdateTimes(String src, long offset,
           checkPathAccess(pc, src, FsAction.READ);
         }
 
-        // if the namenode is in safemode, then do not update access time
-        if (isInSafeMode()) {
+        // if the namenode is in safemode, then do not update access time.
+        // A standby serving reads cannot log the new access time either.
+        if (isInSafeMode() || isInStandbyState()) {
           doAccessTime = false;
         }
 
@@ -1630,9 +1742,29 @@ && doAccessTime && isAccessTimeSupported()) {
           length = Math.min(length, fileSize - offset);
           isUc = false;
         }
-        LocatedBlocks blocks =
-          blockManager.createLocatedBlocks(inode.getBlocks(), fileSize,
-            isUc, offset, length, needBlockToken, iip.isSnapshot());
+        // Only the locations of closed files in the current tree are cached,
+        // without block tokens, which are generated for each call.
+        final boolean cacheable = locatedBlocksCache != null
+            && !iip.isSnapshot() && !isUc;
+        LocatedBlocks blocks = cacheable ?
+            locatedBlocksCache.get(inode, fileSize, offset, length) : null;
+        if (blocks == null) {
+          blocks = blockManager.createLocatedBlocks(inode.getBlocks(),
+              fileSize, isUc, offset, length, needBlockToken && !cacheable,
+              iip.isSnapshot());
+          if (cacheable) {
+            locatedBlocksCache.put(inode, fileSize, offset, length, blocks);
+          }
+        }
+        if (cacheable && needBlockToken) {
+          for (LocatedBlock lb : blocks.getLocatedBlocks()) {
+            blockManager.setBlockToken(lb, AccessMode.READ);
+          }
+          if (blocks.getLastLocatedBlock() != null) {
+            blockManager.setBlockToken(blocks.getLastLocatedBlock(),
+                AccessMode.READ);
+          }
+        }
         // Set caching information for the located blocks.
         for (LocatedBlock lb: blocks.getLocatedBlocks()) {
           cacheManager.setCachedLocations(lb);
@@ -3210,6 +3342,11 @@ private FSPermissionChecker getPermissionChecker()
    * the {@link FSNamesystem} lock.
    * <p>
    * For small directory or file the deletion is done in one shot.
+   * <p>
+   * If {@link DFSConfigKeys#DFS_NAMENODE_DELETE_ASYNC_KEY} is set, the
+   * deleted subtree is only unlinked under the lock; walking it and removing
+   * its blocks and inodes is left to a background
+   * {@link DeletedSubtreeReclaimer} once the deletion has been logged.
    * 
    * @see ClientProtocol#delete(String, boolean) for description of exceptions
    */
@@ -3219,6 +3356,8 @@ private boolean deleteInternal(String src, boolean recursive,
              IOException {
     BlocksMapUpdateInfo collectedBlocks = new BlocksMapUpdateInfo();
     List<INode> removedINodes = new ChunkedArrayList<INode>();
+    List<INode> detachedSubtrees = deletedSubtreeReclaimer != null ?
+        new ArrayList<INode>(1) : null;
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.WRITE);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
@@ -3236,7 +3375,8 @@ private boolean deleteInternal(String src, boolean recursive,
             FsAction.ALL, false);
       }
       // Unlink the target directory from directory tree
-      if (!dir.delete(src, collectedBlocks, removedINodes, logRetryCache)) {
+      if (!dir.delete(src, collectedBlocks, removedINodes, detachedSubtrees,
+          logRetryCache)) {
         return false;
       }
       ret = true;
@@ -3244,15 +3384,21 @@ private boolean deleteInternal(String src, boolean recursive,
       writeUnlock();
     }
     getEditLog().logSync(); 
-    removeBlocks(collectedBlocks); // Incremental deletion of blocks
-    collectedBlocks.clear();
-    dir.writeLock();
-    try {
-      dir.removeFromInodeMap(removedINodes);
-    } finally {
-      dir.writeUnlock();
+    if (ret && deletedSubtreeReclaimer != null) {
+      // The subtree is unlinked and logged; reclaim it in the background.
+      deletedSubtreeReclaimer.add(detachedSubtrees, collectedBlocks,
+          removedINodes);
+    } else {
+      removeBlocks(collectedBlocks); // Incremental deletion of blocks
+      collectedBlocks.clear();
+      dir.writeLock();
+      try {
+        dir.removeFromInodeMap(removedINodes);
+      } finally {
+        dir.writeUnlock();
+      }
+      removedINodes.clear();
     }
-    removedINodes.clear();
     if (NameNode.stateChangeLog.isDebugEnabled()) {
       NameNode.stateChangeLog.debug("DIR* Namesystem.delete: "
         + src +" is removed");
@@ -3270,17 +3416,30 @@ private boolean deleteInternal(String src, boolean recursive,
    *          of blocks that need to be removed from blocksMap
    */
   void removeBlocks(BlocksMapUpdateInfo blocks) {
+    removeBlocks(blocks, null);
+  }
+
+  /**
+   * Like {@link #removeBlocks(BlocksMapUpdateInfo)}, and also subtracts the
+   * number of removed blocks from the given counter after each increment.
+   */
+  private void removeBlocks(BlocksMapUpdateInfo blocks, AtomicLong pending) {
     List<Block> toDeleteList = blocks.getToDeleteList();
     Iterator<Block> iter = toDeleteList.iterator();
     while (iter.hasNext()) {
+      int removed = 0;
       writeLock();
       try {
-        for (int i = 0; i < BLOCK_DELETION_INCREMENT && iter.hasNext(); i++) {
+        for (; removed < BLOCK_DELETION_INCREMENT && iter.hasNext();
+            removed++) {
           blockManager.removeBlock(iter.next());
         }
       } finally {
         writeUnlock();
       }
+      if (pending != null) {
+        pending.addAndGet(-removed);
+      }
     }
   }
   
@@ -3426,6 +3585,37 @@ boolean isFileClosed(String src)
     }
   }
 
+  /**
+   * Get the id of the last transaction applied to the namespace. The caller
+   * checks that the namespace has caught up with its writes before reading,
+   * so it may read from now on in standby state, if the standby serves such
+   * reads.
+   * @throws StandbyException in standby state, if the standby does not
+   *         serve reads.
+   * @throws RetriableException in standby state, if the given transaction
+   *         has not been applied by the edit log tailer yet.
+   * @see ClientProtocol#msync(long)
+   */
+  long msync(long minTxId) throws IOException {
+    if (haContext != null) {
+      haContext.addStaleReadClient();
+    }
+    checkOperation(OperationCategory.READ);
+    final long txId;
+    readLock();
+    try {
+      checkOperation(OperationCategory.READ);
+      txId = getFSImage().getLastAppliedOrWrittenTxId();
+    } finally {
+      readUnlock();
+    }
+    if (txId < minTxId && isInStandbyState()) {
+      throw new RetriableException("The standby NameNode has applied "
+          + "transactions up to " + txId + ", not yet " + minTxId);
+    }
+    return txId;
+  }
+
   /**
    * Create all the necessary directories
    */
@@ -3833,6 +4023,13 @@ public boolean isInSnapshot(BlockInfoUnderConstruction blockUC) {
     return true;
   }
 
+  @Override
+  public void blockLocationsChanged(BlockCollection bc) {
+    if (locatedBlocksCache != null && bc instanceof INodeFile) {
+      locatedBlocksCache.invalidate(((INodeFile) bc).getId());
+    }
+  }
+
   void commitBlockSynchronization(ExtendedBlock lastblock,
       long newgenerationstamp, long newlength,
       boolean closeFile, boolean deleteblock, DatanodeID[] newtargets,
@@ -4257,6 +4454,342 @@ public void stop() {
     }
   }
 
+  /**
+   * Reclaims deleted subtrees in the background.  Deleting a large directory
+   * unlinks it and logs the deletion under the write lock as usual; walking
+   * the unlinked subtree to collect its blocks and inodes, and removing those
+   * from the blocks map and the inode map, which are proportional to the size
+   * of the subtree, then happen here instead of on the RPC handler thread.
+   * Each step works on {@link FSNamesystem#BLOCK_DELETION_INCREMENT} inodes
+   * or blocks and drops the lock in between.
+   * <p>
+   * At most a configured number of deleted subtrees are queued; beyond that,
+   * the handler which deleted a subtree reclaims it itself, so a burst of
+   * deletes cannot grow the backlog without bound.
+   */
+  class DeletedSubtreeReclaimer implements Runnable {
+
+    /**
+     * A deleted subtree: the unlinked inodes still to be walked, and the
+     * blocks and inodes collected from it.
+     */
+    private class DeletedSubtree {
+      final List<INode> roots;
+      final BlocksMapUpdateInfo blocks;
+      final List<INode> inodes;
+
+      DeletedSubtree(List<INode> roots, BlocksMapUpdateInfo blocks,
+          List<INode> inodes) {
+        this.roots = roots;
+        this.blocks = blocks;
+        this.inodes = inodes;
+      }
+    }
+
+    private final BlockingQueue<DeletedSubtree> queue;
+    private final AtomicLong pendingSubtrees = new AtomicLong();
+    private final AtomicLong pendingBlocks = new AtomicLong();
+    private final AtomicLong pendingINodes = new AtomicLong();
+    private volatile boolean shouldRun = true;
+
+    DeletedSubtreeReclaimer(int maxPending) {
+      this.queue = new LinkedBlockingQueue<DeletedSubtree>(maxPending);
+    }
+
+    /**
+     * Queue a deleted subtree for reclamation, or reclaim it on the calling
+     * thread if too many are queued already.
+     */
+    void add(List<INode> roots, BlocksMapUpdateInfo blocks,
+        List<INode> inodes) {
+      DeletedSubtree subtree = new DeletedSubtree(roots, blocks, inodes);
+      pendingSubtrees.incrementAndGet();
+      if (!queue.offer(subtree)) {
+        reclaim(subtree);
+      }
+    }
+
+    long getPendingSubtrees() {
+      return pendingSubtrees.get();
+    }
+
+    long getPendingBlocks() {
+      return pendingBlocks.get();
+    }
+
+    long getPendingINodes() {
+      return pendingINodes.get();
+    }
+
+    @Override
+    public void run() {
+      while (fsRunning && shouldRun) {
+        try {
+          reclaim(queue.take());
+        } catch (InterruptedException e) {
+          FSNamesystem.LOG.info(DeletedSubtreeReclaimer.class.getSimpleName()
+              + " was interrupted, exiting");
+          break;
+        } catch (Throwable t) {
+          FSNamesystem.LOG.error("Swallowing exception in "
+              + DeletedSubtreeReclaimer.class.getSimpleName() + ":", t);
+        }
+      }
+    }
+
+    public void stop() {
+      shouldRun = false;
+    }
+
+    private void reclaim(DeletedSubtree subtree) {
+      Deque<INode> toWalk = new ArrayDeque<INode>(subtree.roots);
+      subtree.roots.clear();
+      while (!toWalk.isEmpty()) {
+        int blocksBefore = subtree.blocks.getToDeleteList().size();
+        int inodesBefore = subtree.inodes.size();
+        writeLock();
+        try {
+          dir.writeLock();
+          try {
+            for (int i = 0; i < BLOCK_DELETION_INCREMENT && !toWalk.isEmpty();
+                i++) {
+              destroy(toWalk.pop(), toWalk, subtree.blocks, subtree.inodes);
+            }
+          } finally {
+            dir.writeUnlock();
+          }
+        } finally {
+          writeUnlock();
+        }
+        pendingBlocks.addAndGet(
+            subtree.blocks.getToDeleteList().size() - blocksBefore);
+        pendingINodes.addAndGet(subtree.inodes.size() - inodesBefore);
+      }
+
+      removeBlocks(subtree.blocks, pendingBlocks);
+      subtree.blocks.clear();
+
+      Iterator<INode> iter = subtree.inodes.iterator();
+      List<INode> batch = new ArrayList<INode>(
+          Math.min(BLOCK_DELETION_INCREMENT, subtree.inodes.size()));
+      while (iter.hasNext()) {
+        for (int i = 0; i < BLOCK_DELETION_INCREMENT && iter.hasNext(); i++) {
+          batch.add(iter.next());
+        }
+        dir.writeLock();
+        try {
+          dir.removeFromInodeMap(batch);
+        } finally {
+          dir.writeUnlock();
+        }
+        pendingINodes.addAndGet(-batch.size());
+        batch.clear();
+      }
+      subtree.inodes.clear();
+      pendingSubtrees.decrementAndGet();
+    }
+
+    /**
+     * Collect the blocks of an unlinked inode, like
+     * {@link INode#destroyAndCollectBlocks(BlocksMapUpdateInfo, List)} does,
+     * but push the children of a plain directory onto the given stack rather
+     * than recursing into them, so that a large subtree is walked in steps.
+     */
+    private void destroy(INode inode, Deque<INode> toWalk,
+        BlocksMapUpdateInfo blocks, List<INode> inodes) {
+      if (inode.isDirectory() && !inode.isReference()) {
+        INodeDirectory d = inode.asDirectory();
+        if (d.getDirectoryWithSnapshotFeature() == null) {
+          for (INode child : d.getChildrenList(null)) {
+            toWalk.push(child);
+          }
+          d.clear();
+          inodes.add(d);
+          return;
+        }
+      }
+      inode.destroyAndCollectBlocks(blocks, inodes);
+    }
+  }
+
+  /** The arguments of one call to the audit loggers. */
+  private static class AuditEvent {
+    final boolean succeeded;
+    final UserGroupInformation ugi;
+    final InetAddress addr;
+    final String cmd;
+    final String src;
+    final String dst;
+    final HdfsFileStatus stat;
+
+    AuditEvent(boolean succeeded, UserGroupInformation ugi, InetAddress addr,
+        String cmd, String src, String dst, HdfsFileStatus stat) {
+      this.succeeded = succeeded;
+      this.ugi = ugi;
+      this.addr = addr;
+      this.cmd = cmd;
+      this.src = src;
+      this.dst = dst;
+      this.stat = stat;
+    }
+  }
+
+  /**
+   * Passes audit events to the audit loggers on a background thread, in the
+   * order in which they were logged, so that an RPC handler only pays for
+   * queueing the event.  When the bounded queue is full, handlers wait for
+   * room for a limited time and then drop the event.  While the dispatcher
+   * is not running, events are logged on the calling thread.
+   */
+  class AuditEventDispatcher implements Runnable {
+    private final BlockingQueue<AuditEvent> queue;
+    private final int capacity;
+    private final long offerTimeoutMs;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean shouldRun = false;
+
+    AuditEventDispatcher(int capacity, long offerTimeoutMs) {
+      this.queue = new ArrayBlockingQueue<AuditEvent>(capacity);
+      this.capacity = capacity;
+      this.offerTimeoutMs = offerTimeoutMs;
+    }
+
+    void add(AuditEvent event) {
+      if (!shouldRun) {
+        // Not running; log on the calling thread.
+        dispatch(event);
+        return;
+      }
+      boolean queued;
+      try {
+        queued = queue.offer(event, offerTimeoutMs, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        queued = false;
+      }
+      if (!queued) {
+        dropped.incrementAndGet();
+      } else if (!shouldRun && queue.remove(event)) {
+        // Stopped while queueing, and the dispatcher may have drained the
+        // queue for the last time already; log the event here instead.
+        dispatch(event);
+      }
+    }
+
+    int getQueued() {
+      return queue.size();
+    }
+
+    long getDropped() {
+      return dropped.get();
+    }
+
+    @Override
+    public void run() {
+      final List<AuditEvent> batch = new ArrayList<AuditEvent>(capacity);
+      while (shouldRun) {
+        try {
+          batch.add(queue.take());
+          queue.drainTo(batch);
+          dispatch(batch);
+        } catch (InterruptedException e) {
+          FSNamesystem.LOG.info(AuditEventDispatcher.class.getSimpleName()
+              + " was interrupted, exiting");
+          break;
+        } catch (Throwable t) {
+          FSNamesystem.LOG.error("Swallowing exception in "
+              + AuditEventDispatcher.class.getSimpleName() + ":", t);
+        } finally {
+          batch.clear();
+        }
+      }
+      // Log whatever is left before exiting.
+      queue.drainTo(batch);
+      dispatch(batch);
+    }
+
+    private void dispatch(List<AuditEvent> batch) {
+      for (AuditEvent event : batch) {
+        dispatch(event);
+      }
+    }
+
+    private void dispatch(AuditEvent event) {
+      try {
+        dispatchAuditEvent(event.succeeded, event.ugi, event.addr, event.cmd,
+            event.src, event.dst, event.stat);
+      } catch (RuntimeException e) {
+        FSNamesystem.LOG.error("Failed to log audit event for " + event.cmd
+            + " on " + event.src, e);
+      }
+    }
+
+    void start() {
+      shouldRun = true;
+    }
+
+    public void stop() {
+      shouldRun = false;
+    }
+  }
+
+  /** Start the audit event dispatcher thread, if audit logging is async. */
+  private void startAuditEventDispatcher() {
+    if (auditEventDispatcher != null && auditEventDispatcherThread == null) {
+      auditEventDispatcher.start();
+      auditEventDispatcherThread = new Daemon(auditEventDispatcher);
+      auditEventDispatcherThread.setName("AuditEventDispatcher");
+      auditEventDispatcherThread.start();
+    }
+  }
+
+  /**
+   * Stop the audit event dispatcher, if running, after it has logged the
+   * events still queued.
+   */
+  private void stopAuditEventDispatcher() {
+    Daemon thread = auditEventDispatcherThread;
+    if (thread == null) {
+      return;
+    }
+    auditEventDispatcher.stop();
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    auditEventDispatcherThread = null;
+  }
+
+  /** Start the reclaimer thread, if deletes are asynchronous. */
+  @VisibleForTesting
+  void startDeletedSubtreeReclaimer() {
+    if (deletedSubtreeReclaimer != null
+        && deletedSubtreeReclaimerThread == null) {
+      deletedSubtreeReclaimer.shouldRun = true;
+      deletedSubtreeReclaimerThread = new Daemon(deletedSubtreeReclaimer);
+      deletedSubtreeReclaimerThread.start();
+    }
+  }
+
+  /** Stop the reclaimer thread, if running, and wait for it to exit. */
+  @VisibleForTesting
+  void stopDeletedSubtreeReclaimer() {
+    Daemon thread = deletedSubtreeReclaimerThread;
+    if (thread == null) {
+      return;
+    }
+    deletedSubtreeReclaimer.stop();
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    deletedSubtreeReclaimerThread = null;
+  }
+
   public FSImage getFSImage() {
     return dir.fsImage;
   }
@@ -4809,13 +5342,15 @@ private synchronized void setBlockTotal(int total) {
     }
       
     /**
-     * Increment number of safe blocks if current block has 
+     * Increment number of safe blocks if the given blocks have
      * reached minimal replication.
      * @param replication current replication 
+     * @param count number of blocks with that replication
      */
-    private synchronized void incrementSafeBlockCount(short replication) {
-      if (replication == safeReplication) {
-        this.blockSafe++;
+    private synchronized void incrementSafeBlockCount(short replication,
+        int count) {
+      if (replication == safeReplication && count > 0) {
+        this.blockSafe += count;
 
         // Report startup progress only if we haven't completed startup yet.
         StartupProgress prog = NameNode.getStartupProgress();
@@ -4824,7 +5359,7 @@ private synchronized void incrementSafeBlockCount(short replication) {
             this.awaitingReportedBlocksCounter = prog.getCounter(Phase.SAFEMODE,
               STEP_AWAITING_REPORTED_BLOCKS);
           }
-          this.awaitingReportedBlocksCounter.increment();
+          this.awaitingReportedBlocksCounter.add(count);
         }
 
         checkMode();
@@ -5113,7 +5648,16 @@ public void incrementSafeBlockCount(int replication) {
     SafeModeInfo safeMode = this.safeMode;
     if (safeMode == null)
       return;
-    safeMode.incrementSafeBlockCount((short)replication);
+    safeMode.incrementSafeBlockCount((short)replication, 1);
+  }
+
+  @Override
+  public void incrementSafeBlockCount(int replication, int count) {
+    // safeMode is volatile, and may be set to null at any time
+    SafeModeInfo safeMode = this.safeMode;
+    if (safeMode == null)
+      return;
+    safeMode.incrementSafeBlockCount((short)replication, count);
   }
 
   @Override
@@ -5305,12 +5849,22 @@ NamenodeCommand startCheckpoint(NamenodeRegistration backupNode,
     }
   }
 
+  /**
+   * Apply the incremental block reports of all the storages of a datanode
+   * under one hold of the write lock, or queue them to be applied with the
+   * reports of other datanodes if they are applied asynchronously and the
+   * queue is not full.
+   */
   public void processIncrementalBlockReport(final DatanodeID nodeID,
-      final String poolId, final StorageReceivedDeletedBlocks srdb)
+      final String poolId, final StorageReceivedDeletedBlocks[] srdbs)
       throws IOException {
+    if (blockManager.isIncrementalBlockReportAsync()
+        && blockManager.queueIncrementalBlockReport(nodeID, poolId, srdbs)) {
+      return;
+    }
     writeLock();
     try {
-      blockManager.processIncrementalBlockReport(nodeID, poolId, srdb);
+      blockManager.processIncrementalBlockReport(nodeID, poolId, srdbs);
     } finally {
       writeUnlock();
     }
@@ -5469,11 +6023,77 @@ public long getScheduledReplicationBlocks() {
     return blockManager.getScheduledReplicationBlocksCount();
   }
 
+  /** Returns number of scheduled replications reported complete */
+  @Metric({"CompletedReplications",
+      "Number of scheduled replications reported complete by datanodes"})
+  public long getCompletedReplications() {
+    return blockManager.getCompletedReplicationsCount();
+  }
+
+  /**
+   * Returns the estimated number of seconds until there are no
+   * under-replicated blocks left, or -1 if unknown
+   */
+  @Metric({"EstimatedReplicationTimeRemaining",
+      "Estimated seconds until all under-replicated blocks are replicated"})
+  public long getEstimatedReplicationTimeRemaining() {
+    return blockManager.getEstimatedReplicationTimeRemaining();
+  }
+
   @Metric
   public long getPendingDeletionBlocks() {
     return blockManager.getPendingDeletionBlocksCount();
   }
 
+  /**
+   * Returns the number of deleted files and directories which the background
+   * reclaimer has not finished reclaiming yet.
+   */
+  @Metric({"PendingReclamationSubtrees",
+      "Number of deleted files and directories not yet reclaimed"})
+  public long getPendingReclamationSubtrees() {
+    return deletedSubtreeReclaimer != null ?
+        deletedSubtreeReclaimer.getPendingSubtrees() : 0;
+  }
+
+  /**
+   * Returns the number of blocks of deleted files that have been collected
+   * but are still waiting to be removed from the blocks map by the background
+   * reclaimer.
+   */
+  @Metric({"PendingReclamationBlocks",
+      "Number of blocks of deleted files not yet removed from the blocks map"})
+  public long getPendingReclamationBlocks() {
+    return deletedSubtreeReclaimer != null ?
+        deletedSubtreeReclaimer.getPendingBlocks() : 0;
+  }
+
+  /**
+   * Returns the number of inodes of deleted files and directories that have
+   * been collected but are still waiting to be removed from the inode map by
+   * the background reclaimer.
+   */
+  @Metric({"PendingReclamationINodes",
+      "Number of deleted inodes not yet removed from the inode map"})
+  public long getPendingReclamationINodes() {
+    return deletedSubtreeReclaimer != null ?
+        deletedSubtreeReclaimer.getPendingINodes() : 0;
+  }
+
+  /** Returns the number of audit events waiting to be logged */
+  @Metric({"AuditEventsQueued", "Number of audit events waiting to be logged"})
+  public int getAuditEventsQueued() {
+    return auditEventDispatcher != null ? auditEventDispatcher.getQueued() : 0;
+  }
+
+  /** Returns the number of audit events dropped because the queue was full */
+  @Metric({"AuditEventsDropped",
+      "Number of audit events dropped because the audit queue was full"})
+  public long getAuditEventsDropped() {
+    return auditEventDispatcher != null ?
+        auditEventDispatcher.getDropped() : 0;
+  }
+
   @Metric
   public long getExcessBlocks() {
     return blockManager.getExcessBlocksCount();
@@ -5490,6 +6110,12 @@ public long getPostponedMisreplicatedBlocks() {
   public int getPendingDataNodeMessageCount() {
     return blockManager.getPendingDataNodeMessageCount();
   }
+
+  @Metric({"QueuedIncrementalBlockReports",
+      "Number of incremental block reports waiting to be applied"})
+  public int getQueuedIncrementalBlockReportCount() {
+    return blockManager.getQueuedIncrementalBlockReportCount();
+  }
   
   // HA-only metric
   @Metric
@@ -6522,6 +7148,10 @@ public String getDecomNodes() {
               node.decommissioningStatus.getDecommissionOnlyReplicas())
           .put("underReplicateInOpenFiles",
               node.decommissioningStatus.getUnderReplicatedInOpenFiles())
+          .put("blockingBlocks",
+              node.decommissioningStatus.getBlockingBlocks())
+          .put("estimatedTimeRemaining",
+              node.decommissioningStatus.getEstimatedTimeRemaining())
           .build();
       info.put(node.getHostName(), innerinfo);
     }
@@ -387,6 +387,11 @@ public void removeReference(INodeReference ref) {
       }
     }
     
+    /** @return the references with names, ordered by their snapshots. */
+    public List<WithName> getWithNames() {
+      return Collections.unmodifiableList(withNameList);
+    }
+
     WithName getLastWithName() {
       return withNameList.size() > 0 ? 
           withNameList.get(withNameList.size() - 1) : null;
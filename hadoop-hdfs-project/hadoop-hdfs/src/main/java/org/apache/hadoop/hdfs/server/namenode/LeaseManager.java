@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hdfs.server.namenode;
 
+import static org.apache.hadoop.util.Time.monotonicNow;
 import static org.apache.hadoop.util.Time.now;
 
 import java.io.IOException;
@@ -35,6 +36,7 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
 import org.apache.hadoop.util.Daemon;
@@ -73,11 +75,18 @@ public class LeaseManager {
   private long softLimit = HdfsConstants.LEASE_SOFTLIMIT_PERIOD;
   private long hardLimit = HdfsConstants.LEASE_HARDLIMIT_PERIOD;
 
+  /**
+   * Maximum time the lease monitor holds the namesystem write lock in one
+   * round of releasing expired leases.
+   */
+  private long maxLockHoldToReleaseLeaseMs =
+      DFSConfigKeys.DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_DEFAULT;
+
   //
   // Used for handling lock-leases
   // Mapping: leaseHolder -> Lease
   //
-  private SortedMap<String, Lease> leases = new TreeMap<String, Lease>();
+  private final Map<String, Lease> leases = new HashMap<String, Lease>();
   // Set of: Lease
   private SortedSet<Lease> sortedLeases = new TreeSet<Lease>();
 
@@ -89,6 +98,8 @@ public class LeaseManager {
 
   private Daemon lmthread;
   private volatile boolean shouldRunMonitor;
+  /** Whether the last checkLeases() stopped before releasing all leases */
+  private volatile boolean expiredLeasesRemaining = false;
 
   LeaseManager(FSNamesystem fsnamesystem) {this.fsnamesystem = fsnamesystem;}
 
@@ -257,11 +268,15 @@ public boolean expiredSoftLimit() {
      */
     private String findPath(INodeFile pendingFile) {
       try {
-        for (String src : paths) {
-          INode node = fsnamesystem.dir.getINode(src);
-          if (node == pendingFile
-              || (node.isFile() && node.asFile() == pendingFile)) {
-            return src;
+        // Try the current path of the file first, so that a holder with
+        // many open files does not have all of its paths resolved.
+        String src = pendingFile.getFullPathName();
+        if (paths.contains(src) && isPathOf(src, pendingFile)) {
+          return src;
+        }
+        for (String p : paths) {
+          if (isPathOf(p, pendingFile)) {
+            return p;
           }
         }
       } catch (UnresolvedLinkException e) {
@@ -270,6 +285,13 @@ private String findPath(INodeFile pendingFile) {
       return null;
     }
 
+    private boolean isPathOf(String src, INodeFile pendingFile)
+        throws UnresolvedLinkException {
+      INode node = fsnamesystem.dir.getINode(src);
+      return node == pendingFile
+          || (node != null && node.isFile() && node.asFile() == pendingFile);
+    }
+
     /** Does this lease contain any path? */
     boolean hasPath() {return !paths.isEmpty();}
 
@@ -393,6 +415,10 @@ public void setLeasePeriod(long softLimit, long hardLimit) {
     this.softLimit = softLimit;
     this.hardLimit = hardLimit; 
   }
+
+  void setMaxLockHoldToReleaseLease(long maxLockHoldToReleaseLeaseMs) {
+    this.maxLockHoldToReleaseLeaseMs = maxLockHoldToReleaseLeaseMs;
+  }
   
   /******************************************************
    * Monitor checks for leases that have expired,
@@ -406,11 +432,13 @@ class Monitor implements Runnable {
     public void run() {
       for(; shouldRunMonitor && fsnamesystem.isRunning(); ) {
         boolean needSync = false;
+        boolean checked = false;
         try {
           fsnamesystem.writeLockInterruptibly();
           try {
             if (!fsnamesystem.isInSafeMode()) {
               needSync = checkLeases();
+              checked = true;
             }
           } finally {
             fsnamesystem.writeUnlock();
@@ -420,7 +448,11 @@ public void run() {
             }
           }
   
-          Thread.sleep(HdfsServerConstants.NAMENODE_LEASE_RECHECK_INTERVAL);
+          // Only go again right away if leases were checked and some
+          // expired ones were left for the next round.
+          if (!checked || !expiredLeasesRemaining) {
+            Thread.sleep(HdfsServerConstants.NAMENODE_LEASE_RECHECK_INTERVAL);
+          }
         } catch(InterruptedException ie) {
           if (LOG.isDebugEnabled()) {
             LOG.debug(name + " is interrupted", ie);
@@ -451,11 +483,17 @@ Map<String, INodeFile> getINodesUnderConstruction() {
   }
   
   /** Check the leases beginning from the oldest.
+   *  Stops once {@link #maxLockHoldToReleaseLeaseMs} has passed, leaving
+   *  the remaining expired leases, or the remaining paths of a lease, for
+   *  the next round.  At least one path is released in every round.
    *  @return true is sync is needed.
    */
-  private synchronized boolean checkLeases() {
+  @VisibleForTesting
+  synchronized boolean checkLeases() {
     boolean needSync = false;
     assert fsnamesystem.hasWriteLock();
+    final long start = monotonicNow();
+    expiredLeasesRemaining = false;
     for(; sortedLeases.size() > 0; ) {
       final Lease oldest = sortedLeases.first();
       if (!oldest.expiredHardLimit()) {
@@ -471,6 +509,7 @@ private synchronized boolean checkLeases() {
       // causing ConcurrentModificationException
       String[] leasePaths = new String[oldest.getPaths().size()];
       oldest.getPaths().toArray(leasePaths);
+      boolean outOfTime = false;
       for(String p : leasePaths) {
         try {
           boolean completed = fsnamesystem.internalReleaseLease(oldest, p,
@@ -491,11 +530,24 @@ private synchronized boolean checkLeases() {
               + oldest, e);
           removing.add(p);
         }
+        // A single holder may have many files open, so check the time spent
+        // after every path.
+        if (monotonicNow() - start > maxLockHoldToReleaseLeaseMs) {
+          outOfTime = true;
+          break;
+        }
       }
 
       for(String p : removing) {
         removeLease(oldest, p);
       }
+
+      if (outOfTime) {
+        LOG.info("Spent " + (monotonicNow() - start) + " ms releasing"
+            + " expired leases; releasing the rest after dropping the lock");
+        expiredLeasesRemaining = true;
+        return needSync;
+      }
     }
     return needSync;
   }
@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
+import org.apache.hadoop.util.Time;
+
+/**
+ * A bounded cache of the {@link LocatedBlocks} of closed files, so that
+ * clients opening the same files again and again do not rebuild the same
+ * block locations.
+ *
+ * An entry is used only while the file has the same blocks and length as
+ * when the entry was created, and for at most the expiry time.  The block
+ * manager invalidates the entries of a file when the locations or the
+ * corrupt replicas of one of its blocks change.  The cached
+ * {@link LocatedBlocks} have neither block tokens nor cached locations, and
+ * a copy is returned on each hit, so that the caller can set them and sort
+ * the locations for the client.
+ */
+class LocatedBlocksCache {
+  private static class Key {
+    private final long inodeId;
+    private final long offset;
+    private final long length;
+
+    Key(long inodeId, long offset, long length) {
+      this.inodeId = inodeId;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key that = (Key)obj;
+      return inodeId == that.inodeId && offset == that.offset
+          && length == that.length;
+    }
+
+    @Override
+    public int hashCode() {
+      final long h = inodeId * 31 + offset * 17 + length;
+      return (int)(h ^ (h >>> 32));
+    }
+  }
+
+  private static class Entry {
+    /** The block array of the file, which is replaced when blocks change. */
+    private final BlockInfo[] blocks;
+    private final long fileSize;
+    private final long lastGenerationStamp;
+    private final long expiryTime;
+    private final LocatedBlocks locatedBlocks;
+
+    Entry(BlockInfo[] blocks, long fileSize, long expiryTime,
+        LocatedBlocks locatedBlocks) {
+      this.blocks = blocks;
+      this.fileSize = fileSize;
+      this.lastGenerationStamp = getLastGenerationStamp(blocks);
+      this.expiryTime = expiryTime;
+      this.locatedBlocks = locatedBlocks;
+    }
+
+    boolean isValid(BlockInfo[] blocks, long fileSize, long now) {
+      return now < expiryTime && blocks == this.blocks
+          && fileSize == this.fileSize
+          && getLastGenerationStamp(blocks) == lastGenerationStamp;
+    }
+  }
+
+  private static final DatanodeInfo[] NO_CACHED_LOCS = new DatanodeInfo[0];
+
+  private final long expiryMs;
+  private final Map<Key, Entry> entries;
+  /** Inode id -> the keys of the entries of the file. */
+  private final Map<Long, List<Key>> keysByFile =
+      new HashMap<Long, List<Key>>();
+
+  LocatedBlocksCache(final int capacity, long expiryMs) {
+    this.expiryMs = expiryMs;
+    this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        if (size() > capacity) {
+          removeKey(eldest.getKey());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @return a copy of the cached block locations of the file range, or null
+   *         if they are not cached or no longer valid.
+   */
+  synchronized LocatedBlocks get(INodeFile file, long fileSize, long offset,
+      long length) {
+    final Key key = new Key(file.getId(), offset, length);
+    final Entry e = entries.get(key);
+    if (e == null) {
+      return null;
+    }
+    if (!e.isValid(file.getBlocks(), fileSize, Time.monotonicNow())) {
+      entries.remove(key);
+      removeKey(key);
+      return null;
+    }
+    return copy(e.locatedBlocks);
+  }
+
+  /**
+   * Cache a copy of the block locations of the file range, unless some
+   * block does not have the expected number of replicas, since more
+   * replicas are likely to be reported soon.
+   * The locations must not have block tokens.
+   */
+  synchronized void put(INodeFile file, long fileSize, long offset,
+      long length, LocatedBlocks locatedBlocks) {
+    final short replication = file.getBlockReplication();
+    for (LocatedBlock b : locatedBlocks.getLocatedBlocks()) {
+      if (b.isCorrupt() || b.getLocations().length < replication) {
+        return;
+      }
+    }
+    final Key key = new Key(file.getId(), offset, length);
+    if (entries.put(key, new Entry(file.getBlocks(), fileSize,
+        Time.monotonicNow() + expiryMs, copy(locatedBlocks))) == null) {
+      List<Key> keys = keysByFile.get(key.inodeId);
+      if (keys == null) {
+        keys = new ArrayList<Key>(1);
+        keysByFile.put(key.inodeId, keys);
+      }
+      keys.add(key);
+    }
+  }
+
+  /** Remove the entries of the file. */
+  synchronized void invalidate(long inodeId) {
+    final List<Key> keys = keysByFile.remove(inodeId);
+    if (keys != null) {
+      for (Key key : keys) {
+        entries.remove(key);
+      }
+    }
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private void removeKey(Key key) {
+    final List<Key> keys = keysByFile.get(key.inodeId);
+    if (keys != null && keys.remove(key) && keys.isEmpty()) {
+      keysByFile.remove(key.inodeId);
+    }
+  }
+
+  private static long getLastGenerationStamp(BlockInfo[] blocks) {
+    return blocks == null || blocks.length == 0 ? 0
+        : blocks[blocks.length - 1].getGenerationStamp();
+  }
+
+  /**
+   * Copy the located blocks, including the location arrays, which are
+   * sorted in place for each client, but not the cached locations.
+   */
+  private static LocatedBlocks copy(LocatedBlocks blocks) {
+    final List<LocatedBlock> list =
+        new ArrayList<LocatedBlock>(blocks.locatedBlockCount());
+    for (LocatedBlock b : blocks.getLocatedBlocks()) {
+      list.add(copy(b));
+    }
+    return new LocatedBlocks(blocks.getFileLength(),
+        blocks.isUnderConstruction(), list,
+        copy(blocks.getLastLocatedBlock()), blocks.isLastBlockComplete());
+  }
+
+  private static LocatedBlock copy(LocatedBlock b) {
+    if (b == null) {
+      return null;
+    }
+    return new LocatedBlock(b.getBlock(), b.getLocations().clone(),
+        b.getStorageIDs() == null ? null : b.getStorageIDs().clone(),
+        b.getStorageTypes() == null ? null : b.getStorageTypes().clone(),
+        b.getStartOffset(), b.isCorrupt(), NO_CACHED_LOCS);
+  }
+}
@@ -29,7 +29,9 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.management.ObjectName;
 
@@ -72,6 +74,7 @@
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
+import org.apache.hadoop.ipc.ClientId;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.ipc.StandbyException;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
@@ -254,6 +257,13 @@ public long getProtocolVersion(String protocol,
   private final boolean haEnabled;
   private final HAContext haContext;
   protected boolean allowStaleStandbyReads;
+  /** Whether the standby serves the reads of the clients which msync */
+  private final boolean standbyReadsEnabled;
+  /**
+   * The ids of the RPC clients which called msync, and may read from this
+   * NameNode in standby state, in the order of their last msync.
+   */
+  private final Map<String, Boolean> standbyReadClients;
 
   
   /** httpServer */
@@ -642,6 +652,21 @@ protected NameNode(Configuration conf, NamenodeRole role)
     this.haEnabled = HAUtil.isHAEnabled(conf, nsId);
     state = createHAState();
     this.allowStaleStandbyReads = HAUtil.shouldAllowStandbyReads(conf);
+    this.standbyReadsEnabled = conf.getBoolean(
+        DFS_HA_STANDBY_READS_ENABLED_KEY,
+        DFS_HA_STANDBY_READS_ENABLED_DEFAULT);
+    final int maxStandbyReadClients = conf.getInt(
+        DFS_HA_STANDBY_READS_MAX_CLIENTS_KEY,
+        DFS_HA_STANDBY_READS_MAX_CLIENTS_DEFAULT);
+    this.standbyReadClients = new LinkedHashMap<String, Boolean>(16, 0.75f,
+        true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+        return size() > maxStandbyReadClients;
+      }
+    };
     this.haContext = createHAContext();
     try {
       initializeGenericKeys(conf, nsId, namenodeId);
@@ -1520,7 +1545,30 @@ public void checkOperation(final OperationCategory op)
     
     @Override
     public boolean allowStaleReads() {
-      return allowStaleStandbyReads;
+      if (allowStaleStandbyReads) {
+        return true;
+      }
+      if (!standbyReadsEnabled) {
+        return false;
+      }
+      final byte[] clientId = Server.getClientId();
+      if (clientId.length != ClientId.BYTE_LENGTH) {
+        return false;
+      }
+      synchronized (standbyReadClients) {
+        return standbyReadClients.get(ClientId.toString(clientId)) != null;
+      }
+    }
+
+    @Override
+    public void addStaleReadClient() {
+      final byte[] clientId = Server.getClientId();
+      if (!standbyReadsEnabled || clientId.length != ClientId.BYTE_LENGTH) {
+        return;
+      }
+      synchronized (standbyReadClients) {
+        standbyReadClients.put(ClientId.toString(clientId), Boolean.TRUE);
+      }
     }
 
   }
@@ -173,6 +173,7 @@ class NameNodeRpcServer implements NamenodeProtocols {
   protected final InetSocketAddress clientRpcAddress;
   
   private final String minimumDataNodeVersion;
+  private final int maxBlockLocationsBatch;
 
   public NameNodeRpcServer(Configuration conf, NameNode nn)
       throws IOException {
@@ -323,6 +324,9 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
     minimumDataNodeVersion = conf.get(
         DFSConfigKeys.DFS_NAMENODE_MIN_SUPPORTED_DATANODE_VERSION_KEY,
         DFSConfigKeys.DFS_NAMENODE_MIN_SUPPORTED_DATANODE_VERSION_DEFAULT);
+    maxBlockLocationsBatch = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_BATCH_MAX_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_BATCH_MAX_DEFAULT);
 
     // Set terse exception whose stack trace won't be logged
     clientRpcServer.addTerseExceptions(SafeModeException.class,
@@ -480,6 +484,30 @@ public LocatedBlocks getBlockLocations(String src,
     return namesystem.getBlockLocations(getClientMachine(), 
                                         src, offset, length);
   }
+
+  @Override // ClientProtocol
+  public LocatedBlocks[] getBatchedBlockLocations(String[] srcs, long offset,
+      long length) throws IOException {
+    if (srcs.length > maxBlockLocationsBatch) {
+      throw new IOException("Too many paths in the batch: " + srcs.length
+          + " > " + DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_BATCH_MAX_KEY
+          + " = " + maxBlockLocationsBatch);
+    }
+    final String clientMachine = getClientMachine();
+    final LocatedBlocks[] locations = new LocatedBlocks[srcs.length];
+    for (int i = 0; i < srcs.length; i++) {
+      metrics.incrGetBlockLocations();
+      try {
+        locations[i] = namesystem.getBlockLocations(clientMachine,
+            srcs[i], offset, length);
+      } catch (FileNotFoundException e) {
+        // leave it null
+      } catch (UnresolvedLinkException e) {
+        // leave it null, the client resolves the link with a single call
+      }
+    }
+    return locations;
+  }
   
   @Override // ClientProtocol
   public FsServerDefaults getServerDefaults() throws IOException {
@@ -1014,9 +1042,8 @@ public void blockReceivedAndDeleted(DatanodeRegistration nodeReg, String poolId,
           +"from "+nodeReg+" "+receivedAndDeletedBlocks.length
           +" blocks.");
     }
-    for(StorageReceivedDeletedBlocks r : receivedAndDeletedBlocks) {
-      namesystem.processIncrementalBlockReport(nodeReg, poolId, r);
-    }
+    namesystem.processIncrementalBlockReport(nodeReg, poolId,
+        receivedAndDeletedBlocks);
   }
 
   @Override // DatanodeProtocol
@@ -1285,5 +1312,10 @@ public BatchedEntries<CachePoolEntry> listCachePools(String prevKey)
       throws IOException {
     return namesystem.listCachePools(prevKey != null ? prevKey : "");
   }
+
+  @Override // ClientProtocol
+  public long msync(long minTxId) throws IOException {
+    return namesystem.msync(minTxId);
+  }
 }
 
@@ -19,8 +19,10 @@
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -31,6 +33,8 @@
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -44,6 +48,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.net.TcpPeerServer;
+import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
@@ -52,8 +57,12 @@
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockCollection;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockPlacementPolicy;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockPlacementStatus;
+import org.apache.hadoop.hdfs.server.blockmanagement.NumberReplicas;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
 import org.apache.hadoop.hdfs.server.datanode.CachingStrategy;
 import org.apache.hadoop.net.NetUtils;
@@ -64,6 +73,7 @@
 import org.apache.hadoop.util.Time;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * This class provides rudimentary checking of DFS volumes for errors and
@@ -96,6 +106,15 @@ public class NamenodeFsck {
   public static final String HEALTHY_STATUS = "is HEALTHY";
   public static final String NONEXISTENT_STATUS = "does not exist";
   public static final String FAILURE_STATUS = "FAILED";
+
+  // status of the blocks listed by -list-unhealthyblocks
+  public static final String MISSING_BLOCK = "MISSING";
+  public static final String CORRUPT_BLOCK = "CORRUPT";
+  public static final String UNDER_REPLICATED_BLOCK = "UNDER_REPLICATED";
+  static final String UNHEALTHY_BLOCKS_HEADER =
+      "#STATUS\tBLOCK\tPATH\tLIVE_REPLICAS\tEXPECTED_REPLICAS";
+  /** The number of blocks listed per hold of the namesystem lock */
+  private static final int UNHEALTHY_BLOCKS_PER_LOCK = 1000;
   
   private final NameNode namenode;
   private final NetworkTopology networktopology;
@@ -112,12 +131,17 @@ public class NamenodeFsck {
   private boolean showLocations = false;
   private boolean showRacks = false;
   private boolean showCorruptFileBlocks = false;
+  private boolean showUnhealthyBlocks = false;
+  /** The number of threads checking subtrees in parallel */
+  private int numThreads = 1;
+  /** The reason the request is invalid, or null if it is valid. */
+  private String usageError = null;
 
   /**
    * True if we encountered an internal error during FSCK, such as not being
    * able to delete a corrupt file.
    */
-  private boolean internalError = false;
+  private volatile boolean internalError = false;
 
   /** 
    * True if the user specified the -move option.
@@ -184,6 +208,25 @@ public class NamenodeFsck {
       else if (key.equals("listcorruptfileblocks")) {
         this.showCorruptFileBlocks = true;
       }
+      else if (key.equals("listunhealthyblocks")) {
+        this.showUnhealthyBlocks = true;
+      }
+      else if (key.equals("threads")) {
+        final String threads = pmap.get("threads")[0];
+        int n;
+        try {
+          n = Integer.parseInt(threads);
+        } catch (NumberFormatException e) {
+          n = 0;
+        }
+        if (n < 1) {
+          this.usageError = "Illegal number of threads '" + threads + "'";
+        } else {
+          this.numThreads = Math.min(n,
+              conf.getInt(DFSConfigKeys.DFS_NAMENODE_FSCK_MAX_THREADS_KEY,
+                  DFSConfigKeys.DFS_NAMENODE_FSCK_MAX_THREADS_DEFAULT));
+        }
+      }
       else if (key.equals("startblockafter")) {
         this.currentCookie[0] = pmap.get("startblockafter")[0];
       } else if (key.equals("includeSnapshots")) {
@@ -198,6 +241,11 @@ else if (key.equals("startblockafter")) {
   public void fsck() {
     final long startTime = Time.now();
     try {
+      if (usageError != null) {
+        out.println(usageError);
+        out.print("\n\nFsck on path '" + path + "' " + FAILURE_STATUS);
+        return;
+      }
       String msg = "FSCK started by " + UserGroupInformation.getCurrentUser()
           + " from " + remoteAddress + " for path " + path + " at " + new Date();
       LOG.info(msg);
@@ -221,14 +269,29 @@ public void fsck() {
           listCorruptFileBlocks();
           return;
         }
+        if (showUnhealthyBlocks) {
+          listUnhealthyBlocks();
+          return;
+        }
         
         Result res = new Result(conf);
 
-        check(path, file, res);
+        if (numThreads > 1) {
+          checkParallel(path, file, res);
+        } else {
+          check(path, file, res);
+        }
 
         out.println(res);
         out.println(" Number of data-nodes:\t\t" + totalDatanodes);
         out.println(" Number of racks:\t\t" + networktopology.getNumOfRacks());
+        long pendingSubtrees =
+            namenode.getNamesystem().getPendingReclamationSubtrees();
+        if (pendingSubtrees > 0) {
+          out.println(" Deleted paths pending removal:\t" + pendingSubtrees);
+          out.println(" Blocks of deleted files pending removal:\t"
+              + namenode.getNamesystem().getPendingReclamationBlocks());
+        }
 
         out.println("FSCK ended at " + new Date() + " in "
             + (Time.now() - startTime + " milliseconds"));
@@ -286,10 +349,188 @@ private void listCorruptFileBlocks() throws IOException {
     out.println();
   }
   
+  /**
+   * List the missing, corrupt and under-replicated blocks under the path,
+   * one block per tab separated line.  The blocks are taken from the
+   * replication queues of the block manager, without walking the namespace.
+   */
+  private void listUnhealthyBlocks() throws IOException {
+    final FSNamesystem fsn = namenode.getNamesystem();
+    final BlockManager bm = fsn.getBlockManager();
+    final List<Block> blocks;
+    fsn.readLock();
+    try {
+      if (!fsn.isPopulatingReplQueues()) {
+        throw new IOException("Cannot list unhealthy blocks because " +
+                              "replication queues have not been initialized.");
+      }
+      blocks = bm.getNeededReplicationBlocks();
+    } finally {
+      fsn.readUnlock();
+    }
+
+    final String prefix = path.endsWith(Path.SEPARATOR) ? path
+        : path + Path.SEPARATOR;
+    long missing = 0;
+    long corrupt = 0;
+    long underReplicated = 0;
+    out.println(UNHEALTHY_BLOCKS_HEADER);
+    for (int i = 0; i < blocks.size(); i += UNHEALTHY_BLOCKS_PER_LOCK) {
+      // Release the lock between batches, so that a long listing does not
+      // hold up other operations.
+      fsn.readLock();
+      try {
+        for (Block b : blocks.subList(i,
+            Math.min(blocks.size(), i + UNHEALTHY_BLOCKS_PER_LOCK))) {
+          final BlockInfo storedBlock = bm.getStoredBlock(b);
+          final BlockCollection bc = storedBlock == null ? null
+              : storedBlock.getBlockCollection();
+          if (bc == null) {
+            continue; // the file has been deleted
+          }
+          final String src = bc.getName();
+          if (!src.equals(path) && !src.startsWith(prefix)) {
+            continue;
+          }
+          final NumberReplicas replicas = bm.countNodes(storedBlock);
+          final int expected = bc.getBlockReplication();
+          final String status;
+          // The replicas on decommissioning or decommissioned datanodes can
+          // still be read.
+          if (replicas.liveReplicas() == 0
+              && replicas.decommissionedReplicas() == 0) {
+            if (replicas.corruptReplicas() > 0) {
+              status = CORRUPT_BLOCK;
+              corrupt++;
+            } else {
+              status = MISSING_BLOCK;
+              missing++;
+            }
+          } else if (replicas.liveReplicas() < expected) {
+            status = UNDER_REPLICATED_BLOCK;
+            underReplicated++;
+          } else {
+            continue;
+          }
+          out.println(status + "\t" + storedBlock + "\t" + src + "\t"
+              + replicas.liveReplicas() + "\t" + expected);
+        }
+      } finally {
+        fsn.readUnlock();
+      }
+      out.flush();
+    }
+    out.println();
+    out.println(" Missing blocks:\t\t" + missing);
+    out.println(" Corrupt blocks:\t\t" + corrupt);
+    out.println(" Under-replicated blocks:\t" + underReplicated);
+    out.print("\n\nThe filesystem under path '" + path + "' "
+        + (missing == 0 && corrupt == 0 ? HEALTHY_STATUS : CORRUPT_STATUS));
+  }
+
+  /**
+   * Check the files under the path with {@link #numThreads} threads, each
+   * checking a different subtree.
+   */
+  private void checkParallel(String path, HdfsFileStatus file, Result res)
+      throws IOException {
+    final SubtreeChecker subtrees = new SubtreeChecker(numThreads);
+    try {
+      check(path, file, res, subtrees);
+      subtrees.waitForResults(res);
+    } finally {
+      subtrees.shutdown();
+    }
+  }
+
+  /**
+   * Checks the subdirectories handed to it in parallel.  Every subdirectory
+   * is checked by a separate task with its own {@link Result}.  As in a
+   * sequential check, the namesystem lock is only held for each listing and
+   * block lookup, so the tasks do not hold up other operations for long.
+   */
+  private class SubtreeChecker {
+    private final ExecutorService executor;
+    private final List<Result> results = new ArrayList<Result>();
+    private int pending = 0;
+    private IOException error = null;
+
+    SubtreeChecker(int numThreads) {
+      executor = Executors.newFixedThreadPool(numThreads,
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("fsck-%d")
+              .build());
+    }
+
+    /** Check the given directory in the background. */
+    synchronized void submit(final String parent, final HdfsFileStatus dir) {
+      if (error != null) {
+        return;
+      }
+      pending++;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          final Result res = new Result(conf);
+          IOException ioe = null;
+          try {
+            check(parent, dir, res, SubtreeChecker.this);
+          } catch (IOException e) {
+            ioe = e;
+          } catch (RuntimeException e) {
+            ioe = new IOException(e);
+          }
+          done(res, ioe);
+        }
+      });
+    }
+
+    private synchronized void done(Result res, IOException e) {
+      results.add(res);
+      if (e != null && error == null) {
+        error = e;
+      }
+      pending--;
+      notifyAll();
+    }
+
+    /** Wait for all the directories to be checked and add their results. */
+    synchronized void waitForResults(Result total) throws IOException {
+      while (pending > 0) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException(
+              "Interrupted while checking " + path);
+        }
+      }
+      if (error != null) {
+        throw error;
+      }
+      for (Result r : results) {
+        total.add(r);
+      }
+    }
+
+    void shutdown() {
+      executor.shutdownNow();
+    }
+  }
+
   @VisibleForTesting
   void check(String parent, HdfsFileStatus file, Result res) throws IOException {
+    check(parent, file, res, null);
+  }
+
+  /**
+   * Check a file, or the files under a directory.  If subtrees is not null,
+   * the subdirectories of a directory are handed to it to be checked in
+   * parallel, instead of being checked recursively.
+   */
+  private void check(String parent, HdfsFileStatus file, Result res,
+      SubtreeChecker subtrees) throws IOException {
     String path = file.getFullName(parent);
-    boolean isOpen = false;
 
     if (file.isDir()) {
       if (snapshottableDirs != null && snapshottableDirs.contains(path)) {
@@ -298,7 +539,7 @@ void check(String parent, HdfsFileStatus file, Result res) throws IOException {
             + HdfsConstants.DOT_SNAPSHOT_DIR;
         HdfsFileStatus snapshotFileInfo = namenode.getRpcServer().getFileInfo(
             snapshotPath);
-        check(snapshotPath, snapshotFileInfo, res);
+        check(snapshotPath, snapshotFileInfo, res, subtrees);
       }
       byte[] lastReturnedName = HdfsFileStatus.EMPTY_NAME;
       DirectoryListing thisListing;
@@ -315,7 +556,11 @@ void check(String parent, HdfsFileStatus file, Result res) throws IOException {
         }
         HdfsFileStatus[] files = thisListing.getPartialListing();
         for (int i = 0; i < files.length; i++) {
-          check(path, files[i], res);
+          if (subtrees != null && files[i].isDir()) {
+            subtrees.submit(path, files[i]);
+          } else {
+            check(path, files[i], res, subtrees);
+          }
         }
         lastReturnedName = thisListing.getLastName();
       } while (thisListing.hasMore());
@@ -328,6 +573,25 @@ void check(String parent, HdfsFileStatus file, Result res) throws IOException {
       res.totalSymlinks++;
       return;
     }
+    if (subtrees == null) {
+      checkFile(parent, path, file, res, out);
+    } else {
+      // Buffer the report of each file, so that the reports of the files
+      // checked in parallel do not interleave.
+      final StringWriter report = new StringWriter();
+      checkFile(parent, path, file, res, new PrintWriter(report));
+      synchronized (out) {
+        out.print(report);
+        if (res.totalFiles % 100 == 0) {
+          out.flush();
+        }
+      }
+    }
+  }
+
+  private void checkFile(String parent, String path, HdfsFileStatus file,
+      Result res, PrintWriter out) throws IOException {
+    boolean isOpen = false;
     long fileLen = file.getLen();
     // Get block locations without updating the file access time 
     // and without block access tokens
@@ -491,8 +755,10 @@ private void copyBlocksToLostFound(String parent, HdfsFileStatus file,
     final String fullName = file.getFullName(parent);
     OutputStream fos = null;
     try {
-      if (!lfInited) {
-        lostFoundInit(dfs);
+      synchronized (this) {
+        if (!lfInited) {
+          lostFoundInit(dfs);
+        }
       }
       if (!lfInitedOk) {
         throw new IOException("failed to initialize lost+found");
@@ -730,6 +996,30 @@ boolean isHealthy() {
       return ((missingIds.size() == 0) && (corruptBlocks == 0));
     }
     
+    /** Add the results of checking another part of the namespace. */
+    void add(Result other) {
+      missingIds.addAll(other.missingIds);
+      missingSize += other.missingSize;
+      corruptFiles += other.corruptFiles;
+      corruptBlocks += other.corruptBlocks;
+      excessiveReplicas += other.excessiveReplicas;
+      missingReplicas += other.missingReplicas;
+      numOverReplicatedBlocks += other.numOverReplicatedBlocks;
+      numUnderReplicatedBlocks += other.numUnderReplicatedBlocks;
+      numMisReplicatedBlocks += other.numMisReplicatedBlocks;
+      numMinReplicatedBlocks += other.numMinReplicatedBlocks;
+      totalBlocks += other.totalBlocks;
+      numExpectedReplicas += other.numExpectedReplicas;
+      totalOpenFilesBlocks += other.totalOpenFilesBlocks;
+      totalFiles += other.totalFiles;
+      totalOpenFiles += other.totalOpenFiles;
+      totalDirs += other.totalDirs;
+      totalSymlinks += other.totalSymlinks;
+      totalSize += other.totalSize;
+      totalOpenFilesSize += other.totalOpenFilesSize;
+      totalReplicas += other.totalReplicas;
+    }
+
     /** Add a missing block name, plus its size. */
     void addMissing(String id, long size) {
       missingIds.add(id);
@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.hadoop.util.Daemon;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+/**
+ * An {@link EditLogInputStream} which decodes the ops of another stream on a
+ * background thread, so that reading and decoding the next ops overlaps with
+ * applying the current one to the namespace.
+ *
+ * Ops are handed over in stream order through a bounded queue.  Since the
+ * decoder may run ahead of the consumer, the underlying stream must return a
+ * distinct op instance from every read, i.e.
+ * {@link EditLogInputStream#disableOpCache()} must have succeeded on it.
+ *
+ * Decoding errors are reported to the consumer when it reaches the position
+ * at which they happened.  The decoder stops at the first error; if the
+ * consumer then calls {@link #resync()}, the damaged section is skipped by
+ * the underlying stream and decoding resumes after it.
+ */
+class PipelinedEditLogInputStream extends EditLogInputStream {
+  /** A decoded op, or the error or end of stream reached by the decoder. */
+  private static class Entry {
+    final FSEditLogOp op;
+    final long position;
+    final int logVersion;
+    final Throwable error;
+
+    Entry(FSEditLogOp op, long position, int logVersion, Throwable error) {
+      this.op = op;
+      this.position = position;
+      this.logVersion = logVersion;
+      this.error = error;
+    }
+  }
+
+  private final EditLogInputStream in;
+  private final BlockingQueue<Entry> queue;
+  private Daemon decoder;
+  private volatile boolean running = true;
+
+  /** The last entry handed to the consumer. */
+  private Entry current;
+  /** Whether the consumer has reached the end of stream or an error. */
+  private boolean finished = false;
+
+  PipelinedEditLogInputStream(EditLogInputStream in, int capacity)
+      throws IOException {
+    Preconditions.checkArgument(capacity > 0,
+        "capacity must be positive: %s", capacity);
+    this.in = in;
+    this.queue = new ArrayBlockingQueue<Entry>(capacity);
+    this.current = new Entry(null, in.getPosition(), in.getVersion(), null);
+    startDecoding(current.logVersion);
+  }
+
+  /** Start a decoder thread reading from the current underlying position. */
+  private void startDecoding(final int logVersion) {
+    decoder = new Daemon(new Runnable() {
+      @Override
+      public void run() {
+        decode(logVersion);
+      }
+    });
+    decoder.setName("Edit log decoder for " + in.getName());
+    decoder.start();
+  }
+
+  /** Body of the decoder thread. */
+  private void decode(int initialVersion) {
+    int logVersion = initialVersion;
+    try {
+      while (running) {
+        Entry entry;
+        try {
+          FSEditLogOp op = in.readOp();
+          logVersion = in.getVersion();
+          entry = new Entry(op, in.getPosition(), logVersion, null);
+        } catch (Throwable t) {
+          entry = new Entry(null, in.getPosition(), logVersion, t);
+        }
+        queue.put(entry);
+        if (entry.op == null) {
+          // End of stream or error; nothing more to decode.
+          return;
+        }
+      }
+    } catch (InterruptedException ie) {
+      // Interrupted by close()
+    }
+  }
+
+  @Override
+  protected FSEditLogOp nextOp() throws IOException {
+    if (!finished) {
+      try {
+        current = queue.take();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted while waiting for decoded edit log ops");
+      }
+      finished = (current.op == null);
+    }
+    Throwable error = current.error;
+    if (error != null) {
+      Throwables.propagateIfPossible(error, IOException.class);
+      throw new IOException(error);
+    }
+    return current.op;
+  }
+
+  @Override
+  protected FSEditLogOp nextValidOp() {
+    // Hand out the ops decoded before the damaged section first.
+    while (!finished) {
+      try {
+        return nextOp();
+      } catch (Throwable t) {
+        // finished is now set; skip the damaged section below.
+      }
+    }
+    if (current.error == null) {
+      return null;
+    }
+    // The decoder exits after queueing an error, leaving the underlying
+    // stream right after it; let that stream skip the damaged section.
+    stopDecoding();
+    FSEditLogOp op = in.nextValidOp();
+    if (op == null) {
+      current = new Entry(null, in.getPosition(), current.logVersion, null);
+      return null;
+    }
+    int logVersion;
+    try {
+      logVersion = in.getVersion();
+    } catch (IOException e) {
+      logVersion = current.logVersion;
+    }
+    current = new Entry(op, in.getPosition(), logVersion, null);
+    finished = false;
+    running = true;
+    startDecoding(logVersion);
+    return op;
+  }
+
+  /**
+   * Stop the decoder thread and wait for it to exit.  Ops which have been
+   * decoded but not yet read are discarded.  The underlying stream is left
+   * open.
+   */
+  void stopDecoding() {
+    running = false;
+    decoder.interrupt();
+    queue.clear();
+    boolean interrupted = false;
+    while (decoder.isAlive()) {
+      try {
+        decoder.join();
+      } catch (InterruptedException ie) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String getName() {
+    return in.getName();
+  }
+
+  @Override
+  public long getFirstTxId() {
+    return in.getFirstTxId();
+  }
+
+  @Override
+  public long getLastTxId() {
+    return in.getLastTxId();
+  }
+
+  @Override
+  public void close() throws IOException {
+    stopDecoding();
+    in.close();
+  }
+
+  @Override
+  public int getVersion() throws IOException {
+    return current.logVersion;
+  }
+
+  @Override
+  public long getPosition() {
+    return current.position;
+  }
+
+  @Override
+  public long length() throws IOException {
+    return in.length();
+  }
+
+  @Override
+  public boolean isInProgress() {
+    return in.isInProgress();
+  }
+
+  @Override
+  public void setMaxOpSize(int maxOpSize) {
+    in.setMaxOpSize(maxOpSize);
+  }
+
+  @Override
+  public String toString() {
+    return "PipelinedEditLogInputStream(" + in + ")";
+  }
+}
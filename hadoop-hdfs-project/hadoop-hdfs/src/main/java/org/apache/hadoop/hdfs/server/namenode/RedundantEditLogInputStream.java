@@ -279,4 +279,13 @@ public void setMaxOpSize(int maxOpSize) {
       elis.setMaxOpSize(maxOpSize);
     }
   }
+
+  @Override
+  public boolean disableOpCache() {
+    boolean disabled = true;
+    for (EditLogInputStream elis : streams) {
+      disabled &= elis.disableOpCache();
+    }
+    return disabled;
+  }
 }
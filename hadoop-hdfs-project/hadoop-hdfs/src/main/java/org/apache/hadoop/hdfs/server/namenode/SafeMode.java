@@ -48,6 +48,14 @@ public interface SafeMode {
    */
   public void incrementSafeBlockCount(int replication);
 
+  /**
+   * Increment number of blocks that reached minimal replication by the
+   * given number of blocks, which all have the given replication.
+   * @param replication current replication of the blocks
+   * @param count number of blocks
+   */
+  public void incrementSafeBlockCount(int replication, int count);
+
   /** Decrement number of blocks that reached minimal replication. */
   public void decrementSafeBlockCount(Block b);
 }
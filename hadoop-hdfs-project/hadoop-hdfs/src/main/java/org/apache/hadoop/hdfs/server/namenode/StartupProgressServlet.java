@@ -50,6 +50,7 @@ public class StartupProgressServlet extends DfsServlet {
   private static final String SIZE = "size";
   private static final String STATUS = "status";
   private static final String STEPS = "steps";
+  private static final String THROUGHPUT = "throughput";
   private static final String TOTAL = "total";
 
   public static final String PATH_SPEC = "/startupProgress";
@@ -75,6 +76,7 @@ protected void doGet(HttpServletRequest req, HttpServletResponse resp)
         json.writeStringField(STATUS, view.getStatus(phase).toString());
         json.writeNumberField(PERCENT_COMPLETE, view.getPercentComplete(phase));
         json.writeNumberField(ELAPSED_TIME, view.getElapsedTime(phase));
+        json.writeNumberField(THROUGHPUT, view.getThroughput(phase));
         writeStringFieldIfNotNull(json, FILE, view.getFile(phase));
         writeNumberFieldIfDefined(json, SIZE, view.getSize(phase));
         json.writeArrayFieldStart(STEPS);
@@ -93,6 +95,7 @@ protected void doGet(HttpServletRequest req, HttpServletResponse resp)
           json.writeNumberField(PERCENT_COMPLETE, view.getPercentComplete(phase,
             step));
           json.writeNumberField(ELAPSED_TIME, view.getElapsedTime(phase, step));
+          json.writeNumberField(THROUGHPUT, view.getThroughput(phase, step));
           json.writeEndObject();
         }
 
@@ -19,6 +19,9 @@
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
@@ -34,10 +37,18 @@
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.HAUtil;
 import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
 import org.apache.hadoop.io.retry.FailoverProxyProvider;
+import org.apache.hadoop.ipc.Client.ConnectionId;
 import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
+import org.apache.hadoop.ipc.RpcInvocationHandler;
+import org.apache.hadoop.ipc.StandbyException;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Time;
 
 import com.google.common.base.Preconditions;
 
@@ -45,6 +56,12 @@
  * A FailoverProxyProvider implementation which allows one to configure two URIs
  * to connect to during fail-over. The first configured address is tried first,
  * and on a fail-over event the other address is tried.
+ *
+ * If {@link DFSConfigKeys#DFS_CLIENT_FAILOVER_STANDBY_READS_ENABLED_KEY} is
+ * set, the {@link ReadOnly} methods of {@link ClientProtocol} are sent to the
+ * other NameNode, the standby, once it has applied the transactions which
+ * the active had written when this client last wrote. Until then, or if the
+ * standby does not serve reads, they are sent to the active.
  */
 public class ConfiguredFailoverProxyProvider<T> implements
     FailoverProxyProvider<T> {
@@ -60,6 +77,12 @@
   
   private int currentProxyIndex = 0;
 
+  /** Whether reads are sent to the standby. */
+  private final boolean standbyReads;
+  private final long standbyReadsRecheckMs;
+  private StandbyReadInvocationHandler standbyReadHandler;
+  private T standbyReadProxy;
+
   public ConfiguredFailoverProxyProvider(Configuration conf, URI uri,
       Class<T> xface) {
     Preconditions.checkArgument(
@@ -81,6 +104,13 @@ public ConfiguredFailoverProxyProvider(Configuration conf, URI uri,
     this.conf.setInt(
         CommonConfigurationKeysPublic.IPC_CLIENT_CONNECT_MAX_RETRIES_ON_SOCKET_TIMEOUTS_KEY,
         maxRetriesOnSocketTimeouts);
+
+    this.standbyReads = xface == ClientProtocol.class && this.conf.getBoolean(
+        DFSConfigKeys.DFS_CLIENT_FAILOVER_STANDBY_READS_ENABLED_KEY,
+        DFSConfigKeys.DFS_CLIENT_FAILOVER_STANDBY_READS_ENABLED_DEFAULT);
+    this.standbyReadsRecheckMs = this.conf.getLong(
+        DFSConfigKeys.DFS_CLIENT_FAILOVER_STANDBY_READS_RECHECK_MS_KEY,
+        DFSConfigKeys.DFS_CLIENT_FAILOVER_STANDBY_READS_RECHECK_MS_DEFAULT);
     
     try {
       ugi = UserGroupInformation.getCurrentUser();
@@ -119,7 +149,24 @@ public Class<T> getInterface() {
   @SuppressWarnings("unchecked")
   @Override
   public synchronized T getProxy() {
-    AddressRpcProxyPair current = proxies.get(currentProxyIndex);
+    if (standbyReads && proxies.size() > 1) {
+      if (standbyReadProxy == null) {
+        standbyReadHandler = new StandbyReadInvocationHandler();
+        standbyReadProxy = (T)Proxy.newProxyInstance(xface.getClassLoader(),
+            new Class<?>[] { xface }, standbyReadHandler);
+      }
+      return standbyReadProxy;
+    }
+    return getProxy(0);
+  }
+
+  /**
+   * Lazily initialize the RPC proxy object of a NameNode.
+   * @param offset 0 for the current NameNode, 1 for the next one.
+   */
+  private synchronized T getProxy(int offset) {
+    AddressRpcProxyPair<T> current =
+        proxies.get((currentProxyIndex + offset) % proxies.size());
     if (current.namenode == null) {
       try {
         current.namenode = NameNodeProxies.createNonHAProxy(conf,
@@ -129,12 +176,165 @@ public synchronized T getProxy() {
         throw new RuntimeException(e);
       }
     }
-    return (T)current.namenode;
+    return current.namenode;
   }
 
   @Override
   public synchronized void performFailover(T currentProxy) {
     currentProxyIndex = (currentProxyIndex + 1) % proxies.size();
+    if (standbyReadHandler != null) {
+      standbyReadHandler.resetStandby();
+    }
+  }
+
+  /**
+   * Sends the {@link ReadOnly} methods to the standby when it has caught up
+   * with the writes of this client, and all other methods to the active.
+   *
+   * After a write, the id of the last transaction written by the active is
+   * fetched with {@link ClientProtocol#msync(long)} before the next read, and
+   * the standby is asked whether it has applied that transaction. If it has
+   * not, or it cannot serve the read, reads are sent to the active for
+   * {@link #standbyReadsRecheckMs} before the standby is asked again. The
+   * standby only serves the reads of the clients which called msync on it.
+   */
+  private class StandbyReadInvocationHandler implements RpcInvocationHandler {
+    /** The number of writes sent by this client, guarded by this. */
+    private long writeCount = 1;
+    /** The number of writes when {@link #requiredTxId} was fetched. */
+    private long syncedWriteCount = 0;
+    /** The last transaction written by the active after those writes. */
+    private long requiredTxId = 0;
+    /** The last transaction the standby is known to have applied. */
+    private long standbyTxId = -1;
+    /** When reads may be sent to the standby again after it fell behind. */
+    private long standbyRecheckTime = 0;
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      if (method.getDeclaringClass() == Object.class) {
+        return method.invoke(this, args);
+      }
+      if (!method.isAnnotationPresent(ReadOnly.class)) {
+        try {
+          return invokeOn(getProxy(0), method, args);
+        } finally {
+          synchronized (this) {
+            writeCount++;
+          }
+        }
+      }
+      final T standby = getStandbyIfInSync();
+      if (standby != null) {
+        try {
+          return invokeOn(standby, method, args);
+        } catch (IOException e) {
+          if (!isStandbyFailure(e)) {
+            throw e;
+          }
+          standbyFailed(e);
+        }
+      }
+      return invokeOn(getProxy(0), method, args);
+    }
+
+    private Object invokeOn(T target, Method method, Object[] args)
+        throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    /**
+     * @return the standby proxy if it has applied the transactions written
+     *         before the last write of this client, otherwise null.
+     */
+    private T getStandbyIfInSync() {
+      final long writes;
+      long required;
+      long applied;
+      synchronized (this) {
+        if (Time.monotonicNow() < standbyRecheckTime) {
+          return null;
+        }
+        writes = writeCount;
+        required = syncedWriteCount == writes ? requiredTxId : -1;
+        applied = standbyTxId;
+      }
+      final T standby = getProxy(1);
+      try {
+        if (required < 0) {
+          required = ((ClientProtocol)getProxy(0)).msync(0);
+          synchronized (this) {
+            if (writes > syncedWriteCount) {
+              syncedWriteCount = writes;
+              requiredTxId = Math.max(requiredTxId, required);
+            }
+          }
+        }
+        if (applied < required) {
+          // the standby rejects the call if it has not applied the
+          // transaction yet
+          applied = ((ClientProtocol)standby).msync(required);
+        }
+      } catch (IOException e) {
+        standbyFailed(e);
+        return null;
+      }
+      synchronized (this) {
+        standbyTxId = Math.max(standbyTxId, applied);
+        if (applied < required) {
+          standbyRecheckTime = Time.monotonicNow() + standbyReadsRecheckMs;
+          return null;
+        }
+      }
+      return standby;
+    }
+
+    /**
+     * @return true if the standby could not serve a read, as opposed to the
+     *         read itself failing.
+     */
+    private boolean isStandbyFailure(IOException e) {
+      if (!(e instanceof RemoteException)) {
+        return true;
+      }
+      final String className = ((RemoteException)e).getClassName();
+      return StandbyException.class.getName().equals(className)
+          || SafeModeException.class.getName().equals(className)
+          || RetriableException.class.getName().equals(className);
+    }
+
+    private synchronized void standbyFailed(IOException e) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Reading from the active NameNode for "
+            + standbyReadsRecheckMs + " ms since the standby failed", e);
+      }
+      standbyRecheckTime = Time.monotonicNow() + standbyReadsRecheckMs;
+      // msync again, the standby only serves the clients which did since it
+      // started
+      standbyTxId = -1;
+    }
+
+    /** The NameNodes have been swapped, so the standby must be checked. */
+    private synchronized void resetStandby() {
+      syncedWriteCount = 0;
+      standbyTxId = -1;
+      standbyRecheckTime = 0;
+    }
+
+    @Override
+    public ConnectionId getConnectionId() {
+      return RPC.getConnectionIdForProxy(getProxy(0));
+    }
+
+    @Override
+    public void close() throws IOException {
+      // The proxies are closed by the proxy provider.
+    }
   }
 
   /**
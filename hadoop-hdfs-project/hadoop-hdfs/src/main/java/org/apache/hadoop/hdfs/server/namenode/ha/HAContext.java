@@ -80,7 +80,15 @@ public interface HAContext {
 
   /**
    * @return true if the node should allow stale reads (ie reads
-   * while the namespace is not up to date)
+   * while the namespace is not up to date) for the client of the current
+   * call
    */
   boolean allowStaleReads();
+
+  /**
+   * Allow stale reads for the client of the current call from now on, if
+   * the node serves the reads of the clients which check that it has caught
+   * up with their writes.
+   */
+  void addStaleReadClient();
 }
@@ -73,6 +73,10 @@ public class NameNodeMetrics {
   MutableCounterLong snapshotDiffReportOps;
   @Metric("Number of blockReceivedAndDeleted calls")
   MutableCounterLong blockReceivedAndDeletedOps;
+  @Metric("Incremental block reports applied per hold of the write lock")
+  MutableRate incrementalBlockReportBatchSize;
+  @Metric("Time in msec incremental block reports waited to be applied")
+  MutableRate incrementalBlockReportQueueTime;
 
   @Metric("Journal transactions") MutableRate transactions;
   @Metric("Journal syncs") MutableRate syncs;
@@ -83,6 +87,11 @@ public class NameNodeMetrics {
   MutableQuantiles[] blockReportQuantiles;
   @Metric("Cache report") MutableRate cacheReport;
   MutableQuantiles[] cacheReportQuantiles;
+  @Metric("Full rescan of the cache directives")
+  MutableRate cacheRescan;
+  MutableQuantiles[] cacheRescanQuantiles;
+  @Metric("Incremental rescan of new cache directives")
+  MutableRate cacheIncrementalRescan;
 
   @Metric("Duration in SafeMode at startup in msec")
   MutableGaugeInt safeModeTime;
@@ -103,6 +112,7 @@ public class NameNodeMetrics {
     syncsQuantiles = new MutableQuantiles[len];
     blockReportQuantiles = new MutableQuantiles[len];
     cacheReportQuantiles = new MutableQuantiles[len];
+    cacheRescanQuantiles = new MutableQuantiles[len];
     
     for (int i = 0; i < len; i++) {
       int interval = intervals[i];
@@ -115,6 +125,9 @@ public class NameNodeMetrics {
       cacheReportQuantiles[i] = registry.newQuantiles(
           "cacheReport" + interval + "s",
           "Cache report", "ops", "latency", interval);
+      cacheRescanQuantiles[i] = registry.newQuantiles(
+          "cacheRescan" + interval + "s",
+          "Full rescan of the cache directives", "ops", "latency", interval);
     }
   }
 
@@ -222,6 +235,14 @@ public void incrBlockReceivedAndDeletedOps() {
     blockReceivedAndDeletedOps.incr();
   }
 
+  public void addIncrementalBlockReportBatch(int numReports) {
+    incrementalBlockReportBatchSize.add(numReports);
+  }
+
+  public void addIncrementalBlockReportQueueTime(long latency) {
+    incrementalBlockReportQueueTime.add(latency);
+  }
+
   public void addTransaction(long latency) {
     transactions.add(latency);
   }
@@ -255,6 +276,17 @@ public void addCacheBlockReport(long latency) {
     }
   }
 
+  public void addCacheRescan(long latency) {
+    cacheRescan.add(latency);
+    for (MutableQuantiles q : cacheRescanQuantiles) {
+      q.add(latency);
+    }
+  }
+
+  public void addCacheIncrementalRescan(long latency) {
+    cacheIncrementalRescan.add(latency);
+  }
+
   public void setSafeModeTime(long elapsed) {
     safeModeTime.set((int) elapsed);
   }
@@ -123,6 +123,7 @@ public final Quota.Counts deleteSnapshotDiff(final Snapshot snapshot,
   final D addDiff(Snapshot latest, N currentINode)
       throws QuotaExceededException {
     currentINode.addSpaceConsumed(1, 0, true);
+    INodeDirectorySnapshottable.addToDiffIndexes(latest, currentINode);
     return addLast(createDiff(latest, currentINode));
   }
 
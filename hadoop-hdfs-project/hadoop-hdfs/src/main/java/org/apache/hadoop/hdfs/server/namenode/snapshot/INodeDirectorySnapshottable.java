@@ -23,9 +23,11 @@
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -43,6 +45,7 @@
 import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
 import org.apache.hadoop.hdfs.server.namenode.INodeFile;
 import org.apache.hadoop.hdfs.server.namenode.INodeMap;
+import org.apache.hadoop.hdfs.server.namenode.INodeReference;
 import org.apache.hadoop.hdfs.server.namenode.Quota;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectoryWithSnapshotFeature.ChildrenDiff;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectoryWithSnapshotFeature.DirectoryDiff;
@@ -50,6 +53,7 @@
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
 import org.apache.hadoop.util.Time;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.primitives.SignedBytes;
 
@@ -119,6 +123,8 @@ public int compare(INode left, INode right) {
      */
     private final Map<INodeDirectory, ChildrenDiff> dirDiffMap = 
         new HashMap<INodeDirectory, ChildrenDiff>();
+    /** The number of inodes compared between the snapshots. */
+    private int numCompared = 0;
     
     SnapshotDiffInfo(INodeDirectorySnapshottable snapshotRoot, Snapshot start,
         Snapshot end) {
@@ -139,6 +145,11 @@ private void addFileDiff(INodeFile file, byte[][] relativePath) {
       diffMap.put(file, relativePath);
     }
     
+    @VisibleForTesting
+    int getNumCompared() {
+      return numCompared;
+    }
+    
     /** @return True if {@link #from} is earlier than {@link #to} */
     private boolean isFromEarlier() {
       return Snapshot.ID_COMPARATOR.compare(from, to) < 0;
@@ -183,6 +194,9 @@ ReadOnlyList<Snapshot> getSnapshotsByNames() {
   /** Number of snapshots allowed. */
   private int snapshotQuota = SNAPSHOT_LIMIT;
 
+  /** The inodes with snapshot diffs, for computing diff reports. */
+  private final SnapshotDiffIndex diffIndex = new SnapshotDiffIndex(this);
+
   public INodeDirectorySnapshottable(INodeDirectory dir) {
     super(dir, true, true);
     // add snapshot feature if the original directory does not have it
@@ -355,6 +369,43 @@ public ContentSummaryComputationContext computeContentSummary(
     return summary;
   }
 
+  /**
+   * Record that the inode added a diff for the snapshot, in the diff index
+   * of the snapshot's directory and in those of the snapshottable
+   * directories above the inode.
+   */
+  static void addToDiffIndexes(Snapshot snapshot, INode inode) {
+    final INodeDirectory snapshotRoot = snapshot.getRoot().getParent();
+    if (snapshotRoot != null && snapshotRoot.isSnapshottable()) {
+      ((INodeDirectorySnapshottable) snapshotRoot).diffIndex.addDiff(
+          snapshot, inode);
+    }
+    for (INodeDirectory dir = inode.getParent(); dir != null;
+        dir = dir.getParent()) {
+      if (dir.isSnapshottable() && dir != snapshotRoot) {
+        ((INodeDirectorySnapshottable) dir).diffIndex.addDiff(snapshot, inode);
+      }
+    }
+  }
+
+  /**
+   * Update the diff index after a snapshot, possibly of another directory,
+   * has been deleted.
+   */
+  void removeFromDiffIndex(Snapshot snapshot) {
+    diffIndex.removeSnapshot(snapshot);
+  }
+
+  /** Remove the inodes deleted from the namespace from the diff index. */
+  void removeFromDiffIndex(Set<INode> inodes) {
+    diffIndex.removeINodes(inodes);
+  }
+
+  @VisibleForTesting
+  boolean isInDiffIndex(INode inode) {
+    return diffIndex.contains(inode);
+  }
+
   /**
    * Compute the difference between two snapshots (or a snapshot and the current
    * directory) of the directory.
@@ -377,9 +428,67 @@ SnapshotDiffInfo computeDiff(final String from, final String to)
     }
     SnapshotDiffInfo diffs = new SnapshotDiffInfo(this, fromSnapshot,
         toSnapshot);
-    computeDiffRecursively(this, new ArrayList<byte[]>(), diffs);
+    final Set<INode> paths = getPathsToChanges(diffs);
+    computeDiffRecursively(this, new ArrayList<byte[]>(), diffs, paths);
     return diffs;
   }
+
+  /**
+   * Find the inodes on the paths from this directory to the inodes which may
+   * have changed between the snapshots, according to the diff index.
+   * @return the inodes, or null if the paths cannot be determined from the
+   *         current tree and the whole subtree has to be compared.
+   */
+  private Set<INode> getPathsToChanges(SnapshotDiffInfo diffs) {
+    final Snapshot earlier = diffs.isFromEarlier() ? diffs.from : diffs.to;
+    final Snapshot later = diffs.isFromEarlier() ? diffs.to : diffs.from;
+    final Set<INode> paths = new HashSet<INode>();
+    for (INode inode : diffIndex.getChangedINodes(earlier, later)) {
+      if (!addPaths(inode, paths) && inode.getParent() == null) {
+        // The inode has been detached from the tree, so its paths in the
+        // snapshots cannot be found.
+        return null;
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Add the inode and its ancestors up to this directory to the paths.  A
+   * renamed inode is reached through each of its references, i.e. through
+   * its current path and through its paths in the snapshots taken before
+   * the renames.
+   * @return true if the inode is under this directory.
+   */
+  private boolean addPaths(INode inode, Set<INode> paths) {
+    final List<INode> path = new ArrayList<INode>();
+    for (INode i = inode; i != this; i = i.getParent()) {
+      if (i == null) {
+        return false;
+      }
+      if (paths.contains(i)) {
+        break;
+      }
+      path.add(i);
+      final INodeReference ref = i.getParentReference();
+      if (ref != null) {
+        final INodeReference.WithCount wc = (INodeReference.WithCount) ref;
+        boolean found = false;
+        if (wc.getParentReference() != null) {
+          found |= addPaths(wc.getParentReference(), paths);
+        }
+        for (INodeReference.WithName wn : wc.getWithNames()) {
+          found |= addPaths(wn, paths);
+        }
+        if (!found) {
+          return false;
+        }
+        break;
+      }
+    }
+    paths.addAll(path);
+    return true;
+  }
   
   /**
    * Find the snapshot matching the given name.
@@ -410,9 +519,11 @@ private Snapshot getSnapshotByName(String snapshotName)
    * @param parentPath Relative path (corresponding to the snapshot root) of 
    *                   the node's parent.
    * @param diffReport data structure used to store the diff.
+   * @param paths If not null, only the children in this set are compared.
    */
   private void computeDiffRecursively(INode node, List<byte[]> parentPath,
-      SnapshotDiffInfo diffReport) {
+      SnapshotDiffInfo diffReport, Set<INode> paths) {
+    diffReport.numCompared++;
     ChildrenDiff diff = new ChildrenDiff();
     byte[][] relativePath = parentPath.toArray(new byte[parentPath.size()][]);
     if (node.isDirectory()) {
@@ -428,11 +539,14 @@ private void computeDiffRecursively(INode node, List<byte[]> parentPath,
       ReadOnlyList<INode> children = dir.getChildrenList(diffReport
           .isFromEarlier() ? diffReport.to : diffReport.from);
       for (INode child : children) {
+        if (paths != null && !paths.contains(child)) {
+          continue;
+        }
         final byte[] name = child.getLocalNameBytes();
         if (diff.searchIndex(ListType.CREATED, name) < 0
             && diff.searchIndex(ListType.DELETED, name) < 0) {
           parentPath.add(name);
-          computeDiffRecursively(child, parentPath, diffReport);
+          computeDiffRecursively(child, parentPath, diffReport, paths);
           parentPath.remove(parentPath.size() - 1);
         }
       }
@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.snapshot;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.INodeFile;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectoryWithSnapshotFeature.DirectoryDiff;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectoryWithSnapshotFeature.DirectoryDiffList;
+import org.apache.hadoop.hdfs.util.Diff.ListType;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The inodes under a snapshottable directory which have a snapshot diff,
+ * indexed by the snapshot of the diff.
+ *
+ * A change is recorded in the diff of the latest snapshot at the time of
+ * the change, which may be a snapshot of a nested snapshottable directory.
+ * Since snapshot ids increase over time, the inodes changed between an
+ * earlier and a later snapshot are the ones indexed under the snapshot ids
+ * from the earlier one (inclusive) to the later one (exclusive).
+ *
+ * The index is not saved in the fsimage.  It is built from the snapshot
+ * diffs, which are saved, the first time it is used, and it is kept up to
+ * date afterwards.  It may contain inodes whose diffs have since been
+ * removed, but it never misses an inode which has a diff.  The inodes which
+ * are deleted from the namespace are removed from the index.
+ *
+ * The index is updated under the namesystem write lock, but it is built and
+ * read under the read lock, so all access is synchronized.
+ */
+class SnapshotDiffIndex {
+  private final INodeDirectorySnapshottable snapshotRoot;
+  /** Snapshot id -> inodes with a diff of the snapshot. Null if not built. */
+  private NavigableMap<Integer, Set<INode>> index = null;
+
+  SnapshotDiffIndex(INodeDirectorySnapshottable snapshotRoot) {
+    this.snapshotRoot = snapshotRoot;
+  }
+
+  /** Record that the inode added a diff for the snapshot. */
+  synchronized void addDiff(Snapshot snapshot, INode inode) {
+    if (index != null) {
+      add(snapshot.getId(), inode);
+    }
+  }
+
+  /**
+   * Reindex the inodes indexed under a deleted snapshot.  Their diffs of the
+   * snapshot have been removed, or combined into or reassigned to the diffs
+   * of earlier snapshots.
+   */
+  synchronized void removeSnapshot(Snapshot snapshot) {
+    if (index == null) {
+      return;
+    }
+    final Set<INode> removed = index.remove(snapshot.getId());
+    if (removed != null) {
+      for (INode inode : removed) {
+        addDiffs(inode);
+      }
+    }
+  }
+
+  /** Remove the inodes, which have been deleted from the namespace. */
+  synchronized void removeINodes(Set<INode> inodes) {
+    if (index == null) {
+      return;
+    }
+    for (Iterator<Set<INode>> i = index.values().iterator(); i.hasNext();) {
+      final Set<INode> indexed = i.next();
+      indexed.removeAll(inodes);
+      if (indexed.isEmpty()) {
+        i.remove();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized boolean contains(INode inode) {
+    if (index != null) {
+      for (Set<INode> inodes : index.values()) {
+        if (inodes.contains(inode)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the inodes which may have changed between the two snapshots.
+   * @param earlier The earlier snapshot.
+   * @param later The later snapshot, or null for the current tree.
+   */
+  synchronized Set<INode> getChangedINodes(Snapshot earlier, Snapshot later) {
+    if (index == null) {
+      index = new TreeMap<Integer, Set<INode>>();
+      collect(snapshotRoot);
+    }
+    final NavigableMap<Integer, Set<INode>> range = later == null ?
+        index.tailMap(earlier.getId(), true) :
+        index.subMap(earlier.getId(), true, later.getId(), false);
+    final Set<INode> changed = new HashSet<INode>();
+    for (Set<INode> inodes : range.values()) {
+      changed.addAll(inodes);
+    }
+    return changed;
+  }
+
+  private void add(int snapshotId, INode inode) {
+    Set<INode> inodes = index.get(snapshotId);
+    if (inodes == null) {
+      inodes = new HashSet<INode>();
+      index.put(snapshotId, inodes);
+    }
+    inodes.add(inode);
+  }
+
+  /** Index the existing diffs of the inode. */
+  private void addDiffs(INode inode) {
+    if (inode.isFile()) {
+      final INodeFile file = inode.asFile();
+      if (file.isWithSnapshot()) {
+        for (FileDiff d : file.getDiffs()) {
+          add(d.getSnapshot().getId(), file);
+        }
+      }
+    } else if (inode.isDirectory()) {
+      final DirectoryDiffList diffs = inode.asDirectory().getDiffs();
+      if (diffs != null) {
+        for (DirectoryDiff d : diffs) {
+          add(d.getSnapshot().getId(), inode.asDirectory());
+        }
+      }
+    }
+  }
+
+  /**
+   * Index the diffs of the subtree, including the inodes which exist only
+   * in the snapshots.
+   */
+  private void collect(INode inode) {
+    addDiffs(inode);
+    if (inode.isDirectory()) {
+      final INodeDirectory dir = inode.asDirectory();
+      final DirectoryDiffList diffs = dir.getDiffs();
+      if (diffs != null) {
+        for (DirectoryDiff d : diffs) {
+          for (INode deleted : d.getChildrenDiff().getList(ListType.DELETED)) {
+            collect(deleted);
+          }
+        }
+      }
+      for (INode child : dir.getChildrenList(null)) {
+        collect(child);
+      }
+    }
+  }
+}
@@ -23,8 +23,10 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.hdfs.DFSUtil;
@@ -231,8 +233,29 @@ public void deleteSnapshot(final String path, final String snapshotName,
     // the INodeDirectorySnapshottable#valueOf method will throw Exception 
     // if the path is not for a snapshottable directory
     INodeDirectorySnapshottable srcRoot = getSnapshottableRoot(path);
-    srcRoot.removeSnapshot(snapshotName, collectedBlocks, removedINodes);
+    final Snapshot snapshot = srcRoot.removeSnapshot(snapshotName,
+        collectedBlocks, removedINodes);
     numSnapshots.getAndDecrement();
+    // The diffs of the snapshot are also indexed by the snapshottable
+    // directories above the changed inodes, so update all the indexes.
+    for (INodeDirectorySnapshottable dir : snapshottables.values()) {
+      dir.removeFromDiffIndex(snapshot);
+    }
+  }
+
+  /**
+   * Remove the inodes which have been deleted from the namespace from the
+   * diff indexes of the snapshottable directories, so that the indexes do
+   * not keep them alive.
+   */
+  public void removeFromDiffIndexes(List<? extends INode> inodes) {
+    if (snapshottables.isEmpty() || inodes.isEmpty()) {
+      return;
+    }
+    final Set<INode> removed = new HashSet<INode>(inodes);
+    for (INodeDirectorySnapshottable dir : snapshottables.values()) {
+      dir.removeFromDiffIndex(removed);
+    }
   }
 
   /**
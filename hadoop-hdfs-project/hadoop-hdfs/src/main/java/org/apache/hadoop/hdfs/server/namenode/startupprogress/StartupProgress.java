@@ -60,6 +60,13 @@ public static interface Counter {
      * Atomically increments this counter, adding 1 to the current value.
      */
     void increment();
+
+    /**
+     * Atomically adds the given value to the current value of this counter.
+     * 
+     * @param delta long to add
+     */
+    void add(long delta);
   }
 
   /**
@@ -156,6 +163,11 @@ public Counter getCounter(Phase phase, Step step) {
         public void increment() {
           tracking.count.incrementAndGet();
         }
+
+        @Override
+        public void add(long delta) {
+          tracking.count.addAndGet(delta);
+        }
       };
     } else {
       return new Counter() {
@@ -163,6 +175,11 @@ public void increment() {
         public void increment() {
           // no-op, because startup has completed
         }
+
+        @Override
+        public void add(long delta) {
+          // no-op, because startup has completed
+        }
       };
     }
   }
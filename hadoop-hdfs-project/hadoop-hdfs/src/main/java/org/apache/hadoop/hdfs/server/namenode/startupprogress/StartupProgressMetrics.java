@@ -79,6 +79,8 @@ public void getMetrics(MetricsCollector collector, boolean all) {
       addCounter(builder, phase, "Total", " total", prog.getTotal(phase));
       addGauge(builder, phase, "PercentComplete", " percent complete",
         prog.getPercentComplete(phase));
+      addGauge(builder, phase, "Throughput", " throughput per second",
+        prog.getThroughput(phase));
     }
   }
 
@@ -223,6 +223,31 @@ public Status getStatus(Phase phase) {
     }
   }
 
+  /**
+   * Returns the throughput of the specified phase in counted items per second,
+   * calculated as the phase's count divided by its elapsed time, or 0 if no
+   * time has elapsed.
+   * 
+   * @param phase Phase to get
+   * @return float items per second
+   */
+  public float getThroughput(Phase phase) {
+    return getThroughput(getCount(phase), getElapsedTime(phase));
+  }
+
+  /**
+   * Returns the throughput of the specified phase and step in counted items per
+   * second, calculated as the step's count divided by its elapsed time, or 0 if
+   * no time has elapsed.
+   * 
+   * @param phase Phase to get
+   * @param step Step to get
+   * @return float items per second
+   */
+  public float getThroughput(Phase phase, Step step) {
+    return getThroughput(getCount(phase, step), getElapsedTime(phase, step));
+  }
+
   /**
    * Returns the sum of the totals for all steps in the specified phase.
    * 
@@ -316,6 +341,17 @@ private StepTracking getStepTracking(Phase phase, Step step) {
     return steps != null ? steps.get(step) : null;
   }
 
+  /**
+   * Returns count / elapsed time in seconds, or 0 if no time has elapsed.
+   * 
+   * @param count long number of items
+   * @param elapsed long elapsed time in milliseconds
+   * @return float items per second
+   */
+  private static float getThroughput(long count, long elapsed) {
+    return elapsed > 0 ? 1000.0f * count / elapsed : 0.0f;
+  }
+
   /**
    * Returns the given value restricted to the range [0.0, 1.0].
    * 
@@ -75,9 +75,9 @@ public class DFSck extends Configured implements Tool {
   }
 
   private static final String USAGE = "Usage: DFSck <path> "
-      + "[-list-corruptfileblocks | "
+      + "[-list-corruptfileblocks | -list-unhealthyblocks | "
       + "[-move | -delete | -openforwrite] "
-      + "[-files [-blocks [-locations | -racks]]]]\n"
+      + "[-files [-blocks [-locations | -racks]]] [-threads <n>]]\n"
       + "\t<path>\tstart checking from this path\n"
       + "\t-move\tmove corrupted files to /lost+found\n"
       + "\t-delete\tdelete corrupted files\n"
@@ -88,6 +88,11 @@ public class DFSck extends Configured implements Tool {
       + "snapshottable directories under it\n"
       + "\t-list-corruptfileblocks\tprint out list of missing "
       + "blocks and files they belong to\n"
+      + "\t-list-unhealthyblocks\tprint out the missing, corrupt and "
+      + "under-replicated blocks known to the namenode, one tab separated "
+      + "line per block, without checking every file\n"
+      + "\t-threads <n>\tcheck the subdirectories of the path with n "
+      + "threads in parallel\n"
       + "\t-blocks\tprint out block report\n"
       + "\t-locations\tprint out locations for every block\n"
       + "\t-racks\tprint out network topology for data-node locations\n\n"
@@ -278,6 +283,17 @@ else if (args[idx].equals("-list-corruptfileblocks")) {
         doListCorruptFileBlocks = true;
       } else if (args[idx].equals("-includeSnapshots")) {
         url.append("&includeSnapshots=1");
+      } else if (args[idx].equals("-list-unhealthyblocks")) {
+        url.append("&listunhealthyblocks=1");
+      } else if (args[idx].equals("-threads") && idx + 1 < args.length) {
+        try {
+          url.append("&threads=").append(Integer.parseInt(args[++idx]));
+        } catch (NumberFormatException e) {
+          System.err.println("fsck: Illegal number of threads '"
+              + args[idx] + "'");
+          printUsage(System.err);
+          return -1;
+        }
       } else if (!args[idx].startsWith("-")) {
         if (null == dir) {
           dir = args[idx];
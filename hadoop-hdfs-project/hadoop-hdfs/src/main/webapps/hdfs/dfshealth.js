@@ -75,13 +75,16 @@
       r.percentComplete *= 100;
       $.each(r.phases, function (idx, p) {
         p.percentComplete *= 100;
+        p.throughput = Math.round(p.throughput);
         $.each(p.steps, function (idx2, s) {
           s.percentComplete *= 100;
+          s.throughput = Math.round(s.throughput);
           // dust.js is confused by these optional keys in nested
           // structure, rename them
           rename_property(s, "desc", "stepDesc");
           rename_property(s, "file", "stepFile");
           rename_property(s, "size", "stepSize");
+          rename_property(s, "throughput", "stepThroughput");
         });
       });
       return r;
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.ipc.RemoteException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test getting the block locations of many files with one call, and the
+ * namenode cache of block locations.
+ */
+public class TestBatchedBlockLocations {
+  private static final int BLOCK_SIZE = 1024;
+  private static final short REPLICATION = 2;
+  private static final int BATCH_MAX = 4;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    final Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_BATCH_MAX_KEY,
+        BATCH_MAX);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_SIZE_KEY,
+        100);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_BLOCK_LOCATIONS_CACHE_EXPIRY_MS_KEY,
+        60000L);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPLICATION)
+        .build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatchedBlockLocations() throws Exception {
+    final Path[] paths = new Path[BATCH_MAX * 2 + 1];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = new Path("/batch/file" + i);
+      DFSTestUtil.createFile(fs, paths[i], (i + 1) * BLOCK_SIZE / 2,
+          REPLICATION, 0L);
+    }
+
+    // The client splits the paths into batches the namenode accepts.
+    final BlockLocation[][] batched =
+        fs.getFileBlockLocations(paths, 0, Long.MAX_VALUE);
+    assertEquals(paths.length, batched.length);
+    for (int i = 0; i < paths.length; i++) {
+      assertEquals(Arrays.toString(
+          fs.getFileBlockLocations(paths[i], 0, Long.MAX_VALUE)),
+          Arrays.toString(batched[i]));
+    }
+
+    // A missing file gives null from the client, and an exception from the
+    // file system.
+    final String[] srcs = { "/batch/file0", "/batch/missing" };
+    final BlockLocation[][] locations =
+        fs.getClient().getBlockLocations(srcs, 0, Long.MAX_VALUE);
+    assertNotNull(locations[0]);
+    assertNull(locations[1]);
+    try {
+      fs.getFileBlockLocations(
+          new Path[] { paths[0], new Path("/batch/missing") },
+          0, Long.MAX_VALUE);
+      fail("Expected FileNotFoundException");
+    } catch (FileNotFoundException e) {
+      // expected
+    }
+
+    // The namenode rejects too large batches.
+    final String[] tooMany = new String[BATCH_MAX + 1];
+    Arrays.fill(tooMany, "/batch/file0");
+    try {
+      fs.getClient().getNamenode().getBatchedBlockLocations(
+          tooMany, 0, Long.MAX_VALUE);
+      fail("Expected the batch to be rejected");
+    } catch (RemoteException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCachedBlockLocations() throws Exception {
+    final Path file = new Path("/cached");
+    DFSTestUtil.createFile(fs, file, BLOCK_SIZE + BLOCK_SIZE / 2,
+        REPLICATION, 0L);
+    final DFSClient client = fs.getClient();
+
+    final LocatedBlocks first =
+        client.getLocatedBlocks(file.toString(), 0, Long.MAX_VALUE);
+    final LocatedBlocks second =
+        client.getLocatedBlocks(file.toString(), 0, Long.MAX_VALUE);
+    assertEquals(first.getFileLength(), second.getFileLength());
+    assertEquals(first.locatedBlockCount(), second.locatedBlockCount());
+    for (int i = 0; i < first.locatedBlockCount(); i++) {
+      assertEquals(first.get(i).getBlock(), second.get(i).getBlock());
+      assertEquals(first.get(i).getLocations().length,
+          second.get(i).getLocations().length);
+    }
+
+    // Appending changes the file, so the cached locations are not used.
+    DFSTestUtil.appendFile(fs, file, BLOCK_SIZE);
+    final LocatedBlocks appended =
+        client.getLocatedBlocks(file.toString(), 0, Long.MAX_VALUE);
+    assertEquals(2 * BLOCK_SIZE + BLOCK_SIZE / 2, appended.getFileLength());
+    assertEquals(3, appended.locatedBlockCount());
+    assertEquals(first.get(0).getBlock(), appended.get(0).getBlock());
+  }
+
+  @Test
+  public void testCorruptReplicaInvalidatesCachedBlockLocations()
+      throws Exception {
+    final Path file = new Path("/corrupt");
+    DFSTestUtil.createFile(fs, file, BLOCK_SIZE, REPLICATION, 0L);
+    final DFSClient client = fs.getClient();
+    final LocatedBlock cached =
+        client.getLocatedBlocks(file.toString(), 0, Long.MAX_VALUE).get(0);
+    assertEquals(REPLICATION, cached.getLocations().length);
+
+    // The block manager drops the cached locations when a replica is
+    // marked corrupt, well before the entry expires.
+    final FSNamesystem fsn = cluster.getNamesystem();
+    fsn.writeLock();
+    try {
+      fsn.getBlockManager().findAndMarkBlockAsCorrupt(cached.getBlock(),
+          cached.getLocations()[0], cached.getStorageIDs()[0], "test");
+    } finally {
+      fsn.writeUnlock();
+    }
+    final LocatedBlock located =
+        client.getLocatedBlocks(file.toString(), 0, Long.MAX_VALUE).get(0);
+    assertEquals(REPLICATION - 1, located.getLocations().length);
+    assertEquals(cached.getLocations()[1], located.getLocations()[0]);
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeFaultInjector;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test writing files while the pipeline of the previous block is closed in
+ * the background.
+ */
+public class TestDFSOutputStreamPipelineAhead {
+  private static final int BLOCK_SIZE = 64 * 1024;
+  private static final int NUM_BLOCKS = 8;
+
+  private MiniDFSCluster cluster;
+
+  private FileSystem startCluster(boolean pipelineAhead) throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_CLIENT_BLOCK_WRITE_PIPELINE_AHEAD_ENABLE_KEY,
+        pipelineAhead);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    cluster.waitActive();
+    return cluster.getFileSystem();
+  }
+
+  @After
+  public void shutdownCluster() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testWriteWithPipelineAhead() throws IOException {
+    FileSystem fs = startCluster(true);
+    Path file = new Path("/testWriteWithPipelineAhead");
+    DFSOutputStream.WriteStatistics stats = writeFile(fs, file);
+
+    assertTrue(stats.getPipelinesClosedInBackground() > 0);
+    assertTrue(stats.getPipelinesClosedInBackground() <= NUM_BLOCKS);
+    assertTrue(stats.getPacketsAcked() > 0);
+    assertTrue(stats.getMaxQueueTimeMs() >= 0);
+    assertTrue(stats.getMaxAckTimeMs() >= 0);
+    checkFile(fs, file);
+  }
+
+  @Test(timeout=120000)
+  public void testWriteWithoutPipelineAhead() throws IOException {
+    FileSystem fs = startCluster(false);
+    Path file = new Path("/testWriteWithoutPipelineAhead");
+    DFSOutputStream.WriteStatistics stats = writeFile(fs, file);
+
+    assertEquals(0, stats.getPipelinesClosedInBackground());
+    assertTrue(stats.getPacketsAcked() > 0);
+    checkFile(fs, file);
+  }
+
+  /**
+   * Fail the last datanode of a pipeline while it finalizes a block, so
+   * that the end-of-block ack fails after the streamer has moved on to the
+   * next block and none of the datanodes has finalized the block, and check
+   * that the file can still be completed and read.
+   */
+  @Test(timeout=120000)
+  public void testDatanodeFailureWhileClosingInBackground()
+      throws IOException {
+    FileSystem fs = startCluster(true);
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    DataNodeFaultInjector oldInjector = DataNodeFaultInjector.instance;
+    DataNodeFaultInjector.instance = new DataNodeFaultInjector() {
+      @Override
+      public void beforeFinalizeBlock(ExtendedBlock block)
+          throws IOException {
+        // the last datanode of the pipeline finalizes first
+        if (block.getNumBytes() == BLOCK_SIZE
+            && failed.compareAndSet(false, true)) {
+          try {
+            // let the client close the pipeline in the background
+            Thread.sleep(100);
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          throw new IOException("Failing the finalization for testing");
+        }
+      }
+    };
+    try {
+      Path file = new Path("/testDatanodeFailureWhileClosingInBackground");
+      writeFile(fs, file);
+      assertTrue(failed.get());
+      checkFile(fs, file);
+    } finally {
+      DataNodeFaultInjector.instance = oldInjector;
+    }
+  }
+
+  private static DFSOutputStream.WriteStatistics writeFile(FileSystem fs,
+      Path file) throws IOException {
+    HdfsDataOutputStream out = (HdfsDataOutputStream)fs.create(file,
+        (short)3);
+    try {
+      // write in pieces which do not line up with the packets
+      byte[] buf = new byte[5000];
+      long written = 0;
+      while (written < (long)NUM_BLOCKS * BLOCK_SIZE) {
+        int len = (int)Math.min(buf.length,
+            (long)NUM_BLOCKS * BLOCK_SIZE - written);
+        for (int i = 0; i < len; i++) {
+          buf[i] = (byte)(written + i);
+        }
+        out.write(buf, 0, len);
+        written += len;
+      }
+    } finally {
+      out.close();
+    }
+    return out.getWriteStatistics();
+  }
+
+  private static void checkFile(FileSystem fs, Path file) throws IOException {
+    final long length = (long)NUM_BLOCKS * BLOCK_SIZE;
+    assertEquals(length, fs.getFileStatus(file).getLen());
+    LocatedBlocks blocks = DFSClientAdapter.callGetBlockLocations(
+        ((DistributedFileSystem)fs).getClient().getNamenode(),
+        file.toString(), 0, length);
+    assertEquals(NUM_BLOCKS, blocks.getLocatedBlocks().size());
+    assertTrue(blocks.isLastBlockComplete());
+
+    byte[] expected = new byte[(int)length];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = (byte)i;
+    }
+    byte[] actual = new byte[expected.length];
+    FSDataInputStream in = fs.open(file);
+    try {
+      in.readFully(0, actual);
+    } finally {
+      in.close();
+    }
+    assertArrayEquals(expected, actual);
+  }
+}
@@ -209,12 +209,12 @@ private void assertXceiverCount(int expected) {
   }
 
   /**
-   * Returns the datanode's xceiver count, but subtracts 1, since the
-   * DataXceiverServer counts as one.
+   * Returns the datanode's xceiver count, but subtracts the threads of the
+   * DataXceiverServer, which count as xceivers.
    * 
    * @return int xceiver count, not including DataXceiverServer
    */
   private int getXceiverCountWithoutServer() {
-    return dn.getXceiverCount() - 1;
+    return DataNodeTestUtils.getXceiverCountWithoutServer(dn);
   }
 }
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_TRANSFER_SERVER_NIO_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_TRANSFER_SERVER_NIO_WORKERS_KEY;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Run the keepalive tests against a DataNode which multiplexes its
+ * connections on a selector and a small pool of worker threads.
+ */
+public class TestDataTransferKeepaliveNio extends TestDataTransferKeepalive {
+  private static final int NUM_WORKERS = 2;
+
+  {
+    conf.setBoolean(DFS_DATANODE_TRANSFER_SERVER_NIO_ENABLED_KEY, true);
+    conf.setInt(DFS_DATANODE_TRANSFER_SERVER_NIO_WORKERS_KEY, NUM_WORKERS);
+  }
+
+  /**
+   * Keep more block reads in progress than there are worker threads, and
+   * check that all of them can still be read from.  The reads do not fit
+   * into the socket buffers, so they would hold a worker each if they ran
+   * on the shared pool.
+   */
+  @Test(timeout=60000)
+  public void testMoreReadsThanWorkers() throws Exception {
+    FileSystem fs = FileSystem.get(conf);
+    Path file = new Path("/testMoreReadsThanWorkers");
+    DFSTestUtil.createFile(fs, file, 16 * 1024 * 1024L, (short)1, 0L);
+
+    InputStream[] stms = new InputStream[NUM_WORKERS * 4];
+    try {
+      for (int i = 0; i < stms.length; i++) {
+        stms[i] = fs.open(file);
+        assertTrue(stms[i].read() >= 0);
+      }
+      byte[] buf = new byte[64 * 1024];
+      for (InputStream stm : stms) {
+        IOUtils.readFully(stm, buf, 0, buf.length);
+      }
+    } finally {
+      IOUtils.cleanup(null, stms);
+    }
+  }
+}
@@ -336,6 +336,17 @@ public void testDecommission() throws IOException {
     testDecommission(1, 6);
   }
   
+  /**
+   * Tests decommission when only one block may be checked per interval, so
+   * that the under-replicated blocks are rechecked over several intervals.
+   */
+  @Test(timeout=360000)
+  public void testDecommissionWithBlocksPerIntervalLimit() throws IOException {
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_INTERVAL_KEY, 1);
+    testDecommission(1, 3);
+  }
+
   /**
    * Tests decommission with replicas on the target datanode cannot be migrated
    * to other datanodes and satisfy the replication factor. Make sure the
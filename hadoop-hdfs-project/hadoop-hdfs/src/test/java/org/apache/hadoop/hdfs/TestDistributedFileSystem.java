@@ -56,6 +56,8 @@
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.VolumeId;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.web.HftpFileSystem;
 import org.apache.hadoop.hdfs.web.WebHdfsFileSystem;
 import org.apache.hadoop.security.UserGroupInformation;
@@ -471,6 +473,91 @@ public void testStatistics() throws Exception {
     
   }
   
+  /**
+   * Test that listStatusIterator fetches the entries of a large directory
+   * one batch at a time, as they are consumed.
+   */
+  @Test(timeout=60000)
+  public void testListStatusIterator() throws Exception {
+    int lsLimit = 2;
+    final Configuration conf = getTestConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, lsLimit);
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      final FileSystem fs = cluster.getFileSystem();
+      Path dir = new Path("/test");
+      for (int i = 0; i < 5; i++) {
+        fs.mkdirs(new Path(dir, Integer.toString(i)));
+      }
+
+      RemoteIterator<FileStatus> it = fs.listStatusIterator(dir);
+      // Only the first batch is fetched up front; the remaining entries
+      // are fetched in two more batches while iterating.
+      int readOps = DFSTestUtil.getStatistics(fs).getReadOps();
+      int count = 0;
+      while (it.hasNext()) {
+        FileStatus stat = it.next();
+        assertEquals(new Path(dir, Integer.toString(count)).toUri().getPath(),
+            stat.getPath().toUri().getPath());
+        assertTrue(stat.isDirectory());
+        count++;
+      }
+      assertEquals(5, count);
+      assertEquals(readOps + 2, DFSTestUtil.getStatistics(fs).getReadOps());
+
+      try {
+        fs.listStatusIterator(new Path("/nonexistent"));
+        fail("Expected FileNotFoundException");
+      } catch (FileNotFoundException fnfe) {
+        // expected
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Test that a listing with block locations is cut short once the number
+   * of returned locations reaches the listing limit.
+   */
+  @Test(timeout=60000)
+  public void testListingLocationBudget() throws Exception {
+    int lsLimit = 4;
+    final Configuration conf = getTestConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, lsLimit);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 512);
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      final DistributedFileSystem fs = cluster.getFileSystem();
+      Path dir = new Path("/test");
+      for (int i = 0; i < 4; i++) {
+        // three blocks of one replica each
+        DFSTestUtil.createFile(fs, new Path(dir, "file" + i), 1536, (short)1,
+            0L);
+      }
+
+      DirectoryListing listing = fs.getClient().listPaths("/test",
+          HdfsFileStatus.EMPTY_NAME, false);
+      assertEquals(4, listing.getPartialListing().length);
+      assertFalse(listing.hasMore());
+
+      listing = fs.getClient().listPaths("/test",
+          HdfsFileStatus.EMPTY_NAME, true);
+      assertEquals(2, listing.getPartialListing().length);
+      assertEquals(2, listing.getRemainingEntries());
+
+      int count = 0;
+      RemoteIterator<LocatedFileStatus> it = fs.listLocatedStatus(dir);
+      while (it.hasNext()) {
+        assertEquals(3, it.next().getBlockLocations().length);
+        count++;
+      }
+      assertEquals(4, count);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   /** Checks statistics. -1 indicates do not check for the operations */
   private void checkStatistics(FileSystem fs, int readOps, int writeOps, int largeReadOps) {
     assertEquals(readOps, DFSTestUtil.getStatistics(fs).getReadOps());
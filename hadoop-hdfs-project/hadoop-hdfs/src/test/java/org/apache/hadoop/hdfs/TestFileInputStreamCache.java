@@ -19,8 +19,11 @@
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.client.ShortCircuitShm;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.ShortCircuitRegistry;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.net.unix.TemporarySocketDirectory;
 import org.junit.Assert;
@@ -83,8 +86,8 @@ public void testAddAndRetrieve() throws Exception {
     ExtendedBlock block = new ExtendedBlock("poolid", 123);
     TestFileDescriptorPair pair = new TestFileDescriptorPair();
     cache.put(dnId, block, pair.getFileInputStreams());
-    FileInputStream fis[] = cache.get(dnId, block);
-    Assert.assertTrue(pair.compareWith(fis));
+    FileInputStreamCache.Value val = cache.get(dnId, block);
+    Assert.assertTrue(pair.compareWith(val.getFileInputStreams()));
     pair.close();
     cache.close();
   }
@@ -98,8 +101,7 @@ public void testExpiry() throws Exception {
     TestFileDescriptorPair pair = new TestFileDescriptorPair();
     cache.put(dnId, block, pair.getFileInputStreams());
     Thread.sleep(cache.getExpiryTimeMs() * 100);
-    FileInputStream fis[] = cache.get(dnId, block);
-    Assert.assertNull(fis);
+    Assert.assertNull(cache.get(dnId, block));
     pair.close();
     cache.close();
   }
@@ -116,11 +118,51 @@ public void testEviction() throws Exception {
         "xyzzy", 8081, 9091, 7071, 6061);
     TestFileDescriptorPair pair2 = new TestFileDescriptorPair();
     cache.put(dnId2, block, pair2.getFileInputStreams());
-    FileInputStream fis[] = cache.get(dnId, block);
-    Assert.assertNull(fis);
-    FileInputStream fis2[] = cache.get(dnId2, block);
-    Assert.assertTrue(pair2.compareWith(fis2));
+    Assert.assertNull(cache.get(dnId, block));
+    FileInputStreamCache.Value val2 = cache.get(dnId2, block);
+    Assert.assertTrue(pair2.compareWith(val2.getFileInputStreams()));
     pair.close();
     cache.close();
   }
+
+  @Test
+  public void testSlotValidity() throws Exception {
+    TemporarySocketDirectory shmDir = new TemporarySocketDirectory();
+    Configuration conf = new Configuration();
+    conf.set(DFSConfigKeys.DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_KEY,
+        shmDir.getDir().getPath());
+    ShortCircuitRegistry registry = new ShortCircuitRegistry(conf, true);
+    ShortCircuitShm shm = ShortCircuitShm.map(registry.getSegmentId(),
+        new FileInputStream(registry.getSegmentFileDescriptor()));
+    FileInputStreamCache cache = new FileInputStreamCache(10, 10);
+    DatanodeID dnId = new DatanodeID("127.0.0.1", "localhost", 
+        "xyzzy", 8080, 9090, 7070, 6060);
+    ExtendedBlock block = new ExtendedBlock("poolid", 123);
+    ShortCircuitRegistry.Slot dnSlot =
+        registry.registerSlot(block.getBlockPoolId(), block.getBlockId());
+    ShortCircuitShm.Slot slot =
+        shm.getSlot(dnSlot.getIndex(), dnSlot.getGeneration());
+    TestFileDescriptorPair pair = new TestFileDescriptorPair();
+    cache.incrementMisses();
+    cache.put(dnId, block, pair.getFileInputStreams(), slot);
+
+    // streams with a valid slot outlive the expiry time
+    Thread.sleep(cache.getExpiryTimeMs() * 100);
+    FileInputStreamCache.Value val = cache.get(dnId, block);
+    Assert.assertTrue(pair.compareWith(val.getFileInputStreams()));
+    Assert.assertSame(slot, val.getSlot());
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+
+    // streams are dropped once the DataNode invalidates the replica
+    cache.put(dnId, block, val.getFileInputStreams(), slot);
+    registry.processBlockInvalidation(block.getBlockPoolId(),
+        block.getBlockId());
+    Assert.assertNull(cache.get(dnId, block));
+    Assert.assertEquals(1, cache.getHits());
+    pair.close();
+    cache.close();
+    registry.close();
+    shmDir.close();
+  }
 }
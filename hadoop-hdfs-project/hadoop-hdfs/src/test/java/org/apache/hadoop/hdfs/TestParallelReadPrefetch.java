@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Run the parallel read tests with read-ahead, on files of several blocks
+ * each read ahead in several chunks.
+ */
+public class TestParallelReadPrefetch extends TestParallelReadUtil {
+  private static final int BLOCK_SIZE = 64 * 1024;
+  private static final int CHUNK_SIZE = 16 * 1024;
+
+  @BeforeClass
+  static public void setupCluster() throws Exception {
+    HdfsConfiguration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_KEY, false);
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_DOMAIN_SOCKET_DATA_TRAFFIC,
+                    false);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_CHUNKS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_CHUNK_SIZE_KEY,
+        CHUNK_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_THREADPOOL_SIZE_KEY, 4);
+
+    setupCluster(DEFAULT_REPLICATION_FACTOR, conf);
+  }
+
+  @AfterClass
+  static public void teardownCluster() throws Exception {
+    TestParallelReadUtil.teardownCluster();
+  }
+
+  @Test(timeout=60000)
+  public void testSequentialRead() throws Exception {
+    final Path file = new Path("/testSequentialRead");
+    final byte[] expected = util.writeFile(file, FILE_SIZE_K);
+    final DFSInputStream in = dfsClient.open(file.toString());
+    try {
+      // reads which are not aligned to the chunks
+      byte[] actual = new byte[expected.length];
+      int off = 0;
+      while (off < actual.length) {
+        int n = in.read(actual, off, Math.min(5000, actual.length - off));
+        off += n;
+      }
+      assertArrayEquals(expected, actual);
+      assertEquals(-1, in.read());
+      assertEquals(expected.length,
+          in.getReadStatistics().getTotalBytesRead());
+
+      // seek backwards into the middle of a chunk
+      in.seek(BLOCK_SIZE + CHUNK_SIZE / 2);
+      ByteBuffer buf = ByteBuffer.allocate(3 * BLOCK_SIZE);
+      while (buf.hasRemaining() && in.read(buf) > 0);
+      buf.flip();
+      for (int i = 0; i < buf.limit(); i++) {
+        assertEquals(expected[BLOCK_SIZE + CHUNK_SIZE / 2 + i], buf.get(i));
+      }
+
+      // positional reads do not disturb the sequential reads
+      in.seek(CHUNK_SIZE - 1);
+      byte[] pread = new byte[CHUNK_SIZE];
+      in.readFully(2 * BLOCK_SIZE, pread);
+      assertEquals(expected[CHUNK_SIZE - 1], (byte)in.read());
+      assertEquals(expected[CHUNK_SIZE], (byte)in.read());
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -23,6 +23,7 @@
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
@@ -31,6 +32,7 @@
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtocol;
 import org.apache.hadoop.hdfs.server.datanode.SimulatedFSDataset;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.log4j.Level;
 import org.junit.Test;
 
@@ -210,7 +212,11 @@ public void testPreadDFSNoChecksum() throws IOException {
   
   private void dfsPreadTest(boolean disableTransferTo, boolean verifyChecksum)
       throws IOException {
-    Configuration conf = new HdfsConfiguration();
+    dfsPreadTest(new HdfsConfiguration(), disableTransferTo, verifyChecksum);
+  }
+
+  private void dfsPreadTest(Configuration conf, boolean disableTransferTo,
+      boolean verifyChecksum) throws IOException {
     conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 4096);
     conf.setLong(DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_SIZE_KEY, 4096);
     if (simulatedStorage) {
@@ -234,6 +240,71 @@ private void dfsPreadTest(boolean disableTransferTo, boolean verifyChecksum)
     }
   }
   
+  @Test
+  public void testHedgedPreadDFSBasic() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY, 5);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY, 100);
+    dfsPreadTest(conf, false, true);
+  }
+
+  /**
+   * Make the first read from a DataNode slow, and check that the hedged
+   * read from another DataNode returns the data instead.
+   */
+  @Test(timeout=60000)
+  public void testHedgedReadFromSlowDataNode() throws Exception {
+    final int threshold = 100;
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY, 5);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY,
+        threshold);
+    final AtomicInteger fetches = new AtomicInteger();
+    DFSClientFaultInjector oldInjector = DFSClientFaultInjector.instance;
+    DFSClientFaultInjector.instance = new DFSClientFaultInjector() {
+      @Override
+      public void startFetchFromDatanode() {
+        if (fetches.getAndIncrement() == 0) {
+          try {
+            Thread.sleep(threshold * 20);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(3).build();
+    try {
+      DistributedFileSystem fileSys = cluster.getFileSystem();
+      Path file = new Path("/hedgedread.dat");
+      DFSTestUtil.createFile(fileSys, file, blockSize, (short)3, seed);
+      byte[] expected = new byte[blockSize];
+      FSDataInputStream in = fileSys.open(file);
+      try {
+        IOUtils.readFully(in, expected, 0, blockSize);
+      } finally {
+        in.close();
+      }
+
+      fetches.set(0);
+      in = fileSys.open(file);
+      try {
+        byte[] actual = new byte[blockSize];
+        in.readFully(0, actual);
+        checkAndEraseData(actual, 0, expected, "Hedged Pread Test");
+      } finally {
+        in.close();
+      }
+      DFSHedgedReadMetrics metrics = fileSys.getClient().getHedgedReadMetrics();
+      assertTrue(metrics.getHedgedReadOps() >= 1);
+      assertTrue(metrics.getHedgedReadWins() >= 1);
+    } finally {
+      DFSClientFaultInjector.instance = oldInjector;
+      cluster.shutdown();
+    }
+  }
+
   @Test
   public void testPreadDFSSimulated() throws IOException {
     simulatedStorage = true;
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.ShortCircuitShm;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.hdfs.server.datanode.ShortCircuitRegistry;
+import org.apache.hadoop.net.unix.DomainSocket;
+import org.apache.hadoop.net.unix.TemporarySocketDirectory;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test that the short-circuit clients of a DataNode see the state of their
+ * replicas through the shared memory segment of the DataNode.
+ */
+public class TestShortCircuitSharedMemory {
+  private static final File TEST_DIR = new File(
+      System.getProperty("test.build.data", "build/test/data"),
+      TestShortCircuitSharedMemory.class.getSimpleName());
+  private static final int FILE_LEN = 4096;
+
+  private static TemporarySocketDirectory sockDir;
+
+  private MiniDFSCluster cluster;
+
+  @BeforeClass
+  public static void init() {
+    sockDir = new TemporarySocketDirectory();
+    DomainSocket.disableBindPathValidation();
+  }
+
+  @AfterClass
+  public static void shutdown() throws IOException {
+    sockDir.close();
+  }
+
+  @Before
+  public void before() {
+    Assume.assumeThat(DomainSocket.getLoadingFailureReason(), equalTo(null));
+    FileUtil.fullyDelete(TEST_DIR);
+    assertTrue(TEST_DIR.mkdirs());
+  }
+
+  @After
+  public void after() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+    FileUtil.fullyDelete(TEST_DIR);
+  }
+
+  /**
+   * @return the slot of the given replica, as the client maps it
+   */
+  private static ShortCircuitShm.Slot getClientSlot(ShortCircuitShm shm,
+      DataNode dn, ExtendedBlock block) throws IOException {
+    ShortCircuitRegistry.Slot slot =
+        DataNodeTestUtils.getShortCircuitSlot(dn, block);
+    assertNotNull("no slot was assigned to " + block, slot);
+    return shm.getSlot(slot.getIndex(), slot.getGeneration());
+  }
+
+  @Test(timeout=60000)
+  public void testSlotIsClearedWhenReplicaIsDeleted() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_KEY, true);
+    conf.set(DFSConfigKeys.DFS_DOMAIN_SOCKET_PATH_KEY, new File(
+        sockDir.getDir(), "TestShortCircuitSharedMemory._PORT.sock")
+            .getAbsolutePath());
+    conf.set(DFSConfigKeys.DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_KEY,
+        TEST_DIR.getAbsolutePath());
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    final DistributedFileSystem fs = cluster.getFileSystem();
+    final DataNode dn = cluster.getDataNodes().get(0);
+    final Path file1 = new Path("/file1");
+    final Path file2 = new Path("/file2");
+    DFSTestUtil.createFile(fs, file1, FILE_LEN, (short)1, 0xBEEFL);
+    DFSTestUtil.createFile(fs, file2, FILE_LEN, (short)1, 0xFEEDL);
+
+    // the first short-circuit read passes the segment along with the file
+    // descriptors of the block, as a third file descriptor
+    DFSTestUtil.readFile(fs, file1);
+    final String sockPath = DomainSocket.getEffectivePath(
+        conf.get(DFSConfigKeys.DFS_DOMAIN_SOCKET_PATH_KEY), dn.getXferPort());
+    final DomainSocketFactory factory =
+        fs.getClient().getDomainSocketFactory();
+    final ShortCircuitShm shm = factory.getShm(sockPath);
+    assertNotNull("the client did not map the segment", shm);
+    assertEquals(dn.getShortCircuitRegistry().getSegmentId(),
+        shm.getSegmentId());
+    final ShortCircuitShm.Slot slot1 = getClientSlot(shm, dn,
+        DFSTestUtil.getFirstBlock(fs, file1));
+    assertTrue(slot1.isValid());
+
+    // later reads reuse the mapped segment
+    DFSTestUtil.readFile(fs, file2);
+    assertSame(shm, factory.getShm(sockPath));
+    final ShortCircuitShm.Slot slot2 = getClientSlot(shm, dn,
+        DFSTestUtil.getFirstBlock(fs, file2));
+    assertTrue(slot2.isValid());
+
+    // deleting a file clears the slot of its replica, and only that one
+    fs.delete(file1, false);
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return !slot1.isValid();
+      }
+    }, 100, 30000);
+    assertTrue(slot2.isValid());
+  }
+}
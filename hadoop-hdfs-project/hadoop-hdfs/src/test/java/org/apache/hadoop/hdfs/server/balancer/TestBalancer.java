@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.server.balancer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -550,6 +551,46 @@ public void testExitZeroOnSuccess() throws Exception {
     oneNodeTest(conf, true);
   }
   
+  /**
+   * Test balancing with a small size to move per datanode and iteration,
+   * and a single concurrent move per datanode, so that the balancer runs
+   * many short iterations.
+   */
+  @Test(timeout=100000)
+  public void testBalancerWithLimitedMoves() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    initConf(conf);
+    conf.setLong(DFSConfigKeys.DFS_BALANCER_MAX_SIZE_TO_MOVE_KEY,
+        CAPACITY / 5);
+    conf.setInt(DFSConfigKeys.DFS_BALANCER_MAX_CONCURRENT_MOVES_KEY, 1);
+    oneNodeTest(conf, false);
+  }
+
+  /**
+   * Test the progress published by the balancer over JMX.
+   */
+  @Test(timeout=100000)
+  public void testBalancerProgress() throws Exception {
+    final BalancerProgress progress = new BalancerProgress();
+    assertEquals(-1L, progress.getEstimatedTimeRemaining());
+
+    progress.setPlan("bp1", 0, 1000L, 100L);
+    progress.setPlan("bp2", 0, 500L, 50L);
+    assertEquals(1500L, progress.getBytesLeftToMove());
+    assertEquals(150L, progress.getBytesBeingMoved());
+
+    Thread.sleep(10L);
+    progress.incBytesMoved(100L);
+    assertEquals(100L, progress.getBytesMoved());
+    assertTrue(progress.getThroughput() > 0);
+    assertTrue(progress.getEstimatedTimeRemaining() >= 0);
+
+    progress.setPlan("bp1", 1, 0L, 0L);
+    progress.setPlan("bp2", 1, 0L, 0L);
+    assertEquals(1, progress.getIteration());
+    assertEquals(0L, progress.getEstimatedTimeRemaining());
+  }
+
   /**
    * @param args
    */
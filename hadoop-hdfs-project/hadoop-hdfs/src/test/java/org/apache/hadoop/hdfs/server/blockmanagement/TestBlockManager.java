@@ -22,9 +22,13 @@
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.io.IOException;
@@ -42,6 +46,7 @@
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeDescriptor.BlockTargetPair;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
@@ -49,6 +54,8 @@
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
@@ -525,6 +532,31 @@ public void testHighestPriReplSrcChosenDespiteMaxReplLimit() throws Exception {
             UnderReplicatedBlocks.QUEUE_HIGHEST_PRIORITY));
   }
 
+  /**
+   * Test that replications planned earlier in the same pass count against
+   * the replication limit of their source node.
+   */
+  @Test
+  public void testReplicationLimitIncludesWorkPlannedInSamePass()
+      throws Exception {
+    addNodes(nodes);
+    bm.maxReplicationStreams = 2;
+    DatanodeDescriptor source = nodes.get(0);
+
+    List<Block> list_p1 = new ArrayList<Block>();
+    for (long blockId = 0; blockId < 5; blockId++) {
+      list_p1.add(addBlockOnNodes(blockId, getNodes(0)));
+    }
+    List<List<Block>> list_all = new ArrayList<List<Block>>();
+    list_all.add(new ArrayList<Block>()); // for priority 0
+    list_all.add(list_p1); // for priority 1
+
+    assertEquals("Only as many blocks as the source's replication limit"
+        + " should be scheduled", 2,
+        bm.computeReplicationWorkForBlocks(list_all));
+    assertEquals(2, source.getNumberOfBlocksToBeReplicated());
+  }
+
   @Test
   public void testSafeModeIBR() throws Exception {
     DatanodeDescriptor node = spy(nodes.get(0));
@@ -599,5 +631,117 @@ public void testSafeModeIBRAfterIncremental() throws Exception {
         new BlockListAsLongs(null, null));
     assertEquals(1, ds.getBlockReportCount());
   }
+
+  /**
+   * Register a datanode which has not sent a block report yet, with the
+   * namenode in startup safe mode.
+   */
+  private DatanodeDescriptor registerNodeInStartupSafeMode()
+      throws IOException {
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.setDatanodeUuidForTesting(ds.getStorageID());
+    node.isAlive = true;
+    doReturn(true).when(fsn).isInStartupSafeMode();
+    bm.getDatanodeManager().registerDatanode(
+        new DatanodeRegistration(node, null, null, ""));
+    bm.getDatanodeManager().addDatanode(node);
+    assertEquals(0, ds.getBlockReportCount());
+    return node;
+  }
+
+  private List<Block> addCompleteBlocks(long firstId, int count) {
+    List<Block> blocks = new ArrayList<Block>();
+    for (long id = firstId; id < firstId + count; id++) {
+      BlockInfo blockInfo = new BlockInfo(new Block(id, 0, 1), 3);
+      bm.blocksMap.addBlockCollection(blockInfo, mockBlockCollection());
+      blocks.add(blockInfo);
+    }
+    return blocks;
+  }
+
+  private BlockCollection mockBlockCollection() {
+    BlockCollection bc = Mockito.mock(BlockCollection.class);
+    Mockito.doReturn((short)3).when(bc).getBlockReplication();
+    return bc;
+  }
+
+  /**
+   * Run the action when the block manager takes the write lock, i.e. after
+   * an initial block report has been looked up under the read lock.
+   */
+  private void runOnWriteLock(final Runnable action) {
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        action.run();
+        return null;
+      }
+    }).when(fsn).writeLock();
+  }
+
+  private void processFirstReport(DatanodeDescriptor node,
+      List<Block> finalized) throws IOException {
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()), "pool",
+        new BlockListAsLongs(finalized, null));
+    assertEquals(1, ds.getBlockReportCount());
+    assertEquals(finalized.size(), ds.numBlocks());
+  }
+
+  @Test
+  public void testFirstBlockReportLookedUpUnderReadLock() throws Exception {
+    DatanodeDescriptor node = registerNodeInStartupSafeMode();
+    List<Block> reported = addCompleteBlocks(1, 3);
+
+    processFirstReport(node, reported);
+    // the safe blocks are counted once for the whole report
+    verify(fsn).incrementSafeBlockCount(1, 3);
+    verify(fsn, never()).incrementSafeBlockCount(anyInt());
+  }
+
+  @Test
+  public void testFirstBlockReportAfterBlocksMapChange() throws Exception {
+    DatanodeDescriptor node = registerNodeInStartupSafeMode();
+    List<Block> reported = addCompleteBlocks(1, 3);
+    // a block is added to the blocks map after the lookup
+    runOnWriteLock(new Runnable() {
+      @Override
+      public void run() {
+        addCompleteBlocks(100, 1);
+      }
+    });
+
+    processFirstReport(node, reported);
+    // the report is processed again under the write lock, and each safe
+    // block is counted once
+    verify(fsn, never()).incrementSafeBlockCount(anyInt(), anyInt());
+    verify(fsn, times(3)).incrementSafeBlockCount(1);
+    assertNotNull(bm.blocksMap.getStoredBlock(new Block(100)));
+  }
+
+  @Test
+  public void testFirstBlockReportAfterGenerationStampChange()
+      throws Exception {
+    DatanodeDescriptor node = registerNodeInStartupSafeMode();
+    List<Block> reported = addCompleteBlocks(1, 2);
+    final BlockInfoUnderConstruction uc = new BlockInfoUnderConstruction(
+        new Block(3, 0, 1), 3, BlockUCState.UNDER_CONSTRUCTION, null);
+    bm.blocksMap.addBlockCollection(uc, mockBlockCollection());
+    reported.add(new Block(uc));
+    // a pipeline update changes the generation stamp of the block under
+    // construction after the lookup, without modifying the blocks map
+    runOnWriteLock(new Runnable() {
+      @Override
+      public void run() {
+        uc.setGenerationStamp(2);
+      }
+    });
+
+    processFirstReport(node, reported);
+    verify(fsn, never()).incrementSafeBlockCount(anyInt(), anyInt());
+    verify(fsn, times(2)).incrementSafeBlockCount(1);
+    assertEquals(1, uc.getNumExpectedLocations());
+  }
 }
 
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.server.blockmanagement;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 
@@ -127,6 +128,46 @@ public void testHeartbeat() throws Exception {
     }
   }
 
+  /**
+   * Test that a heartbeat from a datanode which is no longer alive asks it
+   * to register again and does not change the cluster statistics.
+   */
+  @Test
+  public void testHeartbeatFromRemovedDatanode() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      final FSNamesystem namesystem = cluster.getNamesystem();
+      final HeartbeatManager hm = namesystem.getBlockManager(
+          ).getDatanodeManager().getHeartbeatManager();
+      final String poolId = namesystem.getBlockPoolId();
+      final DatanodeRegistration nodeReg =
+        DataNodeTestUtils.getDNRegistrationForBP(cluster.getDataNodes().get(0), poolId);
+      final DatanodeDescriptor dd = NameNodeAdapter.getDatanode(namesystem, nodeReg);
+
+      namesystem.writeLock();
+      try {
+        assertEquals(1, hm.getLiveDatanodeCount());
+        assertTrue(hm.getCapacityTotal() > 0);
+        hm.removeDatanode(dd);
+        assertEquals(0, hm.getLiveDatanodeCount());
+        assertEquals(0, hm.getCapacityTotal());
+
+        DatanodeCommand[] cmds = NameNodeAdapter.sendHeartBeat(nodeReg, dd,
+            namesystem).getCommands();
+        assertEquals(1, cmds.length);
+        assertEquals(DatanodeProtocol.DNA_REGISTER, cmds[0].getAction());
+        assertEquals(0, hm.getCapacityTotal());
+        assertEquals(0, hm.getCapacityUsed());
+      } finally {
+        namesystem.writeUnlock();
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   /**
    * Test if
    * {@link FSNamesystem#handleHeartbeat}
@@ -182,4 +182,23 @@ public static ReplicaInfo fetchReplicaInfo(final DataNode dn,
       final String bpid, final long blkId) {
     return FsDatasetTestUtil.fetchReplicaInfo(dn.getFSDataset(), bpid, blkId);
   }
+
+  /**
+   * @return the xceiver count of the given datanode, not including the
+   *         threads of its DataXceiverServer
+   */
+  public static int getXceiverCountWithoutServer(DataNode dn) {
+    return dn.getXceiverCount() - ((DataXceiverServer)dn.dataXceiverServer
+        .getRunnable()).getNumServerThreads();
+  }
+
+  /**
+   * @return the short-circuit shared memory slot assigned to the given
+   *         replica, or null if it has none
+   */
+  public static ShortCircuitRegistry.Slot getShortCircuitSlot(DataNode dn,
+      ExtendedBlock block) {
+    return dn.getShortCircuitRegistry().getSlot(block.getBlockPoolId(),
+        block.getBlockId());
+  }
 }
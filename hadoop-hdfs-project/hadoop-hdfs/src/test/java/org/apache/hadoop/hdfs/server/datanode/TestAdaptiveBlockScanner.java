@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test that the block scanner adapts its rate to the load of the client
+ * reads of each volume, and reports its coverage per volume.
+ */
+public class TestAdaptiveBlockScanner {
+  private static final int NUM_FILES = 4;
+
+  private MiniDFSCluster cluster;
+
+  @After
+  public void shutdownCluster() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private FileSystem startCluster(long latencyThresholdMs) throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_ENABLED_KEY, true);
+    conf.setLong(
+        DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_LATENCY_THRESHOLD_MS_KEY,
+        latencyThresholdMs);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    FileSystem fs = cluster.getFileSystem();
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.createFile(fs, new Path("/file" + i), 1024, (short)1, i);
+    }
+    return fs;
+  }
+
+  private BlockPoolSliceScanner getScanner() {
+    DataNode dn = cluster.getDataNodes().get(0);
+    BlockPoolSliceScanner scanner = dn.getBlockScanner().getBPScanner(
+        cluster.getNamesystem().getBlockPoolId());
+    assertNotNull(scanner);
+    return scanner;
+  }
+
+  private FsVolumeSpi getVolume(ExtendedBlock b) {
+    DataNode dn = cluster.getDataNodes().get(0);
+    return DataNodeTestUtils.getFSDataset(dn).getVolume(b);
+  }
+
+  @Test(timeout=120000)
+  public void testScanRateLoweredUnderLoad() throws Exception {
+    // every client read counts as slow
+    FileSystem fs = startCluster(0);
+    Path file = new Path("/file0");
+    ExtendedBlock b = DFSTestUtil.getFirstBlock(fs, file);
+    DFSTestUtil.readFile(fs, file);
+
+    DataNode dn = cluster.getDataNodes().get(0);
+    ReadLoadMonitor monitor = dn.getBlockScanner().getReadLoadMonitor();
+    // the read is recorded by the DataXceiver thread
+    for (int i = 0; i < 50 && !monitor.isBusy(getVolume(b)); i++) {
+      Thread.sleep(100);
+    }
+    assertTrue(monitor.isBusy(getVolume(b)));
+
+    DataNodeTestUtils.runBlockScannerForBlock(dn, b);
+    assertEquals(1024 * 1024, getScanner().getVolumeScanRate(getVolume(b)));
+  }
+
+  @Test(timeout=120000)
+  public void testTransferToReadsAreRecorded() throws Exception {
+    // without checksums, only the data sent with transferTo is read from the
+    // volume
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY, "NULL");
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    FileSystem fs = cluster.getFileSystem();
+    Path file = new Path("/file");
+    DFSTestUtil.createFile(fs, file, 1024 * 1024, (short)1, 0);
+    // look up the block without reading it
+    ExtendedBlock b = DFSTestUtil.getAllBlocks(fs, file).get(0).getBlock();
+    VolumeIoStats stats = getVolume(b).getIoStats();
+    assertEquals(0, stats.getReadLatencyNanos());
+
+    DFSTestUtil.readFile(fs, file);
+    // the read is recorded by the DataXceiver thread
+    for (int i = 0; i < 50 && (stats.getReadLatencyNanos() == 0
+        || stats.getOutstandingIo() > 0); i++) {
+      Thread.sleep(100);
+    }
+    assertTrue(stats.getReadLatencyNanos() > 0);
+    assertTrue(stats.getReadUtilization() > 0);
+    assertEquals(0, stats.getOutstandingIo());
+  }
+
+  @Test(timeout=120000)
+  public void testScanRateRaisedWhenIdle() throws Exception {
+    FileSystem fs = startCluster(Long.MAX_VALUE / 1000000L);
+    ExtendedBlock b = DFSTestUtil.getFirstBlock(fs, new Path("/file0"));
+    DataNode dn = cluster.getDataNodes().get(0);
+    BlockPoolSliceScanner scanner = getScanner();
+
+    // the background scanner may raise the rate concurrently
+    long lastRate = 2 * 1024 * 1024;
+    for (int i = 0; i < 3; i++) {
+      DataNodeTestUtils.runBlockScannerForBlock(dn, b);
+      long rate = scanner.getVolumeScanRate(getVolume(b));
+      assertTrue(rate >= lastRate);
+      lastRate = rate;
+    }
+    for (int i = 0; i < 10; i++) {
+      DataNodeTestUtils.runBlockScannerForBlock(dn, b);
+    }
+    assertEquals(8 * 1024 * 1024, scanner.getVolumeScanRate(getVolume(b)));
+  }
+
+  @Test(timeout=120000)
+  public void testVolumeScanCoverage() throws Exception {
+    FileSystem fs = startCluster(
+        DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_LATENCY_THRESHOLD_MS_DEFAULT);
+    DataNode dn = cluster.getDataNodes().get(0);
+    for (int i = 0; i < NUM_FILES; i++) {
+      DataNodeTestUtils.runBlockScannerForBlock(dn,
+          DFSTestUtil.getFirstBlock(fs, new Path("/file" + i)));
+    }
+
+    Map<String, BlockPoolSliceScanner.VolumeScanCoverage> coverages =
+        getScanner().getVolumeScanCoverage();
+    assertFalse(coverages.isEmpty());
+    long totalBlocks = 0;
+    long verifiedBlocks = 0;
+    for (BlockPoolSliceScanner.VolumeScanCoverage coverage :
+        coverages.values()) {
+      totalBlocks += coverage.getTotalBlocks();
+      verifiedBlocks += coverage.getVerifiedBlocks();
+      assertEquals(coverage.getTotalBlocks(), coverage.getVerifiedBlocks());
+      assertEquals(100.0, coverage.getVerifiedBytesPercentage(), 0.001);
+    }
+    assertEquals(NUM_FILES, totalBlocks);
+    assertEquals(NUM_FILES, verifiedBlocks);
+  }
+
+  @Test
+  public void testReadLoadMonitor() {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(
+        DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_LATENCY_THRESHOLD_MS_KEY, 10);
+    conf.setFloat(
+        DFSConfigKeys.DFS_DATANODE_SCAN_ADAPTIVE_UTILIZATION_THRESHOLD_KEY,
+        1000f);
+    ReadLoadMonitor monitor = new ReadLoadMonitor(conf);
+    VolumeIoStats fastStats = new VolumeIoStats();
+    VolumeIoStats slowStats = new VolumeIoStats();
+    FsVolumeSpi fast = Mockito.mock(FsVolumeSpi.class);
+    FsVolumeSpi slow = Mockito.mock(FsVolumeSpi.class);
+    FsVolumeSpi unknown = Mockito.mock(FsVolumeSpi.class);
+    Mockito.doReturn(fastStats).when(fast).getIoStats();
+    Mockito.doReturn(slowStats).when(slow).getIoStats();
+
+    assertFalse(monitor.isBusy(fast));
+    for (int i = 0; i < 10; i++) {
+      fastStats.addRead(1000000L);
+      slowStats.addRead(50000000L);
+    }
+    assertEquals(1000000L, fastStats.getReadLatencyNanos());
+    assertEquals(50000000L, slowStats.getReadLatencyNanos());
+    assertTrue(slowStats.getReadUtilization()
+        > fastStats.getReadUtilization());
+    assertFalse(monitor.isBusy(fast));
+    assertTrue(monitor.isBusy(slow));
+    assertFalse(monitor.isBusy(unknown));
+  }
+}
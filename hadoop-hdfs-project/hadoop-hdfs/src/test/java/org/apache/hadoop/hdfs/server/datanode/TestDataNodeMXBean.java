@@ -65,6 +65,8 @@ public void testDataNodeMXBean() throws Exception {
       String volumeInfo = (String)mbs.getAttribute(mxbeanName, "VolumeInfo");
       Assert.assertEquals(replaceDigits(datanode.getVolumeInfo()),
           replaceDigits(volumeInfo));
+      Assert.assertTrue(volumeInfo.contains("writeLatencyMicros"));
+      Assert.assertTrue(volumeInfo.contains("outstandingIo"));
       // Ensure mxbean's XceiverCount is same as the DataNode's
       // live value.
       int xceiverCount = (Integer)mbs.getAttribute(mxbeanName,
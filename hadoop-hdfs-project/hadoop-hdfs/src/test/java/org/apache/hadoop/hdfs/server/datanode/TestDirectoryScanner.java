@@ -45,6 +45,7 @@
 import org.apache.hadoop.hdfs.server.common.GenerationStamp;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIoStats;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetTestUtil;
 import org.junit.Test;
 
@@ -353,6 +354,72 @@ public void runTest(int parallelism) throws Exception {
     }
   }
 
+  @Test(timeout=120000)
+  public void testSkipUnchangedDirs() throws Exception {
+    Configuration conf = new HdfsConfiguration(CONF);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_SKIP_UNCHANGED_DIRS_KEY, true);
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+        500);
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY, 3);
+    cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      scanner = new DirectoryScanner(fds, conf);
+      scanner.setRetainDiffs(true);
+
+      createFile("/tmp/t1", 10000);
+      long totalBlocks = 100;
+
+      // Directories modified just now are always listed again
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      assertEquals(0, scanner.skippedDirs.get());
+
+      long mtime = System.currentTimeMillis() - 60000;
+      for (FsVolumeSpi vol : fds.getVolumes()) {
+        setDirMtimes(vol.getFinalizedDir(bpid), mtime);
+      }
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      assertEquals(0, scanner.skippedDirs.get());
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      assertTrue(scanner.skippedDirs.get() > 0);
+
+      // Modified directories are listed again
+      long blockId = deleteBlockFile();
+      scan(totalBlocks, 1, 0, 1, 0, 0);
+      totalBlocks--;
+      verifyDeletion(blockId);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+
+      for (int i = 0; i < 5; i++) {
+        createBlockMetaFile();
+      }
+      totalBlocks += 5;
+      scan(totalBlocks, 5, 0, 0, 5, 0);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+    } finally {
+      scanner.shutdown();
+      cluster.shutdown();
+    }
+  }
+
+  private static void setDirMtimes(File dir, long mtime) {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        if (f.isDirectory()) {
+          setDirMtimes(f, mtime);
+        }
+      }
+    }
+    assertTrue(dir.setLastModified(mtime));
+  }
+
   private void verifyAddition(long blockId, long genStamp, long size) {
     final ReplicaInfo replicainfo;
     replicainfo = FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId);
@@ -417,6 +484,11 @@ public StorageType getStorageType() {
     public String getStorageID() {
       return "";
     }
+
+    @Override
+    public VolumeIoStats getIoStats() {
+      return null;
+    }
   }
 
   private final static TestFsVolumeSpi TEST_VOLUME = new TestFsVolumeSpi();
@@ -0,0 +1,248 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.test.MetricsAsserts.getDoubleGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getIntGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
+import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeDescriptor;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
+import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test that the datanode coalesces the received blocks into incremental
+ * block reports, and that the namenode applies queued incremental block
+ * reports in batches.
+ */
+public class TestIncrementalBlockReportBatching {
+  private static final int NUM_FILES = 5;
+
+  private MiniDFSCluster cluster;
+
+  @After
+  public void shutdownCluster() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testDatanodeDelaysIncrementalBlockReports() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(
+        DFSConfigKeys.DFS_DATANODE_INCREMENTAL_BLOCK_REPORT_DELAY_MS_KEY, 2000);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    final FileSystem fs = cluster.getFileSystem();
+
+    // close the files together, so that their blocks are finalized in the
+    // same delay
+    final List<FSDataOutputStream> outs = new ArrayList<FSDataOutputStream>();
+    for (int i = 0; i < NUM_FILES; i++) {
+      FSDataOutputStream out = fs.create(new Path("/file" + i), (short)1);
+      out.write(new byte[1024]);
+      out.hflush();
+      outs.add(out);
+    }
+    final List<Thread> closers = new ArrayList<Thread>();
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    for (final FSDataOutputStream out : outs) {
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            out.close();
+          } catch (Throwable e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      };
+      t.start();
+      closers.add(t);
+    }
+    for (Thread t : closers) {
+      t.join();
+    }
+    assertTrue(errors.toString(), errors.isEmpty());
+
+    DataNode dn = cluster.getDataNodes().get(0);
+    MetricsRecordBuilder rb = getMetrics(dn.getMetrics().name());
+    // the receiving and the received blocks are both reported in batches
+    assertTrue(getLongCounter("IncrementalBlockReportsNumOps", rb)
+        < 2 * NUM_FILES);
+    assertTrue(getDoubleGauge("IncrementalBlockReportBlocksAvgTime", rb) > 1);
+    checkFiles(fs);
+  }
+
+  @Test(timeout=120000)
+  public void testNamenodeQueuesIncrementalBlockReports() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_ASYNC_KEY, true);
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_BATCH_BLOCKS_KEY, 2);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    cluster.waitActive();
+    final FileSystem fs = cluster.getFileSystem();
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.createFile(fs, new Path("/file" + i), 1024, (short)3, i);
+    }
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.waitReplication(fs, new Path("/file" + i), (short)3);
+    }
+
+    MetricsRecordBuilder rb = getMetrics("NameNodeActivity");
+    assertTrue(getLongCounter("IncrementalBlockReportBatchSizeNumOps", rb)
+        > 0);
+    assertTrue(getLongCounter("IncrementalBlockReportQueueTimeNumOps", rb)
+        >= getLongCounter("IncrementalBlockReportBatchSizeNumOps", rb));
+    assertEquals(0, getIntGauge("QueuedIncrementalBlockReports",
+        getMetrics("FSNamesystem")));
+
+    // a full block report is applied after the queued incremental reports
+    for (DataNode dn : cluster.getDataNodes()) {
+      DataNodeTestUtils.triggerBlockReport(dn);
+    }
+    checkFiles(fs);
+  }
+
+  @Test(timeout=120000)
+  public void testNamenodeAppliesReportsWhenQueueIsFull() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_ASYNC_KEY, true);
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_QUEUE_SIZE_KEY, 1);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    cluster.waitActive();
+    final FileSystem fs = cluster.getFileSystem();
+    final BlockManager bm = cluster.getNamesystem().getBlockManager();
+    final DataNode dn = cluster.getDataNodes().get(0);
+    final DatanodeRegistration reg = DataNodeTestUtils.getDNRegistrationForBP(
+        dn, cluster.getNamesystem().getBlockPoolId());
+
+    // fill the queue while the reports cannot be applied
+    cluster.getNamesystem().writeLock();
+    try {
+      assertTrue(bm.queueIncrementalBlockReport(reg,
+          cluster.getNamesystem().getBlockPoolId(),
+          new StorageReceivedDeletedBlocks[0]));
+      assertFalse(bm.queueIncrementalBlockReport(reg,
+          cluster.getNamesystem().getBlockPoolId(),
+          new StorageReceivedDeletedBlocks[0]));
+    } finally {
+      cluster.getNamesystem().writeUnlock();
+    }
+
+    // the reports which do not fit in the queue are applied by the handlers
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.createFile(fs, new Path("/file" + i), 1024, (short)3, i);
+    }
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.waitReplication(fs, new Path("/file" + i), (short)3);
+    }
+    checkFiles(fs);
+  }
+
+  @Test(timeout=120000)
+  public void testDroppedReportForcesRegistration() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_INCREMENTAL_BLOCK_REPORT_ASYNC_KEY, true);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    final FSNamesystem ns = cluster.getNamesystem();
+    final DataNode dn = cluster.getDataNodes().get(0);
+    final DatanodeRegistration reg =
+        DataNodeTestUtils.getDNRegistrationForBP(dn, ns.getBlockPoolId());
+    final DatanodeDescriptor node = NameNodeAdapter.getDatanode(ns, reg);
+    DataNodeTestUtils.setHeartbeatsDisabledForTests(dn, true);
+
+    // the queued reports fail as the node looks dead when they are applied
+    ns.writeLock();
+    try {
+      ns.getBlockManager().queueIncrementalBlockReport(reg,
+          ns.getBlockPoolId(), new StorageReceivedDeletedBlocks[] {
+            new StorageReceivedDeletedBlocks("storage-1",
+                new ReceivedDeletedBlockInfo[0]),
+            new StorageReceivedDeletedBlocks("storage-2",
+                new ReceivedDeletedBlockInfo[0]) });
+      node.isAlive = false;
+      ns.getBlockManager().processIncrementalBlockReport(reg,
+          ns.getBlockPoolId(), new StorageReceivedDeletedBlocks[0]);
+      node.isAlive = true;
+    } finally {
+      ns.writeUnlock();
+    }
+    assertEquals(0, ns.getBlockManager().getQueuedIncrementalBlockReportCount());
+    assertTrue(node.isForceRegistration());
+
+    // the node registers again on its next heartbeat, and sends a full
+    // block report
+    final long blockReports = getLongCounter("BlockReportsNumOps",
+        getMetrics(dn.getMetrics().name()));
+    DataNodeTestUtils.setHeartbeatsDisabledForTests(dn, false);
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return !node.isForceRegistration()
+            && getLongCounter("BlockReportsNumOps",
+                getMetrics(dn.getMetrics().name())) > blockReports;
+      }
+    }, 100, 30000);
+  }
+
+  private void checkFiles(FileSystem fs) throws Exception {
+    for (int i = 0; i < NUM_FILES; i++) {
+      Path file = new Path("/file" + i);
+      List<LocatedBlock> blocks = DFSTestUtil.getAllBlocks(fs, file);
+      assertEquals(1, blocks.size());
+      assertEquals(fs.getFileStatus(file).getReplication(),
+          blocks.get(0).getLocations().length);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.client.ShortCircuitShm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the shared memory segment which the DataNode uses to tell its
+ * short-circuit clients about the state of their replicas.
+ */
+public class TestShortCircuitRegistry {
+  private static final String BPID = "BP-1";
+  private static final File TEST_DIR = new File(
+      System.getProperty("test.build.data", "build/test/data"),
+      TestShortCircuitRegistry.class.getSimpleName());
+
+  private ShortCircuitRegistry registry;
+
+  @Before
+  public void setUp() {
+    FileUtil.fullyDelete(TEST_DIR);
+    assertTrue(TEST_DIR.mkdirs());
+  }
+
+  @After
+  public void tearDown() {
+    if (registry != null) {
+      registry.close();
+    }
+    FileUtil.fullyDelete(TEST_DIR);
+  }
+
+  private ShortCircuitRegistry newRegistry(int numSlots) {
+    Configuration conf = new Configuration();
+    conf.set(DFSConfigKeys.DFS_DATANODE_SHARED_FILE_DESCRIPTOR_PATHS_KEY,
+        new File(TEST_DIR, "nonexistent").getPath() + "," +
+        TEST_DIR.getPath());
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_SHARED_MEMORY_SLOTS_KEY, numSlots);
+    return new ShortCircuitRegistry(conf, true);
+  }
+
+  /**
+   * Map the segment the way a client does, from its file descriptor.
+   */
+  private ShortCircuitShm mapSegment() throws Exception {
+    return ShortCircuitShm.map(registry.getSegmentId(),
+        new FileInputStream(registry.getSegmentFileDescriptor()));
+  }
+
+  private ShortCircuitShm.Slot registerSlot(ShortCircuitShm shm,
+      long blockId) throws Exception {
+    ShortCircuitRegistry.Slot slot = registry.registerSlot(BPID, blockId);
+    assertNotNull(slot);
+    return shm.getSlot(slot.getIndex(), slot.getGeneration());
+  }
+
+  @Test(timeout=60000)
+  public void testSegmentIsUnlinked() throws Exception {
+    registry = newRegistry(16);
+    assertTrue(registry.isEnabled());
+    // the segment file was created in the second directory, then unlinked
+    assertEquals(0, TEST_DIR.list().length);
+    ShortCircuitShm shm = mapSegment();
+    assertEquals(16, shm.getNumSlots());
+  }
+
+  @Test(timeout=60000)
+  public void testDisabled() throws Exception {
+    registry = newRegistry(0);
+    assertFalse(registry.isEnabled());
+    assertNull(registry.registerSlot(BPID, 1));
+    // the events are still accepted
+    registry.processBlockMlockEvent(BPID, 1);
+    registry.processBlockInvalidation(BPID, 1);
+  }
+
+  @Test(timeout=60000)
+  public void testInvalidation() throws Exception {
+    registry = newRegistry(16);
+    ShortCircuitShm shm = mapSegment();
+    ShortCircuitShm.Slot slot1 = registerSlot(shm, 1);
+    ShortCircuitShm.Slot slot2 = registerSlot(shm, 2);
+    assertTrue(slot1.isValid());
+    assertTrue(slot2.isValid());
+    assertFalse(slot1.isMlocked());
+
+    // every client of a replica gets the same slot
+    ShortCircuitRegistry.Slot again = registry.registerSlot(BPID, 1);
+    assertTrue(shm.getSlot(again.getIndex(), again.getGeneration()).isValid());
+    assertEquals(2, registry.getNumSlotsInUse());
+
+    registry.processBlockInvalidation(BPID, 1);
+    assertFalse(slot1.isValid());
+    assertTrue(slot2.isValid());
+    assertEquals(1, registry.getNumSlotsInUse());
+
+    // the freed slot is reused with a new generation
+    ShortCircuitShm.Slot slot3 = registerSlot(shm, 3);
+    assertTrue(slot3.isValid());
+    assertFalse(slot1.isValid());
+
+    // slots from a replaced segment are never valid
+    shm.markStale();
+    assertFalse(slot2.isValid());
+  }
+
+  @Test(timeout=60000)
+  public void testMlock() throws Exception {
+    registry = newRegistry(16);
+    ShortCircuitShm shm = mapSegment();
+    // a replica which was mlocked before it got a slot
+    registry.processBlockMlockEvent(BPID, 1);
+    ShortCircuitShm.Slot slot1 = registerSlot(shm, 1);
+    assertTrue(slot1.isMlocked());
+
+    ShortCircuitShm.Slot slot2 = registerSlot(shm, 2);
+    assertFalse(slot2.isMlocked());
+    registry.processBlockMlockEvent(BPID, 2);
+    assertTrue(slot2.isMlocked());
+    registry.processBlockMunlockEvent(BPID, 2);
+    assertFalse(slot2.isMlocked());
+    assertTrue(slot2.isValid());
+
+    registry.processBlockInvalidation(BPID, 1);
+    assertFalse(slot1.isMlocked());
+  }
+
+  @Test(timeout=60000)
+  public void testLeastRecentlyUsedSlotReassigned() throws Exception {
+    registry = newRegistry(2);
+    ShortCircuitShm shm = mapSegment();
+    ShortCircuitShm.Slot slot1 = registerSlot(shm, 1);
+    ShortCircuitShm.Slot slot2 = registerSlot(shm, 2);
+    // use replica 1 again, so that replica 2 is the least recently used
+    registry.registerSlot(BPID, 1);
+    ShortCircuitShm.Slot slot3 = registerSlot(shm, 3);
+    assertTrue(slot1.isValid());
+    assertFalse(slot2.isValid());
+    assertTrue(slot3.isValid());
+    assertEquals(2, registry.getNumSlotsInUse());
+  }
+
+  @Test(timeout=60000)
+  public void testClose() throws Exception {
+    registry = newRegistry(16);
+    ShortCircuitShm shm = mapSegment();
+    ShortCircuitShm.Slot slot = registerSlot(shm, 1);
+    registry.close();
+    assertFalse(slot.isValid());
+    assertFalse(registry.isEnabled());
+    assertNull(registry.registerSlot(BPID, 1));
+  }
+}
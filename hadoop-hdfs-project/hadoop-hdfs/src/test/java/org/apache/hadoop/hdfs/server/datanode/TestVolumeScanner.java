@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSCluster.DataNodeProperties;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.test.PathUtils;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test the per-volume block scanner, which walks the block files in order
+ * and keeps its cursor on the volume.
+ */
+public class TestVolumeScanner {
+  private static final int NUM_FILES = 6;
+
+  private MiniDFSCluster cluster;
+
+  @After
+  public void shutdownCluster() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private FileSystem startCluster() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_SCAN_PER_VOLUME_ENABLED_KEY,
+        true);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    return cluster.getFileSystem();
+  }
+
+  private List<VolumeScanner> getVolumeScanners() {
+    DataBlockScanner scanner = cluster.getDataNodes().get(0).getBlockScanner();
+    assertNotNull(scanner.getVolumeScanners());
+    return scanner.getVolumeScanners();
+  }
+
+  /** Wait until the first walk of every volume is complete. */
+  private long waitForWalks(String bpid) throws Exception {
+    for (int i = 0; i < 600; i++) {
+      long verified = 0;
+      boolean done = true;
+      for (VolumeScanner vs : getVolumeScanners()) {
+        VolumeScanner.BlockPoolCursor c = vs.getCursor(bpid);
+        if (c == null || c.getIterationStart() == 0 || !c.isDone()) {
+          done = false;
+          break;
+        }
+        verified += c.getVerifiedBlocks();
+      }
+      if (done) {
+        return verified;
+      }
+      Thread.sleep(100);
+    }
+    throw new AssertionError("The walks of the volumes did not complete");
+  }
+
+  @Test
+  public void testBlockFileIteratorResumesFromCursor() throws Exception {
+    File root = new File(PathUtils.getTestDir(getClass()), "finalized");
+    FileUtil.fullyDelete(root);
+    List<String> expected = new ArrayList<String>();
+    for (String path : new String[] { "blk_1", "subdir0/blk_2",
+        "subdir0/subdir3/blk_3", "subdir0/subdir3/blk_4", "subdir1/blk_5" }) {
+      File f = new File(root, path);
+      assertTrue(f.getParentFile().isDirectory() || f.getParentFile().mkdirs());
+      assertTrue(f.createNewFile());
+      // the meta files are not walked
+      assertTrue(new File(f.getPath() + "_1001.meta").createNewFile());
+      expected.add(path);
+    }
+
+    VolumeScanner.BlockFileIterator it =
+        new VolumeScanner.BlockFileIterator(root, null);
+    List<String> walked = new ArrayList<String>();
+    while (it.next() != null) {
+      walked.add(it.getLastPath());
+    }
+    assertEquals(expected, walked);
+
+    // resume after each of the block files
+    for (int i = 0; i < expected.size(); i++) {
+      it = new VolumeScanner.BlockFileIterator(root, expected.get(i));
+      walked.clear();
+      while (it.next() != null) {
+        walked.add(it.getLastPath());
+      }
+      assertEquals(expected.subList(i + 1, expected.size()), walked);
+    }
+
+    // resume after a block file deleted since
+    it = new VolumeScanner.BlockFileIterator(root, "subdir0/subdir3/blk_35");
+    assertNotNull(it.next());
+    assertEquals("subdir0/subdir3/blk_4", it.getLastPath());
+    it = new VolumeScanner.BlockFileIterator(root, "subdir0/subdir2/blk_35");
+    assertNotNull(it.next());
+    assertEquals("subdir0/subdir3/blk_3", it.getLastPath());
+  }
+
+  @Test(timeout=120000)
+  public void testScansAllBlocksAndKeepsCursor() throws Exception {
+    FileSystem fs = startCluster();
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.createFile(fs, new Path("/file" + i), 1024, (short)1, i);
+    }
+    // restart without the cursors, so that a new walk finds all the blocks
+    String bpid = cluster.getNamesystem().getBlockPoolId();
+    List<File> cursorFiles = new ArrayList<File>();
+    for (VolumeScanner vs : getVolumeScanners()) {
+      cursorFiles.add(vs.getCursor(bpid).getCursorFile());
+    }
+    DataNodeProperties dnprop = cluster.stopDataNode(0);
+    for (File f : cursorFiles) {
+      assertTrue(!f.exists() || f.delete());
+    }
+    cluster.restartDataNode(dnprop, true);
+    cluster.waitActive();
+    DataNode dn = cluster.getDataNodes().get(0);
+    assertNull(dn.getBlockScanner().getBPScanner(bpid));
+    assertEquals(NUM_FILES, waitForWalks(bpid));
+
+    Map<String, Long> starts = new HashMap<String, Long>();
+    for (VolumeScanner vs : getVolumeScanners()) {
+      VolumeScanner.BlockPoolCursor c = vs.getCursor(bpid);
+      assertTrue(c.getCursorFile().exists());
+      starts.put(vs.getVolume().getBasePath(), c.getIterationStart());
+    }
+    StringBuilder report = new StringBuilder();
+    dn.getBlockScanner().printBlockReport(report, true);
+    assertTrue(report.toString(), report.toString().contains("complete"));
+
+    // the walks are not repeated within the scan period after a restart
+    cluster.restartDataNode(0, true);
+    cluster.waitActive();
+    dn = cluster.getDataNodes().get(0);
+    while (!dn.getBlockScanner().isInitialized(bpid)) {
+      Thread.sleep(100);
+    }
+    Thread.sleep(2 * DataBlockScanner.SLEEP_PERIOD_MS);
+    for (VolumeScanner vs : getVolumeScanners()) {
+      VolumeScanner.BlockPoolCursor c = vs.getCursor(bpid);
+      assertTrue(c.isDone());
+      assertEquals(0, c.getVerifiedBlocks());
+      assertEquals(starts.get(vs.getVolume().getBasePath()).longValue(),
+          c.getIterationStart());
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testCorruptBlockReported() throws Exception {
+    FileSystem fs = startCluster();
+    Path file = new Path("/file");
+    DFSTestUtil.createFile(fs, file, 1024, (short)1, 0);
+    ExtendedBlock b = DFSTestUtil.getAllBlocks(fs, file).get(0).getBlock();
+    assertTrue(MiniDFSCluster.corruptReplica(0, b));
+
+    DataNode dn = cluster.getDataNodes().get(0);
+    FsVolumeSpi volume = DataNodeTestUtils.getFSDataset(dn).getVolume(b);
+    for (VolumeScanner vs : getVolumeScanners()) {
+      if (vs.getVolume() == volume) {
+        vs.verifyBlock(b);
+      }
+    }
+    for (int i = 0; i < 100 && cluster.getNamesystem().getBlockManager()
+        .numCorruptReplicas(b.getLocalBlock()) == 0; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(1, cluster.getNamesystem().getBlockManager()
+        .numCorruptReplicas(b.getLocalBlock()));
+  }
+}
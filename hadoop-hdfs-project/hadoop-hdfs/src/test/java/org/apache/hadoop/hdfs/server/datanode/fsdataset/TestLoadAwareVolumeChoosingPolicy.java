@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_MIN_LATENCY_MS_KEY;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestLoadAwareVolumeChoosingPolicy {
+
+  private static final int RANDOMIZED_ITERATIONS = 10000;
+  private static final long MS = 1000000L;
+
+  private static LoadAwareVolumeChoosingPolicy<FsVolumeSpi> newPolicy() {
+    @SuppressWarnings("unchecked")
+    final LoadAwareVolumeChoosingPolicy<FsVolumeSpi> policy =
+        ReflectionUtils.newInstance(LoadAwareVolumeChoosingPolicy.class, null);
+    Configuration conf = new Configuration();
+    conf.setFloat(
+        DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_FACTOR_KEY,
+        3.0f);
+    conf.setLong(
+        DFS_DATANODE_LOAD_AWARE_VOLUME_CHOOSING_POLICY_SLOW_VOLUME_MIN_LATENCY_MS_KEY,
+        10);
+    ((Configurable) policy).setConf(conf);
+    return policy;
+  }
+
+  /**
+   * Add a volume with 1GB of free space and the given recent write latency
+   * and outstanding I/Os.
+   */
+  private static VolumeIoStats addVolume(List<FsVolumeSpi> volumes,
+      long writeLatencyNanos, int outstandingIo) throws Exception {
+    final FsVolumeSpi volume = Mockito.mock(FsVolumeSpi.class);
+    Mockito.when(volume.getAvailable()).thenReturn(1024L * 1024L * 1024L);
+    final VolumeIoStats stats = new VolumeIoStats();
+    if (writeLatencyNanos > 0) {
+      stats.addWrite(writeLatencyNanos);
+    }
+    for (int i = 0; i < outstandingIo; i++) {
+      stats.begin();
+    }
+    Mockito.when(volume.getIoStats()).thenReturn(stats);
+    volumes.add(volume);
+    return stats;
+  }
+
+  private static int[] countChoices(VolumeChoosingPolicy<FsVolumeSpi> policy,
+      List<FsVolumeSpi> volumes) throws Exception {
+    final int[] counts = new int[volumes.size()];
+    for (int i = 0; i < RANDOMIZED_ITERATIONS; i++) {
+      counts[volumes.indexOf(policy.chooseVolume(volumes, 100))]++;
+    }
+    return counts;
+  }
+
+  // ChooseVolume should throw DiskOutOfSpaceException
+  // with volume and block sizes in exception message.
+  @Test(timeout=60000)
+  public void testRRPolicyExceptionMessage() throws Exception {
+    TestRoundRobinVolumeChoosingPolicy.testRRPolicyExceptionMessage(
+        newPolicy());
+  }
+
+  @Test(timeout=60000)
+  public void testVolumesWithoutStats() throws Exception {
+    final VolumeChoosingPolicy<FsVolumeSpi> policy = newPolicy();
+    final List<FsVolumeSpi> volumes = new ArrayList<FsVolumeSpi>();
+    for (int i = 0; i < 2; i++) {
+      final FsVolumeSpi volume = Mockito.mock(FsVolumeSpi.class);
+      Mockito.when(volume.getAvailable()).thenReturn(1024L * 1024L);
+      volumes.add(volume);
+    }
+
+    // both volumes are chosen, about equally often
+    final int[] counts = countChoices(policy, volumes);
+    Assert.assertEquals(RANDOMIZED_ITERATIONS / 2, counts[0],
+        RANDOMIZED_ITERATIONS / 20);
+  }
+
+  @Test(timeout=60000)
+  public void testSlowVolumeSkipped() throws Exception {
+    final VolumeChoosingPolicy<FsVolumeSpi> policy = newPolicy();
+    final List<FsVolumeSpi> volumes = new ArrayList<FsVolumeSpi>();
+    addVolume(volumes, 2 * MS, 0);
+    addVolume(volumes, 3 * MS, 0);
+    addVolume(volumes, 200 * MS, 0);
+
+    final int[] counts = countChoices(policy, volumes);
+    Assert.assertEquals(0, counts[2]);
+    Assert.assertTrue(counts[0] > counts[1]);
+    Assert.assertTrue(counts[1] > 0);
+  }
+
+  @Test(timeout=60000)
+  public void testSlowVolumeChosenWhenOnlyOneWithSpace() throws Exception {
+    final VolumeChoosingPolicy<FsVolumeSpi> policy = newPolicy();
+    final List<FsVolumeSpi> volumes = new ArrayList<FsVolumeSpi>();
+    addVolume(volumes, 2 * MS, 0);
+    addVolume(volumes, 200 * MS, 0);
+    Mockito.when(volumes.get(0).getAvailable()).thenReturn(50L);
+
+    Assert.assertEquals(volumes.get(1), policy.chooseVolume(volumes, 100));
+  }
+
+  @Test(timeout=60000)
+  public void testLatencyBelowMinimumNotSlow() throws Exception {
+    final VolumeChoosingPolicy<FsVolumeSpi> policy = newPolicy();
+    final List<FsVolumeSpi> volumes = new ArrayList<FsVolumeSpi>();
+    // 8ms is 8 times the median, but below the minimum of 10ms
+    addVolume(volumes, MS, 0);
+    addVolume(volumes, 8 * MS, 0);
+
+    Assert.assertTrue(countChoices(policy, volumes)[1] > 0);
+  }
+
+  @Test(timeout=60000)
+  public void testOutstandingIoWeighting() throws Exception {
+    final VolumeChoosingPolicy<FsVolumeSpi> policy = newPolicy();
+    final List<FsVolumeSpi> volumes = new ArrayList<FsVolumeSpi>();
+    addVolume(volumes, 0, 0);
+    final VolumeIoStats busy = addVolume(volumes, 0, 3);
+    Assert.assertEquals(3, busy.getOutstandingIo());
+
+    // the idle volume has four times the weight of the busy one
+    final int[] counts = countChoices(policy, volumes);
+    Assert.assertEquals(RANDOMIZED_ITERATIONS / 5, counts[1],
+        RANDOMIZED_ITERATIONS / 20);
+  }
+}
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaAlreadyExistsException;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInPipeline;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+
+/**
+ * Drive many concurrent writers and readers through {@link FsDatasetImpl}
+ * and check that the replica map stays consistent.  The achieved write
+ * throughput is logged.
+ */
+public class TestFsDatasetImplContention {
+  private static final Log LOG =
+      LogFactory.getLog(TestFsDatasetImplContention.class);
+
+  private static final long GEN_STAMP = 1000L;
+  private static final byte[] DATA = new byte[1024];
+
+  @Test(timeout=120000)
+  public void testConcurrentWriters() throws Exception {
+    runConcurrentWriters(16, 50, 4);
+  }
+
+  @Test(timeout=120000)
+  public void testConcurrentCreateOfSameBlock() throws Exception {
+    final int numThreads = 8;
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(
+        new HdfsConfiguration()).build();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      cluster.waitActive();
+      DataNode dn = cluster.getDataNodes().get(0);
+      final FsDatasetImpl dataSet =
+          (FsDatasetImpl)DataNodeTestUtils.getFSDataset(dn);
+      String bpid = cluster.getNamesystem().getBlockPoolId();
+
+      for (long blockId = 1; blockId <= 20; blockId++) {
+        final ExtendedBlock b = new ExtendedBlock(bpid, blockId, 0, GEN_STAMP);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < numThreads; i++) {
+          results.add(executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+              start.await();
+              try {
+                dataSet.createRbw(b);
+                return true;
+              } catch (ReplicaAlreadyExistsException e) {
+                return false;
+              } catch (IOException e) {
+                // the losing writer may fail to create the file itself
+                return false;
+              }
+            }
+          }));
+        }
+        start.countDown();
+        int created = 0;
+        for (Future<Boolean> result : results) {
+          if (result.get()) {
+            created++;
+          }
+        }
+        assertEquals("Exactly one writer should create " + b, 1, created);
+        ReplicaInfo r = dataSet.fetchReplicaInfo(bpid, blockId);
+        assertNotNull(r);
+        assertEquals(ReplicaState.RBW, r.getState());
+        assertEquals(true, r.getBlockFile().exists());
+      }
+    } finally {
+      executor.shutdownNow();
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Write blocks from many threads while other threads look up replicas and
+   * build block reports.
+   */
+  private static void runConcurrentWriters(int numWriters,
+      final int blocksPerWriter, int numReaders) throws Exception {
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(
+        new HdfsConfiguration()).build();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(numWriters + numReaders);
+    try {
+      cluster.waitActive();
+      DataNode dn = cluster.getDataNodes().get(0);
+      final FsDatasetImpl dataSet =
+          (FsDatasetImpl)DataNodeTestUtils.getFSDataset(dn);
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+      final int initialReplicas = dataSet.volumeMap.size(bpid);
+
+      final AtomicLong nextBlockId = new AtomicLong(1);
+      final AtomicBoolean writing = new AtomicBoolean(true);
+      final AtomicLong lookups = new AtomicLong();
+      final CountDownLatch start = new CountDownLatch(1);
+
+      List<Future<Void>> writers = new ArrayList<Future<Void>>();
+      for (int i = 0; i < numWriters; i++) {
+        writers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            for (int j = 0; j < blocksPerWriter; j++) {
+              writeBlock(dataSet, new ExtendedBlock(bpid,
+                  nextBlockId.getAndIncrement(), 0, GEN_STAMP));
+            }
+            return null;
+          }
+        }));
+      }
+      List<Future<Void>> readers = new ArrayList<Future<Void>>();
+      for (int i = 0; i < numReaders; i++) {
+        readers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            while (writing.get()) {
+              ExtendedBlock b = new ExtendedBlock(bpid,
+                  nextBlockId.get() - 1, 0, GEN_STAMP);
+              dataSet.getReplicaString(bpid, b.getBlockId());
+              dataSet.getVolume(b);
+              dataSet.isValidBlock(b);
+              if (lookups.incrementAndGet() % 100 == 0) {
+                dataSet.getBlockReports(bpid);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+
+      long startTime = Time.monotonicNow();
+      start.countDown();
+      for (Future<Void> writer : writers) {
+        writer.get();
+      }
+      long elapsed = Math.max(1, Time.monotonicNow() - startTime);
+      writing.set(false);
+      for (Future<Void> reader : readers) {
+        reader.get();
+      }
+
+      // every block must have been finalized with its full length
+      final long numBlocks = (long)numWriters * blocksPerWriter;
+      for (long blockId = 1; blockId <= numBlocks; blockId++) {
+        ReplicaInfo r = dataSet.fetchReplicaInfo(bpid, blockId);
+        assertNotNull("Missing replica " + blockId, r);
+        assertEquals(ReplicaState.FINALIZED, r.getState());
+        assertEquals(DATA.length, r.getNumBytes());
+        assertEquals(DATA.length, r.getBlockFile().length());
+      }
+      assertEquals(initialReplicas + numBlocks, dataSet.volumeMap.size(bpid));
+      assertEquals(initialReplicas + numBlocks,
+          dataSet.getFinalizedBlocks(bpid).size());
+
+      double blocksPerSec = numBlocks * 1000.0 / elapsed;
+      LOG.info("Wrote " + numBlocks + " blocks with " + numWriters
+          + " writers and " + numReaders + " readers in " + elapsed
+          + " ms (" + blocksPerSec + " blocks/s, " + lookups.get()
+          + " lookups)");
+    } finally {
+      executor.shutdownNow();
+      cluster.shutdown();
+    }
+  }
+
+  private static void writeBlock(FsDatasetImpl dataSet, ExtendedBlock b)
+      throws IOException {
+    ReplicaInPipeline replica = dataSet.createRbw(b);
+    ReplicaOutputStreams streams = replica.createStreams(true,
+        DataChecksum.newDataChecksum(DataChecksum.Type.CRC32, 512));
+    try {
+      streams.getDataOut().write(DATA);
+    } finally {
+      streams.close();
+    }
+    replica.setNumBytes(DATA.length);
+    replica.setBytesAcked(DATA.length);
+    b.setNumBytes(DATA.length);
+    dataSet.finalizeBlock(b);
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test that, with dfs.namenode.delete.async, a deleted directory is walked
+ * and its blocks and inodes are reclaimed in the background.
+ */
+public class TestAsyncDelete {
+  private static final int NUM_FILES = 20;
+  private static final int BLOCKS_PER_FILE = 4;
+  private static final int BLOCK_SIZE = 512;
+
+  private MiniDFSCluster cluster;
+  private FSNamesystem fsn;
+  private FileSystem fs;
+  private int savedIncrement;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_DELETE_ASYNC_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_DELETE_ASYNC_MAX_PENDING_KEY, 1);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    savedIncrement = FSNamesystem.BLOCK_DELETION_INCREMENT;
+    FSNamesystem.BLOCK_DELETION_INCREMENT = 3;
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fsn = cluster.getNamesystem();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    FSNamesystem.BLOCK_DELETION_INCREMENT = savedIncrement;
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private void createFiles(Path dir) throws Exception {
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.createFile(fs, new Path(dir, "file" + i),
+          BLOCK_SIZE * BLOCKS_PER_FILE, (short)1, 0L);
+    }
+  }
+
+  private void waitForReclamation() throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return fsn.getPendingReclamationSubtrees() == 0;
+      }
+    }, 100, 30000);
+    assertEquals(0, fsn.getPendingReclamationBlocks());
+    assertEquals(0, fsn.getPendingReclamationINodes());
+  }
+
+  @Test(timeout=60000)
+  public void testBlocksAndINodesReclaimed() throws Exception {
+    final Path dir = new Path("/dir");
+    createFiles(dir);
+    final long blocksBefore = fsn.getBlocksTotal();
+    final int inodesBefore = fsn.dir.getInodeMapSize();
+    assertEquals(NUM_FILES * BLOCKS_PER_FILE, blocksBefore);
+
+    assertTrue(fs.delete(dir, true));
+    assertFalse(fs.exists(dir));
+
+    waitForReclamation();
+    assertEquals(0, fsn.getBlocksTotal());
+    // the directory and all of its files
+    assertEquals(inodesBefore - NUM_FILES - 1, fsn.dir.getInodeMapSize());
+    assertGauge("PendingReclamationBlocks", 0L, getMetrics("FSNamesystem"));
+
+    // The same path can be reused right away.
+    createFiles(dir);
+    assertEquals(blocksBefore, fsn.getBlocksTotal());
+  }
+
+  /**
+   * Test that delete returns before the deleted subtree has been walked, and
+   * leaves its blocks and inodes to the reclaimer.
+   */
+  @Test(timeout=60000)
+  public void testDeleteReturnsBeforeReclamation() throws Exception {
+    final Path dir = new Path("/dir");
+    createFiles(dir);
+    final long blocksBefore = fsn.getBlocksTotal();
+    final int inodesBefore = fsn.dir.getInodeMapSize();
+
+    fsn.stopDeletedSubtreeReclaimer();
+    assertTrue(fs.delete(dir, true));
+    assertFalse(fs.exists(dir));
+    // Nothing of the subtree has been walked or removed yet.
+    assertEquals(1, fsn.getPendingReclamationSubtrees());
+    assertEquals(0, fsn.getPendingReclamationBlocks());
+    assertEquals(blocksBefore, fsn.getBlocksTotal());
+    assertEquals(inodesBefore, fsn.dir.getInodeMapSize());
+    assertGauge("PendingReclamationSubtrees", 1L,
+        getMetrics("FSNamesystem"));
+
+    fsn.startDeletedSubtreeReclaimer();
+    waitForReclamation();
+    assertEquals(0, fsn.getBlocksTotal());
+    assertEquals(inodesBefore - NUM_FILES - 1, fsn.dir.getInodeMapSize());
+  }
+
+  /**
+   * Test that a delete reclaims its subtree itself once the configured
+   * number of deleted subtrees is waiting to be reclaimed.
+   */
+  @Test(timeout=60000)
+  public void testBacklogIsBounded() throws Exception {
+    final Path dir1 = new Path("/dir1");
+    final Path dir2 = new Path("/dir2");
+    createFiles(dir1);
+    createFiles(dir2);
+    final long blocksPerDir = NUM_FILES * BLOCKS_PER_FILE;
+    assertEquals(2 * blocksPerDir, fsn.getBlocksTotal());
+
+    fsn.stopDeletedSubtreeReclaimer();
+    assertTrue(fs.delete(dir1, true));
+    assertEquals(1, fsn.getPendingReclamationSubtrees());
+    // The backlog is full, so this one is reclaimed before delete returns.
+    assertTrue(fs.delete(dir2, true));
+    assertEquals(1, fsn.getPendingReclamationSubtrees());
+    assertEquals(blocksPerDir, fsn.getBlocksTotal());
+
+    fsn.startDeletedSubtreeReclaimer();
+    waitForReclamation();
+    assertEquals(0, fsn.getBlocksTotal());
+  }
+}
@@ -19,12 +19,16 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_OFFER_TIMEOUT_MS_KEY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -35,8 +39,11 @@
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
+
 /**
  * Tests for the {@link AuditLogger} custom audit logging interface.
  */
@@ -89,18 +96,118 @@ public void testBrokenLogger() throws IOException {
     }
   }
 
+  /**
+   * Tests that audit events reach the audit loggers when they are logged
+   * asynchronously, and that a broken logger does not fail the request.
+   */
+  @Test
+  public void testAsyncAuditLogger() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY, true);
+    conf.set(DFS_NAMENODE_AUDIT_LOGGERS_KEY,
+        DummyAuditLogger.class.getName() + ","
+        + BrokenAuditLogger.class.getName());
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+
+    try {
+      cluster.waitClusterUp();
+      assertTrue(DummyAuditLogger.initialized);
+
+      FileSystem fs = cluster.getFileSystem();
+      long time = System.currentTimeMillis();
+      for (int i = 0; i < 10; i++) {
+        fs.setTimes(new Path("/"), time, time);
+      }
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return DummyAuditLogger.logCount == 10;
+        }
+      }, 10, 10000);
+      assertEquals(0, cluster.getNamesystem().getAuditEventsQueued());
+      assertEquals(0, cluster.getNamesystem().getAuditEventsDropped());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Tests that an event is dropped once it has waited for room in a full
+   * queue, and that the events still queued are logged on shutdown.
+   */
+  @Test(timeout=60000)
+  public void testAsyncAuditLoggerDropsWhenFull() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY, true);
+    conf.setInt(DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_KEY, 1);
+    conf.setLong(DFS_NAMENODE_AUDIT_LOG_ASYNC_OFFER_TIMEOUT_MS_KEY, 500);
+    conf.set(DFS_NAMENODE_AUDIT_LOGGERS_KEY,
+        SlowAuditLogger.class.getName());
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+
+    try {
+      cluster.waitClusterUp();
+      FSNamesystem fsn = cluster.getNamesystem();
+      FileSystem fs = cluster.getFileSystem();
+      long time = System.currentTimeMillis();
+      // The dispatcher takes the first event and waits in the logger.
+      fs.setTimes(new Path("/"), time, time);
+      SlowAuditLogger.logging.await();
+      // The second one fills the queue, and the third one is dropped.
+      fs.setTimes(new Path("/"), time, time);
+      fs.setTimes(new Path("/"), time, time);
+      assertEquals(1, fsn.getAuditEventsQueued());
+      assertEquals(1, fsn.getAuditEventsDropped());
+      SlowAuditLogger.release.countDown();
+    } finally {
+      cluster.shutdown();
+    }
+    assertEquals(2, SlowAuditLogger.logCount);
+  }
+
   public static class DummyAuditLogger implements AuditLogger {
 
     static boolean initialized;
-    static int logCount;
+    static volatile int logCount;
 
     public void initialize(Configuration conf) {
       initialized = true;
+      logCount = 0;
+    }
+
+    public void logAuditEvent(boolean succeeded, String userName,
+        InetAddress addr, String cmd, String src, String dst,
+        FileStatus stat) {
+      logCount++;
+    }
+
+  }
+
+  /** Counts setTimes events, waiting to be released before the first. */
+  public static class SlowAuditLogger implements AuditLogger {
+
+    static CountDownLatch logging;
+    static CountDownLatch release;
+    static volatile int logCount;
+
+    public void initialize(Configuration conf) {
+      logging = new CountDownLatch(1);
+      release = new CountDownLatch(1);
+      logCount = 0;
     }
 
     public void logAuditEvent(boolean succeeded, String userName,
         InetAddress addr, String cmd, String src, String dst,
         FileStatus stat) {
+      if (!"setTimes".equals(cmd)) {
+        return;
+      }
+      logging.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
       logCount++;
     }
 
@@ -24,6 +24,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS;
 import static org.apache.hadoop.hdfs.protocol.CachePoolInfo.RELATIVE_EXPIRY_NEVER;
 import static org.apache.hadoop.test.GenericTestUtils.assertExceptionContains;
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -39,6 +41,7 @@
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.logging.Log;
@@ -1014,6 +1017,115 @@ public void testReplicationFactor() throws Exception {
     checkNumCachedReplicas(dfs, paths, 0, 0);
   }
 
+  /**
+   * Tests that added directives are applied without waiting for the next
+   * full rescan.
+   */
+  @Test(timeout=120000)
+  public void testIncrementalRescanOfAddedDirectives() throws Exception {
+    cluster.shutdown();
+    conf.setLong(DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS, 600000);
+    conf.setLong(
+        DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_RESCAN_MAX_LOCK_HOLD_MS, 0);
+    cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(NUM_DATANODES).build();
+    cluster.waitActive();
+    dfs = cluster.getFileSystem();
+    namenode = cluster.getNameNode();
+
+    final String pool = "incrementalPool";
+    dfs.addCachePool(new CachePoolInfo(pool));
+    final Path dir = new Path("/incremental");
+    dfs.mkdir(dir, FsPermission.getDirDefault());
+    // One block per file, so that no datanode is asked to cache more blocks
+    // than fit in its cache.
+    for (int i = 0; i < 3; i++) {
+      FileSystemTestHelper.createFile(dfs, new Path(dir, "file" + i), 1,
+          (int)BLOCK_SIZE, (short)3, false);
+    }
+    dfs.addCacheDirective(new CacheDirectiveInfo.Builder().
+        setPath(new Path(dir, "file0")).setReplication((short)1).
+        setPool(pool).build());
+    waitForCachedBlocks(namenode, 1, 1,
+        "testIncrementalRescanOfAddedDirectives:0");
+    // A second directive on an overlapping path raises the replication.
+    dfs.addCacheDirective(new CacheDirectiveInfo.Builder().
+        setPath(dir).setReplication((short)2).setPool(pool).build());
+    waitForCachedBlocks(namenode, 3, 6,
+        "testIncrementalRescanOfAddedDirectives:1");
+  }
+
+  /**
+   * Tests that clients never see the pool statistics of a partial rescan,
+   * even though a rescan releases the lock between directives.
+   */
+  @Test(timeout=120000)
+  public void testStatisticsPublishedAtEndOfRescan() throws Exception {
+    cluster.shutdown();
+    conf.setLong(DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS, 600000);
+    conf.setLong(
+        DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_RESCAN_MAX_LOCK_HOLD_MS, 0);
+    cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(NUM_DATANODES).build();
+    cluster.waitActive();
+    dfs = cluster.getFileSystem();
+
+    // Many directives, since the lock is released between directives.
+    final int numDirectives = 50;
+    final CachePoolInfo pool = new CachePoolInfo("statsPool");
+    dfs.addCachePool(pool);
+    dfs.addCachePool(new CachePoolInfo("otherPool"));
+    Path file = new Path("/stats/file");
+    FileSystemTestHelper.createFile(dfs, file, 1, (int)BLOCK_SIZE,
+        (short)1, false);
+    for (int i = 0; i < numDirectives; i++) {
+      dfs.addCacheDirective(new CacheDirectiveInfo.Builder().
+          setPath(file).setReplication((short)1).
+          setPool(pool.getPoolName()).build());
+    }
+    waitForCachedBlocks(cluster.getNameNode(), 1, 1,
+        "testStatisticsPublishedAtEndOfRescan");
+
+    // Run full rescans in the background while checking the statistics.
+    final AtomicBoolean done = new AtomicBoolean(false);
+    Thread rescanner = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; !done.get(); i++) {
+            // Changing any pool needs a full rescan, and listing the
+            // directives waits for it.
+            dfs.modifyCachePool(
+                new CachePoolInfo("otherPool").setLimit(1000L + i));
+            dfs.listCacheDirectives(null).hasNext();
+          }
+        } catch (IOException e) {
+          LOG.error("Failed to rescan", e);
+        }
+      }
+    };
+    rescanner.start();
+    try {
+      final long scansBefore = getLongCounter("CacheRescanNumOps",
+          getMetrics("NameNodeActivity"));
+      while (getLongCounter("CacheRescanNumOps", getMetrics("NameNodeActivity"))
+          < scansBefore + 20) {
+        RemoteIterator<CachePoolEntry> iter = dfs.listCachePools();
+        while (iter.hasNext()) {
+          CachePoolEntry entry = iter.next();
+          if (entry.getInfo().getPoolName().equals(pool.getPoolName())) {
+            assertEquals(numDirectives * BLOCK_SIZE,
+                entry.getStats().getBytesNeeded());
+            assertEquals(numDirectives, entry.getStats().getFilesNeeded());
+          }
+        }
+      }
+    } finally {
+      done.set(true);
+      rescanner.join();
+    }
+  }
+
   @Test(timeout=60000)
   public void testListCachePoolPermissions() throws Exception {
     final UserGroupInformation myUser = UserGroupInformation
@@ -19,9 +19,13 @@
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 
 import java.io.BufferedInputStream;
@@ -39,6 +43,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
@@ -48,6 +53,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogLoader.EditLogValidation;
 import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeDirType;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.test.PathUtils;
 import org.apache.log4j.Level;
 import org.junit.Test;
@@ -68,8 +74,26 @@ public class TestFSEditLogLoader {
   
   @Test
   public void testDisplayRecentEditLogOpCodes() throws IOException {
-    // start a cluster 
+    checkDisplayRecentEditLogOpCodes(new HdfsConfiguration());
+  }
+
+  /**
+   * Test that an edit log decoded on a separate thread reports corruption
+   * in the same way as one that is decoded serially.
+   */
+  @Test
+  public void testDisplayRecentEditLogOpCodesPipelined() throws IOException {
     Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_LOADER_PIPELINED_KEY,
+        true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_EDITS_LOADER_PIPELINE_CAPACITY_KEY,
+        2);
+    checkDisplayRecentEditLogOpCodes(conf);
+  }
+
+  private void checkDisplayRecentEditLogOpCodes(Configuration conf)
+      throws IOException {
+    // start a cluster 
     MiniDFSCluster cluster = null;
     FileSystem fileSys = null;
     cluster = new MiniDFSCluster.Builder(conf).numDataNodes(NUM_DATA_NODES)
@@ -111,6 +135,159 @@ public void testDisplayRecentEditLogOpCodes() throws IOException {
     }
   }
   
+  /**
+   * Test that edits decoded on a separate thread are applied in order, and
+   * yield the same namespace after a restart.
+   */
+  @Test
+  public void testPipelinedEditLogLoading() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_LOADER_PIPELINED_KEY,
+        true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_EDITS_LOADER_PIPELINE_CAPACITY_KEY,
+        4);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(NUM_DATA_NODES)
+          .build();
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 50; i++) {
+        Path dir = new Path("/dir" + i);
+        fs.mkdirs(dir);
+        fs.setPermission(dir, new FsPermission((short)0700));
+        if (i % 2 == 0) {
+          fs.rename(dir, new Path("/renamed" + i));
+        }
+      }
+      fs.delete(new Path("/renamed0"), true);
+
+      cluster.restartNameNode();
+      fs = cluster.getFileSystem();
+      assertFalse(fs.exists(new Path("/renamed0")));
+      for (int i = 1; i < 50; i++) {
+        Path dir = new Path((i % 2 == 0 ? "/renamed" : "/dir") + i);
+        assertEquals((short)0700,
+            fs.getFileStatus(dir).getPermission().toShort());
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+  /**
+   * A stream of the given ops, in which a null op marks a damaged section
+   * that fails to decode and is skipped by resync.
+   */
+  private static class DamagedEditLogInputStream extends EditLogInputStream {
+    private final FSEditLogOp[] ops;
+    private int pos = 0;
+
+    DamagedEditLogInputStream(FSEditLogOp... ops) {
+      this.ops = ops;
+    }
+
+    @Override
+    protected FSEditLogOp nextOp() throws IOException {
+      if (pos == ops.length) {
+        return null;
+      }
+      FSEditLogOp op = ops[pos++];
+      if (op == null) {
+        throw new IOException("Damaged op at position " + (pos - 1));
+      }
+      return op;
+    }
+
+    @Override
+    protected FSEditLogOp nextValidOp() {
+      while (pos < ops.length) {
+        FSEditLogOp op = ops[pos++];
+        if (op != null) {
+          return op;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public String getName() {
+      return "damaged";
+    }
+
+    @Override
+    public long getFirstTxId() {
+      return 1;
+    }
+
+    @Override
+    public long getLastTxId() {
+      return ops.length;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public int getVersion() {
+      return HdfsConstants.LAYOUT_VERSION;
+    }
+
+    @Override
+    public long getPosition() {
+      return pos;
+    }
+
+    @Override
+    public long length() {
+      return ops.length;
+    }
+
+    @Override
+    public boolean isInProgress() {
+      return false;
+    }
+
+    @Override
+    public void setMaxOpSize(int maxOpSize) {
+    }
+  }
+
+  /**
+   * Test that a pipelined stream skips a damaged section through the
+   * underlying stream on resync, and resumes decoding after it.
+   */
+  @Test
+  public void testPipelinedResync() throws IOException {
+    FSEditLogOp a = mock(FSEditLogOp.class);
+    FSEditLogOp b = mock(FSEditLogOp.class);
+    FSEditLogOp c = mock(FSEditLogOp.class);
+    PipelinedEditLogInputStream in = new PipelinedEditLogInputStream(
+        new DamagedEditLogInputStream(a, b, null, null, c), 1);
+    try {
+      assertSame(a, in.readOp());
+      assertSame(b, in.readOp());
+      try {
+        in.readOp();
+        fail("expected the damaged op to fail to decode");
+      } catch (IOException e) {
+        GenericTestUtils.assertExceptionContains("position 2", e);
+      }
+      in.resync();
+      assertSame(c, in.readOp());
+      assertEquals(5, in.getPosition());
+      assertNull(in.readOp());
+      in.resync();
+      assertNull(in.readOp());
+    } finally {
+      in.close();
+    }
+  }
+
+
+
   /**
    * Test that, if the NN restarts with a new minimum replication,
    * any files created with the old replication count will get
@@ -68,6 +68,8 @@
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManagerTestUtil;
+import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeDescriptor;
 import org.apache.hadoop.hdfs.server.namenode.NamenodeFsck.Result;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
 import org.apache.hadoop.hdfs.tools.DFSck;
@@ -786,6 +788,101 @@ public void testFsckListCorruptFilesBlocks() throws Exception {
     }
   }
   
+  /**
+   * Test that checking the subtrees of a path in parallel gives the same
+   * results as checking them sequentially.
+   */
+  @Test
+  public void testFsckParallel() throws Exception {
+    DFSTestUtil util = new DFSTestUtil.Builder().setName("TestFsckParallel").
+        setNumFiles(30).setMaxLevels(3).build();
+    MiniDFSCluster cluster = null;
+    try {
+      Configuration conf = new HdfsConfiguration();
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+      FileSystem fs = cluster.getFileSystem();
+      util.createFiles(fs, "/srcdat");
+      util.waitReplication(fs, "/srcdat", (short)3);
+
+      final String sequential = runFsck(conf, 0, true, "/", "-files");
+      final String parallel = runFsck(conf, 0, true, "/", "-files",
+          "-threads", "4");
+      assertTrue(parallel.contains(NamenodeFsck.HEALTHY_STATUS));
+      assertEquals(getFsckSummary(sequential), getFsckSummary(parallel));
+      for (String file : util.getFileNames("/srcdat")) {
+        assertTrue(parallel.contains(file + " "));
+      }
+
+      // an invalid number of threads is rejected
+      final String invalid = runFsck(conf, -1, true, "/", "-threads", "0");
+      assertTrue(invalid.contains("Illegal number of threads '0'"));
+      assertTrue(invalid.contains(NamenodeFsck.FAILURE_STATUS));
+    } finally {
+      if (cluster != null) { cluster.shutdown(); }
+    }
+  }
+
+  private static String getFsckSummary(String fsckOutput) {
+    final int start = fsckOutput.indexOf("Status: ");
+    final int end = fsckOutput.indexOf(" Number of data-nodes");
+    assertTrue(start >= 0 && end > start);
+    return fsckOutput.substring(start, end);
+  }
+
+  /**
+   * Test listing the unhealthy blocks from the replication queues.
+   */
+  @Test
+  public void testFsckListUnhealthyBlocks() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      final Path underReplicated = new Path("/data/underReplicated");
+      DFSTestUtil.createFile(fs, underReplicated, 1024, (short)2, 0L);
+      final ExtendedBlock block = DFSTestUtil.getFirstBlock(fs,
+          underReplicated);
+
+      String outStr = runFsck(conf, 0, true, "/data", "-list-unhealthyblocks");
+      assertTrue(outStr.contains(NamenodeFsck.UNHEALTHY_BLOCKS_HEADER));
+      assertTrue(outStr.contains(NamenodeFsck.UNDER_REPLICATED_BLOCK + "\t"
+          + block.getLocalBlock() + "\t" + underReplicated + "\t1\t2"));
+      assertTrue(outStr.contains(NamenodeFsck.HEALTHY_STATUS));
+
+      // blocks outside the path are not listed
+      DFSTestUtil.createFile(fs, new Path("/data2/healthy"), 1024, (short)1,
+          0L);
+      outStr = runFsck(conf, 0, true, "/data2", "-list-unhealthyblocks");
+      assertFalse(outStr.contains(block.getBlockName()));
+
+      // a block whose only replica is on a decommissioning datanode is
+      // under-replicated, not missing
+      final DatanodeDescriptor dd = cluster.getNamesystem().getBlockManager()
+          .getDatanodeManager().getDatanode(
+              cluster.getDataNodes().get(0).getDatanodeId());
+      dd.startDecommission();
+      outStr = runFsck(conf, 0, true, "/data", "-list-unhealthyblocks");
+      assertTrue(outStr.contains(NamenodeFsck.UNDER_REPLICATED_BLOCK + "\t"
+          + block.getLocalBlock() + "\t" + underReplicated + "\t0\t2"));
+      assertTrue(outStr.contains(NamenodeFsck.HEALTHY_STATUS));
+      dd.stopDecommission();
+
+      // the block is missing once its only datanode is dead
+      final String dnName = cluster.getDataNodes().get(0).getDatanodeId()
+          .getXferAddr();
+      cluster.stopDataNode(0);
+      BlockManagerTestUtil.noticeDeadDatanode(cluster.getNameNode(), dnName);
+      outStr = runFsck(conf, 1, true, "/", "-list-unhealthyblocks");
+      assertTrue(outStr.contains(NamenodeFsck.MISSING_BLOCK + "\t"
+          + block.getLocalBlock() + "\t" + underReplicated + "\t0\t2"));
+      assertTrue(outStr.contains(NamenodeFsck.CORRUPT_STATUS));
+    } finally {
+      if (cluster != null) { cluster.shutdown(); }
+    }
+  }
+
   /**
    * Test for checking fsck command on illegal arguments should print the proper
    * usage.
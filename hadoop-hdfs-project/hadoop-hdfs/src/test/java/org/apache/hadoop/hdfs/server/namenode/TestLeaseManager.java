@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestLeaseManager {
+  private FSNamesystem fsn;
+  private LeaseManager lm;
+
+  @Before
+  public void setUp() throws Exception {
+    fsn = mock(FSNamesystem.class);
+    doReturn(true).when(fsn).hasWriteLock();
+    lm = new LeaseManager(fsn);
+    // Releasing a lease just removes the path from it.
+    doAnswer(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) {
+        Object[] args = invocation.getArguments();
+        lm.removeLease((Lease) args[0], (String) args[1]);
+        return true;
+      }
+    }).when(fsn).internalReleaseLease(any(Lease.class), anyString(),
+        anyString());
+  }
+
+  @Test
+  public void testCheckLeasesReleasesAllExpiredLeases() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      lm.addLease("holder" + i, "/file" + i);
+    }
+    lm.setLeasePeriod(0, -1);
+    lm.setMaxLockHoldToReleaseLease(Long.MAX_VALUE);
+    assertFalse(lm.checkLeases());
+    assertEquals(0, lm.countLease());
+  }
+
+  /**
+   * Test that checkLeases stops releasing expired leases when it has held
+   * the lock for too long, but always makes progress.
+   */
+  @Test
+  public void testCheckLeasesBoundsLockHoldTime() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      lm.addLease("holder" + i, "/file" + i);
+    }
+    lm.setLeasePeriod(0, -1);
+    lm.setMaxLockHoldToReleaseLease(-1);
+    for (int i = 10; i > 0; i--) {
+      assertEquals(i, lm.countLease());
+      lm.checkLeases();
+    }
+    assertEquals(0, lm.countLease());
+  }
+
+  /**
+   * Test that the time spent is also checked between the paths of a single
+   * lease holder.
+   */
+  @Test
+  public void testCheckLeasesBoundsLockHoldTimeForOneHolder()
+      throws Exception {
+    for (int i = 0; i < 5; i++) {
+      lm.addLease("holder", "/file" + i);
+    }
+    lm.setLeasePeriod(0, -1);
+    lm.setMaxLockHoldToReleaseLease(-1);
+    for (int i = 5; i > 0; i--) {
+      assertEquals(i, lm.countPath());
+      lm.checkLeases();
+    }
+    assertEquals(0, lm.countLease());
+  }
+
+  /**
+   * Test that the monitor does not spin on the lock in safe mode when the
+   * last check left expired leases behind.
+   */
+  @Test(timeout=60000)
+  public void testMonitorSleepsInSafeMode() throws Exception {
+    lm.addLease("holder1", "/file1");
+    lm.addLease("holder2", "/file2");
+    lm.setLeasePeriod(0, -1);
+    lm.setMaxLockHoldToReleaseLease(-1);
+    lm.checkLeases();
+    assertEquals(1, lm.countLease());
+
+    doReturn(true).when(fsn).isRunning();
+    doReturn(true).when(fsn).isInSafeMode();
+    lm.startMonitor();
+    try {
+      Thread.sleep(500);
+    } finally {
+      lm.stopMonitor();
+    }
+    verify(fsn, atMost(1)).writeLockInterruptibly();
+    assertEquals(1, lm.countLease());
+  }
+
+  @Test
+  public void testLeasesOfManyHolders() throws Exception {
+    lm.addLease("holder1", "/a");
+    lm.addLease("holder2", "/b");
+    lm.addLease("holder1", "/c");
+    assertEquals(2, lm.countLease());
+    assertEquals(3, lm.countPath());
+    assertEquals(lm.getLease("holder1"), lm.getLeaseByPath("/c"));
+
+    lm.changeLease("/c", "/d");
+    assertEquals(lm.getLease("holder1"), lm.getLeaseByPath("/d"));
+
+    lm.removeLease("holder1", "/a");
+    lm.removeLease("holder1", "/d");
+    assertEquals(1, lm.countLease());
+    assertEquals(null, lm.getLease("holder1"));
+  }
+}
@@ -250,14 +250,16 @@ private String doGetAndReturnResponseBody() throws IOException {
 
   /**
    * Filters the given JSON response body, removing elements that would impede
-   * testing.  Specifically, it removes elapsedTime fields, because we cannot
-   * predict the exact values.
+   * testing.  Specifically, it removes elapsedTime and throughput fields,
+   * because we cannot predict the exact values.
    * 
    * @param str String to filter
    * @return String filtered value
    */
   private String filterJson(String str) {
     return str.replaceAll("\"elapsedTime\":\\d+\\,", "")
-      .replaceAll("\\,\"elapsedTime\":\\d+", "");
+      .replaceAll("\\,\"elapsedTime\":\\d+", "")
+      .replaceAll("\"throughput\":[-\\d.E]+\\,", "")
+      .replaceAll("\\,\"throughput\":[-\\d.E]+", "");
   }
 }
@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.protocolPB.DatanodeProtocolClientSideTranslatorPB;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test that clients read from the standby NameNode once it has caught up
+ * with their writes, and from the active before.
+ */
+public class TestStandbyReads {
+  private static final Path DIR = new Path("/testStandbyReads");
+
+  private static final Log LOG = LogFactory.getLog(TestStandbyReads.class);
+
+  private MiniDFSCluster cluster;
+
+  private FileSystem startCluster(boolean standbyReads) throws Exception {
+    return startCluster(standbyReads, 0);
+  }
+
+  private FileSystem startCluster(boolean standbyReads, int numDataNodes)
+      throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_HA_STANDBY_READS_ENABLED_KEY,
+        standbyReads);
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 1);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_CLIENT_FAILOVER_STANDBY_READS_ENABLED_KEY, true);
+    conf.setLong(
+        DFSConfigKeys.DFS_CLIENT_FAILOVER_STANDBY_READS_RECHECK_MS_KEY, 0);
+    // The client must reach each NameNode without failing over.
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_FAILOVER_MAX_ATTEMPTS_KEY, 0);
+    cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(numDataNodes)
+        .build();
+    cluster.waitActive();
+    cluster.transitionToActive(0);
+    return HATestUtil.configureFailoverFs(cluster, conf);
+  }
+
+  @After
+  public void shutdownCluster() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testReadsFromStandby() throws Exception {
+    FileSystem fs = startCluster(true);
+    NameNode active = cluster.getNameNode(0);
+    NameNode standby = cluster.getNameNode(1);
+
+    // The standby has not seen the write yet, so the read goes to the active.
+    fs.mkdirs(DIR);
+    ClientProtocol standbyProxy = getStandbyProxy();
+    standbyProxy.msync(0);
+    assertNull(standbyProxy.getFileInfo(DIR.toString()));
+    assertTrue(fs.exists(DIR));
+
+    HATestUtil.waitForStandbyToCatchUp(active, standby);
+    assertTrue(fs.exists(DIR));
+
+    // Once the standby has caught up, it serves the reads by itself.
+    cluster.shutdownNameNode(0);
+    assertTrue(fs.exists(DIR));
+    assertEquals(1, fs.listStatus(new Path("/")).length);
+  }
+
+  @Test(timeout=60000)
+  public void testStandbyNotServingReads() throws Exception {
+    FileSystem fs = startCluster(false);
+
+    fs.mkdirs(DIR);
+    assertTrue(fs.exists(DIR));
+    HATestUtil.waitForStandbyToCatchUp(cluster.getNameNode(0),
+        cluster.getNameNode(1));
+    assertTrue(fs.exists(DIR));
+    assertEquals(1, fs.listStatus(new Path("/")).length);
+  }
+
+  /** @return a proxy to the standby which does not fail over. */
+  private ClientProtocol getStandbyProxy() throws IOException {
+    return NameNodeProxies.createNonHAProxy(cluster.getConfiguration(1),
+        cluster.getNameNode(1).getNameNodeAddress(), ClientProtocol.class,
+        UserGroupInformation.getCurrentUser(), false).getProxy();
+  }
+
+  @Test(timeout=60000)
+  public void testStandbyRejectsMsyncWhenBehind() throws Exception {
+    startCluster(true);
+    ClientProtocol standby = getStandbyProxy();
+
+    final long applied = standby.msync(0);
+    assertEquals(applied, standby.msync(applied));
+    try {
+      standby.msync(applied + 1);
+      fail("The standby has not applied the transaction yet");
+    } catch (RemoteException e) {
+      assertTrue(e.unwrapRemoteException() instanceof RetriableException);
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testStandbyServesOnlyClientsWhichMsync() throws Exception {
+    // no client has called msync on the standby yet
+    startCluster(true);
+    ClientProtocol standby = getStandbyProxy();
+    try {
+      standby.getFileInfo("/");
+      fail("The client did not call msync on the standby");
+    } catch (RemoteException e) {
+      assertTrue(e.unwrapRemoteException() instanceof StandbyException);
+    }
+
+    standby.msync(0);
+    assertNotNull(standby.getFileInfo("/"));
+  }
+
+  @Test(timeout=60000)
+  public void testReadRightAfterWrite() throws Exception {
+    FileSystem fs = startCluster(true, 1);
+    NameNode active = cluster.getNameNode(0);
+    NameNode standby = cluster.getNameNode(1);
+    Path file = new Path(DIR, "file");
+
+    // The standby applies the edits of the new block, but does not learn
+    // its location from the datanode.
+    DataNode dn = cluster.getDataNodes().get(0);
+    DatanodeProtocolClientSideTranslatorPB spy =
+        DataNodeTestUtils.spyOnBposToNN(dn, standby);
+    GenericTestUtils.DelayAnswer delayer =
+        new GenericTestUtils.DelayAnswer(LOG);
+    Mockito.doAnswer(delayer).when(spy).blockReceivedAndDeleted(
+        Mockito.<DatanodeRegistration>anyObject(), Mockito.anyString(),
+        Mockito.<StorageReceivedDeletedBlocks[]>anyObject());
+    try {
+      DFSTestUtil.writeFile(fs, file, "contents");
+      HATestUtil.waitForStandbyToCatchUp(active, standby);
+
+      ClientProtocol standbyProxy = getStandbyProxy();
+      standbyProxy.msync(0);
+      try {
+        standbyProxy.getBlockLocations(file.toString(), 0, 1024);
+        fail("The standby has no locations for the block yet");
+      } catch (RemoteException e) {
+        assertTrue(e.unwrapRemoteException() instanceof StandbyException);
+      }
+      // The client reads the locations from the active instead.
+      assertEquals("contents", DFSTestUtil.readFile(fs, file));
+    } finally {
+      delayer.proceed();
+    }
+  }
+}
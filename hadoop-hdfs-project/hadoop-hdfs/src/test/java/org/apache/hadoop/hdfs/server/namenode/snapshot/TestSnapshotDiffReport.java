@@ -18,11 +18,14 @@
 package org.apache.hadoop.hdfs.server.namenode.snapshot;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -30,9 +33,12 @@
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -330,4 +336,112 @@ public void testDiffReport2() throws Exception {
         new DiffReportEntry(DiffType.DELETE, DFSUtil.string2Bytes("subsub1")));
   }
   
-}
\ No newline at end of file
+
+  private List<DiffReportEntry> getDiffList(Path dir, String from, String to)
+      throws IOException {
+    return hdfs.getSnapshotDiffReport(dir, from, to).getDiffList();
+  }
+
+  /**
+   * Make sure that the diff reports stay the same when the diff index is
+   * rebuilt from a saved fsimage, and after a snapshot is deleted.
+   */
+  @Test (timeout=60000)
+  public void testDiffReportAfterRestartAndSnapshotDeletion()
+      throws Exception {
+    cluster.getNamesystem().getSnapshotManager().setAllowNestedSnapshots(true);
+    Path subsub1 = new Path(sub1, "subsub1");
+    Path subsubsub1 = new Path(subsub1, "subsubsub1");
+    hdfs.mkdirs(subsubsub1);
+    modifyAndCreateSnapshot(sub1, new Path[]{sub1, subsubsub1});
+    modifyAndCreateSnapshot(subsubsub1, new Path[]{sub1, subsubsub1});
+    // a rename within the snapshottable directory
+    hdfs.rename(new Path(sub1, "file10"), new Path(subsub1, "file10"));
+
+    final String[][] pairs = {{"s0", "s2"}, {"s0", "s5"}, {"s2", "s5"},
+        {"s3", ""}, {"s0", ""}};
+    final Map<String, List<DiffReportEntry>> before =
+        new HashMap<String, List<DiffReportEntry>>();
+    for (String[] pair : pairs) {
+      before.put(pair[0] + pair[1], getDiffList(sub1, pair[0], pair[1]));
+    }
+    final List<DiffReportEntry> nestedBefore =
+        getDiffList(subsubsub1, "s0", "");
+
+    hdfs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+    hdfs.saveNamespace();
+    hdfs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+    cluster.restartNameNode();
+    cluster.waitActive();
+    hdfs = cluster.getFileSystem();
+    for (String[] pair : pairs) {
+      assertEquals(before.get(pair[0] + pair[1]),
+          getDiffList(sub1, pair[0], pair[1]));
+    }
+    assertEquals(nestedBefore, getDiffList(subsubsub1, "s0", ""));
+
+    // The diffs of s2 are combined into those of earlier snapshots.
+    hdfs.deleteSnapshot(sub1, "s2");
+    assertEquals(before.get("s0s5"), getDiffList(sub1, "s0", "s5"));
+    assertEquals(before.get("s0"), getDiffList(sub1, "s0", ""));
+    assertEquals(nestedBefore, getDiffList(subsubsub1, "s0", ""));
+  }
+
+  /**
+   * Make sure that the diff index prunes the unchanged subtrees from the diff
+   * computation, also below a renamed directory, and that the inodes deleted
+   * from the namespace are removed from the index.
+   */
+  @Test (timeout=60000)
+  public void testDiffIndexPrunesUnchangedSubtrees() throws Exception {
+    final Path dirA = new Path(sub1, "a");
+    final Path dirB = new Path(sub1, "b");
+    final Path renamedA = new Path(sub1, "a2");
+    DFSTestUtil.createFile(hdfs, new Path(dirA, "file"), BLOCKSIZE,
+        REPLICATION_1, seed);
+    for (int i = 0; i < 10; i++) {
+      DFSTestUtil.createFile(hdfs, new Path(dirB, "file" + i), BLOCKSIZE,
+          REPLICATION_1, seed);
+    }
+    hdfs.allowSnapshot(sub1);
+    hdfs.createSnapshot(sub1, "s0");
+    hdfs.rename(dirA, renamedA);
+    final Path file1 = new Path(sub1, "file1");
+    DFSTestUtil.createFile(hdfs, file1, BLOCKSIZE, REPLICATION_1, seed);
+    hdfs.createSnapshot(sub1, "s1");
+    // modify a file below the renamed directory and a file which only
+    // exists in s1
+    hdfs.setReplication(new Path(renamedA, "file"), REPLICATION);
+    hdfs.setReplication(file1, REPLICATION);
+    hdfs.createSnapshot(sub1, "s2");
+
+    verifyDiffReport(sub1, "s1", "s2",
+        new DiffReportEntry(DiffType.MODIFY,
+            DFSUtil.string2Bytes("a2/file")),
+        new DiffReportEntry(DiffType.MODIFY, DFSUtil.string2Bytes("file1")));
+    final FSNamesystem fsn = cluster.getNamesystem();
+    final INodeDirectorySnapshottable root = INodeDirectorySnapshottable
+        .valueOf(fsn.getFSDirectory().getINode(sub1.toString()),
+            sub1.toString());
+    final INode file1INode = fsn.getFSDirectory().getINode(file1.toString());
+    fsn.readLock();
+    try {
+      // sub1, a2, a2/file and file1, but none of b and its files
+      assertEquals(4, root.computeDiff("s1", "s2").getNumCompared());
+      assertTrue(root.isInDiffIndex(file1INode));
+    } finally {
+      fsn.readUnlock();
+    }
+
+    // file1 is destroyed once the only snapshot containing it is deleted
+    hdfs.delete(file1, true);
+    hdfs.deleteSnapshot(sub1, "s1");
+    hdfs.deleteSnapshot(sub1, "s2");
+    fsn.readLock();
+    try {
+      assertFalse(root.isInDiffIndex(file1INode));
+    } finally {
+      fsn.readUnlock();
+    }
+  }
+}
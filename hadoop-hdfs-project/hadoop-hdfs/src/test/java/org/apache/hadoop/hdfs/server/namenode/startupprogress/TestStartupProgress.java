@@ -77,13 +77,14 @@ public void testCounter() {
     // Increment a counter again and check that the existing view was not
     // modified, but a new view shows the updated value.
     incrementCounter(startupProgress, LOADING_EDITS, loadingEditsFile, 1000L);
+    startupProgress.getCounter(LOADING_EDITS, loadingEditsFile).add(500L);
     startupProgress.endStep(LOADING_EDITS, loadingEditsFile);
     startupProgress.endPhase(LOADING_EDITS);
 
     assertEquals(5000L, view.getCount(LOADING_EDITS, loadingEditsFile));
     view = startupProgress.createView();
     assertNotNull(view);
-    assertEquals(6000L, view.getCount(LOADING_EDITS, loadingEditsFile));
+    assertEquals(6500L, view.getCount(LOADING_EDITS, loadingEditsFile));
   }
 
   @Test(timeout=10000)
@@ -405,6 +406,26 @@ public Void call() {
     assertEquals(2500L, view.getCount(LOADING_EDITS, new Step(DELEGATION_KEYS)));
   }
 
+  @Test(timeout=10000)
+  public void testThroughput() throws Exception {
+    startupProgress.beginPhase(LOADING_EDITS);
+    Step loadingEditsFile = new Step("file", 1000L);
+    startupProgress.beginStep(LOADING_EDITS, loadingEditsFile);
+    incrementCounter(startupProgress, LOADING_EDITS, loadingEditsFile, 5000L);
+    Thread.sleep(50L); // brief sleep to fake elapsed time
+    startupProgress.endStep(LOADING_EDITS, loadingEditsFile);
+    startupProgress.endPhase(LOADING_EDITS);
+
+    StartupProgressView view = startupProgress.createView();
+    assertNotNull(view);
+    long elapsed = view.getElapsedTime(LOADING_EDITS, loadingEditsFile);
+    assertTrue(elapsed > 0);
+    assertEquals(5000L * 1000 / elapsed,
+      view.getThroughput(LOADING_EDITS, loadingEditsFile), 1.0f);
+    assertTrue(view.getThroughput(LOADING_EDITS) > 0);
+    assertEquals(0.0f, view.getThroughput(SAVING_CHECKPOINT), 0.0f);
+  }
+
   @Test(timeout=10000)
   public void testTotal() {
     startupProgress.beginPhase(LOADING_FSIMAGE);